@@ -51,6 +51,7 @@ public class AndroidSettingsStorage {
     public static final String PROFILE_SERIALID_PREFERENCE = "profileSerialID";
     public static final String CHAMELEON_SLOT_NAMES = "chameleonDeviceSlotNames";
     public static final String SERIAL_BAUDRATE_PREFERENCE = "serialBaudRate";
+    public static final String SERIAL_BAUDRATE_CALIBRATED_PREFERENCE = "serialBaudRateCalibrated";
     public static final String ALLOW_USB_PREFERENCE = "allowWiredUSB";
     public static final String ALLOW_BLUETOOTH_PREFERENCE = "allowBluetooth";
     public static final String ALLOW_ANDROID_NFC_PREFERENCE = "allowAndroidNFC";
@@ -62,7 +63,11 @@ public class AndroidSettingsStorage {
     public static final String LOGGING_MIN_DATA_BYTES = "loggingMinDataBytes";
     public static final String LOGGING_CONFIG_CLEAR_LOGS_ON_NEW_DEVICE = "loggingConfigClearLogsOnNewDevice";
     public static final String LOGGING_CONFIG_COLLAPSE_COMMON_ENTRIES = "loggingConfigCollapseCommonEntries";
+    public static final String LOGGING_CONFIG_FOLD_REPEATED_CYCLES = "loggingConfigFoldRepeatedCycles";
+    public static final String LOGGING_CONFIG_FOLD_MAX_CYCLE_LENGTH = "loggingConfigFoldMaxCycleLength";
     public static final String LOGGING_CONFIG_ENABLE_LIVE_STATUS_UPDATES = "loggingConfigEnableLiveStatusUpdates";
+    public static final String LOGGING_CONFIG_STREAM_PCAPNG_CAPTURE = "loggingConfigStreamPcapngCapture";
+    public static final String LOGGING_CONFIG_COMPRESSION_RATIO_ENTROPY = "loggingConfigCompressionRatioEntropy";
 
     public static boolean loadDefaultSettings(String profileID) {
         updateValueByKey(profileID, THEMEID_PREFERENCE);
@@ -81,7 +86,11 @@ public class AndroidSettingsStorage {
         updateValueByKey(profileID, LOGGING_MIN_DATA_BYTES);
         updateValueByKey(profileID, LOGGING_CONFIG_CLEAR_LOGS_ON_NEW_DEVICE);
         updateValueByKey(profileID, LOGGING_CONFIG_COLLAPSE_COMMON_ENTRIES);
+        updateValueByKey(profileID, LOGGING_CONFIG_FOLD_REPEATED_CYCLES);
+        updateValueByKey(profileID, LOGGING_CONFIG_FOLD_MAX_CYCLE_LENGTH);
         updateValueByKey(profileID, LOGGING_CONFIG_ENABLE_LIVE_STATUS_UPDATES);
+        updateValueByKey(profileID, LOGGING_CONFIG_STREAM_PCAPNG_CAPTURE);
+        updateValueByKey(profileID, LOGGING_CONFIG_COMPRESSION_RATIO_ENTROPY);
         return true;
     }
 
@@ -103,7 +112,12 @@ public class AndroidSettingsStorage {
             ChameleonLogUtils.LOGGING_MIN_DATA_BYTES = Integer.parseInt(getStringValueByKey(profileID, LOGGING_MIN_DATA_BYTES));
             ChameleonLogUtils.CONFIG_CLEAR_LOGS_NEW_DEVICE_CONNNECT = Boolean.valueOf(getStringValueByKey(profileID, LOGGING_CONFIG_CLEAR_LOGS_ON_NEW_DEVICE));
             ChameleonLogUtils.CONFIG_COLLAPSE_COMMON_LOG_ENTRIES = Boolean.valueOf(getStringValueByKey(profileID, LOGGING_CONFIG_COLLAPSE_COMMON_ENTRIES));
+            ChameleonLogUtils.CONFIG_FOLD_REPEATED_CYCLES = Boolean.valueOf(getStringValueByKey(profileID, LOGGING_CONFIG_FOLD_REPEATED_CYCLES));
+            ChameleonLogUtils.CONFIG_FOLD_MAX_CYCLE_LENGTH = Integer.parseInt(getStringValueByKey(profileID, LOGGING_CONFIG_FOLD_MAX_CYCLE_LENGTH));
             ChameleonLogUtils.CONFIG_ENABLE_LIVE_TOOLBAR_STATUS_UPDATES = Boolean.valueOf(getStringValueByKey(profileID, LOGGING_CONFIG_ENABLE_LIVE_STATUS_UPDATES));
+            ChameleonLogUtils.CONFIG_STREAM_PCAPNG_CAPTURE = Boolean.valueOf(getStringValueByKey(profileID, LOGGING_CONFIG_STREAM_PCAPNG_CAPTURE));
+            ChameleonLogUtils.CONFIG_COMPRESSION_RATIO_ENTROPY = Boolean.valueOf(getStringValueByKey(profileID, LOGGING_CONFIG_COMPRESSION_RATIO_ENTROPY));
+            EntropyEstimator.setActiveMetric(ChameleonLogUtils.CONFIG_COMPRESSION_RATIO_ENTROPY ? EntropyEstimator.COMPRESSION_RATIO : EntropyEstimator.SHANNON_ENTROPY);
         } catch(Exception ex) {
             ex.printStackTrace();
             return false;
@@ -136,6 +150,9 @@ public class AndroidSettingsStorage {
         else if(prefsKey.equals(SERIAL_BAUDRATE_PREFERENCE)) {
             spEditor.putInt(prefsKey, Settings.serialBaudRate);
         }
+        else if(prefsKey.equals(SERIAL_BAUDRATE_CALIBRATED_PREFERENCE)) {
+            spEditor.putInt(prefsKey, Settings.calibratedSerialBaudRate);
+        }
         else if(prefsKey.equals(ALLOW_USB_PREFERENCE)) {
             spEditor.putBoolean(prefsKey, Settings.allowWiredUSB);
         }
@@ -170,9 +187,21 @@ public class AndroidSettingsStorage {
         else if(prefsKey.equals(LOGGING_CONFIG_COLLAPSE_COMMON_ENTRIES)) {
             spEditor.putBoolean(prefsKey, ChameleonLogUtils.CONFIG_COLLAPSE_COMMON_LOG_ENTRIES);
         }
+        else if(prefsKey.equals(LOGGING_CONFIG_FOLD_REPEATED_CYCLES)) {
+            spEditor.putBoolean(prefsKey, ChameleonLogUtils.CONFIG_FOLD_REPEATED_CYCLES);
+        }
+        else if(prefsKey.equals(LOGGING_CONFIG_FOLD_MAX_CYCLE_LENGTH)) {
+            spEditor.putInt(prefsKey, ChameleonLogUtils.CONFIG_FOLD_MAX_CYCLE_LENGTH);
+        }
         else if(prefsKey.equals(LOGGING_CONFIG_ENABLE_LIVE_STATUS_UPDATES)) {
             spEditor.putBoolean(prefsKey, ChameleonLogUtils.CONFIG_ENABLE_LIVE_TOOLBAR_STATUS_UPDATES);
         }
+        else if(prefsKey.equals(LOGGING_CONFIG_STREAM_PCAPNG_CAPTURE)) {
+            spEditor.putBoolean(prefsKey, ChameleonLogUtils.CONFIG_STREAM_PCAPNG_CAPTURE);
+        }
+        else if(prefsKey.equals(LOGGING_CONFIG_COMPRESSION_RATIO_ENTROPY)) {
+            spEditor.putBoolean(prefsKey, ChameleonLogUtils.CONFIG_COMPRESSION_RATIO_ENTROPY);
+        }
         else {
             return false;
         }
@@ -204,6 +233,9 @@ public class AndroidSettingsStorage {
         else if(prefsKey.equals(SERIAL_BAUDRATE_PREFERENCE)) {
             return String.format(Locale.ENGLISH, "%d", sharedPrefs.getInt(prefsKey, Settings.serialBaudRate));
         }
+        else if(prefsKey.equals(SERIAL_BAUDRATE_CALIBRATED_PREFERENCE)) {
+            return String.format(Locale.ENGLISH, "%d", sharedPrefs.getInt(prefsKey, 0));
+        }
         else if(prefsKey.equals(ALLOW_USB_PREFERENCE)) {
             return sharedPrefs.getBoolean(prefsKey, Settings.allowWiredUSB) ? "true" : "false";
         }
@@ -235,9 +267,21 @@ public class AndroidSettingsStorage {
         else if(prefsKey.equals(LOGGING_CONFIG_COLLAPSE_COMMON_ENTRIES)) {
             return sharedPrefs.getBoolean(prefsKey, ChameleonLogUtils.CONFIG_COLLAPSE_COMMON_LOG_ENTRIES) ? "true" : "false";
         }
+        else if(prefsKey.equals(LOGGING_CONFIG_FOLD_REPEATED_CYCLES)) {
+            return sharedPrefs.getBoolean(prefsKey, ChameleonLogUtils.CONFIG_FOLD_REPEATED_CYCLES) ? "true" : "false";
+        }
+        else if(prefsKey.equals(LOGGING_CONFIG_FOLD_MAX_CYCLE_LENGTH)) {
+            return String.format(Locale.ENGLISH, "%d", sharedPrefs.getInt(prefsKey, ChameleonLogUtils.CONFIG_FOLD_MAX_CYCLE_LENGTH));
+        }
         else if(prefsKey.equals(LOGGING_CONFIG_ENABLE_LIVE_STATUS_UPDATES)) {
             return sharedPrefs.getBoolean(prefsKey, ChameleonLogUtils.CONFIG_ENABLE_LIVE_TOOLBAR_STATUS_UPDATES) ? "true" : "false";
         }
+        else if(prefsKey.equals(LOGGING_CONFIG_STREAM_PCAPNG_CAPTURE)) {
+            return sharedPrefs.getBoolean(prefsKey, ChameleonLogUtils.CONFIG_STREAM_PCAPNG_CAPTURE) ? "true" : "false";
+        }
+        else if(prefsKey.equals(LOGGING_CONFIG_COMPRESSION_RATIO_ENTROPY)) {
+            return sharedPrefs.getBoolean(prefsKey, ChameleonLogUtils.CONFIG_COMPRESSION_RATIO_ENTROPY) ? "true" : "false";
+        }
         return null;
     }
 
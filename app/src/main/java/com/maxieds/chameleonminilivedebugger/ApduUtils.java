@@ -22,6 +22,7 @@ import android.widget.TextView;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -40,6 +41,243 @@ public class ApduUtils {
     public static final int CLSIDX = 0;
     public static final int INSIDX = 1;
 
+    /**
+     * Classification tables compiled (once) from the raw CSV resources.
+     * The CLA/INS and SW1/SW2 tables are direct-indexed by the high byte and then the low byte
+     * of the key (rows with 'x' wildcard nibbles are expanded into every key they match); the
+     * common INS table is indexed by a single byte. The detailed instructions are compiled
+     * into value / mask patterns which are bucketed by the first byte they can match.
+     * Labels sharing a key keep the order of their rows in the resource file.
+     */
+    private static String[][][] desfireInsTable;
+    private static String[][][] desfireStatusTable;
+    private static String[][] commonInsTable;
+    private static String[][][] statusCodesTable;
+    private static byte[][][] detailedPatternValues;
+    private static byte[][][] detailedPatternMasks;
+    private static String[][] detailedPatternLabels;
+    private static boolean classificationTablesLoaded = false;
+
+    /**
+     * Parses one CSV pattern field into (value, mask) nibble pairs.
+     * Each two characters give a byte, where an 'x' / 'X' nibble matches any value.
+     * @param field
+     * @param values
+     * @param masks
+     * @param pos
+     * @return int number of bytes parsed (fields such as "00 80" hold more than one byte)
+     */
+    private static int parsePatternField(String field, byte[] values, byte[] masks, int pos) {
+        String hexChars = field.replaceAll("[ \t]", "");
+        int numBytes = Math.min(hexChars.length() / 2, values.length - pos);
+        for(int b = 0; b < numBytes; b++) {
+            int value = 0, mask = 0;
+            for(int n = 0; n < 2; n++) {
+                int digit = Character.digit(hexChars.charAt(2 * b + n), 16);
+                value <<= 4;
+                mask <<= 4;
+                if(digit >= 0) {
+                    value |= digit;
+                    mask |= 0x0f;
+                }
+            }
+            values[pos + b] = (byte) value;
+            masks[pos + b] = (byte) mask;
+        }
+        return numBytes;
+    }
+
+    private static void addTableLabel(List<String>[] table, int key, String label) {
+        if(table[key] == null) {
+            table[key] = new ArrayList<String>();
+        }
+        table[key].add(label);
+    }
+
+    /**
+     * Adds the label of a CSV row to every key of the table matched by the row's first
+     * keyLength fields. Only the wildcard ('x') nibbles of the key are expanded, so a fully
+     * specified key touches a single table entry.
+     */
+    private static void addKeyedRow(List<String>[] table, String[] csvLine, int keyLength) {
+        if(csvLine.length <= keyLength) {
+            return;
+        }
+        byte[] values = new byte[2 * keyLength], masks = new byte[2 * keyLength];
+        int numKeyBytes = 0;
+        for(int f = 0; f < keyLength; f++) {
+            numKeyBytes += parsePatternField(csvLine[f], values, masks, numKeyBytes);
+        }
+        if(numKeyBytes != keyLength) {
+            return;
+        }
+        int keyValue = 0, keyMask = 0;
+        for(int b = 0; b < keyLength; b++) {
+            keyValue = (keyValue << 8) | (values[b] & 0xff);
+            keyMask = (keyMask << 8) | (masks[b] & 0xff);
+        }
+        // enumerate the subsets of the wildcard bits (from all of them down to none):
+        int wildcardBits = ~keyMask & (table.length - 1);
+        int wildcardValue = wildcardBits;
+        while(true) {
+            addTableLabel(table, keyValue | wildcardValue, csvLine[keyLength]);
+            if(wildcardValue == 0) {
+                break;
+            }
+            wildcardValue = (wildcardValue - 1) & wildcardBits;
+        }
+    }
+
+    private static String[] toLabelArray(List<String> labels) {
+        return labels == null ? null : labels.toArray(new String[labels.size()]);
+    }
+
+    /**
+     * @return String[][][] two level (high byte, low byte) view of a table keyed by two bytes
+     */
+    private static String[][][] compileTwoByteTable(List<String>[] table) {
+        String[][][] compiledTable = new String[256][][];
+        for(int key = 0; key < table.length; key++) {
+            if(table[key] != null) {
+                if(compiledTable[key >>> 8] == null) {
+                    compiledTable[key >>> 8] = new String[256][];
+                }
+                compiledTable[key >>> 8][key & 0xff] = toLabelArray(table[key]);
+            }
+        }
+        return compiledTable;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String>[] newKeyedTable(int numKeys) {
+        return (List<String>[]) new List[numKeys];
+    }
+
+    private static List<String[]> readRawCSVResource(int resID) throws IOException {
+        return Utils.readCSVFile(LiveLoggerActivity.defaultContext.getResources().openRawResource(resID));
+    }
+
+    /**
+     * Loads and compiles the APDU classification tables from the raw resources the first time
+     * they are needed.
+     * @return boolean whether the tables are available
+     * @see res/raw/desfire_ins
+     * @see res/raw/desfire_status
+     * @see res/raw/common_ins
+     * @see res/raw/response_codes_status
+     * @see res/raw/detailed_common_ins
+     */
+    public static synchronized boolean loadClassificationTables() {
+        if(classificationTablesLoaded) {
+            return true;
+        }
+        try {
+            compileClassificationTables(readRawCSVResource(R.raw.desfire_ins),
+                                        readRawCSVResource(R.raw.desfire_status),
+                                        readRawCSVResource(R.raw.response_codes_status),
+                                        readRawCSVResource(R.raw.common_ins),
+                                        readRawCSVResource(R.raw.detailed_common_ins));
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compiles the classification tables from the parsed CSV rows of the raw resources
+     * (replacing any tables loaded before).
+     * @param desfireInsLines
+     * @param desfireStatusLines
+     * @param statusCodeLines
+     * @param commonInsLines
+     * @param detailedInsLines
+     * @ref ApduUtils.loadClassificationTables
+     */
+    @SuppressWarnings("unchecked")
+    static synchronized void compileClassificationTables(List<String[]> desfireInsLines, List<String[]> desfireStatusLines,
+                                                         List<String[]> statusCodeLines, List<String[]> commonInsLines,
+                                                         List<String[]> detailedInsLines) {
+        List<String>[] insTable = newKeyedTable(65536);
+        for(String[] csvLine : desfireInsLines) {
+            addKeyedRow(insTable, csvLine, 2);
+        }
+        List<String>[] desfireSWTable = newKeyedTable(65536);
+        for(String[] csvLine : desfireStatusLines) {
+            addKeyedRow(desfireSWTable, csvLine, 2);
+        }
+        List<String>[] swTable = newKeyedTable(65536);
+        for(String[] csvLine : statusCodeLines) {
+            addKeyedRow(swTable, csvLine, 2);
+        }
+        List<String>[] commonTable = newKeyedTable(256);
+        for(String[] csvLine : commonInsLines) {
+            addKeyedRow(commonTable, csvLine, 1);
+        }
+        List<byte[]>[] bucketValues = (List<byte[]>[]) new List[256];
+        List<byte[]>[] bucketMasks = (List<byte[]>[]) new List[256];
+        List<String>[] bucketLabels = newKeyedTable(256);
+        for(String[] csvLine : detailedInsLines) {
+            int numFields = csvLine.length - 1;
+            if(numFields < 1) {
+                continue;
+            }
+            byte[] values = new byte[2 * numFields], masks = new byte[2 * numFields];
+            int patternLength = 0;
+            for(int f = 0; f < numFields; f++) {
+                patternLength += parsePatternField(csvLine[f], values, masks, patternLength);
+            }
+            if(patternLength == 0) {
+                continue;
+            }
+            values = Arrays.copyOf(values, patternLength);
+            masks = Arrays.copyOf(masks, patternLength);
+            for(int firstByte = 0; firstByte < 256; firstByte++) {
+                if((firstByte & masks[0] & 0xff) != (values[0] & 0xff)) {
+                    continue;
+                }
+                if(bucketValues[firstByte] == null) {
+                    bucketValues[firstByte] = new ArrayList<byte[]>();
+                    bucketMasks[firstByte] = new ArrayList<byte[]>();
+                }
+                bucketValues[firstByte].add(values);
+                bucketMasks[firstByte].add(masks);
+                addTableLabel(bucketLabels, firstByte, csvLine[numFields]);
+            }
+        }
+        detailedPatternValues = new byte[256][][];
+        detailedPatternMasks = new byte[256][][];
+        detailedPatternLabels = new String[256][];
+        for(int firstByte = 0; firstByte < 256; firstByte++) {
+            if(bucketValues[firstByte] != null) {
+                detailedPatternValues[firstByte] = bucketValues[firstByte].toArray(new byte[0][]);
+                detailedPatternMasks[firstByte] = bucketMasks[firstByte].toArray(new byte[0][]);
+                detailedPatternLabels[firstByte] = toLabelArray(bucketLabels[firstByte]);
+            }
+        }
+        desfireInsTable = compileTwoByteTable(insTable);
+        desfireStatusTable = compileTwoByteTable(desfireSWTable);
+        statusCodesTable = compileTwoByteTable(swTable);
+        commonInsTable = new String[256][];
+        for(int key = 0; key < 256; key++) {
+            commonInsTable[key] = toLabelArray(commonTable[key]);
+        }
+        classificationTablesLoaded = true;
+    }
+
+    private static void addLabels(String[] labels, List<String> insList) {
+        if(labels != null) {
+            insList.addAll(Arrays.asList(labels));
+        }
+    }
+
+    private static void addTwoByteLabels(String[][][] table, byte keyMSB, byte keyLSB, List<String> insList) {
+        String[][] lsbTable = table[keyMSB & 0xff];
+        if(lsbTable != null) {
+            addLabels(lsbTable[keyLSB & 0xff], insList);
+        }
+    }
+
     /**
      * This method attempts to recognize Desfire-specific instructions in the logged payload bytes.
      * @param dataBytes
@@ -48,19 +286,8 @@ public class ApduUtils {
      */
     public static List<String> parseDesfireInstructions(byte[] dataBytes) {
         List<String> insList = new ArrayList<String>();
-        List<String[]> csvLines;
-        try {
-            csvLines = Utils.readCSVFile(LiveLoggerActivity.defaultContext.getResources().openRawResource(R.raw.desfire_ins));
-        } catch(IOException ioe) {
-            return insList;
-        }
-        for(int i = 0; i < csvLines.size(); i++) {
-            String[] csvLine = csvLines.get(i);
-            byte cls = Utils.hexString2Byte(csvLine[0]);
-            byte ins = Utils.hexString2Byte(csvLine[1]);
-            String apduLabel = csvLine[2];
-            if(dataBytes.length >= 2 && dataBytes[CLSIDX] == cls && dataBytes[INSIDX] == ins)
-                insList.add(apduLabel);
+        if(dataBytes.length >= 2 && loadClassificationTables()) {
+            addTwoByteLabels(desfireInsTable, dataBytes[CLSIDX], dataBytes[INSIDX], insList);
         }
         return insList;
     }
@@ -72,22 +299,9 @@ public class ApduUtils {
      * @see res/raw/desfire_status
      */
     public static List<String> parseDesfireStatusCodes(byte[] dataBytes) {
-         List<String> insList = new ArrayList<String>();
-        List<String[]> csvLines;
-        try {
-            csvLines = Utils.readCSVFile(LiveLoggerActivity.defaultContext.getResources().openRawResource(R.raw.desfire_status));
-        } catch(IOException ioe) {
-            return insList;
-        }
-        for(int i = 0; i < csvLines.size(); i++) {
-            String[] csvLine = csvLines.get(i);
-            byte sw1 = Utils.hexString2Byte(csvLine[0]);
-            byte sw2 = Utils.hexString2Byte(csvLine[1]);
-            String apduLabel = csvLine[2];
-            int SW1 = dataBytes.length - 2;
-            int SW2 = dataBytes.length - 1;
-            if(dataBytes.length >= 2 && dataBytes[SW1] == sw1 && dataBytes[SW2] == sw2)
-                insList.add(apduLabel);
+        List<String> insList = new ArrayList<String>();
+        if(dataBytes.length >= 2 && loadClassificationTables()) {
+            addTwoByteLabels(desfireStatusTable, dataBytes[dataBytes.length - 2], dataBytes[dataBytes.length - 1], insList);
         }
         return insList;
     }
@@ -100,18 +314,14 @@ public class ApduUtils {
      */
     public static List<String> parseCommonInstructions(byte[] dataBytes) {
         List<String> insList = new ArrayList<String>();
-        List<String[]> csvLines;
-        try {
-            csvLines = Utils.readCSVFile(LiveLoggerActivity.defaultContext.getResources().openRawResource(R.raw.common_ins));
-        } catch(IOException ioe) {
+        if(dataBytes.length == 0 || !loadClassificationTables()) {
             return insList;
         }
-        for(int i = 0; i < csvLines.size(); i++) {
-            String[] csvLine = csvLines.get(i);
-            byte ins = Utils.hexString2Byte(csvLine[0]);
-            String apduLabel = csvLine[1];
-            if(dataBytes.length >= 2 && dataBytes[INSIDX] == ins || ((dataBytes.length == 1 || dataBytes.length == 2) && dataBytes[CLSIDX] == ins))
-                insList.add(apduLabel);
+        if(dataBytes.length >= 2) {
+            addLabels(commonInsTable[dataBytes[INSIDX] & 0xff], insList);
+        }
+        if((dataBytes.length == 1 || dataBytes.length == 2) && (dataBytes.length == 1 || dataBytes[CLSIDX] != dataBytes[INSIDX])) {
+            addLabels(commonInsTable[dataBytes[CLSIDX] & 0xff], insList);
         }
         return insList;
     }
@@ -124,31 +334,31 @@ public class ApduUtils {
      */
     public static List<String> parseDetailedInstructions(byte[] dataBytes) {
         List<String> insList = new ArrayList<String>();
-        List<String[]> csvLines;
-        try {
-            csvLines = Utils.readCSVFile(LiveLoggerActivity.defaultContext.getResources().openRawResource(R.raw.detailed_common_ins));
-        } catch(IOException ioe) {
+        if(dataBytes.length == 0 || !loadClassificationTables()) {
+            return insList;
+        }
+        int firstByte = dataBytes[0] & 0xff;
+        byte[][] patternValues = detailedPatternValues[firstByte];
+        if(patternValues == null) {
             return insList;
         }
-        for(int i = 0; i < csvLines.size(); i++) {
-            String[] csvLine = csvLines.get(i);
-            int checkNumBytes = csvLine.length - 1;
-            String apduLabel = csvLine[checkNumBytes];
-            if(dataBytes.length < checkNumBytes) {
+        byte[][] patternMasks = detailedPatternMasks[firstByte];
+        for(int p = 0; p < patternValues.length; p++) {
+            byte[] values = patternValues[p], masks = patternMasks[p];
+            if(dataBytes.length < values.length) {
                 continue;
             }
             boolean tagApplies = true;
-            for(int b = 0; b < checkNumBytes; b++) {
-                if(!csvLine[b].equals("xx") && dataBytes[b] != Utils.hexString2Byte(csvLine[b])) {
+            for(int b = 1; b < values.length; b++) {
+                if((dataBytes[b] & masks[b]) != values[b]) {
                     tagApplies = false;
                     break;
                 }
             }
             if(tagApplies)
-                insList.add(apduLabel);
+                insList.add(detailedPatternLabels[firstByte][p]);
         }
         return insList;
-
     }
 
     /**
@@ -159,21 +369,8 @@ public class ApduUtils {
      */
     public static List<String> parseStatusCodes(byte[] dataBytes) {
         List<String> insList = new ArrayList<String>();
-        List<String[]> csvLines;
-        try {
-            csvLines = Utils.readCSVFile(LiveLoggerActivity.defaultContext.getResources().openRawResource(R.raw.response_codes_status));
-        } catch(IOException ioe) {
-            return insList;
-        }
-        for(int i = 0; i < csvLines.size(); i++) {
-            String[] csvLine = csvLines.get(i);
-            byte sw1 = Utils.hexString2Byte(csvLine[0]);
-            byte sw2 = Utils.hexString2Byte(csvLine[1]);
-            String apduLabel = csvLine[2];
-            int SW1 = dataBytes.length - 2;
-            int SW2 = dataBytes.length - 1;
-            if(dataBytes.length >= 2 && dataBytes[SW1] == sw1 && dataBytes[SW2] == sw2)
-                insList.add(apduLabel);
+        if(dataBytes.length >= 2 && loadClassificationTables()) {
+            addTwoByteLabels(statusCodesTable, dataBytes[dataBytes.length - 2], dataBytes[dataBytes.length - 1], insList);
         }
         return insList;
     }
@@ -190,11 +387,7 @@ public class ApduUtils {
      * @ref https://www.dropbox.com/s/bqrd6jzemwo4ux0/isoiec7816-4%7Bed2.0%7Den.pdf?dl=0
      */
     public static String classifyApdu(byte[] dataBytes) {
-        List<String> apduClassifications = parseDesfireInstructions(dataBytes);
-        apduClassifications.addAll(parseDesfireStatusCodes(dataBytes));
-        apduClassifications.addAll(parseCommonInstructions(dataBytes));
-        apduClassifications.addAll(parseStatusCodes(dataBytes));
-        apduClassifications.addAll(parseDetailedInstructions(dataBytes));
+        List<String> apduClassifications = classifyApduLabels(dataBytes);
         StringBuilder sbApduList = new StringBuilder();
         for(String apdu : apduClassifications){
             sbApduList.append(apdu);
@@ -207,6 +400,20 @@ public class ApduUtils {
             return "NONE";
     }
 
+    /**
+     * @param dataBytes
+     * @return List<String> of the APDU labels recognized in the data (in the order classifyApdu lists them)
+     * @ref LogSearchIndex.indexRecord
+     */
+    public static List<String> classifyApduLabels(byte[] dataBytes) {
+        List<String> apduClassifications = parseDesfireInstructions(dataBytes);
+        apduClassifications.addAll(parseDesfireStatusCodes(dataBytes));
+        apduClassifications.addAll(parseCommonInstructions(dataBytes));
+        apduClassifications.addAll(parseStatusCodes(dataBytes));
+        apduClassifications.addAll(parseDetailedInstructions(dataBytes));
+        return apduClassifications;
+    }
+
     public static class APDUCommandData implements Comparable<APDUCommandData> {
 
         public String CLA;
@@ -30,11 +30,14 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
 import java.io.IOException;
+import java.util.Locale;
 import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -60,14 +63,30 @@ public class BluetoothGattConnector extends BluetoothGattCallback {
     public static final int BLUETOOTH_GATT_CONNECT_PRIORITY_HIGH = BluetoothGatt.CONNECTION_PRIORITY_HIGH;
     public static final int BLUETOOTH_GATT_CONNECT_PRIORITY_BALANCED = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
     public static final int BLUETOOTH_GATT_CONNECT_PRIORITY_LOW_POWER = BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER;
+    /**
+     * Largest write payload we ask the device for (the ATT MTU request is 3 bytes larger).
+     */
     public static final int BLUETOOTH_LOCAL_MTU_THRESHOLD = 244;
 
     public static final int BLUETOOTH_GATT_WRITE_DESC_TIMEOUT = 2250;
 
     private Context btSerialContext;
-    private String chameleonDeviceBLEService;
-    private String chameleonDeviceBLESendChar;
-    private String chameleonDeviceBLERecvChar;
+    private static final UUID CHAMELEON_REVG_RECV_DESC = UUID.fromString(CHAMELEON_REVG_RECV_DESC_UUID);
+
+    private UUID chameleonDeviceBLEService;
+    private UUID chameleonDeviceBLESendChar;
+    private UUID chameleonDeviceBLERecvChar;
+    private BluetoothGattCharacteristic btSendChar;
+    private BluetoothGattCharacteristic btRecvChar;
+    private boolean btRecvNotifyConfigured;
+    private final BluetoothGattTxQueue btTxQueue;
+    private static HandlerThread btCallbackThread = null;
+    private static Handler btCallbackHandler = null;
+    private int btConnectionPriority;
+    private final BluetoothLinkManager btLinkManager;
+    private long rxNotifications;
+    private long rxBytes;
+    private long rxIngestOverflowBase, rxIngestResyncBase;
     private BluetoothDevice btDevice;
     private BluetoothAdapter btAdapter;
     private BluetoothGatt btGatt;
@@ -80,9 +99,14 @@ public class BluetoothGattConnector extends BluetoothGattCallback {
 
     public BluetoothGattConnector(@NonNull Context localContext) {
         btSerialContext = localContext;
-        chameleonDeviceBLEService = CHAMELEON_REVG_SERVICE_UUID;
-        chameleonDeviceBLESendChar = CHAMELEON_REVG_SEND_CHAR_UUID;
-        chameleonDeviceBLESendChar = CHAMELEON_REVG_RECV_CHAR_UUID;
+        chameleonDeviceBLEService = UUID.fromString(CHAMELEON_REVG_SERVICE_UUID);
+        chameleonDeviceBLESendChar = UUID.fromString(CHAMELEON_REVG_SEND_CHAR_UUID);
+        chameleonDeviceBLERecvChar = UUID.fromString(CHAMELEON_REVG_RECV_CHAR_UUID);
+        btSendChar = btRecvChar = null;
+        btRecvNotifyConfigured = false;
+        btTxQueue = new BluetoothGattTxQueue();
+        btConnectionPriority = BLUETOOTH_GATT_CONNECT_PRIORITY_BALANCED;
+        btLinkManager = new BluetoothLinkManager(this, getCallbackHandler());
         btDevice = null;
         btBondReceiver = null;
         btBondRecvRegistered = false;
@@ -139,8 +163,9 @@ public class BluetoothGattConnector extends BluetoothGattCallback {
                     return;
                 }
                 if(newState == BluetoothProfile.STATE_CONNECTED) {
-                    requestConnectionPriority(BLUETOOTH_GATT_CONNECT_PRIORITY_HIGH);
                     btGatt = gatt;
+                    resetReceiveStats();
+                    btLinkManager.start();
                     btGatt.discoverServices();
                 }
                 if(newState == BluetoothGatt.STATE_DISCONNECTED) {
@@ -150,34 +175,73 @@ public class BluetoothGattConnector extends BluetoothGattCallback {
 
             @Override
             public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-                if(status == BluetoothGatt.GATT_SUCCESS) {
-                    configureNotifyOnSerialBluetoothService(gatt, chameleonDeviceBLERecvChar);
+                if(status != BluetoothGatt.GATT_SUCCESS || !cacheSerialCharacteristics(gatt)) {
+                    return;
+                }
+                // notifications are only configured once the MTU exchange is done, since
+                // the stack runs a single GATT operation at a time:
+                if(!btLinkManager.negotiateMtu(gatt)) {
+                    onSerialCharacteristicsReady(gatt);
                 }
             }
 
+            @Override
+            public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+                btLinkManager.onMtuChanged(mtu, status == BluetoothGatt.GATT_SUCCESS);
+                btTxQueue.setAttMtu(btLinkManager.getAttMtu());
+                onSerialCharacteristicsReady(gatt);
+            }
+
+            @Override
+            public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                if(characteristic == btSendChar) {
+                    btTxQueue.onFragmentWritten(status == BluetoothGatt.GATT_SUCCESS);
+                }
+            }
+
+            /**
+             * The notifications of the receive characteristic are enabled once: the TX queue
+             * is started when that descriptor write completes, since the stack runs a single
+             * GATT operation at a time.
+             */
             @Override
             public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
                 UUID activeLocalCharUUID = descriptor.getCharacteristic().getUuid();
-                if(!activeLocalCharUUID.equals(UUID.fromString(CHAMELEON_REVG_CTRL_CHAR_UUID))) {
-                    configureNotifyOnSerialBluetoothService(gatt, chameleonDeviceBLERecvChar);
+                Log.i(TAG, "onDescriptorWrite: [UUID] " + activeLocalCharUUID.toString() + ", status " + status);
+                if(btRecvNotifyConfigured || !activeLocalCharUUID.equals(chameleonDeviceBLERecvChar)) {
+                    return;
+                }
+                else if(status != BluetoothGatt.GATT_SUCCESS) {
+                    Log.w(TAG, "Unable to enable the notifications of the serial receive characteristic");
+                    return;
                 }
-                Log.i(TAG, "onDescriptorWrite: [UUID] " + activeLocalCharUUID.toString());
+                btRecvNotifyConfigured = true;
+                startSerialTxQueue();
             }
 
+            /**
+             * The notification carries the new value of the characteristic, so it is handed
+             * to the ingest buffer as is instead of being read back from the device.
+             * The callbacks all run on btCallbackHandler, so the notifications are consumed
+             * one at a time and in the order they arrived.
+             */
             @Override
             public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-                gatt.readCharacteristic(characteristic);
-                Log.d(TAG, "read characteristic: " + characteristic.getValue().toString());
-                /*byte[] charData = characteristic.getValue();
-                if (charData == null) {
+                if(characteristic != btRecvChar && !characteristic.getUuid().equals(chameleonDeviceBLERecvChar)) {
+                    return;
+                }
+                byte[] charData = characteristic.getValue();
+                if(charData == null || charData.length == 0) {
                     return;
                 }
                 try {
-                    // Unpack bytes ???
+                    rxNotifications++;
+                    rxBytes += charData.length;
+                    btLinkManager.onDataReceived(charData.length);
                     notifyBluetoothSerialInterfaceDataRead(charData);
-                } catch (Exception dinvEx) {
+                } catch(Exception dinvEx) {
                     dinvEx.printStackTrace();
-                }*/
+                }
             }
 
             @Override
@@ -206,6 +270,12 @@ public class BluetoothGattConnector extends BluetoothGattCallback {
     public boolean disconnectDevice() {
         if(isDeviceConnected()) {
             btDevice = null;
+            Log.i(TAG, getReceiveSummary());
+            btLinkManager.stop();
+            btConnectionPriority = BLUETOOTH_GATT_CONNECT_PRIORITY_BALANCED;
+            btTxQueue.reset();
+            btSendChar = btRecvChar = null;
+            btRecvNotifyConfigured = false;
             if(btGatt != null) {
                 btGatt.disconnect();
                 btGatt.close();
@@ -274,19 +344,20 @@ public class BluetoothGattConnector extends BluetoothGattCallback {
         btDevice = btLocalDevice;
         //btDevice.setPairingConfirmation(false);
         //btDevice.setPin(byte[]); // Chameleon Tiny devices need a Pin?
-        btDevice.connectGatt(btSerialContext, false, this);
+        btDevice.connectGatt(btSerialContext, false, this, BluetoothDevice.TRANSPORT_LE,
+                             BluetoothDevice.PHY_LE_1M_MASK, getCallbackHandler());
         btDevice.createBond();
         String btDeviceName = btDevice.getName();
         Log.i(TAG, "BT Device Name: " + btDeviceName);
         if(btDeviceName != null && btDeviceName.equals(CHAMELEON_REVG_NAME)) {
-            chameleonDeviceBLEService = CHAMELEON_REVG_SERVICE_UUID;
-            chameleonDeviceBLESendChar = CHAMELEON_REVG_SEND_CHAR_UUID;
-            chameleonDeviceBLERecvChar = CHAMELEON_REVG_RECV_CHAR_UUID;
+            chameleonDeviceBLEService = UUID.fromString(CHAMELEON_REVG_SERVICE_UUID);
+            chameleonDeviceBLESendChar = UUID.fromString(CHAMELEON_REVG_SEND_CHAR_UUID);
+            chameleonDeviceBLERecvChar = UUID.fromString(CHAMELEON_REVG_RECV_CHAR_UUID);
         }
         else {
-            chameleonDeviceBLEService = CHAMELEON_REVG_TINY_SERVICE_UUID;
-            chameleonDeviceBLESendChar = CHAMELEON_REVG_TINY_SEND_CHAR_UUID;
-            chameleonDeviceBLERecvChar = CHAMELEON_REVG_TINY_RECV_CHAR_UUID;
+            chameleonDeviceBLEService = UUID.fromString(CHAMELEON_REVG_TINY_SERVICE_UUID);
+            chameleonDeviceBLESendChar = UUID.fromString(CHAMELEON_REVG_TINY_SEND_CHAR_UUID);
+            chameleonDeviceBLERecvChar = UUID.fromString(CHAMELEON_REVG_TINY_RECV_CHAR_UUID);
         }
         isConnected = true;
         btNotifyUARTService = true;
@@ -302,50 +373,149 @@ public class BluetoothGattConnector extends BluetoothGattCallback {
         }
     }
 
-    private void configureNotifyOnSerialBluetoothService(BluetoothGatt btLocalGatt, String gattUUID) {
-        Log.i(TAG, "configureNotifyOnSerialBluetoothService");
-        BluetoothGattService btgService = btLocalGatt.getService(UUID.fromString(chameleonDeviceBLEService));
+    /**
+     * Looks up the serial send / receive characteristics once after service discovery, so
+     * that the writes do not have to search the GATT database again.
+     * @param btLocalGatt
+     * @return boolean whether both characteristics were found
+     */
+    private boolean cacheSerialCharacteristics(BluetoothGatt btLocalGatt) {
+        BluetoothGattService btgService = btLocalGatt.getService(chameleonDeviceBLEService);
         if (btgService == null) {
-            return;
+            Log.w(TAG, "The Chameleon serial service was not found");
+            return false;
         }
-        BluetoothGattCharacteristic btgChar = btgService.getCharacteristic(UUID.fromString(gattUUID));
-        if (btgChar == null) {
-            return;
+        btSendChar = btgService.getCharacteristic(chameleonDeviceBLESendChar);
+        btRecvChar = btgService.getCharacteristic(chameleonDeviceBLERecvChar);
+        if (btSendChar == null || btRecvChar == null) {
+            Log.w(TAG, "The Chameleon serial characteristics were not found");
+            return false;
         }
-        btLocalGatt.setCharacteristicNotification(btgChar, true);
-        BluetoothGattDescriptor descriptor = btgChar.getDescriptor(UUID.fromString(CHAMELEON_REVG_RECV_DESC_UUID));
-        descriptor.setValue(BLUETOOTH_GATT_ENABLE_NOTIFY_PROP);
-        btLocalGatt.writeDescriptor(descriptor);
+        if((btSendChar.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0) {
+            btSendChar.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        }
+        return true;
+    }
+
+    private void onSerialCharacteristicsReady(BluetoothGatt btLocalGatt) {
+        btRecvNotifyConfigured = false;
+        if(!configureNotifyOnSerialBluetoothService(btLocalGatt)) {
+            // no descriptor write to wait for:
+            startSerialTxQueue();
+        }
+    }
+
+    private void startSerialTxQueue() {
+        btTxQueue.start(new BluetoothGattTxQueue.FragmentWriter() {
+            public boolean writeFragment(byte[] fragment) {
+                BluetoothGatt btLocalGatt = btGatt;
+                BluetoothGattCharacteristic btLocalSendChar = btSendChar;
+                if(btLocalGatt == null || btLocalSendChar == null) {
+                    return false;
+                }
+                btLocalSendChar.setValue(fragment);
+                return btLocalGatt.writeCharacteristic(btLocalSendChar);
+            }
+        });
+        Log.i(TAG, "BLE serial TX ready: " + btTxQueue.getMaxFragmentSize() + " bytes per write");
+    }
 
+    /**
+     * @param btLocalGatt
+     * @return boolean whether the write of the notification descriptor was started
+     */
+    private boolean configureNotifyOnSerialBluetoothService(BluetoothGatt btLocalGatt) {
+        Log.i(TAG, "configureNotifyOnSerialBluetoothService");
+        if (btRecvChar == null) {
+            return false;
+        }
+        btLocalGatt.setCharacteristicNotification(btRecvChar, true);
+        BluetoothGattDescriptor descriptor = btRecvChar.getDescriptor(CHAMELEON_REVG_RECV_DESC);
+        if (descriptor == null) {
+            return false;
+        }
+        descriptor.setValue(BLUETOOTH_GATT_ENABLE_NOTIFY_PROP);
+        return btLocalGatt.writeDescriptor(descriptor);
     }
 
     public boolean requestConnectionPriority(int connectPrioritySetting) {
         if(btGatt == null) {
             return false;
         }
-        return btGatt.requestConnectionPriority(connectPrioritySetting);
+        if(!btGatt.requestConnectionPriority(connectPrioritySetting)) {
+            return false;
+        }
+        btConnectionPriority = connectPrioritySetting;
+        return true;
     }
 
+    public int getConnectionPriority() {
+        return btConnectionPriority;
+    }
+
+    /**
+     * @return Handler of the thread all of the GATT callbacks are delivered on (started lazily)
+     */
+    private static synchronized Handler getCallbackHandler() {
+        if(btCallbackHandler == null) {
+            btCallbackThread = new HandlerThread("BLEGattCallbacks");
+            btCallbackThread.start();
+            btCallbackHandler = new Handler(btCallbackThread.getLooper());
+        }
+        return btCallbackHandler;
+    }
+
+    /**
+     * @return BluetoothLinkManager the MTU / connection priority manager of the link
+     */
+    public BluetoothLinkManager getLinkManager() {
+        return btLinkManager;
+    }
+
+    private void resetReceiveStats() {
+        rxNotifications = rxBytes = 0;
+        if(btSerialIface != null) {
+            rxIngestOverflowBase = btSerialIface.getIngestBuffer().getOverflowCount();
+            rxIngestResyncBase = btSerialIface.getIngestBuffer().getResyncCount();
+        }
+    }
+
+    /**
+     * Notifications are not numbered, so lost or reordered data only shows up as bytes the
+     * ingest buffer had to drop (overflow) or skip to find the next LIVE log record (resync).
+     * @return String summary of the receive statistics of the current connection
+     */
+    public String getReceiveSummary() {
+        long overflowCount = 0, resyncCount = 0;
+        if(btSerialIface != null) {
+            overflowCount = btSerialIface.getIngestBuffer().getOverflowCount() - rxIngestOverflowBase;
+            resyncCount = btSerialIface.getIngestBuffer().getResyncCount() - rxIngestResyncBase;
+        }
+        return String.format(Locale.ENGLISH, "BLE RX: %d bytes in %d notifications -- %d overflows, %d resyncs",
+                rxBytes, rxNotifications, overflowCount, resyncCount);
+    }
+
+    /**
+     * Queues the bytes for sending to the device. Buffers of any length are accepted: they
+     * are split into (and coalesced with the other queued bytes into) MTU sized writes by
+     * the BluetoothGattTxQueue.
+     * @param dataBuf
+     * @return int 0 if the bytes were queued, -1 if not connected or the TX queue is full
+     * @throws IOException
+     */
     public int write(byte[] dataBuf) throws IOException {
-        Log.i(TAG, "write: " + Utils.bytes2Hex(dataBuf));
-        if (dataBuf.length > BLUETOOTH_LOCAL_MTU_THRESHOLD) {
-            return -1;
+        if(Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, "write: " + Utils.bytes2Hex(dataBuf));
         }
         if(btGatt == null) {
             Log.i(TAG, "write: btGatt == null!");
             disconnectDevice();
             return -1;
         }
-        BluetoothGattService txDataService = btGatt.getService(UUID.fromString(chameleonDeviceBLEService));
-        if(txDataService == null) {
-            return -1;
-        }
-        BluetoothGattCharacteristic btGattChar = txDataService.getCharacteristic(UUID.fromString(chameleonDeviceBLESendChar));
-        if(btGattChar == null) {
+        if(!btTxQueue.enqueue(dataBuf, 0, dataBuf.length)) {
             return -1;
         }
-        btGattChar.setValue(dataBuf);
-        btGatt.writeCharacteristic(btGattChar);
+        btLinkManager.onDataSent(dataBuf.length);
         return 0;
     }
 
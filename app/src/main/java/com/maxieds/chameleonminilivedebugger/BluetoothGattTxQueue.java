@@ -0,0 +1,262 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * <h1>Bluetooth GATT TX Queue</h1>
+ * Transmit queue for the BLE serial characteristic. The GATT stack only accepts one
+ * characteristic write at a time, so the bytes handed to BluetoothGattConnector.write are
+ * appended to a ring buffer and sent one fragment at a time: the next fragment is only
+ * written once onCharacteristicWrite reports the previous one done. A fragment holds as many
+ * of the queued bytes as fit into the negotiated ATT MTU, so small writes that are queued up
+ * behind a write in flight are coalesced into the same packet, and larger buffers (XModem
+ * blocks) are split over several packets.
+ *
+ * A fragment the stack refuses (busy with another GATT operation) or reports as failed is
+ * retried a few times; a write whose completion callback never arrives is given up on after
+ * WRITE_CALLBACK_TIMEOUT.
+ *
+ * @ref BluetoothGattConnector.write
+ * @ref BluetoothGattConnector.onMtuChanged
+ */
+public class BluetoothGattTxQueue {
+
+    private static final String TAG = BluetoothGattTxQueue.class.getSimpleName();
+
+    /**
+     * Performs the actual characteristic write of a fragment.
+     */
+    public interface FragmentWriter {
+        /**
+         * @return boolean whether the stack accepted the write (onFragmentWritten follows)
+         */
+        boolean writeFragment(byte[] fragment);
+    }
+
+    public static final int DEFAULT_CAPACITY = 16384;
+    public static final int ATT_HEADER_SIZE = 3;
+    public static final int DEFAULT_ATT_MTU = 23;
+
+    public static final int WRITE_CALLBACK_TIMEOUT = 1000;
+    public static final int WRITE_BUSY_RETRY_DELAY = 15;
+    public static final int MAX_WRITE_RETRIES = 3;
+    public static final int MAX_BUSY_RETRIES = 100;
+
+    private final byte[] queueData;
+    private int readPos;
+    private int queuedBytes;
+    private int maxFragmentSize;
+    private byte[] fragmentBuf;
+    private int inFlightLength;
+    private int writeRetries;
+    private int busyRetries;
+    private boolean txEnabled;
+    private FragmentWriter fragmentWriter;
+    private long bytesSent;
+    private long fragmentsSent;
+    private long fragmentsDropped;
+    private long txStartMillis;
+
+    private final Handler watchdogHandler = new Handler(Looper.getMainLooper());
+    private final Runnable writeWatchdogRunnable = new Runnable() {
+        public void run() {
+            onWriteTimeout();
+        }
+    };
+    private final Runnable writeRetryRunnable = new Runnable() {
+        public void run() {
+            synchronized(BluetoothGattTxQueue.this) {
+                if(inFlightLength == 0) {
+                    sendNextFragment();
+                }
+            }
+        }
+    };
+
+    public BluetoothGattTxQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public BluetoothGattTxQueue(int capacity) {
+        queueData = new byte[capacity];
+        maxFragmentSize = DEFAULT_ATT_MTU - ATT_HEADER_SIZE;
+        fragmentBuf = new byte[maxFragmentSize];
+        reset();
+    }
+
+    /**
+     * Starts sending the queued bytes through the writer (the characteristic is ready).
+     * @param writer
+     */
+    public synchronized void start(FragmentWriter writer) {
+        fragmentWriter = writer;
+        txEnabled = true;
+        txStartMillis = SystemClock.elapsedRealtime();
+        if(inFlightLength == 0) {
+            sendNextFragment();
+        }
+    }
+
+    /**
+     * Drops the queued bytes and stops sending (the link went down).
+     */
+    public synchronized void reset() {
+        watchdogHandler.removeCallbacks(writeWatchdogRunnable);
+        watchdogHandler.removeCallbacks(writeRetryRunnable);
+        if(txEnabled && fragmentsSent > 0) {
+            Log.i(TAG, getThroughputSummary());
+        }
+        readPos = queuedBytes = 0;
+        inFlightLength = 0;
+        writeRetries = busyRetries = 0;
+        txEnabled = false;
+        fragmentWriter = null;
+        bytesSent = fragmentsSent = fragmentsDropped = 0;
+    }
+
+    /**
+     * @param attMtu the ATT MTU negotiated with the device (see onMtuChanged)
+     */
+    public synchronized void setAttMtu(int attMtu) {
+        maxFragmentSize = Math.max(DEFAULT_ATT_MTU, attMtu) - ATT_HEADER_SIZE;
+    }
+
+    public synchronized int getMaxFragmentSize() {
+        return maxFragmentSize;
+    }
+
+    public synchronized int getQueuedByteCount() {
+        return queuedBytes;
+    }
+
+    public synchronized boolean isIdle() {
+        return queuedBytes == 0;
+    }
+
+    /**
+     * Queues the bytes for sending.
+     * @param dataBuf
+     * @param offset
+     * @param length
+     * @return boolean false if the queue does not have room for all of the bytes (nothing is queued)
+     */
+    public synchronized boolean enqueue(byte[] dataBuf, int offset, int length) {
+        if(length > queueData.length - queuedBytes) {
+            Log.w(TAG, String.format(Locale.ENGLISH, "TX queue full: dropping %d bytes (%d queued)", length, queuedBytes));
+            return false;
+        }
+        int writePos = (readPos + queuedBytes) % queueData.length;
+        int firstChunk = Math.min(length, queueData.length - writePos);
+        System.arraycopy(dataBuf, offset, queueData, writePos, firstChunk);
+        System.arraycopy(dataBuf, offset + firstChunk, queueData, 0, length - firstChunk);
+        queuedBytes += length;
+        if(txEnabled && inFlightLength == 0) {
+            sendNextFragment();
+        }
+        return true;
+    }
+
+    /**
+     * Called from onCharacteristicWrite for the fragment in flight.
+     * @param success whether the write succeeded
+     */
+    public synchronized void onFragmentWritten(boolean success) {
+        if(inFlightLength == 0) {
+            return;
+        }
+        watchdogHandler.removeCallbacks(writeWatchdogRunnable);
+        if(success) {
+            consumeFragment(true);
+        }
+        else if(++writeRetries > MAX_WRITE_RETRIES) {
+            Log.w(TAG, String.format(Locale.ENGLISH, "Dropping a %d byte fragment after %d failed writes", inFlightLength, writeRetries));
+            consumeFragment(false);
+        }
+        inFlightLength = 0;
+        sendNextFragment();
+    }
+
+    private synchronized void onWriteTimeout() {
+        if(inFlightLength == 0) {
+            return;
+        }
+        Log.w(TAG, "No write callback for the fragment in flight: assuming it was sent");
+        consumeFragment(true);
+        inFlightLength = 0;
+        sendNextFragment();
+    }
+
+    private void consumeFragment(boolean sent) {
+        readPos = (readPos + inFlightLength) % queueData.length;
+        queuedBytes -= inFlightLength;
+        writeRetries = 0;
+        if(sent) {
+            bytesSent += inFlightLength;
+            fragmentsSent++;
+        }
+        else {
+            fragmentsDropped++;
+        }
+    }
+
+    /**
+     * Writes the next fragment from the head of the queue. The bytes stay queued until the
+     * write is reported done, so that a failed fragment can be resent as is.
+     */
+    private void sendNextFragment() {
+        if(!txEnabled || queuedBytes == 0 || fragmentWriter == null) {
+            return;
+        }
+        int fragmentLength = Math.min(queuedBytes, maxFragmentSize);
+        if(fragmentBuf.length != fragmentLength) {
+            fragmentBuf = new byte[fragmentLength];
+        }
+        int firstChunk = Math.min(fragmentLength, queueData.length - readPos);
+        System.arraycopy(queueData, readPos, fragmentBuf, 0, firstChunk);
+        System.arraycopy(queueData, 0, fragmentBuf, firstChunk, fragmentLength - firstChunk);
+        if(!fragmentWriter.writeFragment(fragmentBuf)) {
+            // the stack is busy with another GATT operation:
+            if(++busyRetries > MAX_BUSY_RETRIES) {
+                Log.w(TAG, "The GATT stack keeps refusing writes: dropping the TX queue");
+                readPos = queuedBytes = 0;
+                writeRetries = busyRetries = 0;
+                fragmentsDropped++;
+                return;
+            }
+            watchdogHandler.postDelayed(writeRetryRunnable, WRITE_BUSY_RETRY_DELAY);
+            return;
+        }
+        busyRetries = 0;
+        inFlightLength = fragmentLength;
+        watchdogHandler.postDelayed(writeWatchdogRunnable, WRITE_CALLBACK_TIMEOUT);
+    }
+
+    public synchronized String getThroughputSummary() {
+        long elapsedMillis = Math.max(1, SystemClock.elapsedRealtime() - txStartMillis);
+        return String.format(Locale.ENGLISH, "BLE TX: %d bytes in %d fragments (%d dropped, max %d bytes) -- %.1f bytes/s",
+                bytesSent, fragmentsSent, fragmentsDropped, maxFragmentSize, 1000.0 * bytesSent / elapsedMillis);
+    }
+
+}
@@ -0,0 +1,295 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.bluetooth.BluetoothGatt;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * <h1>Bluetooth Link Manager</h1>
+ * Tunes the BLE link of the connected device to what it is being used for. The ATT MTU is
+ * negotiated right after service discovery, and the connection priority follows the
+ * current workload:
+ * <pre>
+ *     TRANSFER      XModem upload / download in progress       HIGH
+ *     LIVE_LOGGING  LIVE log records are streaming in          HIGH
+ *     INTERACTIVE   commands sent by the user or the tools     BALANCED
+ *     IDLE          nothing but the periodic status queries    LOW_POWER
+ * </pre>
+ * A busier workload takes effect at the next evaluation; the link only steps down once the
+ * lighter workload has held for WORKLOAD_HOLD_TIME, so that short pauses do not make it
+ * flap between the settings.
+ *
+ * So that the effect of each setting is visible, the round trip latency (from a write to
+ * the first notification that follows it) and the bytes/s in each direction are measured
+ * separately for each connection priority.
+ *
+ * @ref BluetoothGattConnector
+ * @ref BluetoothGattTxQueue
+ */
+public class BluetoothLinkManager {
+
+    private static final String TAG = BluetoothLinkManager.class.getSimpleName();
+
+    public static final int WORKLOAD_IDLE = 0;
+    public static final int WORKLOAD_INTERACTIVE = 1;
+    public static final int WORKLOAD_LIVE_LOGGING = 2;
+    public static final int WORKLOAD_TRANSFER = 3;
+    private static final String[] WORKLOAD_NAMES = { "IDLE", "INTERACTIVE", "LIVE_LOGGING", "TRANSFER" };
+    private static final int[] WORKLOAD_PRIORITIES = {
+            BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER,
+            BluetoothGatt.CONNECTION_PRIORITY_BALANCED,
+            BluetoothGatt.CONNECTION_PRIORITY_HIGH,
+            BluetoothGatt.CONNECTION_PRIORITY_HIGH
+    };
+
+    public static final int PREFERRED_ATT_MTU = BluetoothGattConnector.BLUETOOTH_LOCAL_MTU_THRESHOLD + BluetoothGattTxQueue.ATT_HEADER_SIZE;
+    public static final int LINK_EVAL_INTERVAL = 500;
+    public static final int WORKLOAD_HOLD_TIME = 3000;
+
+    /**
+     * Connection priorities are indexed by the BluetoothGatt.CONNECTION_PRIORITY_* constants
+     * (BALANCED = 0, HIGH = 1, LOW_POWER = 2) in the statistics arrays.
+     */
+    private static final int NUM_PRIORITIES = 3;
+    private static final String[] PRIORITY_NAMES = { "BALANCED", "HIGH", "LOW_POWER" };
+
+    private final BluetoothGattConnector btConnector;
+    private final Handler linkHandler;
+    private boolean linkActive;
+    private int attMtu;
+
+    private int curWorkload;
+    private long lastCurWorkloadMillis;
+    private int curPriority;
+    private long curPrioritySinceMillis;
+
+    private final long[] priorityMillis = new long[NUM_PRIORITIES];
+    private final long[] priorityTxBytes = new long[NUM_PRIORITIES];
+    private final long[] priorityRxBytes = new long[NUM_PRIORITIES];
+    private final long[] priorityLatencySum = new long[NUM_PRIORITIES];
+    private final int[] priorityLatencyCount = new int[NUM_PRIORITIES];
+    private long pendingWriteMillis;
+    private long lastLatencyMillis;
+
+    private long windowStartMillis;
+    private long windowTxBytes, windowRxBytes;
+    private double txBytesPerSecond, rxBytesPerSecond;
+
+    private final Runnable linkEvalRunnable = new Runnable() {
+        public void run() {
+            evaluateLink();
+        }
+    };
+
+    public BluetoothLinkManager(BluetoothGattConnector connector, Handler callbackHandler) {
+        btConnector = connector;
+        linkHandler = callbackHandler;
+        linkActive = false;
+        attMtu = BluetoothGattTxQueue.DEFAULT_ATT_MTU;
+    }
+
+    /**
+     * Starts managing a newly connected link. The setup traffic (service discovery, MTU
+     * exchange, the initial device queries) is given HIGH priority.
+     */
+    public synchronized void start() {
+        long curTimeMillis = SystemClock.uptimeMillis();
+        for(int pi = 0; pi < NUM_PRIORITIES; pi++) {
+            priorityMillis[pi] = priorityTxBytes[pi] = priorityRxBytes[pi] = priorityLatencySum[pi] = 0;
+            priorityLatencyCount[pi] = 0;
+        }
+        attMtu = BluetoothGattTxQueue.DEFAULT_ATT_MTU;
+        pendingWriteMillis = -1;
+        lastLatencyMillis = -1;
+        windowStartMillis = curTimeMillis;
+        windowTxBytes = windowRxBytes = 0;
+        txBytesPerSecond = rxBytesPerSecond = 0;
+        curWorkload = WORKLOAD_TRANSFER; // the setup is treated like a transfer until the hold time runs out
+        lastCurWorkloadMillis = curTimeMillis;
+        curPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+        curPrioritySinceMillis = curTimeMillis;
+        setConnectionPriority(WORKLOAD_PRIORITIES[curWorkload], curTimeMillis);
+        linkActive = true;
+        linkHandler.removeCallbacks(linkEvalRunnable);
+        linkHandler.postDelayed(linkEvalRunnable, LINK_EVAL_INTERVAL);
+    }
+
+    public synchronized void stop() {
+        if(!linkActive) {
+            return;
+        }
+        linkActive = false;
+        linkHandler.removeCallbacks(linkEvalRunnable);
+        accountPriorityTime(SystemClock.uptimeMillis());
+        Log.i(TAG, getLinkSummary());
+    }
+
+    /**
+     * Asks the device for the largest MTU the TX queue can make use of.
+     * @param gatt
+     * @return boolean whether the request was sent (onMtuChanged follows)
+     */
+    public boolean negotiateMtu(BluetoothGatt gatt) {
+        return gatt.requestMtu(PREFERRED_ATT_MTU);
+    }
+
+    public synchronized void onMtuChanged(int mtu, boolean success) {
+        if(success) {
+            attMtu = mtu;
+        }
+        Log.i(TAG, "ATT MTU = " + attMtu + (success ? "" : " (the MTU request failed)"));
+    }
+
+    public synchronized int getAttMtu() {
+        return attMtu;
+    }
+
+    /**
+     * Called for the bytes handed to the TX queue.
+     * @param numBytes
+     */
+    public synchronized void onDataSent(int numBytes) {
+        long curTimeMillis = SystemClock.uptimeMillis();
+        if(pendingWriteMillis < 0) {
+            pendingWriteMillis = curTimeMillis;
+        }
+        windowTxBytes += numBytes;
+        priorityTxBytes[curPriority] += numBytes;
+    }
+
+    /**
+     * Called for every notification received from the device.
+     * @param numBytes
+     */
+    public synchronized void onDataReceived(int numBytes) {
+        if(pendingWriteMillis >= 0) {
+            lastLatencyMillis = SystemClock.uptimeMillis() - pendingWriteMillis;
+            priorityLatencySum[curPriority] += lastLatencyMillis;
+            priorityLatencyCount[curPriority]++;
+            pendingWriteMillis = -1;
+        }
+        windowRxBytes += numBytes;
+        priorityRxBytes[curPriority] += numBytes;
+    }
+
+    /**
+     * @param curTimeMillis current (wall clock) time
+     * @return int the workload the link is used for right now (WORKLOAD_*)
+     */
+    public static int classifyWorkload(long curTimeMillis) {
+        if(XModemTransferSession.isTransferActive()) {
+            return WORKLOAD_TRANSFER;
+        }
+        else if(curTimeMillis - DeviceStatusScheduler.getLastLogRecordMillis() < WORKLOAD_HOLD_TIME) {
+            return WORKLOAD_LIVE_LOGGING;
+        }
+        else if(curTimeMillis - ChameleonCommandEngine.getLastSingleCommandMillis() < WORKLOAD_HOLD_TIME) {
+            return WORKLOAD_INTERACTIVE;
+        }
+        return WORKLOAD_IDLE;
+    }
+
+    private synchronized void evaluateLink() {
+        if(!linkActive) {
+            return;
+        }
+        long curTimeMillis = SystemClock.uptimeMillis();
+        long windowMillis = curTimeMillis - windowStartMillis;
+        if(windowMillis > 0) {
+            txBytesPerSecond = 1000.0 * windowTxBytes / windowMillis;
+            rxBytesPerSecond = 1000.0 * windowRxBytes / windowMillis;
+        }
+        windowStartMillis = curTimeMillis;
+        windowTxBytes = windowRxBytes = 0;
+        int nextWorkload = classifyWorkload(System.currentTimeMillis());
+        if(nextWorkload >= curWorkload) {
+            lastCurWorkloadMillis = curTimeMillis;
+        }
+        if(nextWorkload > curWorkload || curTimeMillis - lastCurWorkloadMillis >= WORKLOAD_HOLD_TIME) {
+            if(nextWorkload != curWorkload) {
+                Log.i(TAG, "Link workload: " + WORKLOAD_NAMES[curWorkload] + " -> " + WORKLOAD_NAMES[nextWorkload]);
+            }
+            curWorkload = nextWorkload;
+            lastCurWorkloadMillis = curTimeMillis;
+            setConnectionPriority(WORKLOAD_PRIORITIES[curWorkload], curTimeMillis);
+        }
+        linkHandler.postDelayed(linkEvalRunnable, LINK_EVAL_INTERVAL);
+    }
+
+    private void setConnectionPriority(int nextPriority, long curTimeMillis) {
+        if(nextPriority == curPriority && btConnector.getConnectionPriority() == nextPriority) {
+            return;
+        }
+        if(!btConnector.requestConnectionPriority(nextPriority)) {
+            return;
+        }
+        accountPriorityTime(curTimeMillis);
+        curPriority = nextPriority;
+    }
+
+    private void accountPriorityTime(long curTimeMillis) {
+        priorityMillis[curPriority] += curTimeMillis - curPrioritySinceMillis;
+        curPrioritySinceMillis = curTimeMillis;
+    }
+
+    public synchronized int getWorkload() {
+        return curWorkload;
+    }
+
+    /**
+     * @return long the last measured round trip latency in milliseconds (-1 if none yet)
+     */
+    public synchronized long getRoundTripLatency() {
+        return lastLatencyMillis;
+    }
+
+    public synchronized double getTxBytesPerSecond() {
+        return txBytesPerSecond;
+    }
+
+    public synchronized double getRxBytesPerSecond() {
+        return rxBytesPerSecond;
+    }
+
+    /**
+     * @return String the current link settings and the measurements for each connection priority
+     */
+    public synchronized String getLinkSummary() {
+        StringBuilder linkSummary = new StringBuilder();
+        linkSummary.append(String.format(Locale.ENGLISH, "BLE link: %s at %s priority, MTU %d, RTT %d ms, TX %.1f bytes/s, RX %.1f bytes/s",
+                WORKLOAD_NAMES[curWorkload], PRIORITY_NAMES[curPriority], attMtu, lastLatencyMillis, txBytesPerSecond, rxBytesPerSecond));
+        long curTimeMillis = SystemClock.uptimeMillis();
+        for(int pi = 0; pi < NUM_PRIORITIES; pi++) {
+            long activeMillis = priorityMillis[pi] + (linkActive && pi == curPriority ? curTimeMillis - curPrioritySinceMillis : 0);
+            if(activeMillis == 0) {
+                continue;
+            }
+            long avgLatency = priorityLatencyCount[pi] > 0 ? priorityLatencySum[pi] / priorityLatencyCount[pi] : -1;
+            linkSummary.append(String.format(Locale.ENGLISH, "\n  %s: %.1f s, avg RTT %d ms, TX %.1f bytes/s, RX %.1f bytes/s",
+                    PRIORITY_NAMES[pi], activeMillis / 1000.0, avgLatency,
+                    1000.0 * priorityTxBytes[pi] / activeMillis, 1000.0 * priorityRxBytes[pi] / activeMillis));
+        }
+        return linkSummary.toString();
+    }
+
+}
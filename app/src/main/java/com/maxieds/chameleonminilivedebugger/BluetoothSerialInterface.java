@@ -125,24 +125,22 @@ public class BluetoothSerialInterface extends SerialIOReceiver {
     }
 
     public boolean notifySerialDataReceived(byte[] serialData) {
-        Log.d(TAG, "BTReaderCallback Serial Data: (HEX) " + Utils.bytes2Hex(serialData));
-        Log.d(TAG, "BTReaderCallback Serial Data: (TXT) " + Utils.bytes2Ascii(serialData));
-        Intent notifyIntent = new Intent(ChameleonSerialIOInterface.SERIALIO_DATA_RECEIVED);
-        notifyIntent.putExtra("DATA", serialData);
-        notifyContext.sendBroadcast(notifyIntent);
-        return true;
+        if(Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, "BTReaderCallback Serial Data: (HEX) " + Utils.bytes2Hex(serialData));
+            Log.v(TAG, "BTReaderCallback Serial Data: (TXT) " + Utils.bytes2Ascii(serialData));
+        }
+        return SerialIOEventBus.publishSerialData(serialData, 0, serialData.length);
     }
 
     public boolean notifyLogDataReceived(byte[] serialData) {
-        Log.d(TAG, "BTReaderCallback Log Data: (HEX) " + Utils.bytes2Hex(serialData));
-        Log.d(TAG, "BTReaderCallback Log Data: (TXT) " + Utils.bytes2Ascii(serialData));
-        if(serialData.length < ChameleonLogUtils.LOGGING_MIN_DATA_BYTES + 4) {
+        return notifyLogDataReceived(serialData, 0, serialData.length);
+    }
+
+    public boolean notifyLogDataReceived(byte[] serialData, int offset, int length) {
+        if(length < ChameleonLogUtils.LOGGING_MIN_DATA_BYTES + 4) {
             return false;
         }
-        Intent notifyIntent = new Intent(ChameleonSerialIOInterface.SERIALIO_LOGDATA_RECEIVED);
-        notifyIntent.putExtra("DATA", serialData);
-        notifyContext.sendBroadcast(notifyIntent);
-        return true;
+        return SerialIOEventBus.publishLogData(serialData, offset, length);
     }
 
     public boolean notifyDeviceFound() {
@@ -161,11 +159,7 @@ public class BluetoothSerialInterface extends SerialIOReceiver {
 
     public boolean notifyStatus(String msgType, String statusMsg) {
         Log.i(TAG, "notifyStatus: " + msgType + ": " + statusMsg);
-        Intent notifyIntent = new Intent(ChameleonSerialIOInterface.SERIALIO_NOTIFY_STATUS);
-        notifyIntent.putExtra("STATUS-TYPE", msgType);
-        notifyIntent.putExtra("STATUS-MSG", statusMsg);
-        notifyContext.sendBroadcast(notifyIntent);
-        return true;
+        return SerialIOEventBus.publishStatus(msgType, statusMsg);
     }
 
     public boolean notifyBluetoothChameleonDeviceConnected() {
@@ -217,7 +211,11 @@ public class BluetoothSerialInterface extends SerialIOReceiver {
         String devInfo = String.format(Locale.ENGLISH, "BT Class: %s\nBond State: %s\nProduct Name: %s\nType: %s\nDevice Address: %s",
                 activeDevice.getBluetoothClass(), activeDevice.getBondState(),
                 activeDevice.getName(), activeDevice.getType(),
-                activeDevice.getAddress());;
+                activeDevice.getAddress());
+        if(btGattConnectorBLEDevice != null) {
+            devInfo += "\n" + btGattConnectorBLEDevice.getReceiveSummary();
+            devInfo += "\n" + btGattConnectorBLEDevice.getLinkManager().getLinkSummary();
+        }
         return devInfo;
     }
 
@@ -230,21 +228,18 @@ public class BluetoothSerialInterface extends SerialIOReceiver {
     }
 
     public int shutdownSerial() {
+        XModemTransferSession.cancelActiveSession("Serial connection closed");
         if(btGattConnectorBLEDevice != null) {
             btGattConnectorBLEDevice.disconnectDevice();
         }
         stopScanningDevices();
         ChameleonIO.PAUSED = true;
-        ExportTools.EOT = true;
-        ExportTools.transmissionErrorOccurred = true;
-        ChameleonIO.DOWNLOAD = false;
-        ChameleonIO.UPLOAD = false;
-        ChameleonIO.WAITING_FOR_XMODEM = false;
-        ChameleonIO.WAITING_FOR_RESPONSE = false;
-        ChameleonIO.EXPECTING_BINARY_DATA = false;
+        ChameleonCommandEngine.cancelPendingCommands();
         ChameleonIO.LASTCMD = "";
         ChameleonIO.APPEND_PRIOR_BUFFER_DATA = false;
-        ChameleonIO.PRIOR_BUFFER_DATA = new byte[0];
+        synchronized(getIngestBuffer()) {
+            getIngestBuffer().reset();
+        }
         activeDevice = null;
         serialConfigured = false;
         receiversRegistered = false;
@@ -296,7 +291,6 @@ public class BluetoothSerialInterface extends SerialIOReceiver {
     }
 
     public int sendDataBuffer(byte[] dataWriteBuffer) {
-        Log.i(TAG, "write: " + Utils.bytes2Hex(dataWriteBuffer));
         if(dataWriteBuffer == null || dataWriteBuffer.length == 0) {
             return STATUS_FALSE;
         }
@@ -304,9 +298,12 @@ public class BluetoothSerialInterface extends SerialIOReceiver {
             return STATUS_FALSE;
         }
         try {
-            btGattConnectorBLEDevice.write(dataWriteBuffer);
+            if(btGattConnectorBLEDevice.write(dataWriteBuffer) < 0) {
+                return STATUS_FALSE;
+            }
         } catch(IOException ioe) {
             ioe.printStackTrace();
+            return STATUS_FALSE;
         }
         return STATUS_TRUE;
     }
@@ -0,0 +1,522 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * <h1>Chameleon Command Engine</h1>
+ * Matches the command responses streaming back from the device to the commands we have
+ * written to it. The Chameleon answers commands strictly in the order they are received,
+ * so every command written goes into a FIFO of pending requests and is completed (through
+ * its CompletableFuture) the moment its status line -- and, for 101:OK WITH TEXT, the text
+ * that follows it -- has been parsed out of the serial data. The firmware does not mark the
+ * end of the text: the ? queries answer with a single line and are completed as soon as it has
+ * arrived, while the text of the other commands is taken to end with the next status line or
+ * once the device has been quiet for RESPONSE_TEXT_IDLE_TIMEOUT.
+ * A command whose caller gives up waiting stays in the FIFO (cancelled) until its late
+ * response has been consumed, so that the responses to the later commands still line up.
+ * Several commands can be written back-to-back in a single transfer (pipelined) as long as
+ * they fit into the firmware's terminal input buffer.
+ *
+ * @ref ChameleonIO.getSettingFromDevice
+ * @ref SerialIOReceiver.onSerialDataFramed
+ * @url http://rawgit.com/emsec/ChameleonMini/master/Doc/Doxygen/html/Page_CommandLine.html
+ */
+public class ChameleonCommandEngine {
+
+    private static final String TAG = ChameleonCommandEngine.class.getSimpleName();
+
+    /**
+     * Upper bound on the number of command bytes written in one pipelined batch
+     * (stays under the size of the firmware's terminal input buffer).
+     */
+    public static final int PIPELINE_BUFFER_SIZE = 256;
+    public static boolean PIPELINE_COMMANDS = true;
+
+    public static final int RESPONSE_TEXT_IDLE_TIMEOUT = 40;
+
+    private static class PendingCommand {
+        final String command;
+        final boolean expectBinaryData;
+        final int expectedTextLines;
+        int textLineCount;
+        long writeNanos;
+        long firstLineNanos;
+        long submitTimeMillis;
+        final CompletableFuture<DeviceResponse> responseFuture;
+        boolean cancelled;
+        long lastDataMillis;
+        int responseCode;
+        String responseCodeText;
+        List<String> responseLines;
+        ByteArrayOutputStream binaryData;
+
+        PendingCommand(String cmd, boolean expectBinary) {
+            command = cmd;
+            expectBinaryData = expectBinary;
+            expectedTextLines = expectBinary ? -1 : getExpectedTextLines(cmd);
+            textLineCount = 0;
+            writeNanos = firstLineNanos = -1;
+            submitTimeMillis = System.currentTimeMillis();
+            responseFuture = new CompletableFuture<DeviceResponse>();
+            cancelled = false;
+            lastDataMillis = submitTimeMillis;
+            responseCode = DeviceResponse.RESPONSE_CODE_NONE;
+            responseCodeText = null;
+            responseLines = new ArrayList<String>();
+            binaryData = expectBinary ? new ByteArrayOutputStream() : null;
+        }
+
+        boolean haveStatusLine() {
+            return responseCode != DeviceResponse.RESPONSE_CODE_NONE;
+        }
+
+        boolean haveKnownTextLength() {
+            return expectedTextLines >= 0;
+        }
+
+        DeviceResponse toDeviceResponse() {
+            return new DeviceResponse(command, responseCode, responseCodeText,
+                    responseLines.toArray(new String[0]),
+                    binaryData != null ? binaryData.toByteArray() : null,
+                    writeNanos >= 0 && firstLineNanos >= 0 ? firstLineNanos - writeNanos : -1);
+        }
+    }
+
+    private static final ArrayDeque<PendingCommand> pendingCommands = new ArrayDeque<PendingCommand>();
+    private static final Object commandWriteLock = new Object();
+    private static final List<PendingCommand> heldCommands = new ArrayList<PendingCommand>();
+    private static Thread commandHoldOwner = null;
+    private static final StringBuilder partialLineBuffer = new StringBuilder();
+    private static volatile long lastSingleCommandMillis = 0;
+
+    private static HandlerThread commandTimerThread = null;
+    private static Handler commandTimerHandler = null;
+    private static final Runnable commandTimerRunnable = new Runnable() {
+        public void run() {
+            List<PendingCommand> completedCmds = new ArrayList<PendingCommand>();
+            synchronized(pendingCommands) {
+                PendingCommand headCmd = pendingCommands.peekFirst();
+                long curTimeMillis = System.currentTimeMillis();
+                if(headCmd != null && headCmd.haveStatusLine() && !headCmd.haveKnownTextLength() &&
+                   curTimeMillis - headCmd.lastDataMillis >= RESPONSE_TEXT_IDLE_TIMEOUT) {
+                    completeHeadCommand(completedCmds);
+                }
+                else if(headCmd != null && headCmd.haveStatusLine() &&
+                        curTimeMillis - headCmd.submitTimeMillis > getStaleCommandTimeout()) {
+                    Log.w(TAG, "Incomplete response text for command " + headCmd.command);
+                    completeHeadCommand(completedCmds);
+                }
+            }
+            completeCommands(completedCmds);
+            expireStaleCommands();
+            scheduleCommandTimer();
+        }
+    };
+
+    private static synchronized Handler getCommandTimerHandler() {
+        if(commandTimerHandler == null) {
+            commandTimerThread = new HandlerThread("ChameleonCommandTimer");
+            commandTimerThread.start();
+            commandTimerHandler = new Handler(commandTimerThread.getLooper());
+        }
+        return commandTimerHandler;
+    }
+
+    /**
+     * (Re)schedules the timer for the next deadline of the head command: the end of its
+     * response text (when its length is unknown), or the time at which it is given up on as stale.
+     */
+    private static void scheduleCommandTimer() {
+        long timerDeadline;
+        synchronized(pendingCommands) {
+            PendingCommand headCmd = pendingCommands.peekFirst();
+            if(headCmd == null) {
+                timerDeadline = -1;
+            }
+            else if(headCmd.haveStatusLine() && !headCmd.haveKnownTextLength()) {
+                timerDeadline = headCmd.lastDataMillis + RESPONSE_TEXT_IDLE_TIMEOUT;
+            }
+            else {
+                timerDeadline = headCmd.submitTimeMillis + getStaleCommandTimeout() + 1;
+            }
+        }
+        Handler timerHandler = getCommandTimerHandler();
+        timerHandler.removeCallbacks(commandTimerRunnable);
+        if(timerDeadline >= 0) {
+            timerHandler.postDelayed(commandTimerRunnable, Math.max(0, timerDeadline - System.currentTimeMillis()));
+        }
+    }
+
+    private static long getStaleCommandTimeout() {
+        return 2 * ChameleonIO.TIMEOUT;
+    }
+
+    /**
+     * @param rawCmd
+     * @return int number of text lines following a 101:OK WITH TEXT response to the command,
+     *         or -1 if it is not known in advance
+     */
+    public static int getExpectedTextLines(String rawCmd) {
+        return rawCmd.trim().endsWith("?") ? 1 : -1;
+    }
+
+    /**
+     * Writes the command to the active serial port and returns a future that completes with
+     * the device's response. The future completes exceptionally if the command cannot be sent.
+     * @param rawCmd
+     * @param expectBinaryData
+     * @return CompletableFuture<DeviceResponse>
+     */
+    public static CompletableFuture<DeviceResponse> submitCommand(String rawCmd, boolean expectBinaryData) {
+        lastSingleCommandMillis = System.currentTimeMillis();
+        List<CompletableFuture<DeviceResponse>> respFutures = submitCommands(new String[] { rawCmd }, expectBinaryData);
+        return respFutures.get(0);
+    }
+
+    public static CompletableFuture<DeviceResponse> submitCommand(String rawCmd) {
+        return submitCommand(rawCmd, false);
+    }
+
+    /**
+     * Writes the commands to the device, packing as many of them as fit into a single
+     * transfer when pipelining is enabled. While another thread holds the engine (see
+     * holdCommands) the commands are queued and only written once it is released.
+     * @param rawCmds
+     * @param expectBinaryData
+     * @return List of response futures in the same order as the commands
+     */
+    public static List<CompletableFuture<DeviceResponse>> submitCommands(String[] rawCmds, boolean expectBinaryData) {
+        List<CompletableFuture<DeviceResponse>> respFutures = new ArrayList<CompletableFuture<DeviceResponse>>();
+        List<PendingCommand> submittedCmds = new ArrayList<PendingCommand>();
+        for(int ci = 0; ci < rawCmds.length; ci++) {
+            PendingCommand pendingCmd = new PendingCommand(rawCmds[ci], expectBinaryData);
+            respFutures.add(pendingCmd.responseFuture);
+            submittedCmds.add(pendingCmd);
+        }
+        synchronized(commandWriteLock) {
+            if(commandHoldOwner != null && commandHoldOwner != Thread.currentThread()) {
+                heldCommands.addAll(submittedCmds);
+                return respFutures;
+            }
+            writeCommands(submittedCmds);
+        }
+        scheduleCommandTimer();
+        return respFutures;
+    }
+
+    /**
+     * Writes the commands to the device, packing as many of them as fit into a single
+     * transfer when pipelining is enabled. Called with the commandWriteLock held.
+     * @param pendingCmds
+     */
+    private static void writeCommands(List<PendingCommand> pendingCmds) {
+        ChameleonSerialIOInterface serialPort = Settings.getActiveSerialIOPort();
+        String cmdTerminator = ChameleonIO.REVE_BOARD ? "\r\n" : "\n\r";
+        expireStaleCommands();
+        StringBuilder cmdBatch = new StringBuilder();
+        for(PendingCommand pendingCmd : pendingCmds) {
+            if(pendingCmd.responseFuture.isDone()) {
+                continue; // the caller gave up on the command while it was held
+            }
+            else if(serialPort == null || XModemTransferSession.isTransferActive()) {
+                pendingCmd.responseFuture.completeExceptionally(new IllegalStateException("Serial port not available for command " + pendingCmd.command));
+                continue;
+            }
+            String nextCmd = pendingCmd.command + cmdTerminator;
+            if(cmdBatch.length() > 0 && (!PIPELINE_COMMANDS || cmdBatch.length() + nextCmd.length() > PIPELINE_BUFFER_SIZE)) {
+                serialPort.sendDataBuffer(cmdBatch.toString().getBytes(StandardCharsets.UTF_8));
+                cmdBatch.setLength(0);
+            }
+            pendingCmd.submitTimeMillis = pendingCmd.lastDataMillis = System.currentTimeMillis();
+            pendingCmd.writeNanos = System.nanoTime();
+            synchronized(pendingCommands) {
+                pendingCommands.addLast(pendingCmd);
+            }
+            cmdBatch.append(nextCmd);
+        }
+        if(cmdBatch.length() > 0) {
+            serialPort.sendDataBuffer(cmdBatch.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Gives the calling thread exclusive use of the command engine (while the serial link is
+     * being reconfigured): commands submitted by any other thread are held back, without
+     * blocking the caller, until releaseCommands.
+     */
+    public static void holdCommands() {
+        synchronized(commandWriteLock) {
+            commandHoldOwner = Thread.currentThread();
+        }
+    }
+
+    /**
+     * Ends the exclusive use of the command engine and writes out the held commands.
+     */
+    public static void releaseCommands() {
+        synchronized(commandWriteLock) {
+            commandHoldOwner = null;
+            if(!heldCommands.isEmpty()) {
+                writeCommands(new ArrayList<PendingCommand>(heldCommands));
+                heldCommands.clear();
+            }
+        }
+        scheduleCommandTimer();
+    }
+
+    /**
+     * Drops (and times out) any pending commands that were never answered by the device.
+     * Runs on submit and from the command timer.
+     */
+    private static void expireStaleCommands() {
+        long curTimeMillis = System.currentTimeMillis();
+        List<PendingCommand> staleCmds = new ArrayList<PendingCommand>();
+        synchronized(pendingCommands) {
+            while(!pendingCommands.isEmpty() && !pendingCommands.peekFirst().haveStatusLine() &&
+                  curTimeMillis - pendingCommands.peekFirst().submitTimeMillis > getStaleCommandTimeout()) {
+                staleCmds.add(pendingCommands.pollFirst());
+            }
+        }
+        for(PendingCommand staleCmd : staleCmds) {
+            Log.w(TAG, "No response received for command " + staleCmd.command);
+            staleCmd.responseFuture.completeExceptionally(new TimeoutException(staleCmd.command));
+        }
+    }
+
+    /**
+     * Cancels a command whose caller has given up waiting for the response. The command is
+     * left in the FIFO so that the device's late response to it is consumed (and discarded)
+     * instead of being matched to the next command.
+     * @param respFuture
+     */
+    public static void cancelCommand(CompletableFuture<DeviceResponse> respFuture) {
+        synchronized(pendingCommands) {
+            for(PendingCommand pendingCmd : pendingCommands) {
+                if(pendingCmd.responseFuture == respFuture) {
+                    pendingCmd.cancelled = true;
+                    break;
+                }
+            }
+        }
+        respFuture.cancel(false);
+    }
+
+    public static void cancelPendingCommands() {
+        List<PendingCommand> cancelledCmds;
+        synchronized(commandWriteLock) {
+            cancelledCmds = new ArrayList<PendingCommand>(heldCommands);
+            heldCommands.clear();
+        }
+        for(PendingCommand pendingCmd : cancelledCmds) {
+            pendingCmd.responseFuture.cancel(false);
+        }
+        flushPendingResponses();
+    }
+
+    /**
+     * Cancels the commands that are waiting for a response and forgets any partial response
+     * line, e.g., after the link was reconfigured and those responses can no longer be
+     * recognized. Held commands are not affected.
+     */
+    public static void flushPendingResponses() {
+        List<PendingCommand> cancelledCmds;
+        synchronized(pendingCommands) {
+            cancelledCmds = new ArrayList<PendingCommand>(pendingCommands);
+            pendingCommands.clear();
+            partialLineBuffer.setLength(0);
+        }
+        for(PendingCommand pendingCmd : cancelledCmds) {
+            pendingCmd.responseFuture.cancel(false);
+        }
+    }
+
+    /**
+     * Single commands come from the user and the tools; the periodic status queries are
+     * always sent in batches (see DeviceStatusSnapshot.queryDevice).
+     * @return long time the last single (interactive) command was submitted at
+     */
+    public static long getLastSingleCommandMillis() {
+        return lastSingleCommandMillis;
+    }
+
+    public static boolean haveCommandsPending() {
+        synchronized(pendingCommands) {
+            return !pendingCommands.isEmpty();
+        }
+    }
+
+    /**
+     * @return boolean whether the head command has seen its status line and is still
+     *         receiving the raw bytes that follow it (which cannot be told apart from LIVE
+     *         log records)
+     */
+    public static boolean isReceivingBinaryResponse() {
+        synchronized(pendingCommands) {
+            PendingCommand headCmd = pendingCommands.peekFirst();
+            return headCmd != null && headCmd.haveStatusLine() && headCmd.expectBinaryData;
+        }
+    }
+
+    /**
+     * Parses the status code out of a "NNN:TEXT" line.
+     * @param respLine
+     * @return int response code, or RESPONSE_CODE_NONE if this is not a status line
+     */
+    public static int parseResponseCode(String respLine) {
+        int colonPos = respLine.indexOf(':');
+        if(colonPos < 3) {
+            return DeviceResponse.RESPONSE_CODE_NONE;
+        }
+        int respCode = 0;
+        for(int ci = colonPos - 3; ci < colonPos; ci++) {
+            char digit = respLine.charAt(ci);
+            if(digit < '0' || digit > '9') {
+                return DeviceResponse.RESPONSE_CODE_NONE;
+            }
+            respCode = 10 * respCode + (digit - '0');
+        }
+        if(ChameleonIO.SerialRespCode.lookupByResponseCode(respCode) == null) {
+            return DeviceResponse.RESPONSE_CODE_NONE;
+        }
+        return respCode;
+    }
+
+    /**
+     * Consumes command response data received from the device.
+     * @param dataBuf
+     * @param offset
+     * @param length
+     * @return boolean whether the data was recognized as (part of) a command response
+     */
+    public static boolean onSerialDataReceived(byte[] dataBuf, int offset, int length) {
+        boolean consumedData = false;
+        List<PendingCommand> completedCmds = new ArrayList<PendingCommand>();
+        synchronized(pendingCommands) {
+            int lineStart = offset, dataEnd = offset + length;
+            for(int bi = offset; bi < dataEnd; bi++) {
+                PendingCommand headCmd = pendingCommands.peekFirst();
+                if(headCmd != null && headCmd.expectBinaryData && headCmd.haveStatusLine()) {
+                    if(headCmd.binaryData.size() == 0 && (dataBuf[bi] == '\r' || dataBuf[bi] == '\n')) {
+                        lineStart = bi + 1;
+                        continue;
+                    }
+                    headCmd.binaryData.write(dataBuf, bi, dataEnd - bi);
+                    lineStart = dataEnd;
+                    break;
+                }
+                byte nextByte = dataBuf[bi];
+                if(nextByte != '\r' && nextByte != '\n') {
+                    continue;
+                }
+                partialLineBuffer.append(new String(dataBuf, lineStart, bi - lineStart, StandardCharsets.UTF_8));
+                lineStart = bi + 1;
+                if(partialLineBuffer.length() == 0) {
+                    continue;
+                }
+                String respLine = partialLineBuffer.toString();
+                partialLineBuffer.setLength(0);
+                consumedData |= processResponseLine(respLine, completedCmds);
+            }
+            if(lineStart < dataEnd) {
+                partialLineBuffer.append(new String(dataBuf, lineStart, dataEnd - lineStart, StandardCharsets.UTF_8));
+                consumedData |= !pendingCommands.isEmpty();
+            }
+            // the text of the head command may continue in the next transfer: it is completed
+            // by the next status line, or by the command timer once the device goes quiet
+            PendingCommand headCmd = pendingCommands.peekFirst();
+            if(headCmd != null && headCmd.haveStatusLine()) {
+                headCmd.lastDataMillis = System.currentTimeMillis();
+            }
+        }
+        completeCommands(completedCmds);
+        if(consumedData) {
+            scheduleCommandTimer();
+        }
+        return consumedData;
+    }
+
+    /**
+     * Completes the futures outside of the lock since their dependents may issue new commands.
+     */
+    private static void completeCommands(List<PendingCommand> completedCmds) {
+        for(PendingCommand completedCmd : completedCmds) {
+            if(completedCmd.cancelled) {
+                Log.d(TAG, "Discarded the late response to command " + completedCmd.command);
+                continue;
+            }
+            completedCmd.responseFuture.complete(completedCmd.toDeviceResponse());
+        }
+    }
+
+    private static boolean processResponseLine(String respLine, List<PendingCommand> completedCmds) {
+        int respCodeStart = Utils.getFirstResponseCodeIndex(respLine);
+        int respCode = parseResponseCode(respLine.substring(respCodeStart));
+        PendingCommand headCmd = pendingCommands.peekFirst();
+        if(respCode != DeviceResponse.RESPONSE_CODE_NONE) {
+            if(headCmd != null && headCmd.haveStatusLine()) {
+                completeHeadCommand(completedCmds);
+                headCmd = pendingCommands.peekFirst();
+            }
+            if(headCmd == null) {
+                Log.i(TAG, "Unsolicited command response: " + respLine);
+                return true;
+            }
+            headCmd.responseCode = respCode;
+            headCmd.responseCodeText = respLine.substring(respCodeStart);
+            headCmd.firstLineNanos = System.nanoTime();
+            if(respCodeStart > 0) {
+                headCmd.responseLines.add(respLine.substring(0, respCodeStart).trim());
+            }
+            if(respCode != ChameleonIO.SerialRespCode.OK_WITH_TEXT.toInteger() && !headCmd.expectBinaryData) {
+                completeHeadCommand(completedCmds);
+            }
+            return true;
+        }
+        else if(headCmd != null && headCmd.haveStatusLine()) {
+            headCmd.responseLines.add(respLine);
+            if(headCmd.textLineCount == 0) {
+                headCmd.firstLineNanos = System.nanoTime();
+            }
+            if(++headCmd.textLineCount == headCmd.expectedTextLines) {
+                completeHeadCommand(completedCmds);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static void completeHeadCommand(List<PendingCommand> completedCmds) {
+        PendingCommand headCmd = pendingCommands.pollFirst();
+        if(headCmd != null) {
+            completedCmds.add(headCmd);
+        }
+    }
+
+}
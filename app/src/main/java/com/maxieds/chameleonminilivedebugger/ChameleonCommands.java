@@ -33,9 +33,12 @@ public class ChameleonCommands {
     public static void cloneMFU() {
         String dumpMFUOutput = ChameleonIO.getSettingFromDevice("DUMP_MFU");
         MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("DUMP_MFU", dumpMFUOutput));
-        ChameleonIO.executeChameleonMiniCommand("CLONE", ChameleonIO.TIMEOUT);
-        String cloneCmdOutput = ChameleonIO.DEVICE_RESPONSE_CODE;
-        cloneCmdOutput += Arrays.asList(ChameleonIO.DEVICE_RESPONSE).toString().replaceAll("(^\\[|\\]$)", "").replace(", ", "\n");
+        DeviceResponse cloneResp = ChameleonIO.getDeviceResponse("CLONE", false);
+        String cloneCmdOutput = "TIMEOUT";
+        if(cloneResp != null) {
+            cloneCmdOutput = cloneResp.getResponseCodeText();
+            cloneCmdOutput += Arrays.asList(cloneResp.getResponseLines()).toString().replaceAll("(^\\[|\\]$)", "").replace(", ", "\n");
+        }
         MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("CLONE", cloneCmdOutput));
     }
 
@@ -96,10 +99,13 @@ public class ChameleonCommands {
         if (!ChameleonIO.REVE_BOARD && (cmCmd.equals("DUMP_MFU") || cmCmd.equals("IDENTIFY") || cmCmd.equals("CLONE"))) {
             int oldTimeout = ChameleonIO.TIMEOUT;
             ChameleonIO.TIMEOUT = 5000; // extend the timeout on these long commands
-            String mfuBytes = ChameleonIO.getSettingFromDevice(cmCmd);
+            DeviceResponse cmdResp = ChameleonIO.getDeviceResponse(cmCmd, false);
             ChameleonIO.TIMEOUT = oldTimeout;
-            ChameleonIO.DEVICE_RESPONSE[0] = Arrays.toString(ChameleonIO.DEVICE_RESPONSE);
-            ChameleonIO.DEVICE_RESPONSE[0] = ChameleonIO.DEVICE_RESPONSE[0].substring(1, ChameleonIO.DEVICE_RESPONSE[0].length() - 1);
+            String mfuBytes = "TIMEOUT";
+            if(cmdResp != null) {
+                mfuBytes = cmdResp.isOK() ? Arrays.toString(cmdResp.getResponseLines()) : cmdResp.getResponseCodeText();
+                mfuBytes = mfuBytes.replaceAll("(^\\[|\\]$)", "");
+            }
             mfuBytes = mfuBytes.replace(",", "");
             mfuBytes = mfuBytes.replace("\n", "");
             mfuBytes = mfuBytes.replace("\r", "");
@@ -223,9 +229,9 @@ public class ChameleonCommands {
             ChameleonIO.deviceStatus.LASTUID = ChameleonIO.deviceStatus.UID;
             String uidCmd = ChameleonIO.REVE_BOARD ? "uid=" : "UID=";
             byte[] randomBytes = Utils.getRandomBytes(ChameleonIO.deviceStatus.UIDSIZE);
-            String sendCmd = uidCmd + Utils.bytes2Hex(randomBytes).replace(" ", "").toUpperCase();
+            String sendCmd = uidCmd + HexCodec.UPPER_PLAIN.encode(randomBytes);
             ChameleonIO.getSettingFromDevice(sendCmd);
-            msgParam = "Next UID set to " + Utils.bytes2Hex(randomBytes).replace(" ", ":").toUpperCase();
+            msgParam = "Next UID set to " + HexCodec.UPPER_COLON.encode(randomBytes);
             ChameleonIO.deviceStatus.startPostingStats(250);
         }
         else if(createCmd.equals("Log Replay")) {
@@ -27,17 +27,22 @@ import android.widget.TextView;
 import com.felhr.usbserial.UsbSerialDevice;
 import com.shawnlin.numberpicker.NumberPicker;
 
-import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.maxieds.chameleonminilivedebugger.ChameleonIO.SerialRespCode.FALSE;
 import static com.maxieds.chameleonminilivedebugger.ChameleonIO.SerialRespCode.OK;
 import static com.maxieds.chameleonminilivedebugger.TabFragment.TAB_TOOLS;
 import static com.maxieds.chameleonminilivedebugger.TabFragment.TAB_TOOLS_MITEM_SLOTS;
-import static java.lang.Math.round;
 
 /**
  * <h1>Chameleon IO Wrapper</h1>
@@ -97,6 +102,7 @@ public class ChameleonIO {
         ChameleonSerialIOInterface deviceActiveSerialIOPort = Settings.getActiveSerialIOPort();
         String deviceConnType = deviceActiveSerialIOPort.isWiredUSB() ? "USB" : "Bluetooth";
         CHAMELEON_MINI_BOARD_TYPE = CHAMELEON_TYPE_UNKNOWN;
+        XModemEngine.resetNegotiatedModes();
         if(CHAMELEON_DEVICE_USBVID == CMUSB_DFUMODE_VENDORID &&
            CHAMELEON_DEVICE_USBPID == CMUSB_DFUMODE_PRODUCTID) {
             CHAMELEON_MINI_BOARD_TYPE = CHAMELEON_TYPE_DFUMODE;
@@ -182,25 +188,15 @@ public class ChameleonIO {
      * Static constants for storing state of the device.
      */
     public static boolean PAUSED = true;
-    public static boolean WAITING_FOR_RESPONSE = false;
-    public static boolean WAITING_FOR_XMODEM = false;
-    public static boolean DOWNLOAD = false;
-    public static boolean UPLOAD = false;
-    public static boolean EXPECTING_BINARY_DATA = false;
     public static String LASTCMD = "";
-    public static byte[] PRIOR_BUFFER_DATA = new byte[0];
-    public static boolean APPEND_PRIOR_BUFFER_DATA = false;
 
     /**
-     * Static storage for command return values.
-     * Used to avoid overhead of passing messages for the command responses.
+     * Set while a partial LIVE log record split across serial transfers is held in the
+     * ingest buffer waiting for the rest of its bytes.
      *
-     * @ref LiveLoggerActivity.getSettingFromDevice
-     * @ref LiveLoggerActivity.usbReaderCallback
+     * @ref SerialIORingBuffer.frameRecords
      */
-    public static String DEVICE_RESPONSE_CODE = "";
-    public static String[] DEVICE_RESPONSE = new String[0];
-    public static byte[] DEVICE_RESPONSE_BINARY = new byte[0];
+    public static boolean APPEND_PRIOR_BUFFER_DATA = false;
 
     /**
      * <h1>Serial Response Code</h1>
@@ -336,6 +332,8 @@ public class ChameleonIO {
 
         /**
          * How often do we update / refresh the stats at the top of the window?
+         * (Upper bound on the scheduler tick; the individual settings are refreshed on their own
+         * adaptive budgets, see DeviceStatusScheduler.)
          */
         public static final int STATS_UPDATE_INTERVAL = 4500; // 4.5 seconds
         public static boolean postingStatsInProgress = false;
@@ -345,9 +343,14 @@ public class ChameleonIO {
                 if(Settings.getActiveSerialIOPort() == null || !ChameleonLogUtils.CONFIG_ENABLE_LIVE_TOOLBAR_STATUS_UPDATES) {
                     statsUpdateHandler.removeCallbacksAndMessages(this);
                     postingStatsInProgress = false;
+                    return;
+                }
+                boolean[] dueQueries = DeviceStatusScheduler.getDueQueries();
+                if(dueQueries == null || DeviceStatusScheduler.inLogTrafficBurst()) {
+                    statsUpdateHandler.postDelayed(this, DeviceStatusScheduler.getNextRefreshDelay());
                 }
                 else {
-                    updateAllStatusAndPost(true);
+                    updateStatusAndPost(dueQueries, true);
                 }
             }
         };
@@ -362,84 +365,140 @@ public class ChameleonIO {
                 return;
             }
             postingStatsInProgress = true;
+            DeviceStatusScheduler.invalidateAll();
             statsUpdateHandler.postDelayed(statsUpdateRunnable, msDelay);
         }
 
         /**
-         * Queries the live device for its status settings.
+         * Applies a setting reported by the device in the LIVE log (CONFIG / UID) to the
+         * status toolbar without querying the device. Safe to call from any thread.
+         * @param queryIndex DeviceStatusSnapshot.QUERY_CONFIG or QUERY_UID
+         * @param settingValue
+         * @ref DeviceStatusScheduler.onLogRecordReceived
          */
-        private static boolean updateAllStatus(boolean resetTimer) {
-            if (!ChameleonIO.REVE_BOARD) {
-                CONFIG = ChameleonIO.getSettingFromDevice("CONFIG?", CONFIG);
-                UID = ChameleonIO.getSettingFromDevice("UID?", UID);
-                UIDSIZE = Utils.parseInt(ChameleonIO.getSettingFromDevice("UIDSIZE?", String.format("%d", UIDSIZE)));
-                MEMSIZE = Utils.parseInt(ChameleonIO.getSettingFromDevice("MEMSIZE?", String.format("%d", MEMSIZE)));
-                LOGMODE = ChameleonIO.getSettingFromDevice("LOGMODE?", String.format("%d", LOGSIZE)).replaceAll(" \\(.*\\)", "");
-                LOGSIZE = Utils.parseInt(ChameleonIO.getSettingFromDevice("LOGMEM?", String.format("%d", LOGSIZE)).replaceAll(" \\(.*\\)", ""));
-                DIP_SETTING = Utils.parseInt(ChameleonIO.getSettingFromDevice("SETTING?", String.format("%d", DIP_SETTING)));
-                READONLY = ChameleonIO.getSettingFromDevice("READONLY?", String.format("%d", READONLY ? 1 : 0)).equals("1");
-                FIELD = ChameleonIO.getSettingFromDevice("FIELD?", String.format("%d", FIELD ? 1 : 0)).equals("1");
-                CHARGING = ChameleonIO.getSettingFromDevice("CHARGING?", String.format("%d", CHARGING ? 1 : 0)).equals("TRUE");
-                THRESHOLD = Utils.parseInt(ChameleonIO.getSettingFromDevice("THRESHOLD?", String.format("%d", THRESHOLD)));
-                TIMEOUT = ChameleonIO.getSettingFromDevice("TIMEOUT?", TIMEOUT);
-            }
-            else {
-                CONFIG = ChameleonIO.getSettingFromDevice("config?", CONFIG);
-                UID = ChameleonIO.getSettingFromDevice("uid?", UID);
-                UIDSIZE = Utils.parseInt(ChameleonIO.getSettingFromDevice("uidsize?", String.format("%d",UIDSIZE)));
-                MEMSIZE = Utils.parseInt(ChameleonIO.getSettingFromDevice("memsize?", String.format("%d",MEMSIZE)));
-                LOGMODE = "NONE";
-                LOGSIZE = 0;
-                DIP_SETTING = Utils.parseInt(ChameleonIO.getSettingFromDevice("setting?", String.format("%d", DIP_SETTING)));
-                READONLY = ChameleonIO.getSettingFromDevice("readonly?", String.format("%d", READONLY ? 1 : 0)).equals("1");
-                FIELD = false;
-                CHARGING = false;
-                THRESHOLD = 0;
-                TIMEOUT = "NA";
-            }
-            // setup threshold signal bars:
-            LiveLoggerActivity.setSignalStrengthIndicator(THRESHOLD);
-            return true;
+        public static void postStatusFieldUpdate(final int queryIndex, final String settingValue) {
+            statsUpdateHandler.post(new Runnable() {
+                public void run() {
+                    DeviceStatusSnapshot curSnapshot = lastStatusSnapshot != null ? lastStatusSnapshot : DeviceStatusSnapshot.fromDeviceStatusSettings();
+                    try {
+                        publishStatusSnapshot(curSnapshot.withStringSetting(queryIndex, settingValue));
+                    } catch(Exception ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            });
         }
 
         /**
-         * Updates all status settings and posts the results to the live activity window.
-         *
-         * @param resetTimer whether to have this execute again in STATS_UPDATE_INTERVAL milliseconds
-         * @ref DeviceStatusSettings.STATS_UPDATE_INTERVAL
-         * @ref DeviceStatusSettings.updateAllStatus
+         * The status queries run on this thread so that the UI never blocks waiting on the device.
          */
-        public static void updateAllStatusAndPost(boolean resetTimer) {
-            if(Settings.getActiveSerialIOPort() == null) {
-                stopPostingStats();
-                return;
-            }
-            try {
-                boolean haveUpdates = updateAllStatus(resetTimer);
-            }
-            catch(Exception nfe) {
-                nfe.printStackTrace();
-                stopPostingStats();
+        private static final ExecutorService statusQueryExecutor = Executors.newSingleThreadExecutor();
+        private static final AtomicBoolean statusQueryInProgress = new AtomicBoolean(false);
+        private static DeviceStatusSnapshot lastStatusSnapshot = null;
+
+        public static DeviceStatusSnapshot getLastStatusSnapshot() {
+            return lastStatusSnapshot;
+        }
+
+        /**
+         * Copies the snapshot into the status fields and updates the toolbar.
+         * Must be called on the UI thread.
+         * @param statusSnapshot
+         */
+        public static void publishStatusSnapshot(DeviceStatusSnapshot statusSnapshot) {
+            lastStatusSnapshot = statusSnapshot;
+            CONFIG = statusSnapshot.config;
+            UID = statusSnapshot.uid;
+            UIDSIZE = statusSnapshot.uidSize;
+            MEMSIZE = statusSnapshot.memSize;
+            LOGMODE = statusSnapshot.logMode;
+            LOGSIZE = statusSnapshot.logSize;
+            DIP_SETTING = statusSnapshot.dipSetting;
+            READONLY = statusSnapshot.readOnly;
+            FIELD = statusSnapshot.field;
+            CHARGING = statusSnapshot.charging;
+            THRESHOLD = statusSnapshot.threshold;
+            TIMEOUT = statusSnapshot.timeout;
+            // setup threshold signal bars:
+            LiveLoggerActivity.setSignalStrengthIndicator(THRESHOLD);
+            if(LiveLoggerActivity.getInstance() == null) {
                 return;
             }
             ((TextView) LiveLoggerActivity.getInstance().findViewById(R.id.deviceConfigText)).setText(CONFIG);
             String formattedUID = Utils.formatUIDString(UID, " ");
             ((TextView) LiveLoggerActivity.getInstance().findViewById(R.id.deviceConfigUID)).setText(formattedUID);
-            String subStats1 = String.format(Locale.ENGLISH, "MEM-%dK/LMEM-%dK/LMD-%s/REV%s", round(MEMSIZE / 1024), round(LOGSIZE / 1024), LOGMODE, ChameleonIO.REVE_BOARD ? "E" : "G");
-            ((TextView) LiveLoggerActivity.getInstance().findViewById(R.id.deviceStats1)).setText(subStats1);
-            String subStats2 = String.format(Locale.ENGLISH, "DIP#%d/%s/FLD-%d/%sCHRG", DIP_SETTING, READONLY ? "RO" : "RW", FIELD ? 1 : 0, CHARGING ? "+" : "NO-");
-            ((TextView) LiveLoggerActivity.getInstance().findViewById(R.id.deviceStats2)).setText(subStats2);
-            String subStats3 = String.format(Locale.ENGLISH, "THRS-%d mv/TMT-%s", THRESHOLD, TIMEOUT);
-            ((TextView) LiveLoggerActivity.getInstance().findViewById(R.id.deviceStats3)).setText(subStats3);
+            ((TextView) LiveLoggerActivity.getInstance().findViewById(R.id.deviceStats1)).setText(statusSnapshot.getStatsLine1());
+            ((TextView) LiveLoggerActivity.getInstance().findViewById(R.id.deviceStats2)).setText(statusSnapshot.getStatsLine2());
+            ((TextView) LiveLoggerActivity.getInstance().findViewById(R.id.deviceStats3)).setText(statusSnapshot.getStatsLine3());
             SeekBar thresholdSeekbar = (SeekBar) LiveLoggerActivity.getInstance().findViewById(R.id.thresholdSeekbar);
             if (thresholdSeekbar != null) {
                 thresholdSeekbar.setProgress(THRESHOLD);
                 ((TextView) LiveLoggerActivity.getInstance().findViewById(R.id.thresholdSeekbarValueText)).setText(String.format(Locale.ENGLISH, "% 5d mV", THRESHOLD));
             }
-            if (resetTimer && postingStatsInProgress) {
-                statsUpdateHandler.removeCallbacksAndMessages(statsUpdateRunnable);
-                statsUpdateHandler.postDelayed(statsUpdateRunnable, STATS_UPDATE_INTERVAL);
+        }
+
+        /**
+         * Updates all status settings and posts the results to the live activity window.
+         * The device is queried on a background thread with a single pipelined batch of
+         * commands, and the resulting snapshot is published back on the UI thread.
+         *
+         * @param resetTimer whether to have this execute again when the next setting is due
+         * @ref DeviceStatusScheduler.getNextRefreshDelay
+         * @ref DeviceStatusSnapshot.queryDevice
+         */
+        public static void updateAllStatusAndPost(final boolean resetTimer) {
+            updateStatusAndPost(null, resetTimer);
+        }
+
+        /**
+         * Updates the status settings selected by the query mask (null for all of them).
+         * @param queryMask
+         * @param resetTimer
+         * @ref DeviceStatusSettings.updateAllStatusAndPost
+         */
+        public static void updateStatusAndPost(final boolean[] queryMask, final boolean resetTimer) {
+            if(Settings.getActiveSerialIOPort() == null) {
+                stopPostingStats();
+                return;
+            }
+            else if(!statusQueryInProgress.compareAndSet(false, true)) {
+                if(resetTimer && postingStatsInProgress) {
+                    statsUpdateHandler.postDelayed(statsUpdateRunnable, DeviceStatusScheduler.MIN_SCHEDULER_TICK);
+                }
+                return;
             }
+            final DeviceStatusSnapshot prevSnapshot = DeviceStatusSnapshot.fromDeviceStatusSettings();
+            statusQueryExecutor.execute(new Runnable() {
+                public void run() {
+                    DeviceStatusSnapshot nextSnapshot = null;
+                    try {
+                        nextSnapshot = DeviceStatusSnapshot.queryDevice(prevSnapshot, queryMask);
+                        DeviceStatusScheduler.recordRefresh(queryMask, prevSnapshot, nextSnapshot);
+                    } catch(Exception ex) {
+                        ex.printStackTrace();
+                    }
+                    final DeviceStatusSnapshot statusSnapshot = nextSnapshot;
+                    statsUpdateHandler.post(new Runnable() {
+                        public void run() {
+                            statusQueryInProgress.set(false);
+                            if(statusSnapshot == null) {
+                                stopPostingStats();
+                                return;
+                            }
+                            try {
+                                DeviceStatusSnapshot curSnapshot = lastStatusSnapshot != null ? lastStatusSnapshot : DeviceStatusSnapshot.fromDeviceStatusSettings();
+                                publishStatusSnapshot(curSnapshot.withQueriedSettings(statusSnapshot, queryMask));
+                            } catch(Exception ex) {
+                                ex.printStackTrace();
+                            }
+                            if (resetTimer && postingStatsInProgress) {
+                                statsUpdateHandler.removeCallbacksAndMessages(statsUpdateRunnable);
+                                statsUpdateHandler.postDelayed(statsUpdateRunnable, DeviceStatusScheduler.getNextRefreshDelay());
+                            }
+                        }
+                    });
+                }
+            });
         }
     }
 
@@ -501,78 +560,64 @@ public class ChameleonIO {
             timeout *= -1;
             SystemClock.sleep(timeout);
         }
-        String deviceConfigCmd = rawCmd + (REVE_BOARD ? "\r\n" : "\n\r");
-        byte[] sendBuf = deviceConfigCmd.getBytes(StandardCharsets.UTF_8);
-        ChameleonSerialIOInterface serialPort = Settings.getActiveSerialIOPort();
-        if(serialPort == null) {
+        if(Settings.getActiveSerialIOPort() == null) {
             Log.i(TAG, "serial port is null executing command");
             return null;
         }
         Log.i(TAG, "sending data buffer");
-        serialPort.sendDataBuffer(sendBuf);
+        ChameleonCommandEngine.submitCommand(rawCmd);
         return OK;
     }
 
+    /**
+     * Sends the query to the Chameleon device and waits (at most TIMEOUT milliseconds) for
+     * the response to it.
+     * @param query
+     * @param expectBinaryData whether to keep the raw bytes following the status line
+     * @return DeviceResponse response, or null if the command failed or timed out
+     * @ref ChameleonCommandEngine
+     */
+    public static DeviceResponse getDeviceResponse(String query, boolean expectBinaryData) {
+        ChameleonIO.LASTCMD = query;
+        if(PAUSED || Settings.getActiveSerialIOPort() == null) {
+            Log.i(TAG, "serial port is null or paused");
+            return null;
+        }
+        CompletableFuture<DeviceResponse> respFuture = ChameleonCommandEngine.submitCommand(query, expectBinaryData);
+        try {
+            return respFuture.get(ChameleonIO.TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch(TimeoutException te) {
+            Log.w(TAG, "Timeout waiting for the response to " + query);
+            ChameleonCommandEngine.cancelCommand(respFuture);
+        } catch(InterruptedException ie) {
+            ChameleonCommandEngine.cancelCommand(respFuture);
+        } catch(ExecutionException | CancellationException ee) {
+            Log.w(TAG, "Unable to issue the command " + query + ": " + ee.getMessage());
+        }
+        return null;
+    }
+
     /**
      * Queries the Chameleon device with the query command and returns its response
      * (sans the preceeding ascii status code).
      * @param query
+     * @param hint value to return if the device does not respond
      * @return String device response
-     * @ref ChameleonIO.DEVICE_RESPONSE
-     * @ref ChameleonIO.DEVICE_RESPONSE_CODE
-     * @ref LiveLoggerActivity.usbReaderCallback
+     * @ref ChameleonIO.getDeviceResponse
      */
     public static String getSettingFromDevice(String query, String hint) {
-        ChameleonIO.DEVICE_RESPONSE = new String[1];
-        ChameleonIO.DEVICE_RESPONSE[0] = (hint == null) ? "TIMEOUT" : hint;
-        ChameleonIO.LASTCMD = query;
-        ChameleonSerialIOInterface serialIOPort = Settings.getActiveSerialIOPort();
-        if(serialIOPort == null) {
-            Log.i(TAG, "serial port is null");
-            return ChameleonIO.DEVICE_RESPONSE[0];
-        }
-        else if(!serialIOPort.tryAcquireSerialPort(LOCK_TIMEOUT)) {
-            Log.i(TAG, "Unable to acqure serial port");
-            return ChameleonIO.DEVICE_RESPONSE[0];
-        }
-        ChameleonIO.WAITING_FOR_RESPONSE = true;
-        ChameleonIO.executeChameleonMiniCommand(query, TIMEOUT);
-        for(int i = 0; i < ChameleonIO.TIMEOUT / 50; i++) {
-            if(!ChameleonIO.WAITING_FOR_RESPONSE)
-                break;
-            try {
-                Thread.sleep(50);
-            } catch(InterruptedException ie) {
-                ChameleonIO.WAITING_FOR_RESPONSE = false;
-                break;
-            }
+        DeviceResponse deviceResp = getDeviceResponse(query, false);
+        if(deviceResp == null) {
+            return (hint == null) ? "TIMEOUT" : hint;
         }
-        int deviceRespCode = -1;
-        try {
-            if(ChameleonIO.DEVICE_RESPONSE_CODE == null) {
-                ChameleonIO.DEVICE_RESPONSE_CODE = "";
-            }
-            else if(ChameleonIO.DEVICE_RESPONSE_CODE.length() >= 3) {
-                deviceRespCode = Integer.valueOf(ChameleonIO.DEVICE_RESPONSE_CODE.substring(0, 3));
+        else if(!deviceResp.isOK()) {
+            String retValue = deviceResp.getResponseCodeText();
+            if(deviceResp.getResponseCode() == SerialRespCode.INVALID_COMMAND_USAGE.toInteger()) {
+                retValue += " (Are you in READER mode?)";
             }
-            else {
-                deviceRespCode = Integer.valueOf(ChameleonIO.DEVICE_RESPONSE_CODE);
-            }
-        } catch(NumberFormatException nfe) {
-            nfe.printStackTrace();
-            serialIOPort.releaseSerialPortLock();
-            return ChameleonIO.DEVICE_RESPONSE_CODE;
-        }
-        serialIOPort.releaseSerialPortLock();
-        if(deviceRespCode != ChameleonIO.SerialRespCode.OK.toInteger() &&
-                deviceRespCode != ChameleonIO.SerialRespCode.OK_WITH_TEXT.toInteger()) {
-            return ChameleonIO.DEVICE_RESPONSE_CODE;
+            return retValue;
         }
-        String retValue = ChameleonIO.DEVICE_RESPONSE[0] != null ? ChameleonIO.DEVICE_RESPONSE[0] : "";
-        if(retValue.equals("201:INVALID COMMAND USAGE")) {
-            retValue += " (Are you in READER mode?)";
-        }
-        return retValue;
+        return deviceResp.getResponseText();
     }
 
     /**
@@ -580,9 +625,7 @@ public class ChameleonIO {
      * (sans the preceeding ascii status code).
      * @param query
      * @return String device response
-     * @ref ChameleonIO.DEVICE_RESPONSE
-     * @ref ChameleonIO.DEVICE_RESPONSE_CODE
-     * @ref LiveLoggerActivity.usbReaderCallback
+     * @ref ChameleonIO.getDeviceResponse
      */
     public static String getSettingFromDevice(String query) {
         return ChameleonIO.getSettingFromDevice(query, null);
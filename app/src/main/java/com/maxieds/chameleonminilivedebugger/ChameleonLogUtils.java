@@ -43,7 +43,12 @@ public class ChameleonLogUtils {
     public static int LOGGING_MIN_DATA_BYTES = 0;
     public static boolean CONFIG_CLEAR_LOGS_NEW_DEVICE_CONNNECT = false;
     public static boolean CONFIG_COLLAPSE_COMMON_LOG_ENTRIES = false;
+    public static boolean CONFIG_FOLD_REPEATED_CYCLES = false;
+    public static int CONFIG_FOLD_MAX_CYCLE_LENGTH = 8;
     public static boolean CONFIG_ENABLE_LIVE_TOOLBAR_STATUS_UPDATES = true;
+    public static boolean CONFIG_ENABLE_SESSION_JOURNAL = true;
+    public static boolean CONFIG_STREAM_PCAPNG_CAPTURE = false;
+    public static boolean CONFIG_COMPRESSION_RATIO_ENTROPY = false;
 
     public static final int DATADIR_INCOMING = 0;
     public static final int DATADIR_OUTGOING = 1;
@@ -195,6 +200,10 @@ public class ChameleonLogUtils {
          return 0;
     }
 
+    public static boolean IsLiveLoggingCode(byte logCodeByte) {
+        return LogCode.LOG_CODE_MAP.get(logCodeByte) != null;
+    }
+
     public static int ResponseIsLiveLoggingBytes(byte[] loggingBytes, int startIndex, int logLength) {
         if(logLength < 4) {
             return 0;
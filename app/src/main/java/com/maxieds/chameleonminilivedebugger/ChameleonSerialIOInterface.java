@@ -44,6 +44,7 @@ public interface ChameleonSerialIOInterface {
 
     public boolean notifySerialDataReceived(byte[] serialData);
     public boolean notifyLogDataReceived(byte[] serialData);
+    public boolean notifyLogDataReceived(byte[] serialData, int offset, int length);
     public boolean notifyDeviceFound();
     public boolean notifyDeviceConnectionTerminated();
     public boolean notifyStatus(String msgType, String statusMsg);
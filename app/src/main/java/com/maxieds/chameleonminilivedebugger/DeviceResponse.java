@@ -0,0 +1,117 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import java.util.Locale;
+
+/**
+ * <h1>Device Response</h1>
+ * Immutable record of the response the Chameleon returned for a single command:
+ * the "NNN:TEXT" status line, any text lines that followed it and (for commands
+ * issued in binary mode) the raw bytes received after the status line.
+ *
+ * @ref ChameleonCommandEngine
+ * @ref ChameleonIO.SerialRespCode
+ */
+public class DeviceResponse {
+
+    public static final int RESPONSE_CODE_NONE = -1;
+
+    private final String command;
+    private final int responseCode;
+    private final String responseCodeText;
+    private final String[] responseLines;
+    private final byte[] binaryData;
+    private final long latencyNanos;
+
+    public DeviceResponse(String command, int responseCode, String responseCodeText,
+                          String[] responseLines, byte[] binaryData) {
+        this(command, responseCode, responseCodeText, responseLines, binaryData, -1);
+    }
+
+    public DeviceResponse(String command, int responseCode, String responseCodeText,
+                          String[] responseLines, byte[] binaryData, long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+        this.command = command;
+        this.responseCode = responseCode;
+        this.responseCodeText = responseCodeText == null ? "" : responseCodeText;
+        this.responseLines = responseLines == null ? new String[0] : responseLines;
+        this.binaryData = binaryData == null ? new byte[0] : binaryData;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    public ChameleonIO.SerialRespCode getSerialRespCode() {
+        return ChameleonIO.SerialRespCode.lookupByResponseCode(responseCode);
+    }
+
+    /**
+     * @return String the full status line, e.g., "101:OK WITH TEXT"
+     */
+    public String getResponseCodeText() {
+        return responseCodeText;
+    }
+
+    public String[] getResponseLines() {
+        return responseLines.clone();
+    }
+
+    public int getResponseLineCount() {
+        return responseLines.length;
+    }
+
+    /**
+     * @return String the first line of text following the status line, or the status
+     *         line itself when the command returned no text
+     */
+    public String getResponseText() {
+        return responseLines.length > 0 ? responseLines[0] : responseCodeText;
+    }
+
+    public byte[] getBinaryData() {
+        return binaryData.clone();
+    }
+
+    /**
+     * @return long time from writing the command to parsing the first line of its response
+     *         text (or its status line when there is no text), in ns, or -1 if not measured
+     */
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    public boolean isOK() {
+        return responseCode == ChameleonIO.SerialRespCode.OK.toInteger() ||
+               responseCode == ChameleonIO.SerialRespCode.OK_WITH_TEXT.toInteger();
+    }
+
+    public String toString() {
+        String respText = responseCodeText;
+        for(int li = 0; li < responseLines.length; li++) {
+            respText += "\n" + responseLines[li];
+        }
+        return String.format(Locale.ENGLISH, "%s -> %s", command, respText);
+    }
+
+}
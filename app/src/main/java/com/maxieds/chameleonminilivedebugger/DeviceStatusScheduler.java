@@ -0,0 +1,235 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <h1>Device Status Scheduler</h1>
+ * Decides which of the status toolbar settings are due to be re-queried. Each setting has
+ * its own refresh budget: the interval doubles (up to a maximum) every time a refresh finds
+ * the value unchanged, and drops back to the base interval as soon as it changes.
+ * Configuration, slot and UID changes reported in the LIVE log invalidate (or directly update)
+ * the affected settings, and polling is held off while a burst of log records is coming in so
+ * that the status queries do not compete with the sniffed traffic.
+ *
+ * @ref ChameleonIO.DeviceStatusSettings
+ * @ref DeviceStatusSnapshot.queryDevice
+ */
+public class DeviceStatusScheduler {
+
+    private static final String TAG = DeviceStatusScheduler.class.getSimpleName();
+
+    /**
+     * Base / maximum refresh intervals (in milliseconds) indexed by DeviceStatusSnapshot.QUERY_*.
+     */
+    private static final int[] BASE_REFRESH_INTERVALS = {
+            4500,   // CONFIG
+            4500,   // UID
+            30000,  // UIDSIZE
+            30000,  // MEMSIZE
+            9000,   // LOGMODE
+            4500,   // LOGMEM
+            4500,   // SETTING
+            9000,   // READONLY
+            1500,   // FIELD
+            9000,   // CHARGING
+            2000,   // THRESHOLD
+            15000   // TIMEOUT
+    };
+    private static final int[] MAX_REFRESH_INTERVALS = {
+            60000,
+            60000,
+            300000,
+            300000,
+            60000,
+            30000,
+            60000,
+            60000,
+            6000,
+            60000,
+            8000,
+            120000
+    };
+
+    public static final int MIN_SCHEDULER_TICK = 500;
+    public static final int MAX_SCHEDULER_TICK = ChameleonIO.DeviceStatusSettings.STATS_UPDATE_INTERVAL;
+
+    /**
+     * Polling is deferred while more than this many log records per second are being ingested.
+     */
+    public static final int LOG_BURST_RECORDS_PER_SECOND = 16;
+    private static final int LOG_BURST_WINDOW = 1000;
+
+    private static final int NUM_FIELDS = BASE_REFRESH_INTERVALS.length;
+    private static final int[] refreshIntervals = BASE_REFRESH_INTERVALS.clone();
+    private static final long[] lastRefreshMillis = new long[NUM_FIELDS];
+
+    private static long logWindowStartMillis = 0;
+    private static int logRecordsInWindow = 0;
+    private static int logRecordsInPrevWindow = 0;
+    private static long lastLogRecordMillis = 0;
+
+    public static synchronized void reset() {
+        System.arraycopy(BASE_REFRESH_INTERVALS, 0, refreshIntervals, 0, NUM_FIELDS);
+        for(int fi = 0; fi < NUM_FIELDS; fi++) {
+            lastRefreshMillis[fi] = 0;
+        }
+        logRecordsInWindow = logRecordsInPrevWindow = 0;
+    }
+
+    public static synchronized void invalidateField(int queryIndex) {
+        lastRefreshMillis[queryIndex] = 0;
+        refreshIntervals[queryIndex] = BASE_REFRESH_INTERVALS[queryIndex];
+    }
+
+    public static synchronized void invalidateAll() {
+        reset();
+    }
+
+    /**
+     * @return boolean[] mask of the settings whose refresh budget has run out, or null if
+     *         none of them are due yet
+     */
+    public static synchronized boolean[] getDueQueries() {
+        long curTimeMillis = System.currentTimeMillis();
+        boolean[] dueMask = new boolean[NUM_FIELDS];
+        boolean haveDueQueries = false;
+        for(int fi = 0; fi < NUM_FIELDS; fi++) {
+            if(curTimeMillis - lastRefreshMillis[fi] >= refreshIntervals[fi]) {
+                dueMask[fi] = haveDueQueries = true;
+            }
+        }
+        return haveDueQueries ? dueMask : null;
+    }
+
+    /**
+     * @return int milliseconds until the next setting is due for a refresh
+     */
+    public static synchronized int getNextRefreshDelay() {
+        long curTimeMillis = System.currentTimeMillis();
+        long nextDelay = MAX_SCHEDULER_TICK;
+        for(int fi = 0; fi < NUM_FIELDS; fi++) {
+            nextDelay = Math.min(nextDelay, lastRefreshMillis[fi] + refreshIntervals[fi] - curTimeMillis);
+        }
+        return (int) Math.max(MIN_SCHEDULER_TICK, nextDelay);
+    }
+
+    /**
+     * Adjusts the refresh budgets of the queried settings after a status refresh.
+     * @param queryMask settings that were queried (null for all of them)
+     * @param prevSnapshot
+     * @param nextSnapshot
+     */
+    public static synchronized void recordRefresh(boolean[] queryMask, DeviceStatusSnapshot prevSnapshot,
+                                                  DeviceStatusSnapshot nextSnapshot) {
+        long curTimeMillis = System.currentTimeMillis();
+        for(int fi = 0; fi < NUM_FIELDS; fi++) {
+            if(queryMask != null && !queryMask[fi]) {
+                continue;
+            }
+            lastRefreshMillis[fi] = curTimeMillis;
+            if(prevSnapshot.fieldEquals(nextSnapshot, fi)) {
+                refreshIntervals[fi] = Math.min(2 * refreshIntervals[fi], MAX_REFRESH_INTERVALS[fi]);
+            }
+            else {
+                refreshIntervals[fi] = BASE_REFRESH_INTERVALS[fi];
+            }
+        }
+    }
+
+    /**
+     * @return boolean whether LIVE log records are currently arriving faster than
+     *         LOG_BURST_RECORDS_PER_SECOND
+     */
+    public static synchronized boolean inLogTrafficBurst() {
+        rollLogWindow(System.currentTimeMillis());
+        return Math.max(logRecordsInWindow, logRecordsInPrevWindow) >= LOG_BURST_RECORDS_PER_SECOND;
+    }
+
+    /**
+     * @return long time the last LIVE log record was received at
+     */
+    public static synchronized long getLastLogRecordMillis() {
+        return lastLogRecordMillis;
+    }
+
+    private static void rollLogWindow(long curTimeMillis) {
+        long elapsedMillis = curTimeMillis - logWindowStartMillis;
+        if(elapsedMillis >= 2 * LOG_BURST_WINDOW) {
+            logRecordsInPrevWindow = logRecordsInWindow = 0;
+            logWindowStartMillis = curTimeMillis;
+        }
+        else if(elapsedMillis >= LOG_BURST_WINDOW) {
+            logRecordsInPrevWindow = logRecordsInWindow;
+            logRecordsInWindow = 0;
+            logWindowStartMillis += LOG_BURST_WINDOW;
+        }
+    }
+
+    /**
+     * Called from the serial reader thread for every framed LIVE log record.
+     * CONFIG / UID changes reported by the firmware are applied to the toolbar directly from
+     * the log payload; a slot (SETTING) change invalidates everything that depends on the slot.
+     * @param logBuf
+     * @param offset
+     * @param length
+     */
+    public static void onLogRecordReceived(byte[] logBuf, int offset, int length) {
+        byte logCode = logBuf[offset];
+        synchronized(DeviceStatusScheduler.class) {
+            lastLogRecordMillis = System.currentTimeMillis();
+            rollLogWindow(lastLogRecordMillis);
+            logRecordsInWindow++;
+        }
+        if(length <= 4) {
+            return;
+        }
+        int payloadLength = Math.min(length - 4, Byte.toUnsignedInt(logBuf[offset + 1]));
+        if(logCode == ChameleonLogUtils.LogCode.LOG_INFO_CONFIG_SET.toByte()) {
+            String configName = new String(logBuf, offset + 4, payloadLength, StandardCharsets.US_ASCII).trim();
+            ChameleonIO.DeviceStatusSettings.postStatusFieldUpdate(DeviceStatusSnapshot.QUERY_CONFIG, configName);
+            synchronized(DeviceStatusScheduler.class) {
+                refreshIntervals[DeviceStatusSnapshot.QUERY_CONFIG] = BASE_REFRESH_INTERVALS[DeviceStatusSnapshot.QUERY_CONFIG];
+                lastRefreshMillis[DeviceStatusSnapshot.QUERY_CONFIG] = System.currentTimeMillis();
+                // the new configuration usually comes with a new UID size and memory layout:
+                invalidateField(DeviceStatusSnapshot.QUERY_UIDSIZE);
+                invalidateField(DeviceStatusSnapshot.QUERY_MEMSIZE);
+            }
+        }
+        else if(logCode == ChameleonLogUtils.LogCode.LOG_INFO_UID_SET.toByte()) {
+            String uidHex = HexCodec.UPPER_PLAIN.encode(logBuf, offset + 4, payloadLength);
+            ChameleonIO.DeviceStatusSettings.postStatusFieldUpdate(DeviceStatusSnapshot.QUERY_UID, uidHex);
+            synchronized(DeviceStatusScheduler.class) {
+                refreshIntervals[DeviceStatusSnapshot.QUERY_UID] = BASE_REFRESH_INTERVALS[DeviceStatusSnapshot.QUERY_UID];
+                lastRefreshMillis[DeviceStatusSnapshot.QUERY_UID] = System.currentTimeMillis();
+            }
+        }
+        else if(logCode == ChameleonLogUtils.LogCode.LOG_INFO_SETTING_SET.toByte()) {
+            synchronized(DeviceStatusScheduler.class) {
+                invalidateField(DeviceStatusSnapshot.QUERY_SETTING);
+                invalidateField(DeviceStatusSnapshot.QUERY_CONFIG);
+                invalidateField(DeviceStatusSnapshot.QUERY_UID);
+                invalidateField(DeviceStatusSnapshot.QUERY_UIDSIZE);
+                invalidateField(DeviceStatusSnapshot.QUERY_MEMSIZE);
+                invalidateField(DeviceStatusSnapshot.QUERY_READONLY);
+            }
+        }
+    }
+
+}
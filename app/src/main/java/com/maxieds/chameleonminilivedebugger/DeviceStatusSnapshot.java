@@ -0,0 +1,330 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Math.round;
+
+/**
+ * <h1>Device Status Snapshot</h1>
+ * Immutable set of the device settings summarized in the status toolbar. A snapshot is
+ * built from a single pipelined batch of queries to the device and then published to the
+ * UI (and to the legacy DeviceStatusSettings fields) in one step.
+ *
+ * @ref ChameleonIO.DeviceStatusSettings
+ * @ref ChameleonCommandEngine.submitCommands
+ */
+public class DeviceStatusSnapshot {
+
+    private static final String TAG = DeviceStatusSnapshot.class.getSimpleName();
+
+    /**
+     * Order of the status queries in the batch (RevG / RevE firmware command names).
+     */
+    public static final int QUERY_CONFIG = 0;
+    public static final int QUERY_UID = 1;
+    public static final int QUERY_UIDSIZE = 2;
+    public static final int QUERY_MEMSIZE = 3;
+    public static final int QUERY_LOGMODE = 4;
+    public static final int QUERY_LOGMEM = 5;
+    public static final int QUERY_SETTING = 6;
+    public static final int QUERY_READONLY = 7;
+    public static final int QUERY_FIELD = 8;
+    public static final int QUERY_CHARGING = 9;
+    public static final int QUERY_THRESHOLD = 10;
+    public static final int QUERY_TIMEOUT = 11;
+
+    public static final String[] STATUS_QUERIES = {
+            "CONFIG?",
+            "UID?",
+            "UIDSIZE?",
+            "MEMSIZE?",
+            "LOGMODE?",
+            "LOGMEM?",
+            "SETTING?",
+            "READONLY?",
+            "FIELD?",
+            "CHARGING?",
+            "THRESHOLD?",
+            "TIMEOUT?"
+    };
+    public static final String[] STATUS_QUERIES_REVE = {
+            "config?",
+            "uid?",
+            "uidsize?",
+            "memsize?",
+            null,
+            null,
+            "setting?",
+            "readonly?",
+            null,
+            null,
+            null,
+            null
+    };
+
+    public final String config;
+    public final String uid;
+    public final String logMode;
+    public final int uidSize;
+    public final int memSize;
+    public final int logSize;
+    public final int dipSetting;
+    public final boolean field;
+    public final boolean readOnly;
+    public final boolean charging;
+    public final int threshold;
+    public final String timeout;
+    public final boolean reveBoard;
+    public final long timestampMillis;
+
+    public DeviceStatusSnapshot(String config, String uid, String logMode, int uidSize, int memSize,
+                                int logSize, int dipSetting, boolean field, boolean readOnly,
+                                boolean charging, int threshold, String timeout, boolean reveBoard) {
+        this.config = config;
+        this.uid = uid;
+        this.logMode = logMode;
+        this.uidSize = uidSize;
+        this.memSize = memSize;
+        this.logSize = logSize;
+        this.dipSetting = dipSetting;
+        this.field = field;
+        this.readOnly = readOnly;
+        this.charging = charging;
+        this.threshold = threshold;
+        this.timeout = timeout;
+        this.reveBoard = reveBoard;
+        this.timestampMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return DeviceStatusSnapshot holding the current values of the DeviceStatusSettings fields
+     */
+    public static DeviceStatusSnapshot fromDeviceStatusSettings() {
+        return new DeviceStatusSnapshot(ChameleonIO.DeviceStatusSettings.CONFIG, ChameleonIO.DeviceStatusSettings.UID,
+                ChameleonIO.DeviceStatusSettings.LOGMODE, ChameleonIO.DeviceStatusSettings.UIDSIZE,
+                ChameleonIO.DeviceStatusSettings.MEMSIZE, ChameleonIO.DeviceStatusSettings.LOGSIZE,
+                ChameleonIO.DeviceStatusSettings.DIP_SETTING, ChameleonIO.DeviceStatusSettings.FIELD,
+                ChameleonIO.DeviceStatusSettings.READONLY, ChameleonIO.DeviceStatusSettings.CHARGING,
+                ChameleonIO.DeviceStatusSettings.THRESHOLD, ChameleonIO.DeviceStatusSettings.TIMEOUT,
+                ChameleonIO.REVE_BOARD);
+    }
+
+    /**
+     * Writes all of the status queries to the device in one batch and builds the snapshot
+     * from the responses as they arrive. Settings the device did not answer within
+     * ChameleonIO.TIMEOUT keep their values from the previous snapshot.
+     * Blocks the calling thread, so this should not be run on the UI thread.
+     * @param prevSnapshot
+     * @return DeviceStatusSnapshot
+     */
+    public static DeviceStatusSnapshot queryDevice(DeviceStatusSnapshot prevSnapshot) {
+        return queryDevice(prevSnapshot, null);
+    }
+
+    /**
+     * Same as above, but only queries the settings selected in the mask.
+     * @param prevSnapshot
+     * @param queryMask indexed by the QUERY_* constants (null to query all settings)
+     * @return DeviceStatusSnapshot
+     */
+    public static DeviceStatusSnapshot queryDevice(DeviceStatusSnapshot prevSnapshot, boolean[] queryMask) {
+        boolean reveBoard = ChameleonIO.REVE_BOARD;
+        String[] queryCmds = (reveBoard ? STATUS_QUERIES_REVE : STATUS_QUERIES).clone();
+        int numQueries = 0;
+        for(int qi = 0; qi < queryCmds.length; qi++) {
+            if(queryMask != null && !queryMask[qi]) {
+                queryCmds[qi] = null;
+            }
+            numQueries += queryCmds[qi] != null ? 1 : 0;
+        }
+        String[] batchCmds = new String[numQueries];
+        int[] batchIndex = new int[queryCmds.length];
+        for(int qi = 0, bi = 0; qi < queryCmds.length; qi++) {
+            batchIndex[qi] = -1;
+            if(queryCmds[qi] != null) {
+                batchIndex[qi] = bi;
+                batchCmds[bi++] = queryCmds[qi];
+            }
+        }
+        List<CompletableFuture<DeviceResponse>> respFutures = ChameleonCommandEngine.submitCommands(batchCmds, false);
+        DeviceResponse[] deviceResps = new DeviceResponse[queryCmds.length];
+        long deadlineMillis = System.currentTimeMillis() + ChameleonIO.TIMEOUT;
+        for(int qi = 0; qi < queryCmds.length; qi++) {
+            if(batchIndex[qi] < 0) {
+                continue;
+            }
+            CompletableFuture<DeviceResponse> respFuture = respFutures.get(batchIndex[qi]);
+            try {
+                long waitMillis = Math.max(0, deadlineMillis - System.currentTimeMillis());
+                deviceResps[qi] = respFuture.get(waitMillis, TimeUnit.MILLISECONDS);
+            } catch(Exception ex) {
+                Log.w(TAG, "No response to status query " + queryCmds[qi]);
+                ChameleonCommandEngine.cancelCommand(respFuture);
+            }
+        }
+        return new DeviceStatusSnapshot(
+                getStringSetting(deviceResps[QUERY_CONFIG], prevSnapshot.config),
+                getStringSetting(deviceResps[QUERY_UID], prevSnapshot.uid),
+                reveBoard ? "NONE" : getStringSetting(deviceResps[QUERY_LOGMODE], prevSnapshot.logMode).replaceAll(" \\(.*\\)", ""),
+                getIntSetting(deviceResps[QUERY_UIDSIZE], prevSnapshot.uidSize),
+                getIntSetting(deviceResps[QUERY_MEMSIZE], prevSnapshot.memSize),
+                reveBoard ? 0 : getIntSetting(deviceResps[QUERY_LOGMEM], prevSnapshot.logSize),
+                getIntSetting(deviceResps[QUERY_SETTING], prevSnapshot.dipSetting),
+                !reveBoard && getBooleanSetting(deviceResps[QUERY_FIELD], prevSnapshot.field),
+                getBooleanSetting(deviceResps[QUERY_READONLY], prevSnapshot.readOnly),
+                !reveBoard && getBooleanSetting(deviceResps[QUERY_CHARGING], prevSnapshot.charging),
+                reveBoard ? 0 : getIntSetting(deviceResps[QUERY_THRESHOLD], prevSnapshot.threshold),
+                reveBoard ? "NA" : getStringSetting(deviceResps[QUERY_TIMEOUT], prevSnapshot.timeout),
+                reveBoard
+        );
+    }
+
+    private static String getStringSetting(DeviceResponse deviceResp, String prevValue) {
+        if(deviceResp == null || !deviceResp.isOK()) {
+            return prevValue;
+        }
+        return deviceResp.getResponseText();
+    }
+
+    private static int getIntSetting(DeviceResponse deviceResp, int prevValue) {
+        if(deviceResp == null || !deviceResp.isOK()) {
+            return prevValue;
+        }
+        return Utils.parseInt(deviceResp.getResponseText().replaceAll(" \\(.*\\)", ""));
+    }
+
+    /**
+     * Boolean settings are reported either as the text "1"/"0" or as the 121:TRUE / 120:FALSE
+     * status codes depending on the command.
+     */
+    private static boolean getBooleanSetting(DeviceResponse deviceResp, boolean prevValue) {
+        if(deviceResp == null) {
+            return prevValue;
+        }
+        else if(deviceResp.getResponseCode() == ChameleonIO.SerialRespCode.TRUE.toInteger()) {
+            return true;
+        }
+        else if(deviceResp.getResponseCode() == ChameleonIO.SerialRespCode.FALSE.toInteger()) {
+            return false;
+        }
+        else if(!deviceResp.isOK()) {
+            return prevValue;
+        }
+        String respText = deviceResp.getResponseText();
+        return respText.equals("1") || respText.equals("TRUE");
+    }
+
+    /**
+     * Returns a copy of this snapshot with one of the text settings replaced
+     * (used to apply the CONFIG / UID changes reported in the LIVE log).
+     * @param queryIndex QUERY_CONFIG or QUERY_UID
+     * @param settingValue
+     * @return DeviceStatusSnapshot
+     */
+    public DeviceStatusSnapshot withStringSetting(int queryIndex, String settingValue) {
+        return new DeviceStatusSnapshot(
+                queryIndex == QUERY_CONFIG ? settingValue : config,
+                queryIndex == QUERY_UID ? settingValue : uid,
+                logMode, uidSize, memSize, logSize, dipSetting, field, readOnly, charging,
+                threshold, timeout, reveBoard);
+    }
+
+    /**
+     * Returns a copy of this snapshot with only the settings selected in the mask taken from
+     * the queried snapshot, so that values which changed while the query was running
+     * (e.g. CONFIG / UID updates from the LIVE log) are not overwritten by stale ones.
+     * @param queriedSnapshot
+     * @param queryMask indexed by the QUERY_* constants (null to take all settings)
+     * @return DeviceStatusSnapshot
+     */
+    public DeviceStatusSnapshot withQueriedSettings(DeviceStatusSnapshot queriedSnapshot, boolean[] queryMask) {
+        if(queryMask == null) {
+            return queriedSnapshot;
+        }
+        DeviceStatusSnapshot qs = queriedSnapshot;
+        return new DeviceStatusSnapshot(
+                queryMask[QUERY_CONFIG] ? qs.config : config,
+                queryMask[QUERY_UID] ? qs.uid : uid,
+                queryMask[QUERY_LOGMODE] ? qs.logMode : logMode,
+                queryMask[QUERY_UIDSIZE] ? qs.uidSize : uidSize,
+                queryMask[QUERY_MEMSIZE] ? qs.memSize : memSize,
+                queryMask[QUERY_LOGMEM] ? qs.logSize : logSize,
+                queryMask[QUERY_SETTING] ? qs.dipSetting : dipSetting,
+                queryMask[QUERY_FIELD] ? qs.field : field,
+                queryMask[QUERY_READONLY] ? qs.readOnly : readOnly,
+                queryMask[QUERY_CHARGING] ? qs.charging : charging,
+                queryMask[QUERY_THRESHOLD] ? qs.threshold : threshold,
+                queryMask[QUERY_TIMEOUT] ? qs.timeout : timeout,
+                qs.reveBoard);
+    }
+
+    private static boolean stringEquals(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    public boolean fieldEquals(DeviceStatusSnapshot otherSnapshot, int queryIndex) {
+        switch(queryIndex) {
+            case QUERY_CONFIG:
+                return stringEquals(config, otherSnapshot.config);
+            case QUERY_UID:
+                return stringEquals(uid, otherSnapshot.uid);
+            case QUERY_UIDSIZE:
+                return uidSize == otherSnapshot.uidSize;
+            case QUERY_MEMSIZE:
+                return memSize == otherSnapshot.memSize;
+            case QUERY_LOGMODE:
+                return stringEquals(logMode, otherSnapshot.logMode);
+            case QUERY_LOGMEM:
+                return logSize == otherSnapshot.logSize;
+            case QUERY_SETTING:
+                return dipSetting == otherSnapshot.dipSetting;
+            case QUERY_READONLY:
+                return readOnly == otherSnapshot.readOnly;
+            case QUERY_FIELD:
+                return field == otherSnapshot.field;
+            case QUERY_CHARGING:
+                return charging == otherSnapshot.charging;
+            case QUERY_THRESHOLD:
+                return threshold == otherSnapshot.threshold;
+            case QUERY_TIMEOUT:
+                return stringEquals(timeout, otherSnapshot.timeout);
+            default:
+                return true;
+        }
+    }
+
+    public String getStatsLine1() {
+        return String.format(Locale.ENGLISH, "MEM-%dK/LMEM-%dK/LMD-%s/REV%s", round(memSize / 1024), round(logSize / 1024), logMode, reveBoard ? "E" : "G");
+    }
+
+    public String getStatsLine2() {
+        return String.format(Locale.ENGLISH, "DIP#%d/%s/FLD-%d/%sCHRG", dipSetting, readOnly ? "RO" : "RW", field ? 1 : 0, charging ? "+" : "NO-");
+    }
+
+    public String getStatsLine3() {
+        return String.format(Locale.ENGLISH, "THRS-%d mv/TMT-%s", threshold, timeout);
+    }
+
+}
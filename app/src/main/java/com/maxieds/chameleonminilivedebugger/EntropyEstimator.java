@@ -0,0 +1,292 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * <h1>Entropy Estimator</h1>
+ * Estimates how random (i.e., how likely to be encrypted) the logged payload data is.
+ * The metric shown for each record in the Log tab is pluggable: the default is the Shannon
+ * entropy of the byte histogram (in bits per byte, 0 to 8), and the older DEFLATE compression
+ * ratio metric can be selected instead in the log tools. A rolling Shannon estimate over the last
+ * ROLLING_WINDOW_SIZE payload bytes is also kept separately for the incoming and outgoing
+ * traffic, and a status record is logged whenever one of them switches between plain and
+ * (likely) encrypted data.
+ * Unless noted, the methods are called from the main thread only.
+ *
+ * @ref LogEntryUI.bindLayoutContainer
+ * @ref LiveLoggerActivity.serialIOEventListener
+ */
+public class EntropyEstimator {
+
+    private static final String TAG = EntropyEstimator.class.getSimpleName();
+
+    public interface EntropyMetric {
+        /**
+         * @return String short label shown in front of the value in the Log tab
+         */
+        String getLabel();
+        double estimateEntropy(byte[] dataBuf, int offset, int length);
+        /**
+         * Frees the native resources of the metric when it is no longer the active one.
+         */
+        void release();
+    }
+
+    /**
+     * Shannon entropy (bits per byte) of the byte histogram, counted in a reused int[256].
+     */
+    public static final EntropyMetric SHANNON_ENTROPY = new EntropyMetric() {
+        private final int[] byteCounts = new int[256];
+        public String getLabel() {
+            return "ENT";
+        }
+        public double estimateEntropy(byte[] dataBuf, int offset, int length) {
+            if(length <= 0) {
+                return 0.0;
+            }
+            for(int bi = offset; bi < offset + length; bi++) {
+                byteCounts[dataBuf[bi] & 0xff]++;
+            }
+            double entropy = 0.0;
+            for(int bi = offset; bi < offset + length; bi++) {
+                int count = byteCounts[dataBuf[bi] & 0xff];
+                if(count > 0) {
+                    double p = (double) count / length;
+                    entropy -= p * Math.log(p);
+                    byteCounts[dataBuf[bi] & 0xff] = 0; // each distinct byte is only counted once
+                }
+            }
+            return entropy / LOG_2;
+        }
+        public void release() {}
+    };
+
+    /**
+     * Ratio of the DEFLATE compressed size to the original size of the data. This is the
+     * (much more expensive) metric the Log tab used to show. Its Deflater is only created when
+     * the metric is first used, reused for every record, and ended when another one is selected.
+     */
+    public static final EntropyMetric COMPRESSION_RATIO = new EntropyMetric() {
+        private Deflater deflater = null;
+        private final byte[] deflateBuf = new byte[1024];
+        public String getLabel() {
+            return "CPR";
+        }
+        public double estimateEntropy(byte[] dataBuf, int offset, int length) {
+            if(length <= 0) {
+                return 0.0;
+            }
+            if(deflater == null) {
+                deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            }
+            deflater.reset();
+            deflater.setInput(dataBuf, offset, length);
+            deflater.finish();
+            int cmprByteCount = 0;
+            while(!deflater.finished()) {
+                cmprByteCount += deflater.deflate(deflateBuf);
+            }
+            return (double) cmprByteCount / length;
+        }
+        public void release() {
+            if(deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+        }
+    };
+
+    private static final double LOG_2 = Math.log(2.0);
+
+    private static EntropyMetric activeMetric = SHANNON_ENTROPY;
+
+    public static void setActiveMetric(EntropyMetric metric) {
+        EntropyMetric nextMetric = metric == null ? SHANNON_ENTROPY : metric;
+        if(nextMetric != activeMetric) {
+            activeMetric.release();
+            activeMetric = nextMetric;
+        }
+    }
+
+    public static EntropyMetric getActiveMetric() {
+        return activeMetric;
+    }
+
+    public static double estimateEntropy(byte[] dataBytes) {
+        return activeMetric.estimateEntropy(dataBytes, 0, dataBytes.length);
+    }
+
+    /**
+     * @param dataBytes
+     * @return String the active metric of the data, e.g., "ENT: 3.875"
+     */
+    public static String getEntropyText(byte[] dataBytes) {
+        return String.format(Locale.ENGLISH, "%s: %1.4g", activeMetric.getLabel(), estimateEntropy(dataBytes));
+    }
+
+    /**
+     * Rolling (sliding window) Shannon entropy over the most recent bytes of one direction
+     * of the traffic. Each byte is added and expired in O(1) by keeping the running sum of
+     * c * log2(c) over the histogram counts c.
+     */
+    public static class RollingEntropy {
+
+        private final byte[] windowBytes;
+        private final int[] byteCounts = new int[256];
+        private int windowPos;
+        private int windowFill;
+        private double sumCountLogCount;
+
+        public RollingEntropy(int windowSize) {
+            windowBytes = new byte[windowSize];
+            reset();
+        }
+
+        public void reset() {
+            for(int bi = 0; bi < byteCounts.length; bi++) {
+                byteCounts[bi] = 0;
+            }
+            windowPos = windowFill = 0;
+            sumCountLogCount = 0.0;
+        }
+
+        private static double countLogCount(int count) {
+            return count <= 1 ? 0.0 : count * Math.log(count) / LOG_2;
+        }
+
+        private void adjustCount(int byteValue, int delta) {
+            int count = byteCounts[byteValue];
+            sumCountLogCount += countLogCount(count + delta) - countLogCount(count);
+            byteCounts[byteValue] = count + delta;
+        }
+
+        public void update(byte[] dataBuf, int offset, int length) {
+            for(int bi = offset; bi < offset + length; bi++) {
+                if(windowFill == windowBytes.length) {
+                    adjustCount(windowBytes[windowPos] & 0xff, -1);
+                }
+                else {
+                    windowFill++;
+                }
+                windowBytes[windowPos] = dataBuf[bi];
+                adjustCount(dataBuf[bi] & 0xff, 1);
+                windowPos = (windowPos + 1) % windowBytes.length;
+            }
+        }
+
+        public int getWindowFill() {
+            return windowFill;
+        }
+
+        /**
+         * @return double entropy of the window in bits per byte
+         */
+        public double getEntropy() {
+            if(windowFill == 0) {
+                return 0.0;
+            }
+            return Math.max(0.0, Math.log(windowFill) / LOG_2 - sumCountLogCount / windowFill);
+        }
+
+        /**
+         * @return double entropy relative to the most a window holding this many bytes can reach
+         */
+        public double getNormalizedEntropy() {
+            double maxEntropy = Math.log(Math.min(windowFill, 256)) / LOG_2;
+            return maxEntropy <= 0.0 ? 0.0 : getEntropy() / maxEntropy;
+        }
+
+    }
+
+    public static final int ROLLING_WINDOW_SIZE = 512;
+    public static final int ROLLING_MIN_BYTES = 128;
+    public static final double ENCRYPTED_ENTER_THRESHOLD = 0.85;
+    public static final double ENCRYPTED_LEAVE_THRESHOLD = 0.70;
+
+    private static final RollingEntropy incomingEntropy = new RollingEntropy(ROLLING_WINDOW_SIZE);
+    private static final RollingEntropy outgoingEntropy = new RollingEntropy(ROLLING_WINDOW_SIZE);
+    private static boolean incomingEncrypted = false;
+    private static boolean outgoingEncrypted = false;
+
+    public static void resetRollingEntropy() {
+        incomingEntropy.reset();
+        outgoingEntropy.reset();
+        incomingEncrypted = outgoingEncrypted = false;
+    }
+
+    public static double getRollingEntropy(int dataDirection) {
+        if(dataDirection == ChameleonLogUtils.DATADIR_INCOMING) {
+            return incomingEntropy.getEntropy();
+        }
+        else if(dataDirection == ChameleonLogUtils.DATADIR_OUTGOING) {
+            return outgoingEntropy.getEntropy();
+        }
+        return 0.0;
+    }
+
+    /**
+     * Adds the payload of a LIVE log record to the rolling entropy of its direction.
+     * @param logBuf native LIVE log record [code, len, tick_hi, tick_lo, payload]
+     * @param offset
+     * @param length
+     * @return String a description of the change when the direction switched between plain
+     *         and (likely) encrypted traffic, or null otherwise
+     */
+    public static String updateRollingEntropy(byte[] logBuf, int offset, int length) {
+        if(length <= 4) {
+            return null;
+        }
+        int dataDirection = ChameleonLogUtils.getDataDirection((int) logBuf[offset]);
+        RollingEntropy rollingEntropy;
+        boolean wasEncrypted;
+        if(dataDirection == ChameleonLogUtils.DATADIR_INCOMING) {
+            rollingEntropy = incomingEntropy;
+            wasEncrypted = incomingEncrypted;
+        }
+        else if(dataDirection == ChameleonLogUtils.DATADIR_OUTGOING) {
+            rollingEntropy = outgoingEntropy;
+            wasEncrypted = outgoingEncrypted;
+        }
+        else {
+            return null;
+        }
+        rollingEntropy.update(logBuf, offset + 4, length - 4);
+        if(rollingEntropy.getWindowFill() < ROLLING_MIN_BYTES) {
+            return null;
+        }
+        double normEntropy = rollingEntropy.getNormalizedEntropy();
+        boolean isEncrypted = wasEncrypted ? normEntropy >= ENCRYPTED_LEAVE_THRESHOLD : normEntropy >= ENCRYPTED_ENTER_THRESHOLD;
+        if(isEncrypted == wasEncrypted) {
+            return null;
+        }
+        if(dataDirection == ChameleonLogUtils.DATADIR_INCOMING) {
+            incomingEncrypted = isEncrypted;
+        }
+        else {
+            outgoingEncrypted = isEncrypted;
+        }
+        return String.format(Locale.ENGLISH, "%s traffic entropy %s to %1.3g bits/byte over the last %d bytes (%s).",
+                dataDirection == ChameleonLogUtils.DATADIR_INCOMING ? "Incoming" : "Outgoing",
+                isEncrypted ? "rose" : "fell", rollingEntropy.getEntropy(), rollingEntropy.getWindowFill(),
+                isEncrypted ? "likely encrypted" : "likely plaintext");
+    }
+
+}
@@ -19,6 +19,7 @@ package com.maxieds.chameleonminilivedebugger;
 
 import android.app.DownloadManager;
 import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.View;
 
@@ -27,8 +28,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.Locale;
+import java.util.function.BiConsumer;
 
 import static android.content.ContentValues.TAG;
 import static android.content.Context.DOWNLOAD_SERVICE;
@@ -47,203 +47,39 @@ import static android.content.Context.DOWNLOAD_SERVICE;
 public class ExportTools {
 
     /**
-     * State information for the XModem connections/
+     * Posts the results of the transfers back to the UI.
      */
-    public static boolean EOT = false;
-
-    /**
-     * Named XModem connection status bytes.
-     */
-    public static final byte BYTE_NAK = (byte) 0x15;
-    public static final byte BYTE_SOH = (byte) 0x01;
-    public static final byte BYTE_ACK = (byte) 0x06;
-    public static final byte BYTE_CAN = (byte) 0x18;
-    public static final byte BYTE_EOF = (byte) 0x1A;
-    public static final byte BYTE_EOT = (byte) 0x04;
-    public static final byte BYTE_ESC = (byte) 0x1B;
-
-    /**
-     * XModem connection configuration.
-     */
-    public static final short XMODEM_BLOCK_SIZE = 128;
-    public static final byte FIRST_FRAME_NUMBER = (byte) 1;
-    public static final byte CHECKSUM_INIT_VALUE = 0;
-    public static int MAX_NAK_COUNT = 20; // to match the Chameleon device standard
+    private static final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
 
     /**
      * Static variables used internally within the class.
      */
-    public static int fileSize = 0;
-    public static FileOutputStream streamDest;
-    public static InputStream streamSrc;
     public static File outfile;
-    private static String currentLogMode = "LIVE";
-    private static boolean throwToLive = false;
-    public static byte CurrentFrameNumber;
-    public static byte Checksum;
-    public static int currentNAKCount;
-    public static boolean transmissionErrorOccurred;
-    public static int uploadState;
-    public static byte[] uploadFramebuffer = new byte[XMODEM_BLOCK_SIZE + 4];
 
-    /**
-     * Completes the XModem download command. Implemented this way to keep the GUI from
-     * freezing waiting for the command to complete by while loop / Thread.sleep.
-     * @ref ExportTools.downloadByXModem
-     * @ref ExportTools.performXModemSerialDownload
-     */
-    public static Runnable eotSleepRunnable = new Runnable() {
-        public void run() {
-            ChameleonSerialIOInterface serialIOPort = Settings.getActiveSerialIOPort();
-            if(serialIOPort == null || !serialIOPort.serialConfigured()) {
-                return;
+    private static void postTransferError(final String errorMsg) {
+        mainThreadHandler.post(new Runnable() {
+            public void run() {
+                MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", errorMsg));
+                LiveLoggerActivity.getInstance().setStatusIcon(R.id.statusIconUlDl, R.drawable.statusxferfailed16);
             }
-            if (!ExportTools.EOT) {
-                eotSleepHandler.postDelayed(this, 50);
-            }
-            else if(ChameleonIO.DOWNLOAD){
-                try {
-                    streamDest.close();
-                } catch (Exception ioe) {
-                    MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", ioe.getMessage()));
-                    ioe.printStackTrace();
-                } finally {
-                    ChameleonIO.DOWNLOAD = false;
-                    ChameleonIO.executeChameleonMiniCommand("LOGMODE=" + currentLogMode, ChameleonIO.TIMEOUT);
-                    serialIOPort.releaseSerialPortLock();
-                }
-                if(!ExportTools.transmissionErrorOccurred) {
-                    DownloadManager downloadManager = (DownloadManager) LiveLoggerActivity.defaultContext.getSystemService(DOWNLOAD_SERVICE);
-                    downloadManager.addCompletedDownload(outfile.getName(), outfile.getName(), true, "application/octet-stream",
-                            outfile.getAbsolutePath(), outfile.length(), true);
-                    String statusMsg = "Write internal log data to file " + outfile.getName() + "(+" + outfile.length() + " / " + fileSize + " bytes).\n";
-                    statusMsg += "If you are not seeing the expected output, try running the LOGSTORE command from the tools menu first.";
-                    MainActivityLogUtils.appendNewLog(new LogEntryMetadataRecord(LiveLoggerActivity.defaultInflater, "EXPORT", statusMsg));
-                    if (throwToLive) {
-                        throwDeviceLogDataToLive(outfile);
-                    }
-                }
-                else {
-                    outfile.delete();
-                    LiveLoggerActivity.getInstance().setStatusIcon(R.id.statusIconUlDl, R.drawable.statusxferfailed16);
-                    MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", "Maximum number of NAK errors exceeded. Download of data aborted."));
-                }
-            }
-            else if(ChameleonIO.UPLOAD) {
-                Log.i(TAG, "Cleaning up after UPLOAD ...");
-                try {
-                    streamSrc.close();
-                } catch (Exception ioe) {
-                    MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", ioe.getMessage()));
-                    ioe.printStackTrace();
-                } finally {
-                    ChameleonIO.UPLOAD = false;
-                    ChameleonIO.getSettingFromDevice("READONLY=" + (ChameleonIO.deviceStatus.READONLY ? "1" : "0"));
-                    serialIOPort.releaseSerialPortLock();
-                }
-                if(!ExportTools.transmissionErrorOccurred) {
-                    ChameleonIO.deviceStatus.updateAllStatusAndPost(false);
-                }
-                else {
-                    LiveLoggerActivity.getInstance().setStatusIcon(R.id.statusIconUlDl, R.drawable.statusxferfailed16);
-                    MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", "File transmission errors encountered. Maximum number of NAK errors exceeded. Download of data aborted."));
-                }
-            }
-        }
-    };
-    public static Handler eotSleepHandler = new Handler();
-
-    /**
-     * Calculates the checksum of the passed byte buffer.
-     * @param buffer
-     * @param byteCount
-     * @return byte checksum value
-     */
-    public static byte CalcChecksum(byte[] buffer, short byteCount) {
-        byte checksum = CHECKSUM_INIT_VALUE;
-        int bufPos = 0;
-        while(byteCount-- != 0) {
-            checksum += buffer[bufPos++];
-        }
-        return checksum;
+        });
     }
 
-    /**
-     * Handles the logic of receiving the data in a XModem download.
-     * @param liveLogData
-     * @ref LiveLoggerActivity.usbReaderCallback
-     */
-    public static void performXModemSerialDownload(byte[] liveLogData) {
-        ChameleonSerialIOInterface serialIOPort = Settings.getActiveSerialIOPort();
-        if(serialIOPort == null || !serialIOPort.serialConfigured()) {
-            return;
-        }
-        if(ExportTools.EOT)
-            return; // waiting for conclusion of timer to cleanup the download files
-        Log.i(TAG, "Received XModem data (#bytes=" + liveLogData.length + ") ..." + Utils.bytes2Hex(liveLogData));
-        Log.i(TAG, "    => " + Utils.bytes2Ascii(liveLogData));
-        byte[] frameBuffer = new byte[XMODEM_BLOCK_SIZE];
-        if (liveLogData != null && liveLogData.length > 0 && liveLogData[0] != ExportTools.BYTE_EOT) {
-            if (liveLogData[0] == ExportTools.BYTE_SOH && liveLogData[1] == ExportTools.CurrentFrameNumber && liveLogData[2] == (byte) (255 - ExportTools.CurrentFrameNumber)) {
-                Log.i(TAG, "Writing XModem data ...");
-                int dataBufferSize = liveLogData.length - 4;
-                System.arraycopy(liveLogData, 3, frameBuffer, 0, ExportTools.XMODEM_BLOCK_SIZE);
-                byte checksumByte = liveLogData[dataBufferSize + 3];
-                ExportTools.Checksum = ExportTools.CalcChecksum(frameBuffer, ExportTools.XMODEM_BLOCK_SIZE);
-                if (ExportTools.Checksum != checksumByte && currentNAKCount < MAX_NAK_COUNT) {
-                    Log.w(TAG, "Sent another NAK (invalid checksum) : # = " + currentNAKCount);
-                    serialIOPort.sendDataBuffer(new byte[]{ExportTools.BYTE_NAK});
-                    currentNAKCount++;
-                    return;
-                }
-                else if(ExportTools.Checksum != checksumByte) {
-                    ExportTools.EOT = true;
-                    ExportTools.transmissionErrorOccurred = true;
-                    serialIOPort.sendDataBuffer(new byte[] {ExportTools.BYTE_CAN});
-                    return;
-                }
-                try {
-                    ExportTools.fileSize += liveLogData.length;
-                    ExportTools.streamDest.write(frameBuffer);
-                    ExportTools.streamDest.flush();
-                    ExportTools.CurrentFrameNumber++;
-                    serialIOPort.sendDataBuffer(new byte[]{BYTE_ACK});
-                } catch (Exception e) {
-                    ExportTools.EOT = true;
-                    e.printStackTrace();
-                }
-            }
-            else {
-                if(currentNAKCount >= MAX_NAK_COUNT) {
-                    ExportTools.EOT = true;
-                    ExportTools.transmissionErrorOccurred = true;
-                    serialIOPort.sendDataBuffer(new byte[] {ExportTools.BYTE_CAN});
-                    return;
-                }
-                Log.w(TAG, "Sent another NAK (header bytes) : # = " + currentNAKCount);
-                serialIOPort.sendDataBuffer(new byte[]{ExportTools.BYTE_NAK});
-                currentNAKCount++;
-            }
-        }
-        else {
-            try {
-                serialIOPort.sendDataBuffer(new byte[]{ExportTools.BYTE_ACK});
-            } catch (Exception ioe) {
-                ioe.printStackTrace();
-            }
-            ExportTools.EOT = true;
-        }
+    private static String getTransferErrorMessage(Throwable error) {
+        Throwable cause = error.getCause() != null ? error.getCause() : error;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
     }
 
     /**
-     * Initiates the file download by XModem.
+     * Initiates the file download by XModem. The transfer itself runs on the XModem transfer
+     * thread, so this returns right away.
      * @param issueCmd
      * @param outfilePrefix
-     * @param throwToLiveParam
-     * @return boolean success of the operation
+     * @param throwToLive
+     * @return boolean whether the download was started
      * @ref LiveLoggerActivity.actionButtonExportLogDownload
      */
-    public static boolean downloadByXModem(String issueCmd, String outfilePrefix, boolean throwToLiveParam) {
+    public static boolean downloadByXModem(final String issueCmd, String outfilePrefix, final boolean throwToLive) {
         ChameleonSerialIOInterface serialIOPort = Settings.getActiveSerialIOPort();
         if(serialIOPort == null || !serialIOPort.serialConfigured()) {
             return false;
@@ -255,47 +91,91 @@ public class ExportTools {
         if (!downloadsFolder.exists()) {
             docsFolderExists = downloadsFolder.mkdir();
         }
-        if (docsFolderExists) {
-            outfile = new File(downloadsFolder.getAbsolutePath(), outfilePath);
-        }
-        else {
+        if (!docsFolderExists) {
             MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", "Unable to save output in Downloads folder."));
             LiveLoggerActivity.getInstance().clearStatusIcon(R.id.statusIconUlDl);
             return false;
         }
-
+        final File downloadFile = new File(downloadsFolder.getAbsolutePath(), outfilePath);
         try {
-            outfile.createNewFile();
-            streamDest = new FileOutputStream(outfile);
+            downloadFile.createNewFile();
         } catch(Exception ioe) {
             MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", ioe.getMessage()));
             ioe.printStackTrace();
             LiveLoggerActivity.getInstance().clearStatusIcon(R.id.statusIconUlDl);
             return false;
         }
+        XModemTransferSession.getTransferHandler().post(new Runnable() {
+            public void run() {
+                runXModemDownload(issueCmd, downloadFile, throwToLive);
+            }
+        });
+        return true;
+    }
 
+    /**
+     * Issues the download command and runs the transfer (on the XModem transfer thread).
+     * @param issueCmd
+     * @param downloadFile
+     * @param throwToLive
+     */
+    private static void runXModemDownload(String issueCmd, final File downloadFile, final boolean throwToLive) {
+        final ChameleonSerialIOInterface serialIOPort = Settings.getActiveSerialIOPort();
+        if(serialIOPort == null || !serialIOPort.serialConfigured() || XModemTransferSession.isTransferActive()) {
+            downloadFile.delete();
+            postTransferError("Unable to start the download: the serial port is not available.");
+            return;
+        }
         serialIOPort.acquireSerialPortNoInterrupt();
-        throwToLive = throwToLiveParam;
         // turn of logging so the transfer doesn't get accidentally logged:
-        currentLogMode = ChameleonIO.getSettingFromDevice("LOGMODE?");
+        final String currentLogMode = ChameleonIO.getSettingFromDevice("LOGMODE?");
         ChameleonIO.executeChameleonMiniCommand("LOGMODE=OFF", ChameleonIO.TIMEOUT);
-        ChameleonIO.WAITING_FOR_XMODEM = true;
-        ChameleonIO.getSettingFromDevice(issueCmd);
-        fileSize = 0;
-        CurrentFrameNumber = FIRST_FRAME_NUMBER;
-        currentNAKCount = 0;
-        transmissionErrorOccurred = false;
-        EOT = false;
-        while(ChameleonIO.WAITING_FOR_XMODEM) {
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException ie) {
-            }
+        int sizeHint = issueCmd.equals("LOGDOWNLOAD") ? ChameleonIO.deviceStatus.LOGSIZE : ChameleonIO.deviceStatus.MEMSIZE;
+        XModemTransferSession xmodemSession = new XModemTransferSession(XModemEngine.createReceiver(sizeHint), serialIOPort);
+        DeviceResponse cmdResp = ChameleonIO.getDeviceResponse(issueCmd, false);
+        if(cmdResp == null || cmdResp.getResponseCode() != ChameleonIO.SerialRespCode.WAITING_FOR_MODEM.toInteger() ||
+           !xmodemSession.start()) {
+            ChameleonIO.executeChameleonMiniCommand("LOGMODE=" + currentLogMode, ChameleonIO.TIMEOUT);
+            serialIOPort.releaseSerialPortLock();
+            downloadFile.delete();
+            postTransferError("Unable to start the download: " + (cmdResp == null ? "no response to " + issueCmd : cmdResp.getResponseCodeText()));
+            return;
         }
-        ChameleonIO.DOWNLOAD = true;
-        serialIOPort.sendDataBuffer(new byte[]{BYTE_NAK});
-        eotSleepHandler.postDelayed(eotSleepRunnable, 50);
-        return true;
+        xmodemSession.getCompletionFuture().whenCompleteAsync(new BiConsumer<XModemEngine, Throwable>() {
+            public void accept(final XModemEngine xmodem, Throwable error) {
+                String errorMsg = error != null ? getTransferErrorMessage(error) : null;
+                if(error == null) {
+                    try {
+                        FileOutputStream fout = new FileOutputStream(downloadFile);
+                        fout.write(xmodem.getDataBuffer(), 0, xmodem.getDataLength());
+                        fout.close();
+                    } catch(IOException ioe) {
+                        ioe.printStackTrace();
+                        errorMsg = ioe.getMessage();
+                    }
+                }
+                ChameleonIO.executeChameleonMiniCommand("LOGMODE=" + currentLogMode, ChameleonIO.TIMEOUT);
+                serialIOPort.releaseSerialPortLock();
+                if(errorMsg != null) {
+                    downloadFile.delete();
+                    postTransferError(errorMsg + ". Download of data aborted.");
+                    return;
+                }
+                mainThreadHandler.post(new Runnable() {
+                    public void run() {
+                        DownloadManager downloadManager = (DownloadManager) LiveLoggerActivity.defaultContext.getSystemService(DOWNLOAD_SERVICE);
+                        downloadManager.addCompletedDownload(downloadFile.getName(), downloadFile.getName(), true, "application/octet-stream",
+                                downloadFile.getAbsolutePath(), downloadFile.length(), true);
+                        String statusMsg = "Write internal log data to file " + downloadFile.getName() + " (" + xmodem.getThroughputSummary() + ").\n";
+                        statusMsg += "If you are not seeing the expected output, try running the LOGSTORE command from the tools menu first.";
+                        MainActivityLogUtils.appendNewLog(new LogEntryMetadataRecord("EXPORT", statusMsg));
+                        if (throwToLive) {
+                            throwDeviceLogDataToLive(downloadFile);
+                        }
+                    }
+                });
+            }
+        }, XModemTransferSession.getTransferExecutor());
     }
 
     /**
@@ -311,10 +191,9 @@ public class ExportTools {
                 byte[] payloadBytes = new byte[dlen + 4];
                 System.arraycopy(headerBytes, 0, payloadBytes, 0, 4);
                 fin.read(payloadBytes, 4, dlen);
-                LogEntryUI nextLogEntry = LogEntryUI.newInstance(payloadBytes, "");
                 // highlight the entries so it's clear they're from the device's logs:
-                nextLogEntry.getMainEntryContainer().setBackgroundColor(ThemesConfiguration.getThemeColorVariant(R.attr.deviceMemoryLogHighlight));
-                MainActivityLogUtils.appendNewLog(nextLogEntry);
+                MainActivityLogUtils.appendNewLog(payloadBytes, 0, payloadBytes.length,
+                        ThemesConfiguration.getThemeColorVariant(R.attr.deviceMemoryLogHighlight));
             }
             fin.close();
         } catch(Exception ioe) {
@@ -323,62 +202,6 @@ public class ExportTools {
         }
     }
 
-    /**
-     * Implements the actual data exchange with the card in the upload process.
-     * Currently freezes the UI after the BYTE_EOF frame is sent.
-     * @param liveLogData
-     */
-    public static void performXModemSerialUpload(byte[] liveLogData) {
-        ChameleonSerialIOInterface serialIOPort = Settings.getActiveSerialIOPort();
-        if(serialIOPort == null || !serialIOPort.serialConfigured()) {
-            return;
-        }
-        Log.i(TAG, "Received Upload Data (#=" + liveLogData.length + ") ... " + Utils.bytes2Hex(liveLogData));
-        Log.i(TAG, "    => " + Utils.bytes2Ascii(liveLogData));
-        if(ExportTools.EOT || liveLogData == null || liveLogData.length == 0)
-            return;
-        byte statusByte = liveLogData[0];
-        if(uploadState == 0 || uploadState == 1 && statusByte == BYTE_ACK) {
-            if(uploadState == 1)
-                CurrentFrameNumber++;
-            else
-                uploadState = 1;
-            uploadFramebuffer[0] = BYTE_SOH;
-            uploadFramebuffer[1] = CurrentFrameNumber;
-            uploadFramebuffer[2] = (byte) (255 - CurrentFrameNumber);
-            byte[] payloadBytes = new byte[XMODEM_BLOCK_SIZE];
-            try {
-                if(streamSrc.available() == 0) {
-                    Log.i(TAG, "Upload / Sending EOT to device.");
-                    EOT = true;
-                    serialIOPort.sendDataBuffer(new byte[]{BYTE_EOT});
-                    return;
-                }
-                streamSrc.read(payloadBytes, 0, XMODEM_BLOCK_SIZE);
-                System.arraycopy(payloadBytes, 0, uploadFramebuffer, 3, XMODEM_BLOCK_SIZE);
-            } catch(IOException ioe) {
-                EOT = true;
-                transmissionErrorOccurred = true;
-                serialIOPort.sendDataBuffer(new byte[]{BYTE_CAN});
-                return;
-            }
-            uploadFramebuffer[XMODEM_BLOCK_SIZE + 3] = CalcChecksum(payloadBytes, XMODEM_BLOCK_SIZE);
-            Log.i(TAG, "Upload Writing Data: frame=" + CurrentFrameNumber + ": " + Utils.bytes2Hex(uploadFramebuffer));
-            serialIOPort.sendDataBuffer(uploadFramebuffer);
-        }
-        else if(statusByte == BYTE_NAK && currentNAKCount <= MAX_NAK_COUNT) {
-            Log.i(TAG, "Upload / Sending Another NAK response (#=" + currentNAKCount + ")");
-            currentNAKCount++;
-            serialIOPort.sendDataBuffer(uploadFramebuffer);
-        }
-        else {
-            EOT = true;
-            transmissionErrorOccurred = true;
-            serialIOPort.sendDataBuffer(new byte[]{BYTE_CAN});
-            return;
-        }
-    }
-
     /**
      * Called to initiate the card data upload process.
      * @param rawResID
@@ -402,7 +225,7 @@ public class ExportTools {
      * @ref LiveLoggerActivity.actionButtonUploadCard
      */
     public static void uploadCardFileByXModem(String cardFilePath) {
-        if(new File(cardFilePath).length() % XMODEM_BLOCK_SIZE != 0) {
+        if(new File(cardFilePath).length() % XModemEngine.BLOCK_SIZE != 0) {
             MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", "Invalid file size for the selected card file \"" + cardFilePath + "\". Aborting."));
             LiveLoggerActivity.getInstance().setStatusIcon(R.id.statusIconUlDl, R.drawable.statusxferfailed16);
             return;
@@ -418,118 +241,69 @@ public class ExportTools {
     }
 
     /**
-     * Called to initiate the card data upload process.
+     * Called to initiate the card data upload process. The transfer itself runs on the XModem
+     * transfer thread, so this returns right away.
      * @param cardInputStream
      * @ref LiveLoggerActivity.actionButtonUploadCard
      */
-    public static void uploadCardFileByXModem(InputStream cardInputStream) {
+    public static void uploadCardFileByXModem(final InputStream cardInputStream) {
         ChameleonSerialIOInterface serialIOPort = Settings.getActiveSerialIOPort();
         if(serialIOPort == null || !serialIOPort.serialConfigured() || cardInputStream == null)
             return;
         LiveLoggerActivity.getInstance().setStatusIcon(R.id.statusIconUlDl, R.drawable.statusupload16);
-        streamSrc = cardInputStream;
-        serialIOPort.acquireSerialPortNoInterrupt();
-        ChameleonIO.WAITING_FOR_XMODEM = true;
-        ChameleonIO.getSettingFromDevice("READONLY=0");
-        ChameleonIO.executeChameleonMiniCommand("UPLOAD", ChameleonIO.TIMEOUT);
-        fileSize = 0;
-        CurrentFrameNumber = FIRST_FRAME_NUMBER;
-        currentNAKCount = -1;
-        transmissionErrorOccurred = false;
-        uploadState = 0;
-        EOT = false;
-        while(ChameleonIO.WAITING_FOR_XMODEM) {
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException ie) {}
-        }
-        ChameleonIO.UPLOAD = true;
-        serialIOPort.sendDataBuffer(new byte[]{BYTE_NAK});
-        eotSleepHandler.postDelayed(eotSleepRunnable, 50);
-    }
-
-    /**
-     * Writes the logged data to plaintext roughly in the format of the Python script on the
-     * Chameleon Mini scripts page https://github.com/emsec/ChameleonMini/tree/master/Software.
-     * @param fd
-     * @return boolean success of the operation
-     * @throws Exception (IOException)
-     * @ref LiveLoggerActivity.actionButtonWriteFile
-     */
-    public static boolean writeFormattedLogFile(File fd) throws Exception {
-        Log.i(TAG, String.valueOf("00".getBytes(StandardCharsets.US_ASCII)));
-
-        FileOutputStream fout = new FileOutputStream(fd);
-        for (int vi = 0; vi < MainActivityLogUtils.logDataFeed.getChildCount(); vi++) {
-            View logEntryView = MainActivityLogUtils.logDataFeed.getChildAt(vi);
-            if (MainActivityLogUtils.logDataEntries.get(vi) instanceof LogEntryUI) {
-                String dataLine = ((LogEntryUI) MainActivityLogUtils.logDataEntries.get(vi)).toString() + "\n";
-                fout.write(dataLine.getBytes(StandardCharsets.US_ASCII));
-            }
-            else {
-                String lineStr = "\n## " + ((LogEntryMetadataRecord) MainActivityLogUtils.logDataEntries.get(vi)).toString() + "\n";
-                fout.write(lineStr.getBytes(StandardCharsets.US_ASCII));
+        XModemTransferSession.getTransferHandler().post(new Runnable() {
+            public void run() {
+                runXModemUpload(cardInputStream);
             }
-        }
-        fout.close();
-        return true;
+        });
     }
 
     /**
-     * Writes the logged data to color-coded HTML roughly in the format of the Python script on the
-     * Chameleon Mini scripts page https://github.com/emsec/ChameleonMini/tree/master/Software.
-     * @param fd
-     * @return boolean success of the operation
-     * @throws Exception (IOException)
-     * @ref LiveLoggerActivity.actionButtonWriteFile
+     * Issues the UPLOAD command and runs the transfer (on the XModem transfer thread).
+     * @param cardInputStream
      */
-    public static boolean writeHTMLLogFile(File fd) throws Exception {
-        FileOutputStream fout = new FileOutputStream(fd);
-        String htmlHeader = "<html><head><title>Chameleon Mini Live Debugger -- Logging Output</title></head><body>\n\n";
-        fout.write(htmlHeader.getBytes(StandardCharsets.US_ASCII));
-        String defaultBgColor = String.format(Locale.ENGLISH, "#%06X", (0xFFFFFF & ThemesConfiguration.getThemeColorVariant(R.attr.colorPrimaryDarkLog)));
-        for (int vi = 0; vi < MainActivityLogUtils.logDataFeed.getChildCount(); vi++) {
-            View logEntryView = MainActivityLogUtils.logDataFeed.getChildAt(vi);
-            if (MainActivityLogUtils.logDataEntries.get(vi) instanceof LogEntryUI) {
-                String bgColor = String.format(Locale.ENGLISH, "#%06X", (0xFFFFFF & logEntryView.getDrawingCacheBackgroundColor()));
-                if(bgColor.equals(defaultBgColor))
-                    bgColor = "#ffffff";
-                String lineData = "<code bgcolor='" + bgColor + "'>" + ((LogEntryUI) MainActivityLogUtils.logDataEntries.get(vi)).toString() + "</code><br/>\n";
-                fout.write(lineData.getBytes(StandardCharsets.US_ASCII));
-            }
-            else {
-                String lineData = "<b><code>" + ((LogEntryMetadataRecord) MainActivityLogUtils.logDataEntries.get(vi)).toString() + "</code></b><br/>\n";
-                fout.write(lineData.getBytes(StandardCharsets.US_ASCII));
-            }
+    private static void runXModemUpload(InputStream cardInputStream) {
+        XModemEngine xmodemSender;
+        try {
+            xmodemSender = XModemEngine.createSender(cardInputStream);
+            cardInputStream.close();
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            postTransferError("Unable to read the card data: " + ioe.getMessage());
+            return;
         }
-        String htmlFooter = "</body></html>";
-        fout.write(htmlFooter.getBytes(StandardCharsets.US_ASCII));
-        fout.close();
-        return true;
-    }
-
-    /**
-     * Writes the logged data to the binary format returned by the LOGDOWNLOAD command.
-     * @param fd
-     * @return boolean success of the operation
-     * @throws Exception (IOException)
-     * @ref LiveLoggerActivity.actionButtonWriteFile
-     * @url http://rawgit.com/emsec/ChameleonMini/master/Doc/Doxygen/html/Page_Log.html
-     */
-    public static boolean writeBinaryLogFile(File fd) throws Exception {
-        FileOutputStream fout = new FileOutputStream(fd);
-        short localTicks = 0;
-        for (int vi = 0; vi < MainActivityLogUtils.logDataFeed.getChildCount(); vi++) {
-            View logEntryView = MainActivityLogUtils.logDataFeed.getChildAt(vi);
-            if (MainActivityLogUtils.logDataEntries.get(vi) instanceof LogEntryUI) {
-                LogEntryUI logEntry = (LogEntryUI) MainActivityLogUtils.logDataEntries.get(vi);
-                byte[] entryBytes = logEntry.packageBinaryLogData(localTicks);
-                localTicks = logEntry.getNextOffsetTime(localTicks);
-                fout.write(entryBytes);
-            }
+        final ChameleonSerialIOInterface serialIOPort = Settings.getActiveSerialIOPort();
+        if(serialIOPort == null || !serialIOPort.serialConfigured() || XModemTransferSession.isTransferActive()) {
+            postTransferError("Unable to start the upload: the serial port is not available.");
+            return;
         }
-        fout.close();
-        return true;
+        serialIOPort.acquireSerialPortNoInterrupt();
+        ChameleonIO.getSettingFromDevice("READONLY=0");
+        XModemTransferSession xmodemSession = new XModemTransferSession(xmodemSender, serialIOPort);
+        DeviceResponse cmdResp = ChameleonIO.getDeviceResponse("UPLOAD", false);
+        if(cmdResp == null || cmdResp.getResponseCode() != ChameleonIO.SerialRespCode.WAITING_FOR_MODEM.toInteger() ||
+           !xmodemSession.start()) {
+            ChameleonIO.getSettingFromDevice("READONLY=" + (ChameleonIO.deviceStatus.READONLY ? "1" : "0"));
+            serialIOPort.releaseSerialPortLock();
+            postTransferError("Unable to start the upload: " + (cmdResp == null ? "no response to UPLOAD" : cmdResp.getResponseCodeText()));
+            return;
+        }
+        xmodemSession.getCompletionFuture().whenCompleteAsync(new BiConsumer<XModemEngine, Throwable>() {
+            public void accept(final XModemEngine xmodem, Throwable error) {
+                ChameleonIO.getSettingFromDevice("READONLY=" + (ChameleonIO.deviceStatus.READONLY ? "1" : "0"));
+                serialIOPort.releaseSerialPortLock();
+                if(error != null) {
+                    postTransferError("File transmission errors encountered. " + getTransferErrorMessage(error) + ". Upload of data aborted.");
+                    return;
+                }
+                mainThreadHandler.post(new Runnable() {
+                    public void run() {
+                        MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("STATUS", "Uploaded the card data: " + xmodem.getThroughputSummary()));
+                        ChameleonIO.deviceStatus.updateAllStatusAndPost(false);
+                    }
+                });
+            }
+        }, XModemTransferSession.getTransferExecutor());
     }
 
     /**
@@ -559,9 +333,11 @@ public class ExportTools {
         try {
             outfile.createNewFile();
             FileOutputStream fout = new FileOutputStream(outfile);
-            ChameleonIO.EXPECTING_BINARY_DATA = true;
-            ChameleonIO.getSettingFromDevice("DUMP_MFU");
-            fout.write(ChameleonIO.DEVICE_RESPONSE_BINARY);
+            DeviceResponse dumpResp = ChameleonIO.getDeviceResponse("DUMP_MFU", true);
+            if(dumpResp == null) {
+                throw new IOException("No response from the device to DUMP_MFU.");
+            }
+            fout.write(dumpResp.getBinaryData());
             fout.flush();
             fout.close();
         } catch(Exception ioe) {
@@ -23,6 +23,7 @@ import android.net.Uri;
 import android.widget.RadioButton;
 
 import java.io.File;
+import java.util.Locale;
 
 import static android.content.Context.DOWNLOAD_SERVICE;
 
@@ -40,9 +41,13 @@ public class ExternalFileIO {
     public static String FIRMWARE_SUBDIR = "firmware//";
 
     public static void exportOutputFile(String fileType) {
+        final LogExporter.ExportFormat exportFormat = LogExporter.createExportFormat(fileType);
+        if(exportFormat == null) {
+            MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", "Unknown log file type \"" + fileType + "\"."));
+            return;
+        }
         LiveLoggerActivity.getInstance().setStatusIcon(R.id.statusIconUlDl, R.drawable.statusdownload16);
-        String mimeType = "message/rfc822";
-        String outfilePath = "logdata-" + Utils.getTimestamp().replace(":", "") + "." + fileType;
+        final String outfilePath = "logdata-" + Utils.getTimestamp().replace(":", "") + "." + fileType;
         File downloadsFolder = new File("//sdcard//Download//");
         File outfile = new File(downloadsFolder, outfilePath);
         boolean docsFolderExists = true;
@@ -59,24 +64,37 @@ public class ExternalFileIO {
         }
         try {
             outfile.createNewFile();
-            if (fileType.equals("out")) {
-                mimeType = "plain/text";
-                ExportTools.writeFormattedLogFile(outfile);
-            }
-            else if (fileType.equals("html")) {
-                mimeType = "text/html";
-                ExportTools.writeHTMLLogFile(outfile);
-            }
-            else if (fileType.equals("bin")) {
-                mimeType = "application/octet-stream";
-                ExportTools.writeBinaryLogFile(outfile);
-            }
         } catch(Exception ioe) {
             MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", ioe.getMessage()));
             LiveLoggerActivity.getInstance().setStatusIcon(R.id.statusIconUlDl, R.drawable.statusxferfailed16);
             ioe.printStackTrace();
             return;
         }
+        LogExporter.exportLogsAsync(outfile, exportFormat, new LogExporter.ExportListener() {
+            private int lastProgressPercent = 0;
+            public void onExportProgress(int rowsWritten, int totalRows) {
+                int progressPercent = 100 * rowsWritten / Math.max(1, totalRows);
+                if(progressPercent / 25 > lastProgressPercent / 25) {
+                    Utils.displayToastMessageShort(String.format(Locale.ENGLISH, "Exporting logs: %d%% ...", progressPercent));
+                }
+                lastProgressPercent = progressPercent;
+            }
+            public void onExportFinished(File outfile, LogExporter.ExportFormat exportFormat, int rowsWritten, boolean cancelled, Exception error) {
+                if(error != null || cancelled) {
+                    outfile.delete();
+                    String errorMsg = error != null ? error.getMessage() : "Export of \"" + outfilePath + "\" cancelled.";
+                    MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", errorMsg));
+                    LiveLoggerActivity.getInstance().setStatusIcon(R.id.statusIconUlDl, R.drawable.statusxferfailed16);
+                    return;
+                }
+                shareOutputFile(outfile, exportFormat.getMimeType());
+                MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("EXPORT",
+                        String.format(Locale.ENGLISH, "Saved log file to \"%s\" (%d log entries).", outfilePath, rowsWritten)));
+            }
+        });
+    }
+
+    private static void shareOutputFile(File outfile, String mimeType) {
         DownloadManager downloadManager = (DownloadManager) LiveLoggerActivity.getInstance().defaultContext.getSystemService(DOWNLOAD_SERVICE);
         downloadManager.addCompletedDownload(outfile.getName(), outfile.getName(), true, "text/plain",
                 outfile.getAbsolutePath(), outfile.length(),true);
@@ -93,8 +111,5 @@ public class ExternalFileIO {
             i.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
             LiveLoggerActivity.getInstance().startActivity(Intent.createChooser(i, "Share the file ... "));
         }
-        MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("EXPORT", "Saved log file to \"" + outfilePath + "\"."));
-
-
     }
 }
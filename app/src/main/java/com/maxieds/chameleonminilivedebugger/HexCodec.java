@@ -0,0 +1,243 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import java.io.IOException;
+
+/**
+ * <h1>Hex Codec</h1>
+ * Lookup-table hex encoder / decoder. Encoding writes straight into a caller supplied
+ * char[], StringBuilder or Appendable with a configurable separator between the bytes
+ * (space, colon or none) and upper or lower case digits. Decoding accepts the separators
+ * (and whitespace) between bytes, and reports malformed input through a
+ * MalformedHexException carrying the offending position instead of silently returning 0x00.
+ *
+ * @ref Utils.bytes2Hex
+ * @ref Utils.hexString2Bytes
+ */
+public class HexCodec {
+
+    public static final char SEPARATOR_NONE = '\0';
+    public static final char SEPARATOR_SPACE = ' ';
+    public static final char SEPARATOR_COLON = ':';
+
+    private static final char[] LOWER_DIGITS = "0123456789abcdef".toCharArray();
+    private static final char[] UPPER_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    public static final HexCodec LOWER_SPACED = new HexCodec(SEPARATOR_SPACE, false);
+    public static final HexCodec LOWER_PLAIN = new HexCodec(SEPARATOR_NONE, false);
+    public static final HexCodec UPPER_PLAIN = new HexCodec(SEPARATOR_NONE, true);
+    public static final HexCodec UPPER_COLON = new HexCodec(SEPARATOR_COLON, true);
+
+    /**
+     * Digit values indexed by character (-1 for non-hex characters).
+     */
+    private static final byte[] DIGIT_VALUES = new byte[128];
+    static {
+        for(int ch = 0; ch < DIGIT_VALUES.length; ch++) {
+            DIGIT_VALUES[ch] = (byte) Character.digit(ch, 16);
+        }
+    }
+
+    public static class MalformedHexException extends IllegalArgumentException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int errorIndex;
+
+        public MalformedHexException(String message, int errorIndex) {
+            super(message + " (at index " + errorIndex + ")");
+            this.errorIndex = errorIndex;
+        }
+
+        /**
+         * @return int index of the offending character in the decoded input
+         */
+        public int getErrorIndex() {
+            return errorIndex;
+        }
+
+    }
+
+    private final char separator;
+    private final char[] hexDigits;
+
+    public HexCodec(char separator, boolean upperCase) {
+        this.separator = separator;
+        this.hexDigits = upperCase ? UPPER_DIGITS : LOWER_DIGITS;
+    }
+
+    public char getSeparator() {
+        return separator;
+    }
+
+    public boolean isUpperCase() {
+        return hexDigits == UPPER_DIGITS;
+    }
+
+    /**
+     * @param numBytes
+     * @return int number of chars encode writes for numBytes bytes
+     */
+    public int getEncodedLength(int numBytes) {
+        if(numBytes <= 0) {
+            return 0;
+        }
+        return separator == SEPARATOR_NONE ? 2 * numBytes : 3 * numBytes - 1;
+    }
+
+    /**
+     * Encodes the bytes into dest, which must have room for getEncodedLength(length) chars.
+     * @param src
+     * @param offset
+     * @param length
+     * @param dest
+     * @param destOffset
+     * @return int number of chars written
+     */
+    public int encode(byte[] src, int offset, int length, char[] dest, int destOffset) {
+        int pos = destOffset;
+        for(int b = offset; b < offset + length; b++) {
+            if(separator != SEPARATOR_NONE && b > offset) {
+                dest[pos++] = separator;
+            }
+            dest[pos++] = hexDigits[(src[b] >>> 4) & 0x0f];
+            dest[pos++] = hexDigits[src[b] & 0x0f];
+        }
+        return pos - destOffset;
+    }
+
+    public StringBuilder encode(byte[] src, int offset, int length, StringBuilder dest) {
+        dest.ensureCapacity(dest.length() + getEncodedLength(length));
+        for(int b = offset; b < offset + length; b++) {
+            if(separator != SEPARATOR_NONE && b > offset) {
+                dest.append(separator);
+            }
+            dest.append(hexDigits[(src[b] >>> 4) & 0x0f]);
+            dest.append(hexDigits[src[b] & 0x0f]);
+        }
+        return dest;
+    }
+
+    public void encode(byte[] src, int offset, int length, Appendable dest) throws IOException {
+        for(int b = offset; b < offset + length; b++) {
+            if(separator != SEPARATOR_NONE && b > offset) {
+                dest.append(separator);
+            }
+            dest.append(hexDigits[(src[b] >>> 4) & 0x0f]);
+            dest.append(hexDigits[src[b] & 0x0f]);
+        }
+    }
+
+    public String encode(byte[] src, int offset, int length) {
+        char[] encodedChars = new char[getEncodedLength(length)];
+        encode(src, offset, length, encodedChars, 0);
+        return new String(encodedChars);
+    }
+
+    public String encode(byte[] src) {
+        return encode(src, 0, src.length);
+    }
+
+    private boolean isSeparatorChar(char ch) {
+        return ch == separator || ch == SEPARATOR_SPACE || ch == SEPARATOR_COLON ||
+               ch == '\t' || ch == '\n' || ch == '\r';
+    }
+
+    /**
+     * Decodes the hex digits in src[offset, offset + length) into dest. Separators are only
+     * accepted between (not within) the two digits of a byte.
+     * @param src
+     * @param offset
+     * @param length
+     * @param dest
+     * @param destOffset
+     * @param padOddDigitCount read an odd number of digits as if they had a leading '0'
+     * @return int number of bytes written
+     * @throws MalformedHexException on a non-hex character, a separator splitting a byte,
+     *         an odd number of digits (unless padOddDigitCount) or too small a dest array
+     */
+    public int decode(CharSequence src, int offset, int length, byte[] dest, int destOffset,
+                      boolean padOddDigitCount) {
+        // a padded leading '0' is pending from the start, but may be followed by separators:
+        boolean havePendingNibble = padOddDigitCount && countDigits(src, offset, length) % 2 != 0;
+        boolean pendingNibbleFromInput = false;
+        int pendingNibble = 0;
+        int pos = destOffset;
+        for(int ci = offset; ci < offset + length; ci++) {
+            char ch = src.charAt(ci);
+            int digit = ch < DIGIT_VALUES.length ? DIGIT_VALUES[ch] : -1;
+            if(digit < 0) {
+                if(!isSeparatorChar(ch)) {
+                    throw new MalformedHexException("Invalid hex character '" + ch + "'", ci);
+                }
+                else if(pendingNibbleFromInput) {
+                    throw new MalformedHexException("Separator inside a hex byte", ci);
+                }
+                continue;
+            }
+            if(!havePendingNibble) {
+                pendingNibble = digit;
+                havePendingNibble = pendingNibbleFromInput = true;
+                continue;
+            }
+            if(pos >= dest.length) {
+                throw new MalformedHexException("Decoded bytes overflow the destination", ci);
+            }
+            dest[pos++] = (byte) ((pendingNibble << 4) | digit);
+            havePendingNibble = pendingNibbleFromInput = false;
+        }
+        if(havePendingNibble) {
+            throw new MalformedHexException("Odd number of hex digits", offset + length);
+        }
+        return pos - destOffset;
+    }
+
+    private static int countDigits(CharSequence src, int offset, int length) {
+        int numDigits = 0;
+        for(int ci = offset; ci < offset + length; ci++) {
+            char ch = src.charAt(ci);
+            if(ch < DIGIT_VALUES.length && DIGIT_VALUES[ch] >= 0) {
+                numDigits++;
+            }
+        }
+        return numDigits;
+    }
+
+    /**
+     * @param src
+     * @return byte[] the decoded bytes
+     * @throws MalformedHexException
+     */
+    public static byte[] decode(CharSequence src) {
+        return decode(src, false);
+    }
+
+    public static byte[] decode(CharSequence src, boolean padOddDigitCount) {
+        int numDigits = countDigits(src, 0, src.length());
+        byte[] decodedBytes = new byte[(numDigits + 1) / 2];
+        int numBytes = LOWER_PLAIN.decode(src, 0, src.length(), decodedBytes, 0, padOddDigitCount);
+        if(numBytes == decodedBytes.length) {
+            return decodedBytes;
+        }
+        byte[] trimmedBytes = new byte[numBytes];
+        System.arraycopy(decodedBytes, 0, trimmedBytes, 0, numBytes);
+        return trimmedBytes;
+    }
+
+}
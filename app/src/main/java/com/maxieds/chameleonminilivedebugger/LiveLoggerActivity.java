@@ -55,6 +55,7 @@ import androidx.viewpager.widget.ViewPager;
 import com.google.android.material.tabs.TabLayout;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
 
 import static com.maxieds.chameleonminilivedebugger.TabFragment.TAB_CONFIG;
@@ -226,6 +227,9 @@ public class LiveLoggerActivity extends AppCompatActivity {
           getWindow().setStatusBarColor(ThemesConfiguration.getThemeColorVariant(R.attr.colorPrimaryDark));
           getWindow().setNavigationBarColor(ThemesConfiguration.getThemeColorVariant(R.attr.colorPrimaryDark));
 
+          if(completeRestart) {
+               LogSessionJournal.recoverAllJournals(LogSessionJournal.getJournalDirectory());
+          }
           configureTabViewPager();
 
           if(completeRestart) {
@@ -293,10 +297,7 @@ public class LiveLoggerActivity extends AppCompatActivity {
                               onNewIntent(intent);
                          }
                          else if(intent.getAction().equals(ChameleonSerialIOInterface.SERIALIO_NOTIFY_BTDEV_CONNECTED) ||
-                                 intent.getAction().equals(ChameleonSerialIOInterface.SERIALIO_DEVICE_CONNECTION_LOST) ||
-                                 intent.getAction().equals(ChameleonSerialIOInterface.SERIALIO_DATA_RECEIVED) ||
-                                 intent.getAction().equals(ChameleonSerialIOInterface.SERIALIO_LOGDATA_RECEIVED) ||
-                                 intent.getAction().equals(ChameleonSerialIOInterface.SERIALIO_NOTIFY_STATUS)) {
+                                 intent.getAction().equals(ChameleonSerialIOInterface.SERIALIO_DEVICE_CONNECTION_LOST)) {
                               onNewIntent(intent);
                          }
                     }
@@ -313,10 +314,8 @@ public class LiveLoggerActivity extends AppCompatActivity {
                serialIOActionFilter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
                serialIOActionFilter.addAction(ChameleonSerialIOInterface.SERIALIO_NOTIFY_BTDEV_CONNECTED);
                serialIOActionFilter.addAction(ChameleonSerialIOInterface.SERIALIO_DEVICE_CONNECTION_LOST);
-               serialIOActionFilter.addAction(ChameleonSerialIOInterface.SERIALIO_DATA_RECEIVED);
-               serialIOActionFilter.addAction(ChameleonSerialIOInterface.SERIALIO_LOGDATA_RECEIVED);
-               serialIOActionFilter.addAction(ChameleonSerialIOInterface.SERIALIO_NOTIFY_STATUS);
                registerReceiver(serialIOActionReceiver, serialIOActionFilter);
+               SerialIOEventBus.registerListener(serialIOEventListener);
                SerialUSBInterface.registerUSBPermission(null, this);
                serialIOReceiversRegistered = true;
 
@@ -348,6 +347,7 @@ public class LiveLoggerActivity extends AppCompatActivity {
                unregisterReceiver(serialIOActionReceiver);
                serialIOReceiversRegistered = false;
           }
+          SerialIOEventBus.unregisterListener(serialIOEventListener);
           Intent intent = getIntent();
           intent.addFlags(Intent.FLAG_ACTIVITY_NO_ANIMATION);
           intent.addCategory(INTENT_RESTART_ACTIVITY);
@@ -357,6 +357,31 @@ public class LiveLoggerActivity extends AppCompatActivity {
           overridePendingTransition(0, 0);
      }
 
+     /**
+      * Handles the serial data, LIVE log records and status messages delivered in batches by
+      * the SerialIOEventBus (once per display frame, on the main thread).
+      * @ref SerialIOEventBus
+      */
+     private static SerialIOEventBus.EventListener serialIOEventListener = new SerialIOEventBus.EventListener() {
+          public void onLogDataReceived(byte[] dataBuf, int offset, int length) {
+               String entropyChangeMsg = EntropyEstimator.updateRollingEntropy(dataBuf, offset, length);
+               if(entropyChangeMsg != null) {
+                    MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ENTROPY", entropyChangeMsg));
+               }
+               MainActivityLogUtils.appendOrCollapseNewLog(dataBuf, offset, length);
+          }
+          public void onSerialDataReceived(byte[] dataBuf, int offset, int length) {
+               byte[] serialByteData = Arrays.copyOfRange(dataBuf, offset, offset + length);
+               String dataMsg = String.format(Locale.ENGLISH, "Unexpected serial I/O data received:\n%s\n%s",
+                       Utils.bytes2Hex(serialByteData), Utils.bytes2Ascii(serialByteData));
+               MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("STATUS", dataMsg));
+          }
+          public void onStatusReceived(String msgType, String statusMsg) {
+               MainActivityLogUtils.appendNewLog(new LogEntryMetadataRecord(msgType, statusMsg));
+          }
+          public void onEventBatchDelivered(int eventCount) {}
+     };
+
      private static ViewPager.OnPageChangeListener tabChangeListener = null;
 
      /**
@@ -366,10 +391,9 @@ public class LiveLoggerActivity extends AppCompatActivity {
       */
      protected void configureTabViewPager() {
 
-          MainActivityLogUtils.logDataFeedConfigured = false;
-          MainActivityLogUtils.logDataFeed = new LinearLayout(getApplicationContext());
-          if(MainActivityLogUtils.logDataEntries != null)
-               MainActivityLogUtils.logDataEntries.clear();
+          MainActivityLogUtils.logRecyclerView = null;
+          MainActivityLogUtils.startNewLogSession();
+          MainActivityLogUtils.logDataFeed.notifyDataSetChanged();
 
           viewPager = (ViewPager) findViewById(R.id.tab_pager);
           viewPager.setId(View.generateViewId());
@@ -466,9 +490,7 @@ public class LiveLoggerActivity extends AppCompatActivity {
           }
           else if(intent.getAction().equals(UsbManager.ACTION_USB_DEVICE_DETACHED)) {
                ChameleonIO.DeviceStatusSettings.stopPostingStats();
-               if(ChameleonIO.WAITING_FOR_RESPONSE) {
-                    ChameleonIO.WAITING_FOR_RESPONSE = false;
-               }
+               ChameleonCommandEngine.cancelPendingCommands();
                ChameleonSerialIOInterface serialIOPort = Settings.getActiveSerialIOPort();
                if(serialIOPort != null) {
                     serialIOPort.shutdownSerial();
@@ -520,9 +542,7 @@ public class LiveLoggerActivity extends AppCompatActivity {
           else if(intent.getAction().equals(BluetoothDevice.ACTION_ACL_DISCONNECTED) ||
                   intent.getAction().equals(ChameleonSerialIOInterface.SERIALIO_DEVICE_CONNECTION_LOST)) {
                ChameleonIO.DeviceStatusSettings.stopPostingStats();
-               if(ChameleonIO.WAITING_FOR_RESPONSE) {
-                    ChameleonIO.WAITING_FOR_RESPONSE = false;
-               }
+               ChameleonCommandEngine.cancelPendingCommands();
                ChameleonSerialIOInterface serialIOPort = Settings.getActiveSerialIOPort();
                if(serialIOPort != null) {
                     serialIOPort.shutdownSerial();
@@ -531,36 +551,6 @@ public class LiveLoggerActivity extends AppCompatActivity {
                clearStatusIcon(R.id.statusIconBT);
                Settings.initializeSerialIOConnections();
           }
-          else if(intent.getAction().equals(ChameleonSerialIOInterface.SERIALIO_DATA_RECEIVED)) {
-               byte[] serialByteData = intent.getByteArrayExtra("DATA");
-               String dataMsg = String.format(Locale.ENGLISH, "Unexpected serial I/O data received:\n%s\n%s",
-                       Utils.bytes2Hex(serialByteData), Utils.bytes2Ascii(serialByteData));
-               MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("STATUS", dataMsg));
-          }
-          else if(intent.getAction().equals(ChameleonSerialIOInterface.SERIALIO_LOGDATA_RECEIVED)) {
-               byte[] logDataBytes = intent.getByteArrayExtra("DATA");
-               if(ChameleonLogUtils.CONFIG_COLLAPSE_COMMON_LOG_ENTRIES) {
-                    for(int chIdx = 0; chIdx < MainActivityLogUtils.logDataEntries.size(); chIdx++) {
-                         if(!(MainActivityLogUtils.logDataEntries.get(chIdx) instanceof LogEntryUI)) {
-                              continue;
-                         }
-                         LogEntryUI logEntryUI = (LogEntryUI) MainActivityLogUtils.logDataEntries.get(chIdx);
-                         if(logEntryUI.logEntryDataEquals(logDataBytes)) {
-                              logEntryUI.appendDuplicate(logDataBytes[2], logDataBytes[3]);
-                              MainActivityLogUtils.logDataFeed.removeViewAt(chIdx);
-                              MainActivityLogUtils.logDataEntries.remove(chIdx);
-                              MainActivityLogUtils.appendNewLog(logEntryUI);
-                              return;
-                         }
-                    }
-               }
-               MainActivityLogUtils.appendNewLog(LogEntryUI.newInstance(logDataBytes, ""));
-          }
-          else if(intent.getAction().equals(ChameleonSerialIOInterface.SERIALIO_NOTIFY_STATUS)) {
-               String msgType = intent.getStringExtra("STATUS-TYPE");
-               String statusMsg = intent.getStringExtra("STATUS-MSG");
-               MainActivityLogUtils.appendNewLog(new LogEntryMetadataRecord(defaultInflater, msgType, statusMsg));
-          }
      }
 
      /**
@@ -684,6 +674,7 @@ public class LiveLoggerActivity extends AppCompatActivity {
       */
      public void actionButtonWriteFile(View view) {
           String fileType = ((Button) view).getTag().toString();
+          MainActivityLogUtils.logSequenceCompressor.flushPendingRecords();
           ExternalFileIO.exportOutputFile(fileType);
      }
 
@@ -865,4 +856,24 @@ public class LiveLoggerActivity extends AppCompatActivity {
           }
      }
 
+     public void actionButtonSetFoldMaxCycleLength(View view) {
+          EditText foldMaxCycleLengthField = (EditText) findViewById(R.id.loggingFoldMaxCycleLengthField);
+          String fieldText = foldMaxCycleLengthField.getText().toString();
+          if(fieldText.length() == 0) {
+               return;
+          }
+          try {
+               int foldMaxCycleLength = Integer.parseInt(fieldText, 10);
+               if(foldMaxCycleLength < 1 || foldMaxCycleLength > LogSequenceCompressor.MAX_CYCLE_LENGTH) {
+                    return;
+               }
+               ChameleonLogUtils.CONFIG_FOLD_MAX_CYCLE_LENGTH = foldMaxCycleLength;
+               AndroidSettingsStorage.updateValueByKey(AndroidSettingsStorage.LOGGING_CONFIG_FOLD_MAX_CYCLE_LENGTH);
+          }
+          catch(Exception ex) {
+               ex.printStackTrace();
+               Log.i(TAG, ex.getMessage());
+          }
+     }
+
 }
\ No newline at end of file
@@ -0,0 +1,148 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+/**
+ * <h1>Log Collapse Index</h1>
+ * Open-addressing hash index from (log code, payload) to the row of the first LIVE log record
+ * holding them, used to fold repeated records into a duplicate count when
+ * ChameleonLogUtils.CONFIG_COLLAPSE_COMMON_LOG_ENTRIES is enabled. Lookups compare the
+ * 32-bit hashes first and then verify the record bytes against the log store, so a hash
+ * collision never merges two different records. Each lookup or insert costs O(1) (plus the
+ * length of the record), independently of the length of the session.
+ *
+ * @ref LiveLoggerActivity.serialIOEventListener
+ * @ref LogRecordStore.appendDuplicate
+ */
+public class LogCollapseIndex {
+
+    private static final String TAG = LogCollapseIndex.class.getSimpleName();
+
+    private static final int INITIAL_CAPACITY = 1024; // must be a power of two
+    private static final int EMPTY_SLOT = -1;
+
+    private int[] slotRows;
+    private int[] slotHashes;
+    private int numEntries;
+
+    public LogCollapseIndex() {
+        clear();
+    }
+
+    public void clear() {
+        slotRows = new int[INITIAL_CAPACITY];
+        slotHashes = new int[INITIAL_CAPACITY];
+        for(int si = 0; si < INITIAL_CAPACITY; si++) {
+            slotRows[si] = EMPTY_SLOT;
+        }
+        numEntries = 0;
+    }
+
+    public int size() {
+        return numEntries;
+    }
+
+    /**
+     * FNV-1a hash of the log code and payload of a native LIVE log record
+     * ([code, len, tick_hi, tick_lo, payload]); the length and timing bytes are skipped.
+     */
+    public static int hashRecord(byte[] logBuf, int offset, int length) {
+        int hash = 0x811c9dc5;
+        hash = (hash ^ (logBuf[offset] & 0xff)) * 0x01000193;
+        for(int bi = offset + 4; bi < offset + length; bi++) {
+            hash = (hash ^ (logBuf[bi] & 0xff)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    private static int mixHash(int hash) {
+        hash ^= hash >>> 16;
+        return hash * 0x85ebca6b;
+    }
+
+    /**
+     * @param logDataStore
+     * @param logBuf native LIVE log record
+     * @param offset
+     * @param length
+     * @return int row of an earlier record with the same log code and payload, or -1
+     */
+    public int findDuplicate(LogRecordStore logDataStore, byte[] logBuf, int offset, int length) {
+        if(length < 4) {
+            return -1;
+        }
+        int hash = hashRecord(logBuf, offset, length);
+        int mask = slotRows.length - 1;
+        for(int si = mixHash(hash) & mask; slotRows[si] != EMPTY_SLOT; si = (si + 1) & mask) {
+            if(slotHashes[si] == hash && logDataStore.recordEquals(slotRows[si], logBuf, offset, length)) {
+                return slotRows[si];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indexes the record just appended to the given row (unless an equal record is already
+     * indexed, so that lookups always find the first occurrence).
+     * @param logDataStore
+     * @param row
+     * @param logBuf native LIVE log record
+     * @param offset
+     * @param length
+     */
+    public void addRecord(LogRecordStore logDataStore, int row, byte[] logBuf, int offset, int length) {
+        if(length < 4 || row < 0) {
+            return;
+        }
+        int hash = hashRecord(logBuf, offset, length);
+        int mask = slotRows.length - 1;
+        int si = mixHash(hash) & mask;
+        for(; slotRows[si] != EMPTY_SLOT; si = (si + 1) & mask) {
+            if(slotHashes[si] == hash && slotRows[si] != row && logDataStore.recordEquals(slotRows[si], logBuf, offset, length)) {
+                return;
+            }
+        }
+        slotRows[si] = row;
+        slotHashes[si] = hash;
+        if(++numEntries > slotRows.length / 2) {
+            rehash(2 * slotRows.length);
+        }
+    }
+
+    private void rehash(int nextCapacity) {
+        int[] prevRows = slotRows, prevHashes = slotHashes;
+        slotRows = new int[nextCapacity];
+        slotHashes = new int[nextCapacity];
+        for(int si = 0; si < nextCapacity; si++) {
+            slotRows[si] = EMPTY_SLOT;
+        }
+        int mask = nextCapacity - 1;
+        for(int pi = 0; pi < prevRows.length; pi++) {
+            if(prevRows[pi] == EMPTY_SLOT) {
+                continue;
+            }
+            int si = mixHash(prevHashes[pi]) & mask;
+            while(slotRows[si] != EMPTY_SLOT) {
+                si = (si + 1) & mask;
+            }
+            slotRows[si] = prevRows[pi];
+            slotHashes[si] = prevHashes[pi];
+        }
+    }
+
+}
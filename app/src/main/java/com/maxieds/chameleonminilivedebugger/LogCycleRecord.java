@@ -0,0 +1,171 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * <h1>Log Cycle Record</h1>
+ * Summary row for a folded cycle of LIVE log records. The first two passes through the cycle
+ * stay in the log as ordinary rows; every later pass is only counted here together with a
+ * histogram of the time (in device ticks) each pass took. The folded passes can be expanded
+ * back into native LIVE log records on demand from the template rows of the last kept pass.
+ *
+ * @ref LogSequenceCompressor
+ * @ref LogExporter.BinaryExportFormat
+ */
+public class LogCycleRecord extends LogEntryMetadataRecord {
+
+    /**
+     * The period histogram buckets are powers of two: bucket k counts the passes that took
+     * [2^(k-1), 2^k) ticks (bucket 0 counts the zero tick passes).
+     */
+    public static final int NUM_PERIOD_BUCKETS = 17;
+
+    private final int templateStartRow;
+    private final int cycleLength;
+    private int repeatCount;
+    private int partialLength;
+    private final int[] periodHistogram = new int[NUM_PERIOD_BUCKETS];
+    private int minPeriodTicks;
+    private int maxPeriodTicks;
+
+    /**
+     * Constructor.
+     * @param templateStartRow first row of the (kept) pass the folded records repeat
+     * @param cycleLength number of records in one pass of the cycle
+     */
+    public LogCycleRecord(int templateStartRow, int cycleLength) {
+        super("CYCLE", "");
+        this.templateStartRow = templateStartRow;
+        this.cycleLength = cycleLength;
+        repeatCount = partialLength = 0;
+        minPeriodTicks = maxPeriodTicks = -1;
+        setRecordIcon(R.drawable.refresh24);
+        updateRecordText();
+    }
+
+    public int getTemplateStartRow() {
+        return templateStartRow;
+    }
+
+    public int getCycleLength() {
+        return cycleLength;
+    }
+
+    public int getRepeatCount() {
+        return repeatCount;
+    }
+
+    /**
+     * @return int number of records of the pass that is currently being folded
+     */
+    public int getPartialLength() {
+        return partialLength;
+    }
+
+    /**
+     * @return int number of LIVE log records the row stands for
+     */
+    public int getExpandedRecordCount() {
+        return repeatCount * cycleLength + partialLength;
+    }
+
+    /**
+     * @param recordIdx index of the folded record (0 .. getExpandedRecordCount() - 1)
+     * @return int row of the template record the folded record repeats
+     */
+    public int getExpandedRecordRow(int recordIdx) {
+        return templateStartRow + recordIdx % cycleLength;
+    }
+
+    public int[] getPeriodHistogram() {
+        return periodHistogram.clone();
+    }
+
+    /**
+     * Counts another complete pass through the cycle.
+     * @param periodTicks ticks between the start of the previous pass and this one
+     */
+    public void addRepeat(int periodTicks) {
+        repeatCount++;
+        partialLength = 0;
+        periodHistogram[getPeriodBucket(periodTicks)]++;
+        if(minPeriodTicks < 0 || periodTicks < minPeriodTicks) {
+            minPeriodTicks = periodTicks;
+        }
+        maxPeriodTicks = Math.max(maxPeriodTicks, periodTicks);
+        updateRecordText();
+    }
+
+    public void setPartialLength(int numRecords) {
+        partialLength = numRecords;
+        updateRecordText();
+    }
+
+    private static int getPeriodBucket(int periodTicks) {
+        return Math.min(32 - Integer.numberOfLeadingZeros(periodTicks), NUM_PERIOD_BUCKETS - 1);
+    }
+
+    private void updateRecordText() {
+        StringBuilder recordText = new StringBuilder();
+        recordText.append(String.format(Locale.ENGLISH, "%d record%s (rows %d-%d) repeated %d more time%s",
+                cycleLength, cycleLength == 1 ? "" : "s", templateStartRow, templateStartRow + cycleLength - 1,
+                repeatCount, repeatCount == 1 ? "" : "s"));
+        if(partialLength > 0) {
+            recordText.append(String.format(Locale.ENGLISH, " (+%d/%d)", partialLength, cycleLength));
+        }
+        if(repeatCount > 0) {
+            recordText.append(String.format(Locale.ENGLISH, "\nPeriod: %d-%d ticks |", minPeriodTicks, maxPeriodTicks));
+            for(int bi = 0; bi < NUM_PERIOD_BUCKETS; bi++) {
+                if(periodHistogram[bi] == 0) {
+                    continue;
+                }
+                int bucketStart = bi == 0 ? 0 : 1 << (bi - 1);
+                recordText.append(String.format(Locale.ENGLISH, " %d+:%d", bucketStart, periodHistogram[bi]));
+            }
+        }
+        setRecordText(recordText.toString());
+    }
+
+    /**
+     * Expands the folded passes (and the partially folded pass) back into native LIVE log
+     * records. The time offsets of the expanded records follow the template pass.
+     * @param logDataStore
+     * @param fout
+     * @param offsetTimeMillis running time offset of the binary log
+     * @return short the time offset after the last expanded record
+     * @throws IOException
+     */
+    public short writeExpandedRecords(LogRecordStore logDataStore, OutputStream fout, short offsetTimeMillis) throws IOException {
+        int numRecords = getExpandedRecordCount();
+        for(int ri = 0; ri < numRecords; ri++) {
+            LogEntryBase templateEntry = logDataStore.getEntry(getExpandedRecordRow(ri));
+            if(!(templateEntry instanceof LogEntryUI)) {
+                continue;
+            }
+            LogEntryUI logEntry = (LogEntryUI) templateEntry;
+            fout.write(logEntry.packageBinaryLogData(offsetTimeMillis));
+            offsetTimeMillis = logEntry.getNextOffsetTime(offsetTimeMillis);
+        }
+        return offsetTimeMillis;
+    }
+
+}
@@ -25,7 +25,9 @@ import android.view.View;
 
 /**
  * <h1>Log Entry Base Abstract Interface</h1>
- * Abstract base class for storing the log entry data.
+ * Abstract base class for the log entries. The entries do not own their views:
+ * the Log tab binds them into recycled row layouts (see LogFeedAdapter), and a standalone
+ * copy of the row can be inflated on demand with getLayoutContainer.
  *
  * @author  Maxie D. Schmidt
  * @since   12/31/17
@@ -36,6 +38,29 @@ public abstract class LogEntryBase {
 
     public abstract String writeXMLFragment(int indentLevel);
     public abstract String toString();
-    public abstract View getLayoutContainer();
-    public abstract View cloneLayoutContainer();
+
+    /**
+     * @return int the layout resource the entry is displayed in (also used as the row view type)
+     */
+    public abstract int getLayoutResource();
+
+    /**
+     * Populates a (possibly recycled) row layout with the data of this entry.
+     * @param layoutContainer inflated from getLayoutResource()
+     */
+    public abstract void bindLayoutContainer(View layoutContainer);
+
+    /**
+     * Inflates a new layout container that is not attached to the Log tab.
+     * @return View
+     */
+    public View getLayoutContainer() {
+        View layoutContainer = LiveLoggerActivity.defaultInflater.inflate(getLayoutResource(), null);
+        bindLayoutContainer(layoutContainer);
+        return layoutContainer;
+    }
+
+    public View cloneLayoutContainer() {
+        return getLayoutContainer();
+    }
 }
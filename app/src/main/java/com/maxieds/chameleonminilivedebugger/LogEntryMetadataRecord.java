@@ -17,9 +17,7 @@ https://github.com/maxieds/ChameleonMiniLiveDebugger
 
 package com.maxieds.chameleonminilivedebugger;
 
-import android.view.LayoutInflater;
 import android.view.View;
-import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import java.util.HashMap;
@@ -31,7 +29,7 @@ import java.util.Map;
  *
  * @author  Maxie D. Schmidt
  * @since   12/31/17
- * @ref LiveLoggerActivity.logDataEntries
+ * @ref MainActivityLogUtils.logDataStore
  */
 public class LogEntryMetadataRecord extends LogEntryBase {
 
@@ -41,48 +39,62 @@ public class LogEntryMetadataRecord extends LogEntryBase {
     private String recordTitle;
     private String recordText;
     private String recordTimestamp;
-    protected TextView tvRecTitle, tvRecData;
-    private LinearLayout recordContainer;
+    private int recordIconResID;
 
     /**
      * Constructor.
-     * @param inflater
      * @param title Main summary title of the status message / annotation entry.
      * @param text Lower specific subtitle text stored with the entry.
-     * @ref LiveLoggerActivity.defaultInflater
      * @ref LogEntryMetadataRecord.createDefaultEventRecord
      */
-    public LogEntryMetadataRecord(LayoutInflater inflater, String title, String text) {
+    public LogEntryMetadataRecord(String title, String text) {
         recordTitle = title;
-        recordText = text;
+        recordText = text == null ? "" : text;
         recordTimestamp = Utils.getTimestamp();
-        recordContainer = (LinearLayout) inflater.inflate(R.layout.log_metadata_record, null);
-        recordContainer.setAlpha(LOGENTRY_GUI_ALPHA);
-        tvRecTitle = (TextView) recordContainer.findViewById(R.id.record_title_text);
+        recordIconResID = 0;
+    }
+
+    /**
+     * Replaces the subtitle text of records that are updated in place.
+     * @param text
+     * @ref LogCycleRecord
+     */
+    protected void setRecordText(String text) {
+        recordText = text == null ? "" : text;
+    }
+
+    protected void setRecordIcon(int iconResID) {
+        recordIconResID = iconResID;
+    }
+
+    public int getLayoutResource() {
+        return R.layout.log_metadata_record;
+    }
+
+    /**
+     * Populates the (possibly recycled) record layout.
+     * @param layoutContainer
+     * @see res/layout/log_metadata_record.xml
+     */
+    public void bindLayoutContainer(View layoutContainer) {
+        layoutContainer.setAlpha(LOGENTRY_GUI_ALPHA);
+        TextView tvRecTitle = (TextView) layoutContainer.findViewById(R.id.record_title_text);
         tvRecTitle.setText(recordTitle + " -- " + recordTimestamp);
-        tvRecData = (TextView) recordContainer.findViewById(R.id.record_data_text);
+        if(recordIconResID != 0) {
+            tvRecTitle.setCompoundDrawablesWithIntrinsicBounds(recordIconResID, 0, 0, 0);
+        }
+        else {
+            tvRecTitle.setCompoundDrawablesWithIntrinsicBounds(R.drawable.phonebubble24, 0, 0, 0);
+        }
+        TextView tvRecData = (TextView) layoutContainer.findViewById(R.id.record_data_text);
         tvRecData.setText(recordText);
         tvRecData.setAlpha(LOGENTRY_GUI_ALPHA);
         if(recordText.equals("")) {
-            tvRecData.setVisibility(TextView.INVISIBLE);
-            tvRecData.setEnabled(false);
-            tvRecData.setHeight(0);
+            tvRecData.setVisibility(TextView.GONE);
         }
-    }
-
-    public View cloneLayoutContainer() {
-        LinearLayout recordContainerClone = (LinearLayout) LiveLoggerActivity.defaultInflater.inflate(R.layout.log_metadata_record, null);
-        TextView tvRecTitleClone = (TextView) recordContainerClone.findViewById(R.id.record_title_text);
-        tvRecTitleClone.setText(tvRecTitle.getText());
-        tvRecTitleClone.setCompoundDrawables(tvRecTitle.getCompoundDrawables()[0], null, null, null);
-        TextView tvRecDataClone = (TextView) recordContainerClone.findViewById(R.id.record_data_text);
-        tvRecDataClone.setText(recordText);
-        if(recordText.equals("")) {
-            tvRecDataClone.setVisibility(TextView.INVISIBLE);
-            tvRecDataClone.setEnabled(false);
-            tvRecDataClone.setHeight(0);
+        else {
+            tvRecData.setVisibility(TextView.VISIBLE);
         }
-        return recordContainerClone;
     }
 
     /**
@@ -102,14 +114,6 @@ public class LogEntryMetadataRecord extends LogEntryBase {
         return recordTitle + ": " + recordText + " (@" + recordTimestamp + ")";
     }
 
-    /**
-     * Returns the layout container (LinearLayout object) associated with this log entry.
-     * @return (LinearLayout) View
-     */
-    public View getLayoutContainer() {
-        return recordContainer;
-    }
-
     /**
      * A map of predefined annotation / status types to their icons shown in the Log tab.
      */
@@ -161,8 +165,8 @@ public class LogEntryMetadataRecord extends LogEntryBase {
             iconResID = R.drawable.msgbubble24;
         else
             iconResID = iconResIDInt.intValue();
-        LogEntryMetadataRecord eventRecord = new LogEntryMetadataRecord(LiveLoggerActivity.defaultInflater, eventID, eventMsg);
-        eventRecord.tvRecTitle.setCompoundDrawablesWithIntrinsicBounds(iconResID, 0, 0, 0);
+        LogEntryMetadataRecord eventRecord = new LogEntryMetadataRecord(eventID, eventMsg);
+        eventRecord.recordIconResID = iconResID;
         return eventRecord;
 
     }
@@ -0,0 +1,105 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <h1>Log Entry Render Cache</h1>
+ * Bounded LRU cache of the display strings (hex, ascii, APDU and entropy text) of the LIVE
+ * log records, keyed by record id. The strings are only rendered when a row is bound to a
+ * view in the Log tab, so the cost of appending a record does not depend on what the row
+ * displays, and rows scrolled back and forth are not re-rendered. Only accessed from the
+ * main thread.
+ *
+ * @ref LogEntryUI.bindLayoutContainer
+ * @ref MainActivityLogUtils.startNewLogSession
+ */
+public class LogEntryRenderCache {
+
+    private static final String TAG = LogEntryRenderCache.class.getSimpleName();
+
+    public static final int MAX_CACHED_RECORDS = 256;
+
+    public static class RenderedRecord {
+        public String hexText;
+        public String asciiText;
+        public String apduText;
+        public String entropyText;
+        private EntropyEstimator.EntropyMetric entropyMetric;
+    }
+
+    private static final Map<Integer, RenderedRecord> renderedRecords =
+            new LinkedHashMap<Integer, RenderedRecord>(MAX_CACHED_RECORDS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, RenderedRecord> eldest) {
+                    return size() > MAX_CACHED_RECORDS;
+                }
+            };
+
+    private static char[] renderBuf = new char[3 * 256];
+
+    public static void clear() {
+        renderedRecords.clear();
+    }
+
+    /**
+     * @param logEntry
+     * @return RenderedRecord the (cached) display strings of the entry
+     */
+    public static RenderedRecord getRenderedRecord(LogEntryUI logEntry) {
+        Integer recordId = Integer.valueOf(logEntry.getRecordIndex());
+        RenderedRecord rendered = renderedRecords.get(recordId);
+        if(rendered != null && rendered.entropyMetric == EntropyEstimator.getActiveMetric()) {
+            return rendered;
+        }
+        byte[] entryData = logEntry.getEntryData();
+        if(rendered == null) {
+            rendered = new RenderedRecord();
+            rendered.hexText = renderHex(entryData);
+            rendered.asciiText = renderAscii(entryData);
+            rendered.apduText = logEntry.getAPDUString();
+            renderedRecords.put(recordId, rendered);
+        }
+        rendered.entropyMetric = EntropyEstimator.getActiveMetric();
+        rendered.entropyText = EntropyEstimator.getEntropyText(entryData);
+        return rendered;
+    }
+
+    private static void ensureRenderCapacity(int numChars) {
+        if(renderBuf.length < numChars) {
+            renderBuf = new char[Math.max(numChars, 2 * renderBuf.length)];
+        }
+    }
+
+    private static String renderHex(byte[] dataBytes) {
+        ensureRenderCapacity(HexCodec.LOWER_SPACED.getEncodedLength(dataBytes.length));
+        int numChars = HexCodec.LOWER_SPACED.encode(dataBytes, 0, dataBytes.length, renderBuf, 0);
+        return new String(renderBuf, 0, numChars);
+    }
+
+    private static String renderAscii(byte[] dataBytes) {
+        ensureRenderCapacity(dataBytes.length);
+        for(int b = 0; b < dataBytes.length; b++) {
+            renderBuf[b] = Utils.byte2Ascii(dataBytes[b]);
+        }
+        return new String(renderBuf, 0, dataBytes.length);
+    }
+
+}
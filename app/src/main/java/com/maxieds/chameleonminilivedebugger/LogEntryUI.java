@@ -17,197 +17,163 @@ https://github.com/maxieds/ChameleonMiniLiveDebugger
 
 package com.maxieds.chameleonminilivedebugger;
 
-import android.content.Context;
-import android.util.Log;
-import android.view.LayoutInflater;
+import android.graphics.drawable.Drawable;
 import android.view.View;
 import android.widget.CheckBox;
+import android.widget.CompoundButton;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
-import java.util.Arrays;
 import java.util.Locale;
 
 import static java.lang.Math.abs;
 
 /**
  * <h1>Log Entry UI Record</h1>
- * Implements a live log data entry.
+ * Implements a live log data entry. The entry is a lightweight view of one row of the
+ * LogRecordStore (which holds the actual record data), so these objects can be created
+ * and dropped freely, e.g., once per bind of a row in the Log tab.
  *
  * @author  Maxie D. Schmidt
  * @since   12/31/17
- * @ref LiveLoggerActivity.logDataEntries
+ * @ref MainActivityLogUtils.logDataStore
+ * @ref LogRecordStore.getEntry
  */
 public class LogEntryUI extends LogEntryBase {
 
-    private static final String TAG = LiveLoggerActivity.class.getSimpleName();
+    private static final String TAG = LogEntryUI.class.getSimpleName();
 
     /**
-     * Timing information for the log.
+     * The store row the entry refers to.
      */
-    public static int curSystickTimestamp = -1; // milliseconds
-    public static long lastSystemMillis = System.currentTimeMillis();
+    private final LogRecordStore recordStore;
+    private final int row;
 
     /**
-     * GUI display widgets associated with the log entry.
+     * Constructor.
+     * @param recordStore
+     * @param row
+     * @ref LogRecordStore.getEntry
      */
-    private LinearLayout mainEntryContainer;
-    private CheckBox entrySelect;
-    private ImageView inoutDirIndicator, apduParseStatus;
-    private TextView tvLabel, tvNumBytes, tvNumMillis, tvLogType, tvEntropy;
-    private TextView tvDataHexBytes, tvDataAscii, tvApdu, tvDuplicateCount;
+    public LogEntryUI(LogRecordStore recordStore, int row) {
+        this.recordStore = recordStore;
+        this.row = row;
+    }
 
-    /**
-     * Metadata associated with the log entry.
-     */
-    private int recordID;
-    private int numBytes;
-    private int diffTimeMillis;
-    private int logType;
-    private String logLabel;
-    private byte[] entryData;
-    private int dataDirection;
-    private int numDuplicates;
+    public int getRow() {
+        return row;
+    }
+
+    @Override
+    public int getLayoutResource() {
+        return R.layout.log_entry_ui;
+    }
 
     /**
-     * Effective constructor for the class.
-     * @param rawLogBytes
-     * @param logLabel
-     * @return LogEntryUI new log entry
-     * @ref LiveLoggerActivity.usbReaderCallback
+     * Populates the (possibly recycled) row layout with log data about the entry.
+     * @param layoutContainer
+     * @see res/layout/log_entry_ui.xml
      */
-    public static LogEntryUI newInstance(byte[] rawLogBytes, String logLabel) {
-        if(rawLogBytes.length < 4) {
-            Log.w(TAG, "Invalid log tag data sent.");
-            return null;
+    @Override
+    public void bindLayoutContainer(View layoutContainer) {
+        LinearLayout mainEntryContainer = (LinearLayout) layoutContainer;
+        mainEntryContainer.setAlpha(LOGENTRY_GUI_ALPHA);
+        if(mainEntryContainer.getTag() == null && mainEntryContainer.getBackground() != null) {
+            mainEntryContainer.setTag(mainEntryContainer.getBackground().getConstantState());
         }
-        int logCode = (int) rawLogBytes[0];
-        int payloadNumBytes = (int) rawLogBytes[1];
-        int timestamp = (((int) rawLogBytes[2]) << 8) | ((int) rawLogBytes[3]);
-        int diffTimeMs = curSystickTimestamp == -1 ? timestamp : timestamp - curSystickTimestamp;
-        long systemTimeMillis = System.currentTimeMillis();
-        if(diffTimeMs < 0) {
-            diffTimeMs = (int) (lastSystemMillis - systemTimeMillis);
+        int highlightColor = recordStore.getHighlightColor(row);
+        if(highlightColor != 0) {
+            mainEntryContainer.setBackgroundColor(highlightColor);
         }
-        curSystickTimestamp = timestamp;
-        lastSystemMillis = systemTimeMillis;
-        byte[] payloadBytes = new byte[rawLogBytes.length - 4];
-        if(payloadBytes.length < payloadNumBytes) {
-            Log.w(TAG, "Invalid payload bytes sent.");
+        else if(mainEntryContainer.getTag() != null) {
+            mainEntryContainer.setBackground(((Drawable.ConstantState) mainEntryContainer.getTag()).newDrawable());
+        }
+        LogEntryRenderCache.RenderedRecord rendered = LogEntryRenderCache.getRenderedRecord(this);
+        int diffTimeMillis = recordStore.getTickDelta(row);
+        int logType = recordStore.getLogCode(row);
+        CheckBox entrySelect = (CheckBox) mainEntryContainer.findViewById(R.id.entrySelect);
+        entrySelect.setOnCheckedChangeListener(null);
+        entrySelect.setChecked(recordStore.isSelected(row));
+        entrySelect.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                recordStore.setSelected(row, isChecked);
+            }
+        });
+        ImageView inoutDirIndicator = (ImageView) mainEntryContainer.findViewById(R.id.inputDirIndicatorImg);
+        inoutDirIndicator.setImageResource(getDataDirectionMarker());
+        ImageView apduParseStatus = (ImageView) mainEntryContainer.findViewById(R.id.apduParseStatusImg);
+        TextView tvLabel = (TextView) mainEntryContainer.findViewById(R.id.text_label);
+        tvLabel.setText(String.format(Locale.ENGLISH, "%06d", getRecordIndex()));
+        TextView tvNumBytes = (TextView) mainEntryContainer.findViewById(R.id.text_data_num_bytes);
+        tvNumBytes.setText(String.valueOf(recordStore.getPayloadLength(row)) + "B");
+        TextView tvNumMillis = (TextView) mainEntryContainer.findViewById(R.id.text_offset_millis);
+        tvNumMillis.setText((diffTimeMillis >=0 ? "+" : "~") + String.valueOf(abs(diffTimeMillis)) + "ms");
+        TextView tvLogType = (TextView) mainEntryContainer.findViewById(R.id.text_log_type);
+        tvLogType.setText(ChameleonLogUtils.LogCode.lookupByLogCode(logType).getShortCodeName(logType));
+        TextView tvEntropy = (TextView) mainEntryContainer.findViewById(R.id.text_entropy_compression_ratio);
+        tvEntropy.setText(rendered.entropyText);
+        TextView tvDataHexBytes = (TextView) mainEntryContainer.findViewById(R.id.text_logdata_hex);
+        tvDataHexBytes.setText(rendered.hexText);
+        TextView tvDataAscii = (TextView) mainEntryContainer.findViewById(R.id.text_logdata_ascii);
+        tvDataAscii.setText(rendered.asciiText);
+        String apduText = rendered.apduText;
+        TextView tvApdu = (TextView) mainEntryContainer.findViewById(R.id.text_apdu);
+        tvApdu.setText(apduText);
+        if(apduText.equals("APDU: NONE RECOGNIZED")) {
+            tvApdu.setVisibility(TextView.GONE);
+            apduParseStatus.setImageResource(R.drawable.question16);
+        }
+        else {
+            tvApdu.setVisibility(TextView.VISIBLE);
+            apduParseStatus.setImageResource(R.drawable.known16);
+        }
+        TextView tvDuplicateCount = (TextView) mainEntryContainer.findViewById(R.id.text_duplicate_count);
+        if(recordStore.getDuplicateCount(row) > 0) {
+            tvDuplicateCount.setVisibility(View.VISIBLE);
+            tvDuplicateCount.setText(getDuplicateCountText());
+        }
+        else {
+            tvDuplicateCount.setVisibility(View.GONE);
         }
-        else
-            System.arraycopy(rawLogBytes, 4, payloadBytes, 0, payloadBytes.length);
-        LogEntryUI newLogDataEntry = new LogEntryUI();
-        return newLogDataEntry.configureLogEntry(LiveLoggerActivity.defaultContext, logLabel, diffTimeMs, ChameleonLogUtils.getDataDirection(logCode), logCode, payloadBytes);
     }
 
-    /**
-     * Configures / sets parameters based on the parsed native LIVE logging data.
-     * @param context
-     * @param label
-     * @param diffTimeMs
-     * @param ltype
-     * @param edata
-     * @return LogEntryUI the configured log entry
-     * @url http://rawgit.com/emsec/ChameleonMini/master/Doc/Doxygen/html/Page_Log.html
-     */
-    public LogEntryUI configureLogEntry(Context context, String label, int diffTimeMs, int dataDir, int ltype, byte[] edata) {
-        numBytes = edata.length;
-        diffTimeMillis = diffTimeMs;
-        dataDirection = dataDir;
-        logType = ltype;
-        logLabel = label;
-        entryData = edata;
-        numDuplicates = 0;
-        LayoutInflater inflater = LiveLoggerActivity.defaultInflater;
-        mainEntryContainer = (LinearLayout) inflater.inflate(R.layout.log_entry_ui, null);
-        configureLayout(mainEntryContainer);
-        return this;
+    public boolean isSelected() {
+        return recordStore.isSelected(row);
+    }
+
+    public void setSelected(boolean selected) {
+        recordStore.setSelected(row, selected);
     }
 
     /**
-     * The GUI container for the log entry layout.
-     * @return LinearLayout widget container
-     * @see res/layout/log_entry_ui.xml
+     * @return int the highlight (background) color of the row, or 0 if it is not highlighted
      */
-    public LinearLayout getMainEntryContainer() {
-        return mainEntryContainer;
+    public int getHighlightColor() {
+        return recordStore.getHighlightColor(row);
     }
 
-    public View cloneLayoutContainer() {
-        LinearLayout mainEntryContainerClone = (LinearLayout) LiveLoggerActivity.defaultInflater.inflate(R.layout.log_entry_ui, null);
-        ImageView inoutDirIndicatorClone = (ImageView) mainEntryContainerClone.findViewById(R.id.inputDirIndicatorImg);
-        inoutDirIndicatorClone.setImageDrawable(inoutDirIndicator.getDrawable());
-        ImageView apduParseStatusClone = (ImageView) mainEntryContainerClone.findViewById(R.id.apduParseStatusImg);
-        apduParseStatusClone.setImageDrawable(apduParseStatusClone.getDrawable());
-        TextView tvLabelClone = (TextView) mainEntryContainerClone.findViewById(R.id.text_label);
-        tvLabelClone.setText(tvLabel.getText());
-        TextView tvNumBytesClone = (TextView) mainEntryContainerClone.findViewById(R.id.text_data_num_bytes);
-        tvNumBytesClone.setText(tvNumBytes.getText());
-        TextView tvNumMillisClone = (TextView) mainEntryContainerClone.findViewById(R.id.text_offset_millis);
-        tvNumMillisClone.setText(tvNumMillis.getText());
-        TextView tvLogTypeClone = (TextView) mainEntryContainerClone.findViewById(R.id.text_log_type);
-        tvLogTypeClone.setText(tvLogType.getText());
-        TextView tvEntropyClone = (TextView) mainEntryContainerClone.findViewById(R.id.text_entropy_compression_ratio);
-        tvEntropyClone.setText(tvEntropy.getText());
-        TextView tvDataHexBytesClone = (TextView) mainEntryContainerClone.findViewById(R.id.text_logdata_hex);
-        tvDataHexBytesClone.setText(tvDataHexBytes.getText());
-        TextView tvDataAsciiClone = (TextView) mainEntryContainerClone.findViewById(R.id.text_logdata_ascii);
-        tvDataAsciiClone.setText(tvDataAscii.getText());
-        TextView tvApduClone = (TextView) mainEntryContainerClone.findViewById(R.id.text_apdu);
-        tvApduClone.setText(tvApdu.getText());
-        if(tvApduClone.getText().toString().equals("APDU: NONE RECOGNIZED")) {
-            tvApduClone.setVisibility(TextView.GONE);
-        }
-        return mainEntryContainerClone;
+    public void setHighlightColor(int color) {
+        recordStore.setHighlightColor(row, color);
     }
 
     /**
-     * Populates the inflated layout with log data about the entry.
-     * @param mainContainerRef
+     * Overrides the direction marker icon shown in the row.
+     * @param xferMarker one of the LogRecordStore.XFER_MARKER_* constants
+     * @ref MainActivityLogUtils.setSelectedXFerOnLogs
      */
-    public void configureLayout(LinearLayout mainContainerRef) {
-        mainEntryContainer = mainContainerRef;
-        mainEntryContainer.setAlpha(LOGENTRY_GUI_ALPHA);
-        entrySelect = (CheckBox) mainContainerRef.findViewById(R.id.entrySelect);
-        inoutDirIndicator = (ImageView) mainContainerRef.findViewById(R.id.inputDirIndicatorImg);
-        inoutDirIndicator.setImageDrawable(LiveLoggerActivity.getInstance().getResources().getDrawable(getDataDirectionMarker()));
-        apduParseStatus = (ImageView) mainContainerRef.findViewById(R.id.apduParseStatusImg);
-        tvLabel = (TextView) mainContainerRef.findViewById(R.id.text_label);
-        recordID = ++MainActivityLogUtils.RECORDID;
-        tvLabel.setText(logLabel + String.format(Locale.ENGLISH, "%06d", MainActivityLogUtils.RECORDID));
-        tvNumBytes = (TextView) mainContainerRef.findViewById(R.id.text_data_num_bytes);
-        tvNumBytes.setText(String.valueOf(numBytes) + "B");
-        tvNumMillis = (TextView) mainContainerRef.findViewById(R.id.text_offset_millis);
-        tvNumMillis.setText((diffTimeMillis >=0 ? "+" : "~") + String.valueOf(abs(diffTimeMillis)) + "ms");
-        tvLogType = (TextView) mainContainerRef.findViewById(R.id.text_log_type);
-        tvLogType.setText(ChameleonLogUtils.LogCode.lookupByLogCode(logType).getShortCodeName(logType));
-        tvEntropy = (TextView) mainContainerRef.findViewById(R.id.text_entropy_compression_ratio);
-        tvEntropy.setText(String.format(Locale.ENGLISH, "CPR/ENT: %1.4g", Utils.computeByteArrayEntropy(entryData)));
-        tvDataHexBytes = (TextView) mainContainerRef.findViewById(R.id.text_logdata_hex);
-        tvDataHexBytes.setText(Utils.bytes2Hex(entryData));
-        tvDataAscii = (TextView) mainContainerRef.findViewById(R.id.text_logdata_ascii);
-        tvDataAscii.setText(Utils.bytes2Ascii(entryData));
-        tvApdu = (TextView) mainContainerRef.findViewById(R.id.text_apdu);
-        tvApdu.setText(ApduUtils.classifyApdu(entryData));
-        tvDuplicateCount = (TextView) mainEntryContainer.findViewById(R.id.text_duplicate_count);
-        tvDuplicateCount.setVisibility(View.GONE);
-        if(tvApdu.getText().toString().equals("NONE")) {
-            tvApdu.setText("APDU: NONE RECOGNIZED");
-            tvApdu.setVisibility(TextView.GONE);
-        }
-        else
-            apduParseStatus.setImageDrawable(LiveLoggerActivity.defaultContext.getResources().getDrawable(R.drawable.known16));
+    public void setXFerMarker(int xferMarker) {
+        recordStore.setXFerMarker(row, xferMarker);
     }
 
     /**
      * Returns the payload bytes associated with the log.
-     * @return byte[] data bytes
+     * @return byte[] data bytes (a copy)
      * @url http://rawgit.com/emsec/ChameleonMini/master/Doc/Doxygen/html/Page_Log.html
      */
     public byte[] getEntryData() {
-        return entryData;
+        return recordStore.getPayload(row);
     }
 
     /**
@@ -216,24 +182,23 @@ public class LogEntryUI extends LogEntryBase {
      * @ref LogEntryUI.getEntryData
      */
     public String getPayloadData() {
-        String hexBytes = Utils.bytes2Hex(entryData);
-        return hexBytes.replace(" ", "");
+        return HexCodec.LOWER_PLAIN.encode(getEntryData());
     }
 
     /**
      * Returns the numeric application-local identifier of the log index.
      * @return
      */
-    public int getRecordIndex() { return recordID; }
+    public int getRecordIndex() { return recordStore.getRecordId(row); }
 
     /**
      * Helper method for determining timing data in the log.
      * @param offsetTimeMillis
      * @return short next offset time
-     * @ref ExportTools.writeBinaryLogFile
+     * @ref LogExporter.BinaryExportFormat
      */
     public short getNextOffsetTime(short offsetTimeMillis) {
-        return (short) (offsetTimeMillis + abs(diffTimeMillis));
+        return recordStore.getNextOffsetTime(row, offsetTimeMillis);
     }
 
     /**
@@ -242,11 +207,12 @@ public class LogEntryUI extends LogEntryBase {
      * @param offsetTimeMillis
      * @return byte[] packaged raw binary log data
      * @url http://rawgit.com/emsec/ChameleonMini/master/Doc/Doxygen/html/Page_Log.html
-     * @ref ExportTools.writeBinaryLogFile
+     * @ref LogExporter.BinaryExportFormat
      */
     public byte[] packageBinaryLogData(short offsetTimeMillis) {
+        byte[] entryData = getEntryData();
         byte[] headerBytes = {
-                (byte) ChameleonLogUtils.LogCode.lookupByLogCode(logType).toInteger(),
+                (byte) ChameleonLogUtils.LogCode.lookupByLogCode(recordStore.getLogCode(row)).toInteger(),
                 (byte) entryData.length,
                 (byte) ((offsetTimeMillis & 0x0000ff00) >>> 8),
                 (byte) (offsetTimeMillis & 0x000000ff),
@@ -257,25 +223,12 @@ public class LogEntryUI extends LogEntryBase {
         return fullBytes;
     }
 
-    public boolean logEntryDataEquals(byte[] nextLogEntryData) {
-        int nextLogType = (int) nextLogEntryData[0];
-        if(logType != nextLogType) {
-            return false;
-        }
-        byte[] nextPayloadBytes = new byte[nextLogEntryData.length - 4];
-        System.arraycopy(nextLogEntryData, 4, nextPayloadBytes, 0, nextLogEntryData.length - 4);
-        return Arrays.equals(entryData, nextPayloadBytes);
-    }
-
-    public boolean appendDuplicate(byte offsetTimeMSB, byte offsetTimeLSB) {
-        short offsetTimeMillis = (short) ((((short) offsetTimeMSB) << 8) | ((short) offsetTimeLSB));
-        return appendDuplicate(offsetTimeMillis);
-    }
-
-    public boolean appendDuplicate(short offsetTimeMillis) {
-
-        // Add one and determine how to display the +NUM marker:
-        numDuplicates += 1;
+    /**
+     * Determines how to display the +NUM marker for the duplicate logs.
+     * @return String
+     */
+    private String getDuplicateCountText() {
+        int numDuplicates = recordStore.getDuplicateCount(row);
         boolean drawCountInHex = Math.log10(numDuplicates) > 5.0 ? true : false;
         String duplicateNumberText = "";
         if(drawCountInHex) {
@@ -284,22 +237,7 @@ public class LogEntryUI extends LogEntryBase {
         else {
             duplicateNumberText = String.format(Locale.ENGLISH, "%06d", numDuplicates);
         }
-        duplicateNumberText += " -- IDENTICAL LOGS";
-        tvDuplicateCount.setVisibility(View.VISIBLE);
-        tvDuplicateCount.setText(duplicateNumberText);
-
-        // Update the time / ms marker:
-        int timestamp = (int) offsetTimeMillis;
-        long systemTimeMillis = System.currentTimeMillis();
-        diffTimeMillis = curSystickTimestamp == -1 ? timestamp : timestamp - curSystickTimestamp;
-        if(diffTimeMillis < 0) {
-            diffTimeMillis = (int) (lastSystemMillis - systemTimeMillis);
-        }
-        curSystickTimestamp = timestamp;
-        lastSystemMillis = systemTimeMillis;
-        tvNumMillis.setText((diffTimeMillis >=0 ? "+" : "~") + String.valueOf(abs(diffTimeMillis)) + "ms");
-
-        return true;
+        return duplicateNumberText + " -- IDENTICAL LOGS";
     }
 
     /**
@@ -318,33 +256,40 @@ public class LogEntryUI extends LogEntryBase {
      */
     @Override
     public String toString() {
-        ChameleonLogUtils.LogCode logCode = ChameleonLogUtils.LogCode.lookupByLogCode(logType);
-        String recordFmt = String.format(Locale.ENGLISH, "%06d -- %-32s [%-3s bytes] (%s%-6s ms) [%s] {%s}", recordID, logCode.name(),
+        ChameleonLogUtils.LogCode logCode = ChameleonLogUtils.LogCode.lookupByLogCode(recordStore.getLogCode(row));
+        int diffTimeMillis = recordStore.getTickDelta(row);
+        byte[] entryData = getEntryData();
+        String recordFmt = String.format(Locale.ENGLISH, "%06d -- %-32s [%-3s bytes] (%s%-6s ms) [%s] {%s}", getRecordIndex(), logCode.name(),
                 String.valueOf(entryData.length), diffTimeMillis >= 0 ? "+" : "~", String.valueOf(abs(diffTimeMillis)),
-                Utils.bytes2Hex(entryData), tvApdu.getText().toString());
+                Utils.bytes2Hex(entryData), getAPDUString());
         return recordFmt;
     }
 
     public String getLogCodeName() {
-        return ChameleonLogUtils.LogCode.lookupByLogCode(logType).name();
+        return ChameleonLogUtils.LogCode.lookupByLogCode(recordStore.getLogCode(row)).name();
     }
 
     public String getAPDUString() {
-        return tvApdu.getText().toString();
+        String apduText = ApduUtils.classifyApdu(getEntryData());
+        return apduText.equals("NONE") ? "APDU: NONE RECOGNIZED" : apduText;
     }
 
     public String getPayloadDataString(boolean byteString) {
-        if(byteString) {
-            Log.i(TAG, "Returning bytes: " + tvDataHexBytes.getText().toString());
-            return tvDataHexBytes.getText().toString();
-        }
-        else {
-            Log.i(TAG, "Returning ascii: " + tvDataAscii.getText().toString());
-            return tvDataAscii.getText().toString();
-        }
+        return byteString ? Utils.bytes2Hex(getEntryData()) : Utils.bytes2Ascii(getEntryData());
     }
 
     public int getDataDirectionMarker() {
+        switch(recordStore.getXFerMarker(row)) {
+            case LogRecordStore.XFER_MARKER_BIDIRECTIONAL:
+                return R.drawable.xfer16;
+            case LogRecordStore.XFER_MARKER_INCOMING:
+                return R.drawable.incoming16v2;
+            case LogRecordStore.XFER_MARKER_OUTGOING:
+                return R.drawable.outgoing16v2;
+            default:
+                break;
+        }
+        int dataDirection = recordStore.getDataDirection(row);
         if(dataDirection == ChameleonLogUtils.DATADIR_INCOMING)
             return R.drawable.incoming_arrow16;
         else if(dataDirection == ChameleonLogUtils.DATADIR_OUTGOING)
@@ -353,13 +298,4 @@ public class LogEntryUI extends LogEntryBase {
             return R.drawable.xfer16;
     }
 
-    /**
-     * Returns the layout container (LinearLayout object) associated with this log entry.
-     * @return (LinearLayout) View
-     */
-    @Override
-    public View getLayoutContainer() {
-        return mainEntryContainer;
-    }
-
-}
\ No newline at end of file
+}
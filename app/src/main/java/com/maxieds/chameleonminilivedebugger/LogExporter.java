@@ -0,0 +1,435 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.lang.Math.abs;
+
+/**
+ * <h1>Log Exporter</h1>
+ * Writes the logs to file straight from MainActivityLogUtils.logDataStore on a background
+ * thread. All of the output formats share the same iteration over the rows of the store and
+ * write through one large output buffer; they only differ in how they encode a row
+ * (see ExportFormat). Exports report their progress and can be cancelled.
+ *
+ * @ref ExternalFileIO.exportOutputFile
+ * @ref LogRecordStore
+ */
+public class LogExporter {
+
+    private static final String TAG = LogExporter.class.getSimpleName();
+
+    public static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    public static final int PROGRESS_INTERVAL_ROWS = 4096;
+
+    /**
+     * Encodes the rows of the log store in one of the export file formats. An instance is
+     * only used for a single export, so it may keep state between the rows.
+     */
+    public interface ExportFormat {
+        String getFileType();
+        String getMimeType();
+        void writeHeader(OutputStream fout) throws IOException;
+        void writeLogRecord(OutputStream fout, LogRecordStore logDataStore, int row) throws IOException;
+        void writeMetadataRecord(OutputStream fout, LogRecordStore logDataStore, LogEntryMetadataRecord metadataRecord) throws IOException;
+        void writeFooter(OutputStream fout) throws IOException;
+    }
+
+    /**
+     * Receives the progress of an export on the main thread.
+     */
+    public interface ExportListener {
+        void onExportProgress(int rowsWritten, int totalRows);
+        void onExportFinished(File outfile, ExportFormat exportFormat, int rowsWritten, boolean cancelled, Exception error);
+    }
+
+    private static final ExecutorService exportExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    private static volatile AtomicBoolean activeExportCancelFlag = null;
+
+    /**
+     * @param fileType one of "out", "html", "bin" or "pcapng"
+     * @return ExportFormat a new encoder for the file type (null if unknown)
+     */
+    public static ExportFormat createExportFormat(String fileType) {
+        if(fileType.equals("out")) {
+            return new TextExportFormat();
+        }
+        else if(fileType.equals("html")) {
+            return new HTMLExportFormat();
+        }
+        else if(fileType.equals("bin")) {
+            return new BinaryExportFormat();
+        }
+        else if(fileType.equals("pcapng")) {
+            return new PcapngExportFormat();
+        }
+        return null;
+    }
+
+    /**
+     * Asks the running export (if any) to stop after the current row. Clearing the log store
+     * stops the export as well (see writeLogFile).
+     */
+    public static void cancelExport() {
+        AtomicBoolean cancelFlag = activeExportCancelFlag;
+        if(cancelFlag != null) {
+            cancelFlag.set(true);
+        }
+    }
+
+    /**
+     * Writes the rows currently in the log store to file on the export thread.
+     * @param outfile
+     * @param exportFormat
+     * @param exportListener notified on the main thread (may be null)
+     */
+    public static void exportLogsAsync(final File outfile, final ExportFormat exportFormat, final ExportListener exportListener) {
+        final LogRecordStore logDataStore = MainActivityLogUtils.logDataStore;
+        final int totalRows, storeGeneration;
+        synchronized(logDataStore) {
+            totalRows = logDataStore.size();
+            storeGeneration = logDataStore.getGeneration();
+        }
+        final AtomicBoolean cancelFlag = new AtomicBoolean(false);
+        activeExportCancelFlag = cancelFlag;
+        exportExecutor.execute(new Runnable() {
+            public void run() {
+                Exception exportError = null;
+                int rowsWritten = 0;
+                long startTimeMillis = System.currentTimeMillis();
+                try {
+                    rowsWritten = writeLogFile(outfile, exportFormat, logDataStore, storeGeneration, totalRows, cancelFlag, exportListener);
+                } catch(Exception ex) {
+                    ex.printStackTrace();
+                    exportError = ex;
+                }
+                Log.i(TAG, String.format(Locale.ENGLISH, "Exported %d rows to %s in %d ms", rowsWritten,
+                        outfile.getName(), System.currentTimeMillis() - startTimeMillis));
+                final Exception error = exportError;
+                final int numRowsWritten = rowsWritten;
+                final boolean cancelled = cancelFlag.get() && rowsWritten < totalRows;
+                if(exportListener != null) {
+                    mainThreadHandler.post(new Runnable() {
+                        public void run() {
+                            exportListener.onExportFinished(outfile, exportFormat, numRowsWritten, cancelled, error);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the first numRows rows of the log store to file (on the calling thread).
+     * Each row is written while holding the store lock, and the export stops as soon as the
+     * store has been cleared, so a new log session never pulls the rows out from under it.
+     * @param outfile
+     * @param exportFormat
+     * @param logDataStore
+     * @param storeGeneration generation of the store the numRows were counted in
+     * @param numRows
+     * @param cancelFlag the export stops once this is set
+     * @param exportListener progress is posted to the main thread (may be null)
+     * @return int number of rows written (less than numRows if the export was cancelled)
+     * @throws IOException
+     */
+    public static int writeLogFile(File outfile, ExportFormat exportFormat, LogRecordStore logDataStore, int storeGeneration,
+                                   final int numRows, AtomicBoolean cancelFlag, final ExportListener exportListener) throws IOException {
+        OutputStream fout = new BufferedOutputStream(new FileOutputStream(outfile), OUTPUT_BUFFER_SIZE);
+        int row = 0;
+        try {
+            exportFormat.writeHeader(fout);
+            for(; row < numRows && !cancelFlag.get(); row++) {
+                synchronized(logDataStore) {
+                    if(logDataStore.getGeneration() != storeGeneration) {
+                        cancelFlag.set(true);
+                        break;
+                    }
+                    if(logDataStore.isMetadataRecord(row)) {
+                        exportFormat.writeMetadataRecord(fout, logDataStore, (LogEntryMetadataRecord) logDataStore.getEntry(row));
+                    }
+                    else {
+                        exportFormat.writeLogRecord(fout, logDataStore, row);
+                    }
+                }
+                if(exportListener != null && (row + 1) % PROGRESS_INTERVAL_ROWS == 0) {
+                    final int rowsWritten = row + 1;
+                    mainThreadHandler.post(new Runnable() {
+                        public void run() {
+                            exportListener.onExportProgress(rowsWritten, numRows);
+                        }
+                    });
+                }
+            }
+            exportFormat.writeFooter(fout);
+        } finally {
+            fout.close();
+        }
+        return row;
+    }
+
+    /**
+     * Writes the ASCII characters of the text (anything else as '?') through a reused buffer.
+     */
+    private static abstract class TextEncoder {
+
+        protected final StringBuilder lineBuilder = new StringBuilder(256);
+        private byte[] lineBytes = new byte[256];
+
+        protected void writeLine(OutputStream fout) throws IOException {
+            int lineLength = lineBuilder.length();
+            if(lineBytes.length < lineLength) {
+                lineBytes = new byte[Math.max(lineLength, 2 * lineBytes.length)];
+            }
+            for(int ci = 0; ci < lineLength; ci++) {
+                char lineChar = lineBuilder.charAt(ci);
+                lineBytes[ci] = lineChar < 0x80 ? (byte) lineChar : (byte) '?';
+            }
+            fout.write(lineBytes, 0, lineLength);
+            lineBuilder.setLength(0);
+        }
+
+        protected void writeLine(OutputStream fout, String line) throws IOException {
+            lineBuilder.append(line);
+            writeLine(fout);
+        }
+
+        private void appendPadded(String text, int width, char padChar, boolean padLeft) {
+            if(!padLeft) {
+                lineBuilder.append(text);
+            }
+            for(int pi = text.length(); pi < width; pi++) {
+                lineBuilder.append(padChar);
+            }
+            if(padLeft) {
+                lineBuilder.append(text);
+            }
+        }
+
+        /**
+         * Appends the same text as LogEntryUI.toString without going through String.format.
+         */
+        protected void appendRecordText(LogRecordStore logDataStore, int row) {
+            ChameleonLogUtils.LogCode logCode = ChameleonLogUtils.LogCode.lookupByLogCode(logDataStore.getLogCode(row));
+            int diffTimeMillis = logDataStore.getTickDelta(row);
+            byte[] entryData = logDataStore.getPayload(row);
+            appendPadded(String.valueOf(logDataStore.getRecordId(row)), 6, '0', true);
+            lineBuilder.append(" -- ");
+            appendPadded(logCode.name(), 32, ' ', false);
+            lineBuilder.append(" [");
+            appendPadded(String.valueOf(entryData.length), 3, ' ', false);
+            lineBuilder.append(" bytes] (").append(diffTimeMillis >= 0 ? '+' : '~');
+            appendPadded(String.valueOf(abs(diffTimeMillis)), 6, ' ', false);
+            lineBuilder.append(" ms) [");
+            HexCodec.LOWER_SPACED.encode(entryData, 0, entryData.length, lineBuilder);
+            lineBuilder.append("] {");
+            String apduText = ApduUtils.classifyApdu(entryData);
+            lineBuilder.append(apduText.equals("NONE") ? "APDU: NONE RECOGNIZED" : apduText).append('}');
+        }
+
+    }
+
+    /**
+     * Plaintext roughly in the format of the Python script on the Chameleon Mini scripts page
+     * https://github.com/emsec/ChameleonMini/tree/master/Software.
+     */
+    public static class TextExportFormat extends TextEncoder implements ExportFormat {
+
+        public String getFileType() {
+            return "out";
+        }
+
+        public String getMimeType() {
+            return "plain/text";
+        }
+
+        public void writeHeader(OutputStream fout) {}
+
+        public void writeLogRecord(OutputStream fout, LogRecordStore logDataStore, int row) throws IOException {
+            appendRecordText(logDataStore, row);
+            lineBuilder.append('\n');
+            writeLine(fout);
+        }
+
+        public void writeMetadataRecord(OutputStream fout, LogRecordStore logDataStore, LogEntryMetadataRecord metadataRecord) throws IOException {
+            writeLine(fout, "\n## " + metadataRecord.toString() + "\n");
+        }
+
+        public void writeFooter(OutputStream fout) {}
+
+    }
+
+    /**
+     * Color-coded HTML roughly in the format of the Python script on the Chameleon Mini
+     * scripts page.
+     */
+    public static class HTMLExportFormat extends TextEncoder implements ExportFormat {
+
+        private final int defaultBgColor;
+
+        public HTMLExportFormat() {
+            defaultBgColor = 0xFFFFFF & ThemesConfiguration.getThemeColorVariant(R.attr.colorPrimaryDarkLog);
+        }
+
+        public String getFileType() {
+            return "html";
+        }
+
+        public String getMimeType() {
+            return "text/html";
+        }
+
+        public void writeHeader(OutputStream fout) throws IOException {
+            writeLine(fout, "<html><head><title>Chameleon Mini Live Debugger -- Logging Output</title></head><body>\n\n");
+        }
+
+        public void writeLogRecord(OutputStream fout, LogRecordStore logDataStore, int row) throws IOException {
+            int highlightColor = logDataStore.getHighlightColor(row);
+            lineBuilder.append("<code bgcolor='");
+            if(highlightColor == 0 || (0xFFFFFF & highlightColor) == defaultBgColor) {
+                lineBuilder.append("#ffffff");
+            }
+            else {
+                lineBuilder.append('#');
+                HexCodec.UPPER_PLAIN.encode(new byte[] { (byte) (highlightColor >>> 16), (byte) (highlightColor >>> 8), (byte) highlightColor }, 0, 3, lineBuilder);
+            }
+            lineBuilder.append("'>");
+            appendRecordText(logDataStore, row);
+            lineBuilder.append("</code><br/>\n");
+            writeLine(fout);
+        }
+
+        public void writeMetadataRecord(OutputStream fout, LogRecordStore logDataStore, LogEntryMetadataRecord metadataRecord) throws IOException {
+            writeLine(fout, "<b><code>" + metadataRecord.toString() + "</code></b><br/>\n");
+        }
+
+        public void writeFooter(OutputStream fout) throws IOException {
+            writeLine(fout, "</body></html>");
+        }
+
+    }
+
+    /**
+     * The binary format returned by the LOGDOWNLOAD command. Folded record cycles are expanded
+     * back into the records they stand for.
+     * @url http://rawgit.com/emsec/ChameleonMini/master/Doc/Doxygen/html/Page_Log.html
+     */
+    public static class BinaryExportFormat implements ExportFormat {
+
+        private short localTicks = 0;
+        private final byte[] headerBytes = new byte[4];
+
+        public String getFileType() {
+            return "bin";
+        }
+
+        public String getMimeType() {
+            return "application/octet-stream";
+        }
+
+        public void writeHeader(OutputStream fout) {}
+
+        public void writeLogRecord(OutputStream fout, LogRecordStore logDataStore, int row) throws IOException {
+            byte[] entryData = logDataStore.getPayload(row);
+            headerBytes[0] = (byte) ChameleonLogUtils.LogCode.lookupByLogCode(logDataStore.getLogCode(row)).toInteger();
+            headerBytes[1] = (byte) entryData.length;
+            headerBytes[2] = (byte) ((localTicks & 0x0000ff00) >>> 8);
+            headerBytes[3] = (byte) (localTicks & 0x000000ff);
+            fout.write(headerBytes);
+            fout.write(entryData);
+            localTicks = logDataStore.getNextOffsetTime(row, localTicks);
+        }
+
+        public void writeMetadataRecord(OutputStream fout, LogRecordStore logDataStore, LogEntryMetadataRecord metadataRecord) throws IOException {
+            if(metadataRecord instanceof LogCycleRecord) {
+                localTicks = ((LogCycleRecord) metadataRecord).writeExpandedRecords(logDataStore, fout, localTicks);
+            }
+        }
+
+        public void writeFooter(OutputStream fout) {}
+
+    }
+
+    /**
+     * PCAPNG capture with one packet per LIVE log record (see LogPcapngWriter). Duplicate
+     * counts are not expanded, but folded record cycles are.
+     */
+    public static class PcapngExportFormat implements ExportFormat {
+
+        private final LogPcapngWriter pcapWriter = new LogPcapngWriter();
+        private long timestampMillis = -1;
+        private short localTicks = 0;
+
+        public String getFileType() {
+            return "pcapng";
+        }
+
+        public String getMimeType() {
+            return "application/vnd.tcpdump.pcap";
+        }
+
+        public void writeHeader(OutputStream fout) throws IOException {
+            pcapWriter.writeHeader(fout);
+        }
+
+        public void writeLogRecord(OutputStream fout, LogRecordStore logDataStore, int row) throws IOException {
+            if(timestampMillis < 0) {
+                timestampMillis = logDataStore.getFirstRecordMillis();
+                localTicks = (short) logDataStore.getTickDelta(row);
+            }
+            else {
+                timestampMillis += abs(logDataStore.getTickDelta(row));
+                localTicks = logDataStore.getNextOffsetTime(row, localTicks);
+            }
+            byte[] entryData = logDataStore.getPayload(row);
+            pcapWriter.writePacket(fout, logDataStore.getLogCode(row), localTicks & 0xffff, entryData, 0, entryData.length, timestampMillis);
+        }
+
+        public void writeMetadataRecord(OutputStream fout, LogRecordStore logDataStore, LogEntryMetadataRecord metadataRecord) throws IOException {
+            if(!(metadataRecord instanceof LogCycleRecord)) {
+                return;
+            }
+            LogCycleRecord cycleRecord = (LogCycleRecord) metadataRecord;
+            int numRecords = cycleRecord.getExpandedRecordCount();
+            for(int ri = 0; ri < numRecords; ri++) {
+                int templateRow = cycleRecord.getExpandedRecordRow(ri);
+                if(!logDataStore.isMetadataRecord(templateRow)) {
+                    writeLogRecord(fout, logDataStore, templateRow);
+                }
+            }
+        }
+
+        public void writeFooter(OutputStream fout) {}
+
+    }
+
+}
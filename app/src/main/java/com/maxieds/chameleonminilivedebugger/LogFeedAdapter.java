@@ -0,0 +1,91 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * <h1>Log Feed Adapter</h1>
+ * Virtualized view of the log entries in the Log tab: only the rows that are on screen
+ * are inflated, and the row layouts are recycled and rebound as the list is scrolled.
+ *
+ * @ref MainActivityLogUtils.logDataStore
+ * @ref LogEntryBase.bindLayoutContainer
+ */
+public class LogFeedAdapter extends RecyclerView.Adapter<LogFeedAdapter.LogEntryViewHolder> {
+
+    private static final String TAG = LogFeedAdapter.class.getSimpleName();
+
+    public static class LogEntryViewHolder extends RecyclerView.ViewHolder {
+        public LogEntryViewHolder(View itemView) {
+            super(itemView);
+        }
+    }
+
+    private LogRecordStore recordStore;
+
+    /**
+     * Constructor.
+     * @param recordStore backing store of the log entries
+     */
+    public LogFeedAdapter(LogRecordStore recordStore) {
+        this.recordStore = recordStore;
+    }
+
+    @Override
+    public int getItemCount() {
+        return recordStore.size();
+    }
+
+    /**
+     * The row layout resource doubles as the view type, so the log data rows and the
+     * metadata records are recycled in separate pools.
+     * @param position
+     * @return int layout resource ID
+     */
+    @Override
+    public int getItemViewType(int position) {
+        return recordStore.isMetadataRecord(position) ? R.layout.log_metadata_record : R.layout.log_entry_ui;
+    }
+
+    @Override
+    public LogEntryViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View itemView = LayoutInflater.from(parent.getContext()).inflate(viewType, parent, false);
+        return new LogEntryViewHolder(itemView);
+    }
+
+    @Override
+    public void onBindViewHolder(LogEntryViewHolder viewHolder, int position) {
+        recordStore.getEntry(position).bindLayoutContainer(viewHolder.itemView);
+        RecyclerView.LayoutParams rowLayoutParams = (RecyclerView.LayoutParams) viewHolder.itemView.getLayoutParams();
+        if(recordStore.isHidden(position)) {
+            viewHolder.itemView.setVisibility(View.GONE);
+            rowLayoutParams.height = 0;
+        }
+        else {
+            viewHolder.itemView.setVisibility(View.VISIBLE);
+            rowLayoutParams.height = ViewGroup.LayoutParams.WRAP_CONTENT;
+        }
+        viewHolder.itemView.setLayoutParams(rowLayoutParams);
+    }
+
+}
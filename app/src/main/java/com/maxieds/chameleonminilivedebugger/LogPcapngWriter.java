@@ -0,0 +1,326 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <h1>Log PCAPNG Writer</h1>
+ * Encodes LIVE log records as the packets of a PCAPNG capture, so that sniffed traffic can be
+ * opened directly in Wireshark and the other desktop tools. The capture has a single
+ * LINKTYPE_USER0 interface; every packet starts with a 4 byte record header
+ * <pre>
+ *     byte  logCode        (ChameleonLogUtils.LogCode)
+ *     byte  dataDirection  (ChameleonLogUtils.DATADIR_*)
+ *     short systick        (big endian device timestamp of the record)
+ * </pre>
+ * followed by the record payload. In Wireshark the payload can be handed to the ISO 14443
+ * dissector through the DLT_USER table (header size 4). The direction is also written to
+ * the epb_flags option and the log code name to the packet comment. Packet timestamps are
+ * reconstructed from the systick deltas of the records, anchored at the wall clock time the
+ * first record arrived at.
+ *
+ * A writer either encodes the rows of the log store for LogExporter (PcapngExportFormat), or
+ * streams the records of the live session to file as they arrive (createLiveCapture).
+ *
+ * @ref LogExporter.PcapngExportFormat
+ * @ref MainActivityLogUtils.startLivePcapngCapture
+ * @url https://datatracker.ietf.org/doc/draft-ietf-opsawg-pcapng/
+ * @url https://wiki.wireshark.org/HowToDissectAnything
+ */
+public class LogPcapngWriter {
+
+    private static final String TAG = LogPcapngWriter.class.getSimpleName();
+
+    public static final String PCAPNG_FILE_EXT = ".pcapng";
+    public static final String LIVE_CAPTURE_FILE_PREFIX = "capture-";
+
+    private static final int BLOCK_TYPE_SECTION_HEADER = 0x0A0D0D0A;
+    private static final int BLOCK_TYPE_INTERFACE_DESCRIPTION = 0x00000001;
+    private static final int BLOCK_TYPE_ENHANCED_PACKET = 0x00000006;
+    private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+    private static final short LINKTYPE_USER0 = 147;
+
+    private static final short OPT_ENDOFOPT = 0;
+    private static final short OPT_COMMENT = 1;
+    private static final short SHB_USERAPPL = 4;
+    private static final short IF_NAME = 2;
+    private static final short IF_TSRESOL = 9;
+    private static final short EPB_FLAGS = 2;
+    private static final int EPB_FLAGS_INBOUND = 0x01;
+    private static final int EPB_FLAGS_OUTBOUND = 0x02;
+
+    public static final int RECORD_HEADER_SIZE = 4;
+
+    /**
+     * The systick is a 16 bit millisecond counter, so it wraps around every 65.536 seconds.
+     */
+    private static final int SYSTICK_PERIOD = 0x10000;
+
+    /**
+     * Live captures are flushed to disk at least this often (in milliseconds).
+     */
+    public static final int LIVE_FLUSH_INTERVAL = 1000;
+
+    private ByteBuffer blockBuffer = ByteBuffer.allocate(512).order(ByteOrder.LITTLE_ENDIAN);
+
+    private int lastSystick = -1;
+    private long lastWallMillis;
+    private long lastTimestampMillis;
+
+    private File liveCaptureFile;
+    private OutputStream liveCaptureStream;
+    private long lastFlushMillis;
+    private int liveRecordCount;
+
+    public LogPcapngWriter() {}
+
+    /**
+     * Opens a new capture file and writes its header. The records of the live session are
+     * then streamed to the file by appendLiveRecord until the writer is closed.
+     * @param captureDir
+     * @return LogPcapngWriter the open live capture
+     * @throws IOException
+     */
+    public static LogPcapngWriter createLiveCapture(File captureDir) throws IOException {
+        if(!captureDir.exists() && !captureDir.mkdirs()) {
+            throw new IOException("Unable to create the capture directory " + captureDir.getAbsolutePath());
+        }
+        String captureName = LIVE_CAPTURE_FILE_PREFIX + Utils.getTimestamp().replace(":", "").replace(" ", "-");
+        LogPcapngWriter pcapWriter = new LogPcapngWriter();
+        pcapWriter.liveCaptureFile = new File(captureDir, captureName + PCAPNG_FILE_EXT);
+        pcapWriter.liveCaptureStream = new BufferedOutputStream(new FileOutputStream(pcapWriter.liveCaptureFile),
+                                                                LogExporter.OUTPUT_BUFFER_SIZE);
+        pcapWriter.writeHeader(pcapWriter.liveCaptureStream);
+        pcapWriter.liveCaptureStream.flush();
+        pcapWriter.lastFlushMillis = System.currentTimeMillis();
+        return pcapWriter;
+    }
+
+    /**
+     * @return File the live capture file (null unless created by createLiveCapture)
+     */
+    public File getLiveCaptureFile() {
+        return liveCaptureFile;
+    }
+
+    public int getLiveRecordCount() {
+        return liveRecordCount;
+    }
+
+    /**
+     * Streams a LIVE log record to the live capture file. A failed write closes the capture.
+     * @param logBuf native LIVE log record [code, len, tick_hi, tick_lo, payload]
+     * @param offset
+     * @param length
+     * @return boolean whether the capture is still open
+     */
+    public boolean appendLiveRecord(byte[] logBuf, int offset, int length) {
+        if(liveCaptureStream == null) {
+            return false;
+        }
+        else if(length < RECORD_HEADER_SIZE) {
+            return true;
+        }
+        long wallMillis = System.currentTimeMillis();
+        int systick = (Byte.toUnsignedInt(logBuf[offset + 2]) << 8) | Byte.toUnsignedInt(logBuf[offset + 3]);
+        try {
+            writePacket(liveCaptureStream, Byte.toUnsignedInt(logBuf[offset]), systick, logBuf, offset + RECORD_HEADER_SIZE,
+                        length - RECORD_HEADER_SIZE, nextLiveTimestamp(systick, wallMillis));
+            liveRecordCount++;
+            if(wallMillis - lastFlushMillis >= LIVE_FLUSH_INTERVAL) {
+                liveCaptureStream.flush();
+                lastFlushMillis = wallMillis;
+            }
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            Log.w(TAG, "Unable to write to the live capture " + liveCaptureFile.getName() + ": closing it");
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Flushes and closes the live capture file.
+     */
+    public void close() {
+        if(liveCaptureStream == null) {
+            return;
+        }
+        try {
+            liveCaptureStream.close();
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+        }
+        liveCaptureStream = null;
+    }
+
+    /**
+     * Reconstructs the absolute time of a live record from its systick. The delta to the
+     * previous record comes from the systick; the wall clock is only used to recover the
+     * number of times the systick wrapped around in between (long pauses in the traffic).
+     * A systick that runs backwards (the device was reset) falls back to the wall clock.
+     * @param systick
+     * @param wallMillis time the record was received at
+     * @return long timestamp in milliseconds since the epoch
+     */
+    long nextLiveTimestamp(int systick, long wallMillis) {
+        if(lastSystick < 0) {
+            lastTimestampMillis = wallMillis;
+        }
+        else {
+            int tickDelta = (systick - lastSystick) & (SYSTICK_PERIOD - 1);
+            long wallDelta = wallMillis - lastWallMillis;
+            long elapsedMillis = tickDelta + Math.round((double) (wallDelta - tickDelta) / SYSTICK_PERIOD) * SYSTICK_PERIOD;
+            lastTimestampMillis += elapsedMillis >= 0 ? elapsedMillis : Math.max(0, wallDelta);
+        }
+        lastSystick = systick;
+        lastWallMillis = wallMillis;
+        return lastTimestampMillis;
+    }
+
+    /**
+     * Writes the section header and interface description blocks that start a capture.
+     * @param fout
+     * @throws IOException
+     */
+    public void writeHeader(OutputStream fout) throws IOException {
+        startBlock(BLOCK_TYPE_SECTION_HEADER);
+        blockBuffer.putInt(BYTE_ORDER_MAGIC);
+        blockBuffer.putShort((short) 1);
+        blockBuffer.putShort((short) 0);
+        blockBuffer.putLong(-1L); // section length not specified
+        putOption(SHB_USERAPPL, "Chameleon Mini Live Debugger " + BuildConfig.VERSION_NAME);
+        putEndOfOptions();
+        finishBlock(fout);
+        startBlock(BLOCK_TYPE_INTERFACE_DESCRIPTION);
+        blockBuffer.putShort(LINKTYPE_USER0);
+        blockBuffer.putShort((short) 0);
+        blockBuffer.putInt(0); // no snapshot length limit
+        putOption(IF_NAME, "Chameleon LIVE log");
+        putOption(IF_TSRESOL, new byte[] { 3 }); // millisecond timestamps
+        putEndOfOptions();
+        finishBlock(fout);
+    }
+
+    /**
+     * Writes an enhanced packet block for a LIVE log record.
+     * @param fout
+     * @param logCode
+     * @param systick device timestamp of the record
+     * @param payload
+     * @param offset
+     * @param length
+     * @param timestampMillis
+     * @throws IOException
+     */
+    public void writePacket(OutputStream fout, int logCode, int systick, byte[] payload, int offset, int length,
+                            long timestampMillis) throws IOException {
+        int dataDirection = ChameleonLogUtils.getDataDirection(logCode);
+        int packetLength = RECORD_HEADER_SIZE + length;
+        startBlock(BLOCK_TYPE_ENHANCED_PACKET);
+        ensureBlockCapacity(packetLength + 128);
+        blockBuffer.putInt(0); // interface id
+        blockBuffer.putInt((int) (timestampMillis >>> 32));
+        blockBuffer.putInt((int) timestampMillis);
+        blockBuffer.putInt(packetLength);
+        blockBuffer.putInt(packetLength);
+        blockBuffer.put((byte) logCode);
+        blockBuffer.put((byte) dataDirection);
+        blockBuffer.put((byte) (systick >>> 8));
+        blockBuffer.put((byte) systick);
+        blockBuffer.put(payload, offset, length);
+        putPadding(packetLength);
+        if(dataDirection == ChameleonLogUtils.DATADIR_INCOMING) {
+            putOption(EPB_FLAGS, EPB_FLAGS_INBOUND);
+        }
+        else if(dataDirection == ChameleonLogUtils.DATADIR_OUTGOING) {
+            putOption(EPB_FLAGS, EPB_FLAGS_OUTBOUND);
+        }
+        putOption(OPT_COMMENT, ChameleonLogUtils.LogCode.lookupByLogCode(logCode).name());
+        putEndOfOptions();
+        finishBlock(fout);
+    }
+
+    private void ensureBlockCapacity(int minRemaining) {
+        if(blockBuffer.remaining() >= minRemaining) {
+            return;
+        }
+        ByteBuffer nextBuffer = ByteBuffer.allocate(Math.max(2 * blockBuffer.capacity(), blockBuffer.position() + minRemaining))
+                                          .order(ByteOrder.LITTLE_ENDIAN);
+        blockBuffer.flip();
+        nextBuffer.put(blockBuffer);
+        blockBuffer = nextBuffer;
+    }
+
+    private void startBlock(int blockType) {
+        blockBuffer.clear();
+        blockBuffer.putInt(blockType);
+        blockBuffer.putInt(0); // block length is filled in by finishBlock
+    }
+
+    private void finishBlock(OutputStream fout) throws IOException {
+        ensureBlockCapacity(4);
+        int blockLength = blockBuffer.position() + 4;
+        blockBuffer.putInt(4, blockLength);
+        blockBuffer.putInt(blockLength);
+        fout.write(blockBuffer.array(), 0, blockLength);
+    }
+
+    private void putPadding(int length) {
+        for(int pi = length; (pi & 3) != 0; pi++) {
+            blockBuffer.put((byte) 0);
+        }
+    }
+
+    private void putOption(short optionCode, byte[] optionValue) {
+        ensureBlockCapacity(optionValue.length + 8);
+        blockBuffer.putShort(optionCode);
+        blockBuffer.putShort((short) optionValue.length);
+        blockBuffer.put(optionValue);
+        putPadding(optionValue.length);
+    }
+
+    private void putOption(short optionCode, String optionValue) {
+        putOption(optionCode, optionValue.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void putOption(short optionCode, int optionValue) {
+        ensureBlockCapacity(8);
+        blockBuffer.putShort(optionCode);
+        blockBuffer.putShort((short) 4);
+        blockBuffer.putInt(optionValue);
+    }
+
+    private void putEndOfOptions() {
+        ensureBlockCapacity(4);
+        blockBuffer.putShort(OPT_ENDOFOPT);
+        blockBuffer.putShort((short) 0);
+    }
+
+}
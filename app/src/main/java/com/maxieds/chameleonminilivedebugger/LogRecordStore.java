@@ -0,0 +1,637 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.Math.abs;
+
+/**
+ * <h1>Log Record Store</h1>
+ * Columnar in-memory store for the entries shown in the Log tab. The LIVE log records are
+ * kept in parallel primitive arrays (one slot per row) with all of the payload bytes packed
+ * into a single growable byte arena, so that a record costs a few tens of bytes of heap plus
+ * its payload. The (comparatively rare) status / annotation records are kept as objects in a
+ * side list and referenced from their row.
+ * When a LogSessionJournal is attached, every row is also written to the journal and only
+ * the newest rows are kept resident: older rows are evicted from memory and read back from
+ * the (memory-mapped) journal when they are displayed or exported.
+ * LogEntryUI and LogEntryMetadataRecord objects are only handed out as disposable views of
+ * a row (see getEntry). Records are only added from the main thread; the public methods
+ * are synchronized so that the exporters can read the store from their background thread.
+ *
+ * @ref MainActivityLogUtils.logDataStore
+ * @ref LogFeedAdapter
+ * @ref LogSessionJournal
+ * @url http://rawgit.com/emsec/ChameleonMini/master/Doc/Doxygen/html/Page_Log.html
+ */
+public class LogRecordStore {
+
+    private static final String TAG = LogRecordStore.class.getSimpleName();
+
+    public static final int DEFAULT_ROW_CAPACITY = 1024;
+    public static final int DEFAULT_PAYLOAD_CAPACITY = 32 * 1024;
+
+    /**
+     * With a journal attached, the oldest EVICTION_BATCH_ROWS rows are dropped from memory
+     * whenever more than MAX_RESIDENT_ROWS rows are resident.
+     */
+    public static final int MAX_RESIDENT_ROWS = 32768;
+    public static final int EVICTION_BATCH_ROWS = 8192;
+
+    /**
+     * Bits of the per-row flags column.
+     */
+    public static final byte FLAG_METADATA_RECORD = 0x01;
+    public static final byte FLAG_SELECTED = 0x02;
+    public static final byte FLAG_HIDDEN = 0x04;
+    private static final int FLAG_XFER_MARKER_SHIFT = 4;
+    private static final byte FLAG_XFER_MARKER_MASK = 0x30;
+
+    /**
+     * Values of the (user selected) transfer direction marker stored in the flags column.
+     * @ref MainActivityLogUtils.setSelectedXFerOnLogs
+     */
+    public static final int XFER_MARKER_NONE = 0;
+    public static final int XFER_MARKER_BIDIRECTIONAL = 1;
+    public static final int XFER_MARKER_INCOMING = 2;
+    public static final int XFER_MARKER_OUTGOING = 3;
+
+    /**
+     * Row r of the store is held in slot (r - firstResidentRow) of the columns.
+     */
+    private int firstResidentRow;
+    private int numRows;
+    private int[] recordIds;
+    private byte[] logCodes;
+    private byte[] dataDirections;
+    private byte[] flags;
+    private int[] tickDeltas;
+    private int[] payloadOffsets;
+    private short[] payloadLengths;
+    private int[] duplicateCounts;
+    private int[] highlightColors;
+
+    private byte[] payloadArena;
+    private int payloadArenaUsed;
+    private List<LogEntryMetadataRecord> metadataRecords;
+
+    private LogSessionJournal sessionJournal;
+    private boolean journalWritable;
+    private File journalDirectory;
+
+    /**
+     * Timing information for the log (device systick of the last record).
+     */
+    private int curSystickTimestamp = -1;
+    private long lastSystemMillis = System.currentTimeMillis();
+    private long firstRecordMillis = -1;
+
+    /**
+     * Bumped every time the store is cleared, so that readers on other threads can tell
+     * that the rows they were reading belong to a previous session.
+     */
+    private int storeGeneration = 0;
+
+    public LogRecordStore() {
+        this(DEFAULT_ROW_CAPACITY, DEFAULT_PAYLOAD_CAPACITY);
+    }
+
+    public LogRecordStore(int rowCapacity, int payloadCapacity) {
+        recordIds = new int[rowCapacity];
+        logCodes = new byte[rowCapacity];
+        dataDirections = new byte[rowCapacity];
+        flags = new byte[rowCapacity];
+        tickDeltas = new int[rowCapacity];
+        payloadOffsets = new int[rowCapacity];
+        payloadLengths = new short[rowCapacity];
+        duplicateCounts = new int[rowCapacity];
+        highlightColors = new int[rowCapacity];
+        payloadArena = new byte[payloadCapacity];
+        payloadArenaUsed = 0;
+        metadataRecords = new ArrayList<LogEntryMetadataRecord>();
+        firstResidentRow = 0;
+        numRows = 0;
+    }
+
+    public synchronized int size() {
+        return firstResidentRow + numRows;
+    }
+
+    /**
+     * @return int the first row that is held in memory (rows before it live in the journal)
+     */
+    public synchronized int getFirstResidentRow() {
+        return firstResidentRow;
+    }
+
+    /**
+     * @return int the generation of the store (changes every time the store is cleared)
+     */
+    public synchronized int getGeneration() {
+        return storeGeneration;
+    }
+
+    /**
+     * Removes all rows. The attached journal (if any) is detached, but not closed.
+     * @return LogSessionJournal the previously attached journal
+     */
+    public synchronized LogSessionJournal clear() {
+        storeGeneration++;
+        journalDirectory = null;
+        firstResidentRow = 0;
+        numRows = 0;
+        payloadArenaUsed = 0;
+        metadataRecords.clear();
+        firstRecordMillis = -1;
+        return attachJournal(null);
+    }
+
+    /**
+     * Attaches the journal all of the subsequently appended rows are written to. Only
+     * attach a journal to an empty store, so that the store rows match the journal rows.
+     * @param journal
+     * @return LogSessionJournal the previously attached journal
+     */
+    public synchronized LogSessionJournal attachJournal(LogSessionJournal journal) {
+        LogSessionJournal prevJournal = sessionJournal;
+        sessionJournal = journal;
+        journalWritable = journal != null && journal.getEntryCount() == size();
+        return prevJournal;
+    }
+
+    /**
+     * @return long wall clock time the first LIVE log record of the session arrived at
+     *         (-1 if there are none yet)
+     */
+    public synchronized long getFirstRecordMillis() {
+        return firstRecordMillis;
+    }
+
+    public synchronized LogSessionJournal getJournal() {
+        return sessionJournal;
+    }
+
+    /**
+     * Enables the session journal of the (empty) store: it is only created in the directory
+     * once the first row is appended, so sessions without any records leave no files behind.
+     * @param journalDir
+     */
+    public synchronized void setJournalDirectory(File journalDir) {
+        journalDirectory = journalDir;
+    }
+
+    private void createPendingJournal() {
+        if(journalDirectory == null || sessionJournal != null || size() != 0) {
+            return;
+        }
+        File journalDir = journalDirectory;
+        journalDirectory = null;
+        try {
+            attachJournal(LogSessionJournal.createJournal(journalDir));
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            Log.w(TAG, "Unable to create the session journal: keeping the logs in memory only");
+        }
+    }
+
+    /**
+     * @return long approximate number of heap bytes held by the store
+     */
+    public synchronized long getMemoryFootprint() {
+        return (long) recordIds.length * (4 + 1 + 1 + 1 + 4 + 4 + 2 + 4 + 4) + payloadArena.length;
+    }
+
+    private void ensureRowCapacity(int minCapacity) {
+        if(minCapacity <= recordIds.length) {
+            return;
+        }
+        int nextCapacity = Math.max(minCapacity, 2 * recordIds.length);
+        recordIds = Arrays.copyOf(recordIds, nextCapacity);
+        logCodes = Arrays.copyOf(logCodes, nextCapacity);
+        dataDirections = Arrays.copyOf(dataDirections, nextCapacity);
+        flags = Arrays.copyOf(flags, nextCapacity);
+        tickDeltas = Arrays.copyOf(tickDeltas, nextCapacity);
+        payloadOffsets = Arrays.copyOf(payloadOffsets, nextCapacity);
+        payloadLengths = Arrays.copyOf(payloadLengths, nextCapacity);
+        duplicateCounts = Arrays.copyOf(duplicateCounts, nextCapacity);
+        highlightColors = Arrays.copyOf(highlightColors, nextCapacity);
+    }
+
+    private void ensurePayloadCapacity(int minCapacity) {
+        if(minCapacity > payloadArena.length) {
+            payloadArena = Arrays.copyOf(payloadArena, Math.max(minCapacity, 2 * payloadArena.length));
+        }
+    }
+
+    /**
+     * Drops the oldest resident rows from memory (they stay readable through the journal)
+     * and compacts the payload arena.
+     * @param evictCount
+     */
+    private void evictOldestRows(int evictCount) {
+        evictCount = Math.min(evictCount, numRows);
+        int remainingRows = numRows - evictCount;
+        System.arraycopy(recordIds, evictCount, recordIds, 0, remainingRows);
+        System.arraycopy(logCodes, evictCount, logCodes, 0, remainingRows);
+        System.arraycopy(dataDirections, evictCount, dataDirections, 0, remainingRows);
+        System.arraycopy(flags, evictCount, flags, 0, remainingRows);
+        System.arraycopy(tickDeltas, evictCount, tickDeltas, 0, remainingRows);
+        System.arraycopy(payloadOffsets, evictCount, payloadOffsets, 0, remainingRows);
+        System.arraycopy(payloadLengths, evictCount, payloadLengths, 0, remainingRows);
+        System.arraycopy(duplicateCounts, evictCount, duplicateCounts, 0, remainingRows);
+        System.arraycopy(highlightColors, evictCount, highlightColors, 0, remainingRows);
+        byte[] nextArena = new byte[Math.max(DEFAULT_PAYLOAD_CAPACITY, payloadArena.length)];
+        int nextArenaUsed = 0;
+        for(int slot = 0; slot < remainingRows; slot++) {
+            if((flags[slot] & FLAG_METADATA_RECORD) != 0) {
+                continue;
+            }
+            System.arraycopy(payloadArena, payloadOffsets[slot], nextArena, nextArenaUsed, payloadLengths[slot]);
+            payloadOffsets[slot] = nextArenaUsed;
+            nextArenaUsed += payloadLengths[slot];
+        }
+        payloadArena = nextArena;
+        payloadArenaUsed = nextArenaUsed;
+        firstResidentRow += evictCount;
+        numRows = remainingRows;
+    }
+
+    private void journalAppendFailed(IOException ioe) {
+        ioe.printStackTrace();
+        Log.w(TAG, "Unable to write the session journal: keeping all further records in memory");
+        journalWritable = false;
+    }
+
+    /**
+     * Converts the device systick timestamp of a record into the offset (in milliseconds)
+     * from the previous record.
+     * @param timestamp
+     * @return int time offset
+     */
+    private int nextTickDelta(int timestamp) {
+        int diffTimeMs = curSystickTimestamp == -1 ? timestamp : timestamp - curSystickTimestamp;
+        long systemTimeMillis = System.currentTimeMillis();
+        if(diffTimeMs < 0) {
+            diffTimeMs = (int) (lastSystemMillis - systemTimeMillis);
+        }
+        curSystickTimestamp = timestamp;
+        lastSystemMillis = systemTimeMillis;
+        return diffTimeMs;
+    }
+
+    private int appendRow() {
+        if(journalWritable && numRows >= MAX_RESIDENT_ROWS) {
+            evictOldestRows(EVICTION_BATCH_ROWS);
+        }
+        ensureRowCapacity(numRows + 1);
+        return numRows++;
+    }
+
+    /**
+     * Appends a native LIVE log record ([code, len, tick_hi, tick_lo, payload]).
+     * The payload bytes are copied into the arena, so the source buffer may be reused.
+     * @param recordId
+     * @param logBuf
+     * @param offset
+     * @param length
+     * @return int row of the new record, or -1 if the record is too short
+     */
+    public synchronized int appendLogRecord(int recordId, byte[] logBuf, int offset, int length) {
+        if(length < 4) {
+            return -1;
+        }
+        int payloadLength = length - 4;
+        int timestamp = ((logBuf[offset + 2] & 0xff) << 8) | (logBuf[offset + 3] & 0xff);
+        int tickDelta = nextTickDelta(timestamp);
+        if(firstRecordMillis < 0) {
+            firstRecordMillis = lastSystemMillis;
+        }
+        createPendingJournal();
+        if(journalWritable) {
+            try {
+                int dataOffset = sessionJournal.appendRecord(logBuf, offset, length);
+                sessionJournal.appendEntry(dataOffset, recordId, tickDelta, 0, 0, 0);
+            } catch(IOException ioe) {
+                journalAppendFailed(ioe);
+            }
+        }
+        int slot = appendRow();
+        ensurePayloadCapacity(payloadArenaUsed + payloadLength);
+        recordIds[slot] = recordId;
+        logCodes[slot] = logBuf[offset];
+        dataDirections[slot] = (byte) ChameleonLogUtils.getDataDirection((int) logBuf[offset]);
+        flags[slot] = 0;
+        tickDeltas[slot] = tickDelta;
+        payloadOffsets[slot] = payloadArenaUsed;
+        payloadLengths[slot] = (short) payloadLength;
+        duplicateCounts[slot] = 0;
+        highlightColors[slot] = 0;
+        System.arraycopy(logBuf, offset + 4, payloadArena, payloadArenaUsed, payloadLength);
+        payloadArenaUsed += payloadLength;
+        return firstResidentRow + slot;
+    }
+
+    /**
+     * Appends a status / annotation record.
+     * @param metadataRecord
+     * @return int row of the new record
+     */
+    public synchronized int appendMetadataRecord(LogEntryMetadataRecord metadataRecord) {
+        int metadataIdx = metadataRecords.size();
+        createPendingJournal();
+        if(journalWritable) {
+            try {
+                sessionJournal.appendEntry(-1 - metadataIdx, 0, 0, FLAG_METADATA_RECORD, 0, 0);
+            } catch(IOException ioe) {
+                journalAppendFailed(ioe);
+            }
+        }
+        int slot = appendRow();
+        recordIds[slot] = 0;
+        logCodes[slot] = 0;
+        dataDirections[slot] = 0;
+        flags[slot] = FLAG_METADATA_RECORD;
+        tickDeltas[slot] = 0;
+        payloadOffsets[slot] = metadataIdx;
+        payloadLengths[slot] = 0;
+        duplicateCounts[slot] = 0;
+        highlightColors[slot] = 0;
+        metadataRecords.add(metadataRecord);
+        return firstResidentRow + slot;
+    }
+
+    /**
+     * @param row
+     * @return int the column slot of the row, or -1 if the row has been evicted to the journal
+     */
+    private int getSlot(int row) {
+        return row >= firstResidentRow ? row - firstResidentRow : -1;
+    }
+
+    /**
+     * Counts another copy of the record in the row and updates its time offset in place.
+     * @param row
+     * @param tickMSB
+     * @param tickLSB
+     */
+    public synchronized void appendDuplicate(int row, byte tickMSB, byte tickLSB) {
+        int slot = getSlot(row);
+        int timestamp = ((tickMSB & 0xff) << 8) | (tickLSB & 0xff);
+        int tickDelta = nextTickDelta(timestamp);
+        if(slot < 0) {
+            sessionJournal.setTickDelta(row, tickDelta);
+            sessionJournal.setFlagsAndCount(row, sessionJournal.getFlags(row), sessionJournal.getDuplicateCount(row) + 1);
+            return;
+        }
+        duplicateCounts[slot]++;
+        tickDeltas[slot] = tickDelta;
+        if(journalWritable) {
+            sessionJournal.setTickDelta(row, tickDeltas[slot]);
+            sessionJournal.setFlagsAndCount(row, flags[slot], duplicateCounts[slot]);
+        }
+    }
+
+    /**
+     * Returns a (disposable) log entry view of the row.
+     * @param row
+     * @return LogEntryBase a LogEntryUI or the LogEntryMetadataRecord stored in the row
+     */
+    public synchronized LogEntryBase getEntry(int row) {
+        if(isMetadataRecord(row)) {
+            int slot = getSlot(row);
+            int metadataIdx = slot >= 0 ? payloadOffsets[slot] : -1 - sessionJournal.getDataOffset(row);
+            return metadataRecords.get(metadataIdx);
+        }
+        return new LogEntryUI(this, row);
+    }
+
+    public synchronized int getMetadataRecordCount() {
+        return metadataRecords.size();
+    }
+
+    /**
+     * @param metadataIdx
+     * @return LogEntryMetadataRecord the metadataIdx-th status / annotation record of the store
+     */
+    public synchronized LogEntryMetadataRecord getMetadataRecord(int metadataIdx) {
+        return metadataRecords.get(metadataIdx);
+    }
+
+    /**
+     * Reads an evicted LIVE log record back from the journal.
+     * @param row
+     * @return byte[] the native record bytes
+     */
+    private byte[] readJournalRecord(int row) {
+        try {
+            return sessionJournal.readRecord(sessionJournal.getDataOffset(row));
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            return new byte[4];
+        }
+    }
+
+    private int getFlags(int row) {
+        int slot = getSlot(row);
+        return slot >= 0 ? flags[slot] : sessionJournal.getFlags(row);
+    }
+
+    private void setFlags(int row, int rowFlags) {
+        int slot = getSlot(row);
+        if(slot >= 0) {
+            flags[slot] = (byte) rowFlags;
+            if(journalWritable) {
+                sessionJournal.setFlagsAndCount(row, rowFlags, duplicateCounts[slot]);
+            }
+        }
+        else {
+            sessionJournal.setFlagsAndCount(row, rowFlags, sessionJournal.getDuplicateCount(row));
+        }
+    }
+
+    public synchronized boolean isMetadataRecord(int row) {
+        return (getFlags(row) & FLAG_METADATA_RECORD) != 0;
+    }
+
+    public synchronized int getRecordId(int row) {
+        int slot = getSlot(row);
+        return slot >= 0 ? recordIds[slot] : sessionJournal.getRecordId(row);
+    }
+
+    /**
+     * @param row
+     * @return int the (sign extended) log code byte
+     */
+    public synchronized int getLogCode(int row) {
+        int slot = getSlot(row);
+        return (int) (slot >= 0 ? logCodes[slot] : readJournalRecord(row)[0]);
+    }
+
+    public synchronized int getDataDirection(int row) {
+        int slot = getSlot(row);
+        return slot >= 0 ? dataDirections[slot] : ChameleonLogUtils.getDataDirection(getLogCode(row));
+    }
+
+    public synchronized int getTickDelta(int row) {
+        int slot = getSlot(row);
+        return slot >= 0 ? tickDeltas[slot] : sessionJournal.getTickDelta(row);
+    }
+
+    public synchronized int getDuplicateCount(int row) {
+        int slot = getSlot(row);
+        return slot >= 0 ? duplicateCounts[slot] : sessionJournal.getDuplicateCount(row);
+    }
+
+    public synchronized int getPayloadLength(int row) {
+        int slot = getSlot(row);
+        return slot >= 0 ? payloadLengths[slot] : readJournalRecord(row).length - 4;
+    }
+
+    /**
+     * @param row
+     * @return byte[] copy of the payload bytes of the record
+     */
+    public synchronized byte[] getPayload(int row) {
+        int slot = getSlot(row);
+        if(slot < 0) {
+            byte[] recordBytes = readJournalRecord(row);
+            return Arrays.copyOfRange(recordBytes, 4, recordBytes.length);
+        }
+        int payloadOffset = payloadOffsets[slot];
+        return Arrays.copyOfRange(payloadArena, payloadOffset, payloadOffset + payloadLengths[slot]);
+    }
+
+    /**
+     * Compares the payload of the row to the given bytes without copying it out of the arena.
+     * @param row
+     * @param dataBuf
+     * @param offset
+     * @param length
+     * @return boolean
+     */
+    public synchronized boolean payloadEquals(int row, byte[] dataBuf, int offset, int length) {
+        int slot = getSlot(row);
+        if(isMetadataRecord(row)) {
+            return false;
+        }
+        else if(slot < 0) {
+            byte[] recordBytes = readJournalRecord(row);
+            return recordBytes.length - 4 == length &&
+                   Arrays.equals(Arrays.copyOfRange(recordBytes, 4, recordBytes.length), Arrays.copyOfRange(dataBuf, offset, offset + length));
+        }
+        else if(payloadLengths[slot] != length) {
+            return false;
+        }
+        int payloadOffset = payloadOffsets[slot];
+        for(int bi = 0; bi < length; bi++) {
+            if(payloadArena[payloadOffset + bi] != dataBuf[offset + bi]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized boolean payloadEquals(int row, int otherRow) {
+        if(isMetadataRecord(otherRow)) {
+            return false;
+        }
+        int otherSlot = getSlot(otherRow);
+        if(otherSlot >= 0) {
+            return payloadEquals(row, payloadArena, payloadOffsets[otherSlot], payloadLengths[otherSlot]);
+        }
+        byte[] otherPayload = getPayload(otherRow);
+        return payloadEquals(row, otherPayload, 0, otherPayload.length);
+    }
+
+    /**
+     * @param row
+     * @param logBuf native LIVE log record [code, len, tick_hi, tick_lo, payload]
+     * @param offset
+     * @param length
+     * @return boolean whether the row holds the same log code and payload as the record
+     */
+    public synchronized boolean recordEquals(int row, byte[] logBuf, int offset, int length) {
+        return length >= 4 && !isMetadataRecord(row) && (byte) getLogCode(row) == logBuf[offset] &&
+               payloadEquals(row, logBuf, offset + 4, length - 4);
+    }
+
+    public synchronized boolean isSelected(int row) {
+        return (getFlags(row) & FLAG_SELECTED) != 0;
+    }
+
+    public synchronized void setSelected(int row, boolean selected) {
+        int rowFlags = getFlags(row);
+        setFlags(row, selected ? rowFlags | FLAG_SELECTED : rowFlags & ~FLAG_SELECTED);
+    }
+
+    public synchronized boolean isHidden(int row) {
+        return (getFlags(row) & FLAG_HIDDEN) != 0;
+    }
+
+    public synchronized void setHidden(int row, boolean hidden) {
+        int rowFlags = getFlags(row);
+        setFlags(row, hidden ? rowFlags | FLAG_HIDDEN : rowFlags & ~FLAG_HIDDEN);
+    }
+
+    public synchronized int getXFerMarker(int row) {
+        return (getFlags(row) & FLAG_XFER_MARKER_MASK) >>> FLAG_XFER_MARKER_SHIFT;
+    }
+
+    public synchronized void setXFerMarker(int row, int xferMarker) {
+        int rowFlags = getFlags(row);
+        setFlags(row, (rowFlags & ~FLAG_XFER_MARKER_MASK) | ((xferMarker << FLAG_XFER_MARKER_SHIFT) & FLAG_XFER_MARKER_MASK));
+    }
+
+    /**
+     * @param row
+     * @return int the highlight (background) color of the row, or 0 if it is not highlighted
+     */
+    public synchronized int getHighlightColor(int row) {
+        int slot = getSlot(row);
+        return slot >= 0 ? highlightColors[slot] : sessionJournal.getHighlightColor(row);
+    }
+
+    public synchronized void setHighlightColor(int row, int color) {
+        int slot = getSlot(row);
+        if(slot >= 0) {
+            highlightColors[slot] = color;
+        }
+        if(slot < 0 || journalWritable) {
+            sessionJournal.setHighlightColor(row, color);
+        }
+    }
+
+    /**
+     * Helper method for determining timing data in the log.
+     * @param row
+     * @param offsetTimeMillis
+     * @return short next offset time
+     * @ref LogExporter.BinaryExportFormat
+     */
+    public synchronized short getNextOffsetTime(int row, short offsetTimeMillis) {
+        return (short) (offsetTimeMillis + abs(getTickDelta(row)));
+    }
+
+}
@@ -0,0 +1,592 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h1>Log Search Index</h1>
+ * Inverted indexes over the LIVE log records, built incrementally as the records are
+ * appended to the Log tab:
+ * <ul>
+ *     <li>byte and byte-pair (bigram) postings over the payload bytes,</li>
+ *     <li>postings by log code and by data direction,</li>
+ *     <li>postings by APDU classification label.</li>
+ * </ul>
+ * Postings are ascending lists of record ids. A search resolves the query against the
+ * indexes on a background thread, and then delivers the matching record ids to the main
+ * thread in pages, so the results appear progressively and a long search can be cancelled
+ * (or superseded by the next one) at any time. Payload matches found through the bigram
+ * index are only candidates, and are verified against the record data on the main thread
+ * as each page is delivered. The postings of the records the log store has evicted from
+ * memory are pruned along with them (see pruneEvictedRecords), so the index stays
+ * proportional to the resident part of the store.
+ *
+ * The object lock is only held to update the postings and to take copies of the postings a
+ * search needs: the searches merge those copies without blocking the (main thread) indexing.
+ *
+ * @ref MainActivityLogUtils.performLogSearch
+ * @ref MainActivityLogUtils.logSearchIndex
+ */
+public class LogSearchIndex {
+
+    private static final String TAG = LogSearchIndex.class.getSimpleName();
+
+    public static final int SEARCH_PAGE_SIZE = 128;
+
+    /**
+     * Ascending list of record ids.
+     */
+    static class Postings {
+
+        int[] recordIds = new int[4];
+        int size = 0;
+
+        void add(int recordId) {
+            if(size > 0 && recordIds[size - 1] == recordId) {
+                return;
+            }
+            if(size == recordIds.length) {
+                int[] nextIds = new int[2 * size];
+                System.arraycopy(recordIds, 0, nextIds, 0, size);
+                recordIds = nextIds;
+            }
+            recordIds[size++] = recordId;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(recordIds, size);
+        }
+
+        /**
+         * Drops the record ids below minRecordId.
+         */
+        void pruneBefore(int minRecordId) {
+            int pruneCount = Arrays.binarySearch(recordIds, 0, size, minRecordId);
+            pruneCount = pruneCount < 0 ? -pruneCount - 1 : pruneCount;
+            if(pruneCount == 0) {
+                return;
+            }
+            size -= pruneCount;
+            if(size < recordIds.length / 4) {
+                recordIds = Arrays.copyOfRange(recordIds, pruneCount, pruneCount + Math.max(4, 2 * size));
+            }
+            else {
+                System.arraycopy(recordIds, pruneCount, recordIds, 0, size);
+            }
+        }
+
+    }
+
+    private final Postings[] bytePostings = new Postings[256];
+    private final Postings[] bigramPostings = new Postings[65536];
+    private final Postings[] logCodePostings = new Postings[256];
+    private final Postings[] directionPostings = new Postings[3];
+    private final Map<String, Postings> apduLabelPostings = new HashMap<String, Postings>();
+    private final Postings unclassifiedApduPostings = new Postings();
+    private final Postings allPostings = new Postings();
+
+    /**
+     * Row of each record in the log store, indexed by record id - recordIdBase.
+     */
+    private int[] recordRows = new int[1024];
+    private int recordIdBase = 0;
+    private int prunedBeforeRow = 0;
+
+    private static Postings addPosting(Postings[] postingsTable, int key, int recordId) {
+        if(postingsTable[key] == null) {
+            postingsTable[key] = new Postings();
+        }
+        postingsTable[key].add(recordId);
+        return postingsTable[key];
+    }
+
+    public synchronized void clear() {
+        for(int bi = 0; bi < bytePostings.length; bi++) {
+            bytePostings[bi] = logCodePostings[bi] = null;
+        }
+        for(int bi = 0; bi < bigramPostings.length; bi++) {
+            bigramPostings[bi] = null;
+        }
+        for(int di = 0; di < directionPostings.length; di++) {
+            directionPostings[di] = null;
+        }
+        apduLabelPostings.clear();
+        unclassifiedApduPostings.size = 0;
+        allPostings.size = 0;
+        recordRows = new int[1024];
+        recordIdBase = 0;
+        prunedBeforeRow = 0;
+        searchGeneration.incrementAndGet();
+    }
+
+    /**
+     * Indexes a LIVE log record. Record ids must be indexed in increasing order.
+     * @param recordId
+     * @param row row of the record in the log store
+     * @param logBuf native LIVE log record [code, len, tick_hi, tick_lo, payload]
+     * @param offset
+     * @param length
+     */
+    public synchronized void indexRecord(int recordId, int row, byte[] logBuf, int offset, int length) {
+        if(recordId < recordIdBase) {
+            return;
+        }
+        if(recordId - recordIdBase >= recordRows.length) {
+            recordRows = Arrays.copyOf(recordRows, Math.max(recordId - recordIdBase + 1, 2 * recordRows.length));
+        }
+        recordRows[recordId - recordIdBase] = row;
+        allPostings.add(recordId);
+        int logCode = logBuf[offset] & 0xff;
+        addPosting(logCodePostings, logCode, recordId);
+        int dataDirection = ChameleonLogUtils.getDataDirection((int) logBuf[offset]);
+        if(dataDirection >= 0 && dataDirection < directionPostings.length) {
+            addPosting(directionPostings, dataDirection, recordId);
+        }
+        int payloadStart = offset + 4, payloadEnd = offset + length;
+        for(int bi = payloadStart; bi < payloadEnd; bi++) {
+            addPosting(bytePostings, logBuf[bi] & 0xff, recordId);
+            if(bi + 1 < payloadEnd) {
+                addPosting(bigramPostings, ((logBuf[bi] & 0xff) << 8) | (logBuf[bi + 1] & 0xff), recordId);
+            }
+        }
+        byte[] payload = new byte[Math.max(0, payloadEnd - payloadStart)];
+        System.arraycopy(logBuf, payloadStart, payload, 0, payload.length);
+        List<String> apduLabels = ApduUtils.classifyApduLabels(payload);
+        if(apduLabels.isEmpty()) {
+            unclassifiedApduPostings.add(recordId);
+        }
+        for(String apduLabel : apduLabels) {
+            String labelKey = apduLabel.toLowerCase(Locale.ENGLISH);
+            Postings labelPostings = apduLabelPostings.get(labelKey);
+            if(labelPostings == null) {
+                labelPostings = new Postings();
+                apduLabelPostings.put(labelKey, labelPostings);
+            }
+            labelPostings.add(recordId);
+        }
+    }
+
+    /**
+     * @param recordId
+     * @return int row of the record in the log store
+     */
+    public synchronized int getRecordRow(int recordId) {
+        int rowIdx = recordId - recordIdBase;
+        return rowIdx >= 0 && rowIdx < recordRows.length ? recordRows[rowIdx] : -1;
+    }
+
+    /**
+     * Drops the postings of the records in the rows the log store has evicted.
+     * @param firstResidentRow LogRecordStore.getFirstResidentRow
+     */
+    public synchronized void pruneEvictedRecords(int firstResidentRow) {
+        if(firstResidentRow <= prunedBeforeRow) {
+            return;
+        }
+        prunedBeforeRow = firstResidentRow;
+        // record ids and their rows both increase, so find the first resident record id:
+        int[] indexedIds = allPostings.recordIds;
+        int lo = 0, hi = allPostings.size;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(recordRows[indexedIds[mid] - recordIdBase] < firstResidentRow) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        if(lo == 0) {
+            return;
+        }
+        int minRecordId = lo < allPostings.size ? indexedIds[lo] : indexedIds[lo - 1] + 1;
+        for(int bi = 0; bi < bytePostings.length; bi++) {
+            prunePostings(bytePostings, bi, minRecordId);
+            prunePostings(logCodePostings, bi, minRecordId);
+        }
+        for(int bi = 0; bi < bigramPostings.length; bi++) {
+            prunePostings(bigramPostings, bi, minRecordId);
+        }
+        for(int di = 0; di < directionPostings.length; di++) {
+            prunePostings(directionPostings, di, minRecordId);
+        }
+        Iterator<Postings> labelPostingsIter = apduLabelPostings.values().iterator();
+        while(labelPostingsIter.hasNext()) {
+            Postings labelPostings = labelPostingsIter.next();
+            labelPostings.pruneBefore(minRecordId);
+            if(labelPostings.size == 0) {
+                labelPostingsIter.remove();
+            }
+        }
+        unclassifiedApduPostings.pruneBefore(minRecordId);
+        allPostings.pruneBefore(minRecordId);
+        int rowsShift = Math.min(minRecordId - recordIdBase, recordRows.length);
+        recordRows = Arrays.copyOfRange(recordRows, rowsShift, Math.max(rowsShift + 1024, recordRows.length));
+        recordIdBase = minRecordId;
+    }
+
+    private static void prunePostings(Postings[] postingsTable, int key, int minRecordId) {
+        if(postingsTable[key] != null) {
+            postingsTable[key].pruneBefore(minRecordId);
+            if(postingsTable[key].size == 0) {
+                postingsTable[key] = null;
+            }
+        }
+    }
+
+    static int[] unionPostings(int[] lhs, int[] rhs) {
+        int[] union = new int[lhs.length + rhs.length];
+        int li = 0, ri = 0, ui = 0;
+        while(li < lhs.length || ri < rhs.length) {
+            int nextId;
+            if(ri >= rhs.length || (li < lhs.length && lhs[li] < rhs[ri])) {
+                nextId = lhs[li++];
+            }
+            else if(li >= lhs.length || rhs[ri] < lhs[li]) {
+                nextId = rhs[ri++];
+            }
+            else {
+                nextId = lhs[li++];
+                ri++;
+            }
+            union[ui++] = nextId;
+        }
+        int[] trimmedUnion = new int[ui];
+        System.arraycopy(union, 0, trimmedUnion, 0, ui);
+        return trimmedUnion;
+    }
+
+    private static int[] unionPostings(int[][] postingsLists) {
+        int[] union = new int[0];
+        for(int[] postingsList : postingsLists) {
+            union = unionPostings(union, postingsList);
+        }
+        return union;
+    }
+
+    static int[] intersectPostings(int[] lhs, int[] rhs) {
+        int[] intersection = new int[Math.min(lhs.length, rhs.length)];
+        int li = 0, ri = 0, ii = 0;
+        while(li < lhs.length && ri < rhs.length) {
+            if(lhs[li] < rhs[ri]) {
+                li++;
+            }
+            else if(rhs[ri] < lhs[li]) {
+                ri++;
+            }
+            else {
+                intersection[ii++] = lhs[li++];
+                ri++;
+            }
+        }
+        int[] trimmedIntersection = new int[ii];
+        System.arraycopy(intersection, 0, trimmedIntersection, 0, ii);
+        return trimmedIntersection;
+    }
+
+    private static int[] getPostings(Postings postings) {
+        return postings == null ? new int[0] : postings.toArray();
+    }
+
+    /**
+     * Parsed form of the search options of the Search tab.
+     */
+    public static class SearchQuery {
+
+        public final String searchText;
+        public final boolean searchBytes;
+        public final boolean searchAPDU;
+        public final boolean searchPayload;
+        public final boolean searchHeaders;
+        private final byte[] payloadBytes;
+        private final int trailingNibble;
+
+        /**
+         * @param searchText hex digits (searchBytes) or ascii text to find
+         * @param searchBytes
+         * @param searchAPDU
+         * @param searchPayload
+         * @param searchHeaders
+         * @throws HexCodec.MalformedHexException
+         */
+        public SearchQuery(String searchText, boolean searchBytes, boolean searchAPDU,
+                           boolean searchPayload, boolean searchHeaders) {
+            this.searchText = searchText.toLowerCase(Locale.ENGLISH);
+            this.searchBytes = searchBytes;
+            this.searchAPDU = searchAPDU;
+            this.searchPayload = searchPayload;
+            this.searchHeaders = searchHeaders;
+            if(searchBytes) {
+                String hexDigits = searchText.replaceAll("[ \n\t\r:]+", "");
+                int numBytes = hexDigits.length() / 2;
+                payloadBytes = HexCodec.decode(hexDigits.substring(0, 2 * numBytes));
+                trailingNibble = hexDigits.length() % 2 != 0 ? Character.digit(hexDigits.charAt(hexDigits.length() - 1), 16) : -1;
+                if(hexDigits.length() % 2 != 0 && trailingNibble < 0) {
+                    throw new HexCodec.MalformedHexException("Invalid hex character", hexDigits.length() - 1);
+                }
+            }
+            else {
+                payloadBytes = null;
+                trailingNibble = -1;
+            }
+        }
+
+        /**
+         * Checks a payload found through the index against the query (the same way the
+         * Search tab matched the hex / ascii strings of the payload).
+         * @param payload
+         * @return boolean
+         */
+        public boolean payloadMatches(byte[] payload) {
+            if(searchBytes && payloadBytes.length == 0) {
+                for(int bi = 0; bi < payload.length; bi++) {
+                    if(((payload[bi] >>> 4) & 0x0f) == trailingNibble || (payload[bi] & 0x0f) == trailingNibble) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            int matchLength = searchBytes ? payloadBytes.length + (trailingNibble >= 0 ? 1 : 0) : searchText.length();
+            for(int start = 0; start + matchLength <= payload.length; start++) {
+                boolean matches = true;
+                for(int mi = 0; mi < matchLength && matches; mi++) {
+                    byte payloadByte = payload[start + mi];
+                    if(!searchBytes) {
+                        matches = Character.toLowerCase(Utils.byte2Ascii(payloadByte)) == searchText.charAt(mi);
+                    }
+                    else if(mi < payloadBytes.length) {
+                        matches = payloadByte == payloadBytes[mi];
+                    }
+                    else {
+                        matches = ((payloadByte >>> 4) & 0x0f) == trailingNibble;
+                    }
+                }
+                if(matches) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * Resolves the payload part of a query to candidate record ids, intersecting the
+     * bigram postings of the query bytes (ascii queries use the case variants of each letter).
+     */
+    int[] findPayloadCandidates(SearchQuery query) {
+        List<int[]> bytePositions = new ArrayList<int[]>();
+        if(query.searchBytes) {
+            for(int bi = 0; bi < query.payloadBytes.length; bi++) {
+                bytePositions.add(new int[] { query.payloadBytes[bi] & 0xff });
+            }
+        }
+        else {
+            for(int ci = 0; ci < query.searchText.length(); ci++) {
+                char ch = query.searchText.charAt(ci);
+                if(ch == '.') {
+                    bytePositions.add(null); // matches any non-printable byte
+                }
+                else if(ch < 32 || ch > 127) {
+                    return new int[0];
+                }
+                else if(Character.toUpperCase(ch) != ch && Character.toUpperCase(ch) < 128) {
+                    bytePositions.add(new int[] { ch, Character.toUpperCase(ch) });
+                }
+                else {
+                    bytePositions.add(new int[] { ch });
+                }
+            }
+        }
+        // copy the postings we need under the lock, then merge them without holding it:
+        List<int[][]> pairPostings = new ArrayList<int[][]>();
+        int[][] firstBytePostings = null;
+        int[] allIds = null;
+        synchronized(this) {
+            for(int pi = 0; pi + 1 < bytePositions.size(); pi++) {
+                int[] firstBytes = bytePositions.get(pi), secondBytes = bytePositions.get(pi + 1);
+                if(firstBytes == null || secondBytes == null) {
+                    continue;
+                }
+                int[][] pairIds = new int[firstBytes.length * secondBytes.length][];
+                for(int fi = 0; fi < firstBytes.length; fi++) {
+                    for(int si = 0; si < secondBytes.length; si++) {
+                        pairIds[fi * secondBytes.length + si] = getPostings(bigramPostings[(firstBytes[fi] << 8) | secondBytes[si]]);
+                    }
+                }
+                pairPostings.add(pairIds);
+            }
+            if(pairPostings.isEmpty() && bytePositions.size() >= 1 && bytePositions.get(0) != null) {
+                int[] firstBytes = bytePositions.get(0);
+                firstBytePostings = new int[firstBytes.length][];
+                for(int fi = 0; fi < firstBytes.length; fi++) {
+                    firstBytePostings[fi] = getPostings(bytePostings[firstBytes[fi]]);
+                }
+            }
+            else if(pairPostings.isEmpty()) {
+                allIds = allPostings.toArray();
+            }
+        }
+        if(allIds != null) {
+            return allIds;
+        }
+        else if(firstBytePostings != null) {
+            return unionPostings(firstBytePostings);
+        }
+        int[] candidateIds = null;
+        for(int[][] pairIds : pairPostings) {
+            int[] pairUnion = unionPostings(pairIds);
+            candidateIds = candidateIds == null ? pairUnion : intersectPostings(candidateIds, pairUnion);
+        }
+        return candidateIds;
+    }
+
+    /**
+     * Resolves the header / APDU parts of a query (which need no verification).
+     */
+    int[] findExactMatches(SearchQuery query) {
+        boolean[] matchingLogCodes = new boolean[256];
+        boolean[] matchingDirections = new boolean[3];
+        if(query.searchHeaders) {
+            for(int logCode = 0; logCode < 256; logCode++) {
+                String codeName = ChameleonLogUtils.LogCode.lookupByLogCode(logCode).name().toLowerCase(Locale.ENGLISH);
+                matchingLogCodes[logCode] = codeName.contains(query.searchText);
+            }
+            String[] directionNames = new String[3];
+            directionNames[ChameleonLogUtils.DATADIR_INCOMING] = "incoming";
+            directionNames[ChameleonLogUtils.DATADIR_OUTGOING] = "outgoing";
+            directionNames[ChameleonLogUtils.DATADIR_BIDIRECTIONAL] = "bidirectional";
+            for(int di = 0; di < directionNames.length; di++) {
+                matchingDirections[di] = directionNames[di].contains(query.searchText);
+            }
+        }
+        // copy the postings we need under the lock, then merge them without holding it:
+        List<int[]> exactPostings = new ArrayList<int[]>();
+        synchronized(this) {
+            for(int logCode = 0; logCode < 256; logCode++) {
+                if(matchingLogCodes[logCode] && logCodePostings[logCode] != null) {
+                    exactPostings.add(logCodePostings[logCode].toArray());
+                }
+            }
+            for(int di = 0; di < directionPostings.length; di++) {
+                if(matchingDirections[di] && directionPostings[di] != null) {
+                    exactPostings.add(directionPostings[di].toArray());
+                }
+            }
+            if(query.searchAPDU) {
+                for(Map.Entry<String, Postings> labelEntry : apduLabelPostings.entrySet()) {
+                    if(labelEntry.getKey().contains(query.searchText)) {
+                        exactPostings.add(labelEntry.getValue().toArray());
+                    }
+                }
+                if("apdu: none recognized".contains(query.searchText)) {
+                    exactPostings.add(unclassifiedApduPostings.toArray());
+                }
+            }
+        }
+        return unionPostings(exactPostings.toArray(new int[0][]));
+    }
+
+    /**
+     * Receives the results of a search on the main thread.
+     */
+    public interface SearchListener {
+        /**
+         * @param recordIds ids of the records matching the query
+         * @param verifyPayload record ids which are only payload candidates, to be checked
+         *                      with SearchQuery.payloadMatches (may be null)
+         * @return boolean whether to continue with the next page
+         */
+        boolean onResultPage(int[] recordIds, boolean[] verifyPayload);
+        void onSearchFinished(int numCandidates, boolean cancelled);
+    }
+
+    private static final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger searchGeneration = new AtomicInteger(0);
+
+    /**
+     * Cancels the search currently in progress (if any).
+     */
+    public void cancelSearch() {
+        searchGeneration.incrementAndGet();
+    }
+
+    /**
+     * Starts a new search (cancelling the one in progress). The listener is called on the
+     * main thread with one page of SEARCH_PAGE_SIZE record ids at a time.
+     * @param query
+     * @param listener
+     */
+    public void search(final SearchQuery query, final SearchListener listener) {
+        final int generation = searchGeneration.incrementAndGet();
+        searchExecutor.execute(new Runnable() {
+            public void run() {
+                if(generation != searchGeneration.get()) {
+                    return;
+                }
+                int[] exactIds = findExactMatches(query);
+                int[] payloadIds = query.searchPayload ? findPayloadCandidates(query) : new int[0];
+                final int[] resultIds = unionPostings(exactIds, payloadIds);
+                final boolean[] verifyPayload = new boolean[resultIds.length];
+                for(int ri = 0, ei = 0; ri < resultIds.length; ri++) {
+                    while(ei < exactIds.length && exactIds[ei] < resultIds[ri]) {
+                        ei++;
+                    }
+                    verifyPayload[ri] = ei >= exactIds.length || exactIds[ei] != resultIds[ri];
+                }
+                mainThreadHandler.post(new Runnable() {
+                    int pageStart = 0;
+                    public void run() {
+                        if(generation != searchGeneration.get()) {
+                            listener.onSearchFinished(resultIds.length, true);
+                            return;
+                        }
+                        int pageEnd = Math.min(pageStart + SEARCH_PAGE_SIZE, resultIds.length);
+                        int[] pageIds = new int[pageEnd - pageStart];
+                        boolean[] pageVerify = new boolean[pageEnd - pageStart];
+                        System.arraycopy(resultIds, pageStart, pageIds, 0, pageIds.length);
+                        System.arraycopy(verifyPayload, pageStart, pageVerify, 0, pageVerify.length);
+                        boolean continueSearch = pageIds.length > 0 && listener.onResultPage(pageIds, pageVerify);
+                        pageStart = pageEnd;
+                        if(continueSearch && pageStart < resultIds.length) {
+                            mainThreadHandler.post(this);
+                        }
+                        else {
+                            listener.onSearchFinished(resultIds.length, pageStart < resultIds.length);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+}
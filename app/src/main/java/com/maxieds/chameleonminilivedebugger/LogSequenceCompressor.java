@@ -0,0 +1,242 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Arrays;
+
+/**
+ * <h1>Log Sequence Compressor</h1>
+ * Streaming detector for repeating cycles of up to ChameleonLogUtils.CONFIG_FOLD_MAX_CYCLE_LENGTH
+ * LIVE log records, e.g., the REQA / ATQA / anticollision / SELECT loop of an idle reader.
+ * It keeps the hashes of the last 2N appended rows and, after each new row, checks whether the
+ * last n rows repeat the n rows before them (n = 1 ... N). Once a cycle is found, the incoming
+ * records that continue it are not added to the log store: they are counted in a single
+ * LogCycleRecord row instead. A record that breaks the cycle ends it, and the records of the
+ * partially folded pass are appended as ordinary rows before it. So are the records of a pass
+ * left incomplete for PENDING_RECORDS_IDLE_TIMEOUT (when the cycle stops with no record after it).
+ *
+ * @ref MainActivityLogUtils.appendOrCollapseNewLog
+ * @ref LogCycleRecord
+ */
+public class LogSequenceCompressor {
+
+    private static final String TAG = LogSequenceCompressor.class.getSimpleName();
+
+    public static final int MAX_CYCLE_LENGTH = 64;
+    public static final long PENDING_RECORDS_IDLE_TIMEOUT = 500;
+
+    /**
+     * Last rows appended to the store (oldest first), with the hashes and tick stamps of their
+     * records. The rows are always contiguous.
+     */
+    private final int[] historyRows = new int[2 * MAX_CYCLE_LENGTH];
+    private final int[] historyHashes = new int[2 * MAX_CYCLE_LENGTH];
+    private final int[] historyTicks = new int[2 * MAX_CYCLE_LENGTH];
+    private int historySize;
+
+    /**
+     * State of the active cycle (cycleLength == 0 when there is none).
+     */
+    private int cycleLength;
+    private int templateStartRow;
+    private int cyclePhase;
+    private int passStartTicks;
+    private LogCycleRecord cycleRecord;
+    private int cycleRow;
+
+    /**
+     * Copies of the folded records of the current (incomplete) pass.
+     */
+    private byte[] pendingData = new byte[1024];
+    private final int[] pendingLengths = new int[MAX_CYCLE_LENGTH];
+    private int pendingDataUsed;
+
+    private final Handler idleFlushHandler = new Handler(Looper.getMainLooper());
+    private final Runnable idleFlushRunnable = new Runnable() {
+        public void run() {
+            flushPendingRecords();
+        }
+    };
+
+    public LogSequenceCompressor() {
+        clear();
+    }
+
+    /**
+     * Forgets the history and the active cycle (without appending the pending records).
+     */
+    public void clear() {
+        historySize = 0;
+        cycleLength = 0;
+        cyclePhase = 0;
+        cycleRecord = null;
+        cycleRow = -1;
+        pendingDataUsed = 0;
+        idleFlushHandler.removeCallbacks(idleFlushRunnable);
+    }
+
+    private static int getRecordTicks(byte[] logBuf, int offset) {
+        return ((logBuf[offset + 2] & 0xff) << 8) | (logBuf[offset + 3] & 0xff);
+    }
+
+    /**
+     * Appends a LIVE log record to the store, or folds it into the active cycle.
+     * @param logDataStore
+     * @param logBuf native LIVE log record [code, len, tick_hi, tick_lo, payload]
+     * @param offset
+     * @param length
+     * @return int row of the new record or of the cycle it was folded into (-1 if invalid)
+     */
+    public int appendRecord(LogRecordStore logDataStore, byte[] logBuf, int offset, int length) {
+        if(cycleLength > 0) {
+            int lastCycleRow = cycleRecord != null ? cycleRow : templateStartRow + cycleLength - 1;
+            if(logDataStore.size() - 1 == lastCycleRow &&
+               logDataStore.recordEquals(templateStartRow + cyclePhase, logBuf, offset, length)) {
+                foldRecord(logDataStore, logBuf, offset, length);
+                return cycleRecord != null ? cycleRow : lastCycleRow;
+            }
+            flushPendingRecords();
+        }
+        int row = MainActivityLogUtils.appendNewLog(logBuf, offset, length);
+        if(row >= 0) {
+            addHistoryRow(row, LogCollapseIndex.hashRecord(logBuf, offset, length), getRecordTicks(logBuf, offset));
+            detectCycle(logDataStore);
+        }
+        return row;
+    }
+
+    /**
+     * Ends the active cycle: the records of its incomplete pass are appended to the store.
+     */
+    public void flushPendingRecords() {
+        idleFlushHandler.removeCallbacks(idleFlushRunnable);
+        if(cycleLength == 0) {
+            return;
+        }
+        cycleLength = 0;
+        if(cycleRecord != null && cycleRecord.getPartialLength() > 0) {
+            cycleRecord.setPartialLength(0);
+            MainActivityLogUtils.logDataFeed.notifyItemChanged(cycleRow);
+        }
+        cycleRecord = null;
+        int dataOffset = 0;
+        for(int pi = 0; pi < cyclePhase; pi++) {
+            int row = MainActivityLogUtils.appendNewLog(pendingData, dataOffset, pendingLengths[pi]);
+            if(row >= 0) {
+                addHistoryRow(row, LogCollapseIndex.hashRecord(pendingData, dataOffset, pendingLengths[pi]),
+                              getRecordTicks(pendingData, dataOffset));
+            }
+            dataOffset += pendingLengths[pi];
+        }
+        cyclePhase = 0;
+        pendingDataUsed = 0;
+    }
+
+    private void foldRecord(LogRecordStore logDataStore, byte[] logBuf, int offset, int length) {
+        if(cyclePhase == 0) {
+            pendingDataUsed = 0;
+        }
+        if(pendingDataUsed + length > pendingData.length) {
+            pendingData = Arrays.copyOf(pendingData, Math.max(2 * pendingData.length, pendingDataUsed + length));
+        }
+        System.arraycopy(logBuf, offset, pendingData, pendingDataUsed, length);
+        pendingDataUsed += length;
+        pendingLengths[cyclePhase++] = length;
+        idleFlushHandler.removeCallbacks(idleFlushRunnable);
+        if(cyclePhase < cycleLength) {
+            idleFlushHandler.postDelayed(idleFlushRunnable, PENDING_RECORDS_IDLE_TIMEOUT);
+            if(cycleRecord != null) {
+                cycleRecord.setPartialLength(cyclePhase);
+                MainActivityLogUtils.logDataFeed.notifyItemChanged(cycleRow);
+            }
+            return;
+        }
+        // a complete pass: count it in the cycle row (appended with the first folded pass):
+        int nextPassTicks = getRecordTicks(pendingData, 0);
+        int periodTicks = (nextPassTicks - passStartTicks) & 0xffff;
+        passStartTicks = nextPassTicks;
+        cyclePhase = 0;
+        pendingDataUsed = 0;
+        if(cycleRecord == null) {
+            cycleRecord = new LogCycleRecord(templateStartRow, cycleLength);
+            cycleRecord.addRepeat(periodTicks);
+            MainActivityLogUtils.appendNewLog(cycleRecord);
+            cycleRow = logDataStore.size() - 1;
+        }
+        else {
+            cycleRecord.addRepeat(periodTicks);
+            MainActivityLogUtils.logDataFeed.notifyItemChanged(cycleRow);
+        }
+    }
+
+    private void addHistoryRow(int row, int recordHash, int recordTicks) {
+        if(historySize > 0 && historyRows[historySize - 1] != row - 1) {
+            historySize = 0;
+        }
+        else if(historySize == historyRows.length) {
+            System.arraycopy(historyRows, 1, historyRows, 0, historySize - 1);
+            System.arraycopy(historyHashes, 1, historyHashes, 0, historySize - 1);
+            System.arraycopy(historyTicks, 1, historyTicks, 0, historySize - 1);
+            historySize--;
+        }
+        historyRows[historySize] = row;
+        historyHashes[historySize] = recordHash;
+        historyTicks[historySize] = recordTicks;
+        historySize++;
+    }
+
+    /**
+     * Looks for the shortest n such that the last n rows repeat the n rows before them.
+     * @param logDataStore
+     */
+    private void detectCycle(LogRecordStore logDataStore) {
+        int maxCycleLength = Math.min(Math.min(ChameleonLogUtils.CONFIG_FOLD_MAX_CYCLE_LENGTH, MAX_CYCLE_LENGTH), historySize / 2);
+        for(int n = 1; n <= maxCycleLength; n++) {
+            if(isRepeatedWindow(logDataStore, n)) {
+                cycleLength = n;
+                templateStartRow = historyRows[historySize - n];
+                passStartTicks = historyTicks[historySize - n];
+                cyclePhase = 0;
+                pendingDataUsed = 0;
+                cycleRecord = null;
+                cycleRow = -1;
+                return;
+            }
+        }
+    }
+
+    private boolean isRepeatedWindow(LogRecordStore logDataStore, int n) {
+        int windowStart = historySize - n;
+        for(int hi = windowStart; hi < historySize; hi++) {
+            if(historyHashes[hi] != historyHashes[hi - n]) {
+                return false;
+            }
+        }
+        for(int hi = windowStart; hi < historySize; hi++) {
+            int row = historyRows[hi], prevRow = historyRows[hi - n];
+            if(logDataStore.getLogCode(row) != logDataStore.getLogCode(prevRow) || !logDataStore.payloadEquals(row, prevRow)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
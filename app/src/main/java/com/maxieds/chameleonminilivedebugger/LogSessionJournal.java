@@ -0,0 +1,450 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <h1>Log Session Journal</h1>
+ * Append-only on-disk journal of the Log tab entries, written through memory-mapped files
+ * as the records arrive. The data file holds the LIVE log records in the native
+ * LOGDOWNLOAD format ([code, len, tick_hi, tick_lo, payload], the same format
+ * LogExporter.BinaryExportFormat emits), and the index file holds one fixed size entry per
+ * row of the Log tab:
+ * <pre>
+ *     int dataOffset      (offset of the record in the data file, or -1 - n for the n-th
+ *                          status / annotation record, which are not journaled)
+ *     int recordId
+ *     int tickDelta       (milliseconds since the previous record)
+ *     int flagsAndCount   (LogRecordStore.FLAG_* in the top byte, duplicate count below)
+ *     int highlightColor
+ * </pre>
+ * The index header stores the number of entries and the length of the data written so
+ * far. Both are updated in the mapping after every append, so the journal of a session
+ * survives the process being killed. recoverJournal trims such a data file back to a valid
+ * LOGDOWNLOAD binary. A journal that ends up without any LIVE log data is deleted when it is
+ * closed, and only the newest MAX_RETAINED_JOURNALS journals are kept in the directory.
+ *
+ * @ref LogRecordStore
+ * @ref ExternalFileIO.SAVED_LOGS_SUBDIR
+ * @url http://rawgit.com/emsec/ChameleonMini/master/Doc/Doxygen/html/Page_Log.html
+ */
+public class LogSessionJournal {
+
+    private static final String TAG = LogSessionJournal.class.getSimpleName();
+
+    public static final String JOURNAL_FILE_PREFIX = "session-";
+    public static final String JOURNAL_DATA_EXT = ".bin";
+    public static final String JOURNAL_INDEX_EXT = ".idx";
+    public static final int MAX_RETAINED_JOURNALS = 16;
+
+    private static final int INDEX_MAGIC = 0x434D4C4A; // "CMLJ"
+    private static final int INDEX_HEADER_SIZE = 16;
+    public static final int INDEX_ENTRY_SIZE = 20;
+    private static final int INDEX_CHUNK_ENTRIES = 65536;
+    private static final int INDEX_CHUNK_SIZE = INDEX_ENTRY_SIZE * INDEX_CHUNK_ENTRIES;
+    private static final int DATA_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static final int ENTRY_DATA_OFFSET = 0;
+    private static final int ENTRY_RECORD_ID = 4;
+    private static final int ENTRY_TICK_DELTA = 8;
+    private static final int ENTRY_FLAGS_COUNT = 12;
+    private static final int ENTRY_HIGHLIGHT_COLOR = 16;
+    private static final int DUPLICATE_COUNT_MASK = 0x00ffffff;
+
+    private File dataFile, indexFile;
+    private RandomAccessFile dataRAF, indexRAF;
+    private FileChannel dataChannel, indexChannel;
+    private MappedByteBuffer indexHeader;
+    private List<MappedByteBuffer> dataChunks = new ArrayList<MappedByteBuffer>();
+    private List<MappedByteBuffer> indexChunks = new ArrayList<MappedByteBuffer>();
+    private int dataLength;
+    private int numEntries;
+    private boolean isOpen;
+
+    private LogSessionJournal() {}
+
+    /**
+     * Creates the journal files for a new session.
+     * @param journalDir
+     * @return LogSessionJournal the open journal
+     * @throws IOException
+     */
+    public static LogSessionJournal createJournal(File journalDir) throws IOException {
+        if(!journalDir.exists() && !journalDir.mkdirs()) {
+            throw new IOException("Unable to create the journal directory " + journalDir.getAbsolutePath());
+        }
+        pruneJournals(journalDir, MAX_RETAINED_JOURNALS - 1);
+        String sessionName = JOURNAL_FILE_PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.ENGLISH).format(new Date());
+        LogSessionJournal journal = new LogSessionJournal();
+        // reserve a name that no earlier session uses (sessions can start within the same millisecond):
+        for(int suffix = 0; ; suffix++) {
+            String uniqueName = suffix == 0 ? sessionName : String.format(Locale.ENGLISH, "%s-%d", sessionName, suffix);
+            journal.indexFile = new File(journalDir, uniqueName + JOURNAL_INDEX_EXT);
+            journal.dataFile = new File(journalDir, uniqueName + JOURNAL_DATA_EXT);
+            if(!journal.dataFile.exists() && journal.indexFile.createNewFile()) {
+                break;
+            }
+        }
+        journal.dataRAF = new RandomAccessFile(journal.dataFile, "rw");
+        journal.indexRAF = new RandomAccessFile(journal.indexFile, "rw");
+        journal.dataRAF.setLength(0);
+        journal.indexRAF.setLength(0);
+        journal.dataChannel = journal.dataRAF.getChannel();
+        journal.indexChannel = journal.indexRAF.getChannel();
+        journal.indexHeader = journal.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER_SIZE);
+        journal.indexHeader.putInt(0, INDEX_MAGIC);
+        journal.dataLength = 0;
+        journal.numEntries = 0;
+        journal.writeHeader();
+        journal.isOpen = true;
+        return journal;
+    }
+
+    /**
+     * Deletes the oldest journals in the directory until at most maxJournals are left.
+     * @param journalDir
+     * @param maxJournals
+     * @return int number of journals deleted
+     */
+    public static int pruneJournals(File journalDir, int maxJournals) {
+        File[] indexFiles = journalDir.listFiles();
+        if(indexFiles == null) {
+            return 0;
+        }
+        List<File> journalIndexFiles = new ArrayList<File>();
+        for(File indexFile : indexFiles) {
+            String fileName = indexFile.getName();
+            if(fileName.startsWith(JOURNAL_FILE_PREFIX) && fileName.endsWith(JOURNAL_INDEX_EXT)) {
+                journalIndexFiles.add(indexFile);
+            }
+        }
+        File[] sortedIndexFiles = journalIndexFiles.toArray(new File[0]);
+        Arrays.sort(sortedIndexFiles, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                int timeOrder = Long.compare(f1.lastModified(), f2.lastModified());
+                return timeOrder != 0 ? timeOrder : f1.getName().compareTo(f2.getName());
+            }
+        });
+        int deleteCount = Math.max(0, sortedIndexFiles.length - Math.max(0, maxJournals));
+        for(int fi = 0; fi < deleteCount; fi++) {
+            deleteJournalFiles(sortedIndexFiles[fi]);
+        }
+        return deleteCount;
+    }
+
+    private static File getDataFileForIndex(File indexFile) {
+        String indexPath = indexFile.getAbsolutePath();
+        return new File(indexPath.substring(0, indexPath.length() - JOURNAL_INDEX_EXT.length()) + JOURNAL_DATA_EXT);
+    }
+
+    private static void deleteJournalFiles(File indexFile) {
+        File dataFile = getDataFileForIndex(indexFile);
+        if((dataFile.exists() && !dataFile.delete()) || !indexFile.delete()) {
+            Log.w(TAG, "Unable to delete the session journal " + indexFile.getName());
+        }
+    }
+
+    /**
+     * @return File the default journal directory (under ExternalFileIO.SAVED_LOGS_SUBDIR)
+     */
+    public static File getJournalDirectory() {
+        return new File(ExternalFileIO.CHAMELEON_BASE_DIRECTORY + ExternalFileIO.SAVED_LOGS_SUBDIR);
+    }
+
+    /**
+     * Trims the data file of a journal whose session was not closed cleanly (e.g., the app
+     * was killed) to the length recorded in its index, so it is a valid LOGDOWNLOAD binary.
+     * A journal without any LIVE log data is deleted instead.
+     * @param indexFile
+     * @return boolean whether the journal was recovered
+     */
+    public static boolean recoverJournal(File indexFile) {
+        File dataFile = getDataFileForIndex(indexFile);
+        if(!dataFile.exists()) {
+            return false;
+        }
+        try {
+            RandomAccessFile idxRAF = new RandomAccessFile(indexFile, "r");
+            int magic = idxRAF.readInt();
+            idxRAF.readInt();
+            int recordedDataLength = idxRAF.readInt();
+            idxRAF.close();
+            if(magic != INDEX_MAGIC || recordedDataLength < 0) {
+                return false;
+            }
+            else if(recordedDataLength == 0) {
+                deleteJournalFiles(indexFile);
+                return false;
+            }
+            RandomAccessFile dataRAF = new RandomAccessFile(dataFile, "rw");
+            if(dataRAF.length() > recordedDataLength) {
+                dataRAF.setLength(recordedDataLength);
+            }
+            dataRAF.close();
+            return true;
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Recovers all of the session journals left behind in the journal directory.
+     * @param journalDir
+     * @return int number of journals recovered
+     */
+    public static int recoverAllJournals(File journalDir) {
+        File[] journalFiles = journalDir.listFiles();
+        int recoveredCount = 0;
+        if(journalFiles == null) {
+            return 0;
+        }
+        for(int fi = 0; fi < journalFiles.length; fi++) {
+            String fileName = journalFiles[fi].getName();
+            if(fileName.startsWith(JOURNAL_FILE_PREFIX) && fileName.endsWith(JOURNAL_INDEX_EXT) &&
+               recoverJournal(journalFiles[fi])) {
+                recoveredCount++;
+            }
+        }
+        return recoveredCount;
+    }
+
+    public boolean isOpen() {
+        return isOpen;
+    }
+
+    public File getDataFile() {
+        return dataFile;
+    }
+
+    public int getEntryCount() {
+        return numEntries;
+    }
+
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    private void writeHeader() {
+        indexHeader.putInt(4, numEntries);
+        indexHeader.putInt(8, dataLength);
+    }
+
+    private MappedByteBuffer getDataChunk(int chunkIdx) throws IOException {
+        while(dataChunks.size() <= chunkIdx) {
+            long chunkStart = (long) dataChunks.size() * DATA_CHUNK_SIZE;
+            dataChunks.add(dataChannel.map(FileChannel.MapMode.READ_WRITE, chunkStart, DATA_CHUNK_SIZE));
+        }
+        return dataChunks.get(chunkIdx);
+    }
+
+    private MappedByteBuffer getIndexChunk(int chunkIdx) throws IOException {
+        while(indexChunks.size() <= chunkIdx) {
+            long chunkStart = INDEX_HEADER_SIZE + (long) indexChunks.size() * INDEX_CHUNK_SIZE;
+            indexChunks.add(indexChannel.map(FileChannel.MapMode.READ_WRITE, chunkStart, INDEX_CHUNK_SIZE));
+        }
+        return indexChunks.get(chunkIdx);
+    }
+
+    /**
+     * Appends a native LIVE log record to the data file.
+     * @param logBuf
+     * @param offset
+     * @param length
+     * @return int offset of the record in the data file
+     * @throws IOException
+     */
+    public int appendRecord(byte[] logBuf, int offset, int length) throws IOException {
+        int recordOffset = dataLength;
+        int writePos = dataLength;
+        while(length > 0) {
+            MappedByteBuffer dataChunk = getDataChunk(writePos / DATA_CHUNK_SIZE);
+            int chunkPos = writePos % DATA_CHUNK_SIZE;
+            int writeCount = Math.min(length, DATA_CHUNK_SIZE - chunkPos);
+            dataChunk.position(chunkPos);
+            dataChunk.put(logBuf, offset, writeCount);
+            offset += writeCount;
+            length -= writeCount;
+            writePos += writeCount;
+        }
+        dataLength = writePos;
+        writeHeader();
+        return recordOffset;
+    }
+
+    /**
+     * Reads back a LIVE log record from the data file.
+     * @param dataOffset
+     * @return byte[] the native record bytes
+     * @throws IOException
+     */
+    public byte[] readRecord(int dataOffset) throws IOException {
+        byte[] headerBytes = new byte[4];
+        readData(dataOffset, headerBytes, 0, 4);
+        int payloadLength = headerBytes[1] & 0xff;
+        byte[] recordBytes = new byte[4 + payloadLength];
+        System.arraycopy(headerBytes, 0, recordBytes, 0, 4);
+        readData(dataOffset + 4, recordBytes, 4, payloadLength);
+        return recordBytes;
+    }
+
+    private void readData(int readPos, byte[] destBuf, int offset, int length) throws IOException {
+        while(length > 0) {
+            MappedByteBuffer dataChunk = getDataChunk(readPos / DATA_CHUNK_SIZE);
+            int chunkPos = readPos % DATA_CHUNK_SIZE;
+            int readCount = Math.min(length, DATA_CHUNK_SIZE - chunkPos);
+            dataChunk.position(chunkPos);
+            dataChunk.get(destBuf, offset, readCount);
+            offset += readCount;
+            length -= readCount;
+            readPos += readCount;
+        }
+    }
+
+    /**
+     * Appends an index entry for the next row of the Log tab.
+     * @return int the journal row of the entry
+     * @throws IOException
+     */
+    public int appendEntry(int dataOffset, int recordId, int tickDelta, int flags, int duplicateCount,
+                           int highlightColor) throws IOException {
+        int row = numEntries;
+        writeEntry(row, dataOffset, recordId, tickDelta, flags, duplicateCount, highlightColor);
+        numEntries++;
+        writeHeader();
+        return row;
+    }
+
+    private void writeEntry(int row, int dataOffset, int recordId, int tickDelta, int flags,
+                            int duplicateCount, int highlightColor) throws IOException {
+        MappedByteBuffer indexChunk = getIndexChunk(row / INDEX_CHUNK_ENTRIES);
+        int entryPos = (row % INDEX_CHUNK_ENTRIES) * INDEX_ENTRY_SIZE;
+        indexChunk.putInt(entryPos + ENTRY_DATA_OFFSET, dataOffset);
+        indexChunk.putInt(entryPos + ENTRY_RECORD_ID, recordId);
+        indexChunk.putInt(entryPos + ENTRY_TICK_DELTA, tickDelta);
+        indexChunk.putInt(entryPos + ENTRY_FLAGS_COUNT, ((flags & 0xff) << 24) | (duplicateCount & DUPLICATE_COUNT_MASK));
+        indexChunk.putInt(entryPos + ENTRY_HIGHLIGHT_COLOR, highlightColor);
+    }
+
+    private int getEntryField(int row, int fieldOffset) {
+        try {
+            MappedByteBuffer indexChunk = getIndexChunk(row / INDEX_CHUNK_ENTRIES);
+            return indexChunk.getInt((row % INDEX_CHUNK_ENTRIES) * INDEX_ENTRY_SIZE + fieldOffset);
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            return 0;
+        }
+    }
+
+    private void setEntryField(int row, int fieldOffset, int fieldValue) {
+        try {
+            MappedByteBuffer indexChunk = getIndexChunk(row / INDEX_CHUNK_ENTRIES);
+            indexChunk.putInt((row % INDEX_CHUNK_ENTRIES) * INDEX_ENTRY_SIZE + fieldOffset, fieldValue);
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    public int getDataOffset(int row) {
+        return getEntryField(row, ENTRY_DATA_OFFSET);
+    }
+
+    public int getRecordId(int row) {
+        return getEntryField(row, ENTRY_RECORD_ID);
+    }
+
+    public int getTickDelta(int row) {
+        return getEntryField(row, ENTRY_TICK_DELTA);
+    }
+
+    public void setTickDelta(int row, int tickDelta) {
+        setEntryField(row, ENTRY_TICK_DELTA, tickDelta);
+    }
+
+    public int getFlags(int row) {
+        return (getEntryField(row, ENTRY_FLAGS_COUNT) >>> 24) & 0xff;
+    }
+
+    public int getDuplicateCount(int row) {
+        return getEntryField(row, ENTRY_FLAGS_COUNT) & DUPLICATE_COUNT_MASK;
+    }
+
+    public void setFlagsAndCount(int row, int flags, int duplicateCount) {
+        setEntryField(row, ENTRY_FLAGS_COUNT, ((flags & 0xff) << 24) | (duplicateCount & DUPLICATE_COUNT_MASK));
+    }
+
+    public int getHighlightColor(int row) {
+        return getEntryField(row, ENTRY_HIGHLIGHT_COLOR);
+    }
+
+    public void setHighlightColor(int row, int highlightColor) {
+        setEntryField(row, ENTRY_HIGHLIGHT_COLOR, highlightColor);
+    }
+
+    /**
+     * Flushes the mappings and trims the files to the data actually written. A journal
+     * without any LIVE log data is deleted.
+     */
+    public void close() {
+        if(!isOpen) {
+            return;
+        }
+        isOpen = false;
+        try {
+            for(MappedByteBuffer dataChunk : dataChunks) {
+                dataChunk.force();
+            }
+            for(MappedByteBuffer indexChunk : indexChunks) {
+                indexChunk.force();
+            }
+            indexHeader.force();
+            dataChunks.clear();
+            indexChunks.clear();
+            dataChannel.truncate(dataLength);
+            indexChannel.truncate(INDEX_HEADER_SIZE + (long) numEntries * INDEX_ENTRY_SIZE);
+            dataChannel.close();
+            indexChannel.close();
+            dataRAF.close();
+            indexRAF.close();
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+        }
+        if(dataLength == 0) {
+            deleteJournalFiles(indexFile);
+            Log.i(TAG, "Deleted the empty session journal " + dataFile.getName());
+            return;
+        }
+        Log.i(TAG, String.format(Locale.ENGLISH, "Closed session journal %s (%d entries, %d bytes)",
+                dataFile.getName(), numEntries, dataLength));
+    }
+
+}
@@ -20,14 +20,12 @@ package com.maxieds.chameleonminilivedebugger;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.graphics.Color;
-import android.graphics.drawable.Drawable;
 import android.util.Log;
 import android.view.View;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.EditText;
-import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.RadioButton;
 import android.widget.ScrollView;
@@ -35,12 +33,12 @@ import android.widget.TextView;
 
 import androidx.appcompat.app.AlertDialog;
 import androidx.lifecycle.LiveData;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.tabs.TabLayout;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.io.IOException;
 import java.util.Locale;
 
 import static com.maxieds.chameleonminilivedebugger.TabFragment.TAB_LOG;
@@ -49,60 +47,191 @@ public class MainActivityLogUtils {
 
     private static final String TAG = MainActivityLogUtils.class.getSimpleName();
 
-    public static LinearLayout logDataFeed;
-    public static List<LogEntryBase> logDataEntries = new ArrayList<LogEntryBase>();
-    public static boolean logDataFeedConfigured = false;
-    public static ScrollView logScrollView;
+    public static LogRecordStore logDataStore = new LogRecordStore();
+    public static LogFeedAdapter logDataFeed = new LogFeedAdapter(logDataStore);
+    public static RecyclerView logRecyclerView;
+    public static LogSearchIndex logSearchIndex = new LogSearchIndex();
+    public static LogCollapseIndex logCollapseIndex = new LogCollapseIndex();
+    public static LogSequenceCompressor logSequenceCompressor = new LogSequenceCompressor();
+    public static LogPcapngWriter livePcapngCapture = null;
     public static int RECORDID = 0;
 
     /**
-     * Appends a new log to the logging interface tab.
+     * Attaches the (persistent) log feed to the RecyclerView in a newly created Log tab.
+     * @param recyclerView
+     * @see res/layout/log_tab_logs.xml
+     */
+    public static void configureLogDataFeed(RecyclerView recyclerView) {
+        LinearLayoutManager feedLayoutManager = new LinearLayoutManager(recyclerView.getContext());
+        recyclerView.setLayoutManager(feedLayoutManager);
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setItemAnimator(null);
+        recyclerView.setAdapter(logDataFeed);
+        logRecyclerView = recyclerView;
+        if(logDataStore.size() > 0) {
+            recyclerView.scrollToPosition(logDataStore.size() - 1);
+        }
+    }
+
+    /**
+     * Appends a new status / annotation record to the logging interface tab.
      * @param logEntry
-     * @see LogEntryUI
      * @see LogEntryMetadataRecord
      */
-    public static void appendNewLog(LogEntryBase logEntry) {
-        if(LiveLoggerActivity.getInstance().getSelectedTab() != TAB_LOG && LiveLoggerActivity.getInstance() != null) {
-            if(logEntry instanceof LogEntryUI)
+    public static void appendNewLog(LogEntryMetadataRecord logEntry) {
+        if(logEntry == null) {
+            return;
+        }
+        int row = logDataStore.appendMetadataRecord(logEntry);
+        // folded cycles stand in for LIVE log records, so they should not pull the UI over to the log tab:
+        notifyNewLogAppended(row, !(logEntry instanceof LogCycleRecord));
+    }
+
+    /**
+     * Appends a new LIVE log record to the logging interface tab (the record bytes are
+     * copied into the log store, so the buffer may be reused by the caller).
+     * @param logBuf native LIVE log record [code, len, tick_hi, tick_lo, payload]
+     * @param offset
+     * @param length
+     * @param highlightColor background color for the row, or 0 for the default color
+     * @return int row of the new record in MainActivityLogUtils.logDataStore (-1 if invalid)
+     * @see LogEntryUI
+     */
+    public static int appendNewLog(byte[] logBuf, int offset, int length, int highlightColor) {
+        int row = logDataStore.appendLogRecord(RECORDID + 1, logBuf, offset, length);
+        if(row < 0) {
+            Log.w(TAG, "Invalid log tag data sent.");
+            return row;
+        }
+        RECORDID++;
+        logDataStore.setHighlightColor(row, highlightColor);
+        logSearchIndex.indexRecord(RECORDID, row, logBuf, offset, length);
+        logSearchIndex.pruneEvictedRecords(logDataStore.getFirstResidentRow());
+        logCollapseIndex.addRecord(logDataStore, row, logBuf, offset, length);
+        notifyNewLogAppended(row, false);
+        return row;
+    }
+
+    public static int appendNewLog(byte[] logBuf, int offset, int length) {
+        return appendNewLog(logBuf, offset, length, 0);
+    }
+
+    private static void notifyNewLogAppended(int row, boolean isMetadataRecord) {
+        if(LiveLoggerActivity.getInstance() != null && LiveLoggerActivity.getInstance().getSelectedTab() != TAB_LOG) {
+            if(!isMetadataRecord)
                 LiveLoggerActivity.getInstance().setStatusIcon(R.id.statusIconNewXFer, R.drawable.statusxfer16);
             else
                 LiveLoggerActivity.getInstance().setStatusIcon(R.id.statusIconNewMsg, R.drawable.statusnewmsg16);
         }
-        if(logDataFeed != null && logDataEntries != null) {
-            logDataFeed.addView(logEntry.getLayoutContainer());
-            logDataEntries.add(logEntry);
-        }
+        // keep following the end of the feed unless the user has scrolled back through the logs:
+        boolean followFeed = logRecyclerView == null || !logRecyclerView.canScrollVertically(1);
+        logDataFeed.notifyItemInserted(row);
         if(LiveLoggerActivity.getInstance() == null) {
             return;
         }
-        if(logEntry instanceof LogEntryMetadataRecord) { // switch to the log tab to display the results:
+        if(isMetadataRecord) { // switch to the log tab to display the results:
             TabLayout tabLayout = (TabLayout) LiveLoggerActivity.getInstance().findViewById(R.id.tab_layout);
             if(tabLayout != null) {
                 tabLayout.getTabAt(TAB_LOG).select();
             }
-            if(logScrollView != null) {
-                logScrollView.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        ScrollView logScroller = (ScrollView) LiveLoggerActivity.getInstance().findViewById(R.id.log_scroll_view);
-                        if(logScroller == null) {
-                            return;
-                        }
-                        LinearLayout lastLogElt = (LinearLayout) logDataFeed.getChildAt(logDataFeed.getChildCount() - 1);
-                        lastLogElt.measure(View.MeasureSpec.UNSPECIFIED, View.MeasureSpec.UNSPECIFIED);
-                        int bottomEltHeight = lastLogElt.getMeasuredHeight();
-                        logScroller.scrollTo(0, logScroller.getBottom() + bottomEltHeight);
-                    }
-                }, 100);
+            followFeed = true;
+        }
+        if(followFeed && logRecyclerView != null) {
+            logRecyclerView.scrollToPosition(logDataStore.size() - 1);
+        }
+    }
+
+    /**
+     * Appends a LIVE log record, or (with ChameleonLogUtils.CONFIG_COLLAPSE_COMMON_LOG_ENTRIES
+     * enabled) counts it as a duplicate of an earlier record with the same log code and payload.
+     * Otherwise, with ChameleonLogUtils.CONFIG_FOLD_REPEATED_CYCLES enabled, records that repeat
+     * a cycle of the last few records are folded into a single cycle row. Every record is
+     * streamed to the live PCAPNG capture (if one is open) before it is collapsed.
+     * @param logBuf native LIVE log record [code, len, tick_hi, tick_lo, payload]
+     * @param offset
+     * @param length
+     * @return int row of the new or updated record (-1 if invalid)
+     * @ref LogCollapseIndex
+     * @ref LogSequenceCompressor
+     */
+    public static int appendOrCollapseNewLog(byte[] logBuf, int offset, int length) {
+        if(livePcapngCapture != null && !livePcapngCapture.appendLiveRecord(logBuf, offset, length)) {
+            stopLivePcapngCapture();
+        }
+        if(ChameleonLogUtils.CONFIG_COLLAPSE_COMMON_LOG_ENTRIES) {
+            int row = logCollapseIndex.findDuplicate(logDataStore, logBuf, offset, length);
+            if(row >= 0) {
+                logDataStore.appendDuplicate(row, logBuf[offset + 2], logBuf[offset + 3]);
+                logDataFeed.notifyItemChanged(row);
+                return row;
             }
         }
+        else if(ChameleonLogUtils.CONFIG_FOLD_REPEATED_CYCLES) {
+            return logSequenceCompressor.appendRecord(logDataStore, logBuf, offset, length);
+        }
+        logSequenceCompressor.flushPendingRecords();
+        return appendNewLog(logBuf, offset, length);
     }
 
     public static void clearAllLogs() {
         if (RECORDID > 0) {
-            logDataEntries.clear();
+            startNewLogSession();
             RECORDID = 0;
-            logDataFeed.removeAllViewsInLayout();
+            logDataFeed.notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Empties the log store and (if enabled) has the new session written to a fresh on-disk
+     * journal, which is created once the first record arrives. The journal of the previous
+     * session is closed and left behind in the saved logs directory as a LOGDOWNLOAD binary
+     * (or deleted if it holds no LIVE log data).
+     * @ref ChameleonLogUtils.CONFIG_ENABLE_SESSION_JOURNAL
+     * @ref ChameleonLogUtils.CONFIG_STREAM_PCAPNG_CAPTURE
+     */
+    public static void startNewLogSession() {
+        LogExporter.cancelExport();
+        LogSessionJournal prevJournal = logDataStore.clear();
+        if(prevJournal != null) {
+            prevJournal.close();
+        }
+        EntropyEstimator.resetRollingEntropy();
+        LogEntryRenderCache.clear();
+        logSearchIndex.clear();
+        logCollapseIndex.clear();
+        logSequenceCompressor.clear();
+        stopLivePcapngCapture();
+        if(ChameleonLogUtils.CONFIG_STREAM_PCAPNG_CAPTURE) {
+            startLivePcapngCapture();
+        }
+        if(!ChameleonLogUtils.CONFIG_ENABLE_SESSION_JOURNAL) {
+            return;
+        }
+        logDataStore.setJournalDirectory(LogSessionJournal.getJournalDirectory());
+    }
+
+    /**
+     * Starts streaming the LIVE log records of the session to a new PCAPNG capture in the
+     * saved logs directory (replacing the current capture, if any).
+     * @ref LogPcapngWriter
+     */
+    public static void startLivePcapngCapture() {
+        stopLivePcapngCapture();
+        try {
+            livePcapngCapture = LogPcapngWriter.createLiveCapture(LogSessionJournal.getJournalDirectory());
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", "Unable to create the live PCAPNG capture: " + ioe.getMessage()));
+        }
+    }
+
+    public static void stopLivePcapngCapture() {
+        LogPcapngWriter pcapWriter = livePcapngCapture;
+        livePcapngCapture = null;
+        if(pcapWriter != null) {
+            pcapWriter.close();
+            Log.i(TAG, String.format(Locale.ENGLISH, "Closed live capture %s (%d records)",
+                    pcapWriter.getLiveCaptureFile().getName(), pcapWriter.getLiveRecordCount()));
         }
     }
 
@@ -114,27 +243,25 @@ public class MainActivityLogUtils {
     public static void collapseSimilarLogs() {
         if(RECORDID == 0)
             return;
-        byte[] curBits = null;
+        int curRow = -1;
         boolean newBits = true;
-        for(int v = 0; v < logDataEntries.size(); v++) {
-            LogEntryBase lde = logDataEntries.get(v);
-            if(lde instanceof LogEntryMetadataRecord) {
+        for(int row = 0; row < logDataStore.size(); row++) {
+            if(logDataStore.isMetadataRecord(row)) {
                 newBits = true;
                 continue;
             }
-            else if(lde instanceof LogEntryUI && newBits) {
-                byte[] nextDataPattern = ((LogEntryUI) lde).getEntryData();
-                curBits = new byte[nextDataPattern.length];
-                System.arraycopy(nextDataPattern, 0, curBits, 0, nextDataPattern.length);
+            else if(newBits) {
+                curRow = row;
                 newBits = false;
             }
-            else if(Arrays.equals(curBits, ((LogEntryUI) lde).getEntryData())) {
-                logDataFeed.getChildAt(v).setVisibility(LinearLayout.GONE);
+            else if(logDataStore.payloadEquals(row, curRow)) {
+                logDataStore.setHidden(row, true);
             }
             else {
                 newBits = true;
             }
         }
+        logDataFeed.notifyDataSetChanged();
     }
 
     /**
@@ -142,26 +269,21 @@ public class MainActivityLogUtils {
      * @param highlightColor
      */
     public static void selectedHighlightedLogs(int highlightColor) {
-        for (int vi = 0; vi < logDataFeed.getChildCount(); vi++) {
-            View logEntryView = logDataFeed.getChildAt(vi);
-            if (logDataEntries.get(vi) instanceof LogEntryUI) {
-                boolean isChecked = ((CheckBox) logEntryView.findViewById(R.id.entrySelect)).isChecked();
-                if (isChecked)
-                    logEntryView.setBackgroundColor(highlightColor);
-            }
+        for (int row = 0; row < logDataStore.size(); row++) {
+            if (!logDataStore.isMetadataRecord(row) && logDataStore.isSelected(row))
+                logDataStore.setHighlightColor(row, highlightColor);
         }
+        logDataFeed.notifyDataSetChanged();
     }
 
     /**
      * Unchecks all of the selected logs in the Log tab.
      */
     public static void uncheckAllLogs() {
-        for (int vi = 0; vi < logDataFeed.getChildCount(); vi++) {
-            View logEntryView = logDataFeed.getChildAt(vi);
-            if (logDataEntries.get(vi) instanceof LogEntryUI) {
-                ((CheckBox) logEntryView.findViewById(R.id.entrySelect)).setChecked(false);
-            }
+        for (int row = 0; row < logDataStore.size(); row++) {
+            logDataStore.setSelected(row, false);
         }
+        logDataFeed.notifyDataSetChanged();
     }
 
     /**
@@ -171,21 +293,17 @@ public class MainActivityLogUtils {
      * @param directionFlag
      */
     public static void setSelectedXFerOnLogs(int directionFlag) {
-        Drawable dirArrowIcon = LiveLoggerActivity.getInstance().getResources().getDrawable(R.drawable.xfer16);
+        int xferMarker = LogRecordStore.XFER_MARKER_BIDIRECTIONAL;
         if(directionFlag == 1)
-            dirArrowIcon = LiveLoggerActivity.getInstance().getResources().getDrawable(R.drawable.incoming16v2);
+            xferMarker = LogRecordStore.XFER_MARKER_INCOMING;
         else if(directionFlag == 2)
-            dirArrowIcon = LiveLoggerActivity.getInstance().getResources().getDrawable(R.drawable.outgoing16v2);
-        for (int vi = 0; vi < logDataFeed.getChildCount(); vi++) {
-            View logEntryView = logDataFeed.getChildAt(vi);
-            if (logDataEntries.get(vi) instanceof LogEntryUI) {
-                boolean isChecked = ((CheckBox) logEntryView.findViewById(R.id.entrySelect)).isChecked();
-                if (isChecked) {
-                    ImageView xferMarker = (ImageView) logEntryView.findViewById(R.id.inputDirIndicatorImg);
-                    xferMarker.setImageDrawable(dirArrowIcon);
-                }
+            xferMarker = LogRecordStore.XFER_MARKER_OUTGOING;
+        for (int row = 0; row < logDataStore.size(); row++) {
+            if (!logDataStore.isMetadataRecord(row) && logDataStore.isSelected(row)) {
+                logDataStore.setXFerMarker(row, xferMarker);
             }
         }
+        logDataFeed.notifyDataSetChanged();
     }
 
     /**
@@ -193,23 +311,22 @@ public class MainActivityLogUtils {
      * @param actionFlag
      */
     public static void processBatchOfSelectedLogs(String actionFlag) {
-        for (int vi = 0; vi < logDataFeed.getChildCount(); vi++) {
-            View logEntryView = logDataFeed.getChildAt(vi);
-            if (logDataEntries.get(vi) instanceof LogEntryUI) {
-                boolean isChecked = ((CheckBox) logEntryView.findViewById(R.id.entrySelect)).isChecked();
-                int recordIdx = ((LogEntryUI) logDataEntries.get(vi)).getRecordIndex();
-                if (isChecked && actionFlag.equals("SEND")) {
-                    String byteString = ((LogEntryUI) logDataEntries.get(vi)).getPayloadData();
+        for (int vi = 0; vi < logDataStore.size(); vi++) {
+            if (!logDataStore.isMetadataRecord(vi) && logDataStore.isSelected(vi)) {
+                LogEntryUI logEntry = (LogEntryUI) logDataStore.getEntry(vi);
+                int recordIdx = logEntry.getRecordIndex();
+                if (actionFlag.equals("SEND")) {
+                    String byteString = logEntry.getPayloadData();
                     appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("CARD INFO", "Sending: " + byteString + "..."));
                     ChameleonIO.executeChameleonMiniCommand("SEND " + byteString, ChameleonIO.TIMEOUT);
                 }
-                else if(isChecked && actionFlag.equals("SEND_RAW")) {
-                    String byteString = ((LogEntryUI) logDataEntries.get(vi)).getPayloadData();
+                else if(actionFlag.equals("SEND_RAW")) {
+                    String byteString = logEntry.getPayloadData();
                     appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("CARD INFO", "Sending: " + byteString + "..."));
                     ChameleonIO.executeChameleonMiniCommand("SEND_RAW " + byteString, ChameleonIO.TIMEOUT);
                 }
-                else if(isChecked && actionFlag.equals("CLONE_UID")) {
-                    String uid = ((LogEntryUI) logDataEntries.get(vi)).getPayloadData();
+                else if(actionFlag.equals("CLONE_UID")) {
+                    String uid = logEntry.getPayloadData();
                     if(uid.length() != 2 * ChameleonIO.deviceStatus.UIDSIZE) {
                         appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", String.format("Number of bytes for record #%d != the required %d bytes!", recordIdx, ChameleonIO.deviceStatus.UIDSIZE)));
                     }
@@ -217,12 +334,13 @@ public class MainActivityLogUtils {
                         ChameleonIO.executeChameleonMiniCommand("UID=" + uid, ChameleonIO.TIMEOUT);
                     }
                 }
-                else if(isChecked && actionFlag.equals("PRINT")) {
-                    byte[] rawBytes = ((LogEntryUI) logDataEntries.get(vi)).getEntryData();
+                else if(actionFlag.equals("PRINT")) {
+                    byte[] rawBytes = logEntry.getEntryData();
                     appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("PRINT", Utils.bytes2Hex(rawBytes) + "\n------\n" + Utils.bytes2Ascii(rawBytes)));
                 }
-                else if(isChecked && actionFlag.equals("HIDE")) {
-                    logEntryView.setVisibility(View.GONE);
+                else if(actionFlag.equals("HIDE")) {
+                    logDataStore.setHidden(vi, true);
+                    logDataFeed.notifyItemChanged(vi);
                 }
             }
         }
@@ -261,16 +379,28 @@ public class MainActivityLogUtils {
                 .show();
     }
 
+    /**
+     * At most this many matching records are added to the search results.
+     */
+    public static final int MAX_SEARCH_RESULTS = 500;
+
+    /**
+     * Searches the logs through MainActivityLogUtils.logSearchIndex. The matching records are
+     * added to the Search tab page by page as the (background) search delivers them; starting
+     * a new search cancels the previous one.
+     * @ref LogSearchIndex.search
+     */
     public static void performLogSearch() {
-        long startTime = System.currentTimeMillis();
+        final long startTime = System.currentTimeMillis();
         // clear out the existing search data first:
         ScrollView searchResultsScroller = (ScrollView) LiveLoggerActivity.getInstance().findViewById(R.id.searchResultsScrollView);
         if(searchResultsScroller.getChildCount() != 0) {
             searchResultsScroller.removeViewAt(0);
         }
-        LinearLayout searchResultsContainer = new LinearLayout(LiveLoggerActivity.getInstance().getApplicationContext());
+        final LinearLayout searchResultsContainer = new LinearLayout(LiveLoggerActivity.getInstance().getApplicationContext());
         searchResultsContainer.setOrientation(LinearLayout.VERTICAL);
         searchResultsScroller.addView(searchResultsContainer);
+        logSearchIndex.cancelSearch();
 
         boolean selectedBytes = ((RadioButton) LiveLoggerActivity.getInstance().findViewById(R.id.radio_search_bytes)).isChecked();
         String searchString = ((TextView) LiveLoggerActivity.getInstance().findViewById(R.id.userInputSearchData)).getText().toString();
@@ -280,43 +410,59 @@ public class MainActivityLogUtils {
             searchResultsContainer.addView(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", "Not a hexadecimal string.").getLayoutContainer());
             return;
         }
-        else if(selectedBytes) {
-            searchString = searchString.replace("[\n\t\r]+", "").replaceAll("..(?!$)", "$0 ");
-        }
-        searchString = searchString.toLowerCase(Locale.ENGLISH);
 
         boolean searchStatus = ((CheckBox) LiveLoggerActivity.getInstance().findViewById(R.id.entrySearchIncludeStatus)).isChecked();
         boolean searchAPDU = ((CheckBox) LiveLoggerActivity.getInstance().findViewById(R.id.entrySearchAPDU)).isChecked();
         boolean searchLogPayload = ((CheckBox) LiveLoggerActivity.getInstance().findViewById(R.id.entrySearchRawLogData)).isChecked();
         boolean searchLogHeaders = ((CheckBox) LiveLoggerActivity.getInstance().findViewById(R.id.entrySearchLogHeaders)).isChecked();
-        int matchCount = 0;
-        Log.i(TAG, "Searching for: " + searchString);
-        for(int vi = 0; vi < logDataEntries.size(); vi++) {
-            if (logDataEntries.get(vi) instanceof LogEntryMetadataRecord) {
-                if (searchStatus && logDataEntries.get(vi).toString().toLowerCase(Locale.ENGLISH).contains(searchString)) {
-                    searchResultsContainer.addView(logDataEntries.get(vi).cloneLayoutContainer());
+        final LogSearchIndex.SearchQuery searchQuery;
+        try {
+            searchQuery = new LogSearchIndex.SearchQuery(searchString, selectedBytes, searchAPDU, searchLogPayload, searchLogHeaders);
+        } catch(HexCodec.MalformedHexException mhe) {
+            searchResultsContainer.addView(LogEntryMetadataRecord.createDefaultEventRecord("ERROR", "Not a hexadecimal string.").getLayoutContainer());
+            return;
+        }
+        Log.i(TAG, "Searching for: " + searchQuery.searchText);
+
+        // the status records are few, and not indexed:
+        int statusMatchCount = 0;
+        for(int mi = 0; searchStatus && mi < logDataStore.getMetadataRecordCount(); mi++) {
+            LogEntryMetadataRecord statusRecord = logDataStore.getMetadataRecord(mi);
+            if(statusRecord.toString().toLowerCase(Locale.ENGLISH).contains(searchQuery.searchText)) {
+                searchResultsContainer.addView(statusRecord.cloneLayoutContainer());
+                statusMatchCount++;
+            }
+        }
+        final int initialMatchCount = statusMatchCount;
+        logSearchIndex.search(searchQuery, new LogSearchIndex.SearchListener() {
+            private int matchCount = initialMatchCount;
+            public boolean onResultPage(int[] recordIds, boolean[] verifyPayload) {
+                for(int ri = 0; ri < recordIds.length && matchCount < MAX_SEARCH_RESULTS; ri++) {
+                    int row = logSearchIndex.getRecordRow(recordIds[ri]);
+                    if(row < 0 || row >= logDataStore.size() || logDataStore.isMetadataRecord(row)) {
+                        continue;
+                    }
+                    else if(verifyPayload[ri] && !searchQuery.payloadMatches(logDataStore.getPayload(row))) {
+                        continue;
+                    }
+                    LinearLayout searchResult = (LinearLayout) logDataStore.getEntry(row).cloneLayoutContainer();
+                    searchResult.setVisibility(LinearLayout.VISIBLE);
+                    searchResult.setEnabled(true);
+                    searchResult.setMinimumWidth(350);
+                    searchResult.setMinimumHeight(150);
+                    LinearLayout.LayoutParams lllp = new LinearLayout.LayoutParams(LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.WRAP_CONTENT);
+                    searchResultsContainer.addView(searchResult, lllp);
                     matchCount++;
                 }
-                continue;
+                return matchCount < MAX_SEARCH_RESULTS;
             }
-            Log.i(TAG, ((LogEntryUI) logDataEntries.get(vi)).getPayloadDataString(selectedBytes));
-            if (searchAPDU && ((LogEntryUI) logDataEntries.get(vi)).getAPDUString().toLowerCase(Locale.ENGLISH).contains(searchString) ||
-                    searchLogHeaders && ((LogEntryUI) logDataEntries.get(vi)).getLogCodeName().toLowerCase(Locale.ENGLISH).contains(searchString) ||
-                    searchLogPayload && ((LogEntryUI) logDataEntries.get(vi)).getPayloadDataString(selectedBytes).toLowerCase(Locale.ENGLISH).contains(searchString)) {
-                LinearLayout searchResult = (LinearLayout) logDataEntries.get(vi).cloneLayoutContainer();
-                searchResult.setVisibility(LinearLayout.VISIBLE);
-                searchResult.setEnabled(true);
-                searchResult.setMinimumWidth(350);
-                searchResult.setMinimumHeight(150);
-                LinearLayout.LayoutParams lllp = new LinearLayout.LayoutParams(LinearLayout.LayoutParams.WRAP_CONTENT, LinearLayout.LayoutParams.WRAP_CONTENT);
-                searchResultsContainer.addView(searchResult, lllp);
-                Log.i(TAG, "Case II: Record " + vi + " matches");
-                matchCount++;
+            public void onSearchFinished(int numCandidates, boolean cancelled) {
+                double diffSeconds = (double) (System.currentTimeMillis() - startTime) / 1000.0;
+                String resultStr = String.format(Locale.ENGLISH, "Explored #%d logs (#%d index candidates) in %4g seconds for a total of #%d matching records%s.",
+                        logDataStore.size(), numCandidates, diffSeconds, matchCount,
+                        matchCount >= MAX_SEARCH_RESULTS ? " (showing the first " + MAX_SEARCH_RESULTS + ")" : cancelled ? " (cancelled)" : "");
+                searchResultsContainer.addView(LogEntryMetadataRecord.createDefaultEventRecord("SEARCH", resultStr).getLayoutContainer());
             }
-        }
-        double diffSeconds = (double) (System.currentTimeMillis() - startTime) / 1000.0;
-        String resultStr = String.format(Locale.ENGLISH, "Explored #%d logs in %4g seconds for a total of #%d matching records.",
-                logDataEntries.size(), diffSeconds, matchCount);
-        searchResultsContainer.addView(LogEntryMetadataRecord.createDefaultEventRecord("SEARCH", resultStr).getLayoutContainer());
+        });
     }
 }
@@ -0,0 +1,337 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>Serial Baud Rate Calibrator</h1>
+ * Link calibration for the wired (USB) serial connection. The first time a device is connected,
+ * the candidate baud rates are probed from the fastest one down: at each rate a fixed workload
+ * of VERSION? queries is sent through the command engine, and its round trip latency (from
+ * writing the query to receiving its text line), error rate and effective throughput are
+ * measured. The time the engine adds on top of that (until the caller sees the response) is
+ * reported separately. The fastest rate that answers reliably is kept and persisted for the
+ * device (keyed by its USB serial number, Settings.chameleonDeviceUSBSerialNumber), so that
+ * later connections of the same device go straight to the calibrated rate.
+ *
+ * While the calibration runs it holds the command engine: commands submitted by the rest of
+ * the app are queued (without blocking their callers) and written once it has finished, so
+ * that they are never sent while the rate is being switched.
+ *
+ * @ref SerialUSBInterface.configureSerial
+ * @ref ChameleonSerialIOInterface.UART_BAUD_RATES
+ */
+public class SerialBaudRateCalibrator {
+
+    private static final String TAG = SerialBaudRateCalibrator.class.getSimpleName();
+
+    public static final String PROBE_COMMAND = "VERSION?";
+    public static final int MIN_CALIBRATION_BAUD_RATE = 57600;
+    public static final int PROBE_ROUNDS = 8;
+    public static final int MAX_PROBE_ERRORS = 1;
+    public static final int PROBE_RESPONSE_TIMEOUT = 250;
+    public static final int BAUD_RATE_SETTLE_DELAY = 50;
+
+    /**
+     * Measurements of the probe workload at a single baud rate.
+     */
+    public static class ProbeResult {
+
+        private final int baudRate;
+        private int rounds;
+        private int errors;
+        private long minLatency;
+        private long totalLatency;
+        private long totalOverhead;
+        private long bytesExchanged;
+
+        public ProbeResult(int baudRate) {
+            this.baudRate = baudRate;
+            this.minLatency = Long.MAX_VALUE;
+        }
+
+        /**
+         * @param latencyMicros time from writing the query to receiving its text line
+         * @param overheadMicros time the command engine took on top of that
+         * @param numBytes
+         */
+        public void recordRound(long latencyMicros, long overheadMicros, int numBytes) {
+            rounds++;
+            totalLatency += latencyMicros;
+            totalOverhead += overheadMicros;
+            minLatency = Math.min(minLatency, latencyMicros);
+            bytesExchanged += numBytes;
+        }
+
+        public void recordError() {
+            rounds++;
+            errors++;
+        }
+
+        public int getBaudRate() {
+            return baudRate;
+        }
+
+        public int getErrorCount() {
+            return errors;
+        }
+
+        public double getErrorRate() {
+            return rounds == 0 ? 1.0 : (double) errors / rounds;
+        }
+
+        /**
+         * @return long average round trip latency in us
+         */
+        public long getAverageLatency() {
+            int okRounds = rounds - errors;
+            return okRounds == 0 ? -1 : totalLatency / okRounds;
+        }
+
+        /**
+         * @return long average command engine overhead in us
+         */
+        public long getAverageOverhead() {
+            int okRounds = rounds - errors;
+            return okRounds == 0 ? -1 : totalOverhead / okRounds;
+        }
+
+        public long getBytesPerSecond() {
+            return totalLatency == 0 ? 0 : 1000000 * bytesExchanged / totalLatency;
+        }
+
+        public boolean isReliable() {
+            return rounds == PROBE_ROUNDS && errors <= MAX_PROBE_ERRORS;
+        }
+
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%d baud: %d/%d errors, RTT %d us (min %d us), %d B/s, engine overhead %d us%s",
+                                 baudRate, errors, rounds, getAverageLatency(),
+                                 minLatency == Long.MAX_VALUE ? -1 : minLatency,
+                                 getBytesPerSecond(), getAverageOverhead(), isReliable() ? "" : " (unreliable)");
+        }
+
+    }
+
+    private static final Object calibrationLock = new Object();
+    private static Thread calibrationThread = null;
+    private static volatile boolean calibrationCancelled = false;
+    private static final List<ProbeResult> lastProbeResults = new ArrayList<ProbeResult>();
+
+    /**
+     * @return int[] the rates to probe, fastest first
+     */
+    public static int[] getCandidateBaudRates() {
+        List<Integer> candidateRates = new ArrayList<Integer>();
+        for(Integer baudRate : ChameleonSerialIOInterface.UART_BAUD_RATES) {
+            if(baudRate >= MIN_CALIBRATION_BAUD_RATE) {
+                candidateRates.add(baudRate);
+            }
+        }
+        if(!candidateRates.contains(ChameleonSerialIOInterface.HIGH_SPEED_BAUD_RATE)) {
+            candidateRates.add(ChameleonSerialIOInterface.HIGH_SPEED_BAUD_RATE);
+        }
+        Collections.sort(candidateRates, Collections.<Integer>reverseOrder());
+        int[] baudRates = new int[candidateRates.size()];
+        for(int ri = 0; ri < baudRates.length; ri++) {
+            baudRates[ri] = candidateRates.get(ri);
+        }
+        return baudRates;
+    }
+
+    /**
+     * @param deviceID
+     * @return int the persisted calibrated baud rate of the device (0 if it was never calibrated)
+     */
+    public static int getCalibratedBaudRate(String deviceID) {
+        try {
+            String storedRate = AndroidSettingsStorage.getStringValueByKey(deviceID, AndroidSettingsStorage.SERIAL_BAUDRATE_CALIBRATED_PREFERENCE);
+            return storedRate == null ? 0 : Integer.parseInt(storedRate);
+        } catch(NumberFormatException nfe) {
+            nfe.printStackTrace();
+            return 0;
+        }
+    }
+
+    private static void storeCalibratedBaudRate(String deviceID, int baudRate) {
+        Settings.calibratedSerialBaudRate = baudRate;
+        AndroidSettingsStorage.updateValueByKey(deviceID, AndroidSettingsStorage.SERIAL_BAUDRATE_CALIBRATED_PREFERENCE);
+        AndroidSettingsStorage.updateValueByKey(deviceID, AndroidSettingsStorage.SERIAL_BAUDRATE_PREFERENCE);
+    }
+
+    /**
+     * Forgets the calibration of the device so that it is probed again on the next connect.
+     * @param deviceID
+     */
+    public static void clearCalibration(String deviceID) {
+        storeCalibratedBaudRate(deviceID, 0);
+    }
+
+    public static boolean isCalibrating() {
+        synchronized(calibrationLock) {
+            return calibrationThread != null;
+        }
+    }
+
+    /**
+     * Starts the calibration of the connected device on a background thread.
+     * @param serialIOPort
+     * @param deviceID
+     * @return boolean whether a new calibration was started
+     */
+    public static boolean startCalibration(final ChameleonSerialIOInterface serialIOPort, final String deviceID) {
+        synchronized(calibrationLock) {
+            if(calibrationThread != null) {
+                return false;
+            }
+            calibrationCancelled = false;
+            calibrationThread = new Thread(new Runnable() {
+                public void run() {
+                    ChameleonCommandEngine.holdCommands();
+                    try {
+                        runCalibration(serialIOPort, deviceID);
+                    } finally {
+                        ChameleonCommandEngine.releaseCommands();
+                        synchronized(calibrationLock) {
+                            calibrationThread = null;
+                        }
+                    }
+                }
+            }, "SerialBaudRateProbe");
+            calibrationThread.start();
+        }
+        return true;
+    }
+
+    public static void cancelCalibration() {
+        calibrationCancelled = true;
+    }
+
+    public static String getCalibrationSummary() {
+        StringBuilder summary = new StringBuilder("Baud rate calibration:");
+        synchronized(lastProbeResults) {
+            for(ProbeResult probeResult : lastProbeResults) {
+                summary.append("\n  ").append(probeResult.toString());
+            }
+        }
+        return summary.toString();
+    }
+
+    private static void runCalibration(ChameleonSerialIOInterface serialIOPort, String deviceID) {
+        int initialBaudRate = Settings.serialBaudRate;
+        int selectedBaudRate = 0;
+        synchronized(lastProbeResults) {
+            lastProbeResults.clear();
+        }
+        // let the commands already written before the calibration started finish first:
+        long drainDeadline = SystemClock.elapsedRealtime() + ChameleonIO.TIMEOUT;
+        while(ChameleonCommandEngine.haveCommandsPending() && SystemClock.elapsedRealtime() < drainDeadline) {
+            SystemClock.sleep(BAUD_RATE_SETTLE_DELAY);
+        }
+        ChameleonCommandEngine.flushPendingResponses();
+        for(int baudRate : getCandidateBaudRates()) {
+            if(calibrationCancelled || !serialIOPort.serialConfigured()) {
+                break;
+            }
+            ProbeResult probeResult = probeBaudRate(serialIOPort, baudRate);
+            synchronized(lastProbeResults) {
+                lastProbeResults.add(probeResult);
+            }
+            Log.i(TAG, probeResult.toString());
+            if(probeResult.isReliable()) {
+                selectedBaudRate = baudRate;
+                break;
+            }
+        }
+        if(calibrationCancelled || !serialIOPort.serialConfigured()) {
+            return;
+        }
+        else if(selectedBaudRate == 0) {
+            // remember the outcome too, so that the probe is not repeated on every connect
+            // (clearCalibration forces a new one):
+            serialIOPort.setSerialBaudRate(initialBaudRate);
+            storeCalibratedBaudRate(deviceID, initialBaudRate);
+            serialIOPort.notifyStatus("USB ERROR: ", "Baud rate calibration found no reliable rate, keeping " + initialBaudRate + " baud.\n" + getCalibrationSummary());
+            return;
+        }
+        storeCalibratedBaudRate(deviceID, selectedBaudRate);
+        serialIOPort.notifyStatus("USB STATUS: ", "Calibrated the serial link to " + selectedBaudRate + " baud.\n" + getCalibrationSummary());
+    }
+
+    /**
+     * Switches the port to the baud rate and runs the probe workload.
+     * @param serialIOPort
+     * @param baudRate
+     * @return ProbeResult
+     */
+    public static ProbeResult probeBaudRate(ChameleonSerialIOInterface serialIOPort, int baudRate) {
+        ProbeResult probeResult = new ProbeResult(baudRate);
+        serialIOPort.setSerialBaudRate(baudRate);
+        SystemClock.sleep(BAUD_RATE_SETTLE_DELAY);
+        // the first response after a rate change may still carry line noise:
+        runProbeCommand();
+        ChameleonCommandEngine.flushPendingResponses();
+        String referenceVersion = null;
+        while(probeResult.rounds < PROBE_ROUNDS && !calibrationCancelled) {
+            long startNanos = System.nanoTime();
+            DeviceResponse devResp = runProbeCommand();
+            long totalNanos = System.nanoTime() - startNanos;
+            String versionText = devResp == null ? null : devResp.getResponseText();
+            if(referenceVersion == null && devResp != null && devResp.isOK()) {
+                referenceVersion = versionText;
+            }
+            if(devResp == null || !devResp.isOK() || !versionText.equals(referenceVersion)) {
+                probeResult.recordError();
+                // a late or garbled response must not be matched to the next probe:
+                SystemClock.sleep(BAUD_RATE_SETTLE_DELAY);
+                ChameleonCommandEngine.flushPendingResponses();
+                if(probeResult.getErrorCount() > MAX_PROBE_ERRORS) {
+                    break;
+                }
+                continue;
+            }
+            int numBytes = PROBE_COMMAND.length() + 2 + devResp.getResponseCodeText().length() + 2;
+            for(String respLine : devResp.getResponseLines()) {
+                numBytes += respLine.length() + 2;
+            }
+            long latencyNanos = devResp.getLatencyNanos() >= 0 ? devResp.getLatencyNanos() : totalNanos;
+            probeResult.recordRound(latencyNanos / 1000, (totalNanos - latencyNanos) / 1000, numBytes);
+        }
+        return probeResult;
+    }
+
+    private static DeviceResponse runProbeCommand() {
+        CompletableFuture<DeviceResponse> respFuture = ChameleonCommandEngine.submitCommand(PROBE_COMMAND);
+        try {
+            return respFuture.get(PROBE_RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch(Exception ex) {
+            Log.w(TAG, "No valid response to the probe command: " + ex.getMessage());
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>Serial IO Event Bus</h1>
+ * In-process replacement for the SERIALIO_DATA_RECEIVED, SERIALIO_LOGDATA_RECEIVED and
+ * SERIALIO_NOTIFY_STATUS broadcasts. The serial reader threads publish into a bounded,
+ * lock-free queue of preallocated event slots. The queue is drained on the main thread once
+ * per display frame and each batch of events is fanned out to every registered listener.
+ *
+ * @ref ChameleonSerialIOInterface.SERIALIO_LOGDATA_RECEIVED
+ * @ref LiveLoggerActivity.serialIOEventListener
+ */
+public class SerialIOEventBus {
+
+    private static final String TAG = SerialIOEventBus.class.getSimpleName();
+
+    public static final int EVENT_LOGDATA_RECEIVED = 1;
+    public static final int EVENT_SERIALDATA_RECEIVED = 2;
+    public static final int EVENT_NOTIFY_STATUS = 3;
+
+    /**
+     * Receives the events on the main thread. onEventBatchDelivered is called once after each
+     * frame's batch so that the UI can do its (expensive) layout / scrolling work only once.
+     * The byte[] views passed to the listeners are only valid for the duration of the call.
+     */
+    public interface EventListener {
+        void onLogDataReceived(byte[] dataBuf, int offset, int length);
+        void onSerialDataReceived(byte[] dataBuf, int offset, int length);
+        void onStatusReceived(String msgType, String statusMsg);
+        void onEventBatchDelivered(int eventCount);
+    }
+
+    private static class EventSlot {
+        volatile long sequence;
+        int eventType;
+        byte[] dataBuf = new byte[EVENT_SLOT_DATA_SIZE];
+        int dataLength;
+        String msgType;
+        String statusMsg;
+    }
+
+    private static final int EVENT_QUEUE_CAPACITY = 4096; // must be a power of two
+    private static final int EVENT_QUEUE_MASK = EVENT_QUEUE_CAPACITY - 1;
+    private static final int EVENT_SLOT_DATA_SIZE = 264;
+    private static final int MAX_EVENTS_PER_FRAME = 1024;
+
+    private static final EventSlot[] eventSlots = new EventSlot[EVENT_QUEUE_CAPACITY];
+    static {
+        for(int si = 0; si < EVENT_QUEUE_CAPACITY; si++) {
+            eventSlots[si] = new EventSlot();
+            eventSlots[si].sequence = si;
+        }
+    }
+
+    private static final AtomicLong publishSequence = new AtomicLong(0);
+    private static final AtomicLong drainSequence = new AtomicLong(0);
+    private static final AtomicLong droppedEventCount = new AtomicLong(0);
+    private static long reportedDroppedEventCount = 0; // only accessed from the main thread
+    private static final AtomicBoolean frameCallbackScheduled = new AtomicBoolean(false);
+    private static final CopyOnWriteArrayList<EventListener> eventListeners = new CopyOnWriteArrayList<EventListener>();
+
+    private static final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    private static final Choreographer.FrameCallback drainFrameCallback = new Choreographer.FrameCallback() {
+        public void doFrame(long frameTimeNanos) {
+            frameCallbackScheduled.set(false);
+            int eventCount = drainEvents(MAX_EVENTS_PER_FRAME);
+            if(eventCount >= MAX_EVENTS_PER_FRAME && frameCallbackScheduled.compareAndSet(false, true)) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    };
+    private static final Runnable scheduleDrainRunnable = new Runnable() {
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(drainFrameCallback);
+        }
+    };
+
+    public static void registerListener(EventListener listener) {
+        if(listener != null && !eventListeners.contains(listener)) {
+            eventListeners.add(listener);
+        }
+    }
+
+    public static void unregisterListener(EventListener listener) {
+        eventListeners.remove(listener);
+    }
+
+    public static long getDroppedEventCount() {
+        return droppedEventCount.get();
+    }
+
+    public static boolean publishLogData(byte[] dataBuf, int offset, int length) {
+        return publishEvent(EVENT_LOGDATA_RECEIVED, dataBuf, offset, length, null, null);
+    }
+
+    public static boolean publishSerialData(byte[] dataBuf, int offset, int length) {
+        return publishEvent(EVENT_SERIALDATA_RECEIVED, dataBuf, offset, length, null, null);
+    }
+
+    public static boolean publishStatus(String msgType, String statusMsg) {
+        return publishEvent(EVENT_NOTIFY_STATUS, null, 0, 0, msgType, statusMsg);
+    }
+
+    /**
+     * Claims the next free slot, copies the event into it and marks it as published.
+     * When the UI has fallen a full queue behind the event is dropped (and counted) rather
+     * than blocking the serial reader thread. The drops are logged by the next drainEvents.
+     */
+    private static boolean publishEvent(int eventType, byte[] dataBuf, int offset, int length,
+                                        String msgType, String statusMsg) {
+        long seq;
+        EventSlot slot;
+        while(true) {
+            seq = publishSequence.get();
+            slot = eventSlots[(int) seq & EVENT_QUEUE_MASK];
+            long seqDiff = slot.sequence - seq;
+            if(seqDiff < 0) {
+                droppedEventCount.incrementAndGet();
+                return false;
+            }
+            else if(seqDiff == 0 && publishSequence.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+        slot.eventType = eventType;
+        if(dataBuf != null) {
+            if(slot.dataBuf.length < length) {
+                slot.dataBuf = new byte[length];
+            }
+            System.arraycopy(dataBuf, offset, slot.dataBuf, 0, length);
+            slot.dataLength = length;
+        }
+        else {
+            slot.dataLength = 0;
+        }
+        slot.msgType = msgType;
+        slot.statusMsg = statusMsg;
+        slot.sequence = seq + 1;
+        if(frameCallbackScheduled.compareAndSet(false, true)) {
+            mainThreadHandler.post(scheduleDrainRunnable);
+        }
+        return true;
+    }
+
+    /**
+     * Delivers up to maxEvents of the published events to the listeners. Only ever called
+     * from the main thread.
+     * @param maxEvents
+     * @return int number of events delivered
+     */
+    private static int drainEvents(int maxEvents) {
+        int eventCount = 0;
+        long seq = drainSequence.get();
+        while(eventCount < maxEvents) {
+            EventSlot slot = eventSlots[(int) seq & EVENT_QUEUE_MASK];
+            if(slot.sequence != seq + 1) {
+                break;
+            }
+            for(EventListener listener : eventListeners) {
+                try {
+                    switch(slot.eventType) {
+                        case EVENT_LOGDATA_RECEIVED:
+                            listener.onLogDataReceived(slot.dataBuf, 0, slot.dataLength);
+                            break;
+                        case EVENT_SERIALDATA_RECEIVED:
+                            listener.onSerialDataReceived(slot.dataBuf, 0, slot.dataLength);
+                            break;
+                        case EVENT_NOTIFY_STATUS:
+                            listener.onStatusReceived(slot.msgType, slot.statusMsg);
+                            break;
+                        default:
+                            break;
+                    }
+                } catch(Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+            slot.msgType = slot.statusMsg = null;
+            slot.sequence = seq + EVENT_QUEUE_CAPACITY;
+            seq++;
+            eventCount++;
+        }
+        drainSequence.set(seq);
+        long droppedEvents = droppedEventCount.get();
+        if(droppedEvents != reportedDroppedEventCount) {
+            Log.w(TAG, "Event queue full: dropped " + (droppedEvents - reportedDroppedEventCount) +
+                       " events (" + droppedEvents + " in total)");
+            reportedDroppedEventCount = droppedEvents;
+        }
+        if(eventCount > 0) {
+            for(EventListener listener : eventListeners) {
+                try {
+                    listener.onEventBatchDelivered(eventCount);
+                } catch(Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+        return eventCount;
+    }
+
+}
@@ -20,12 +20,9 @@ package com.maxieds.chameleonminilivedebugger;
 import android.content.Context;
 import android.util.Log;
 
-import org.apache.commons.lang3.ArrayUtils;
-
-import java.util.ArrayList;
 import java.util.Arrays;
 
-public class SerialIOReceiver implements ChameleonSerialIOInterface {
+public class SerialIOReceiver implements ChameleonSerialIOInterface, SerialIORingBuffer.RecordConsumer {
 
     public void setListenerContext(Context context) {}
 
@@ -41,6 +38,13 @@ public class SerialIOReceiver implements ChameleonSerialIOInterface {
         return false;
     }
 
+    public boolean notifyLogDataReceived(byte[] serialData, int offset, int length) {
+        if(offset == 0 && length == serialData.length) {
+            return notifyLogDataReceived(serialData);
+        }
+        return notifyLogDataReceived(Arrays.copyOfRange(serialData, offset, offset + length));
+    }
+
     public boolean notifyDeviceFound() {
         return false;
     }
@@ -118,95 +122,54 @@ public class SerialIOReceiver implements ChameleonSerialIOInterface {
         return false;
     }
 
-    private ArrayList<Byte[]> splitReceivedDataIntoLogs(byte[] liveLogData) {
-        ArrayList<Byte[]> splitLogData = new ArrayList<Byte[]>();
-        int logLength = liveLogData.length, indexPos = 0;
-        while(indexPos < liveLogData.length && logLength > 0) {
-            int nextLogLength = ChameleonLogUtils.ResponseIsLiveLoggingBytes(liveLogData, indexPos, logLength);
-            if(nextLogLength == 0) {
-                indexPos++;
-                continue;
-            }
-            if(nextLogLength + indexPos >= liveLogData.length) {
-                nextLogLength = liveLogData.length - indexPos;
-                if(nextLogLength == 0) {
-                    break;
-                }
-            }
-            byte[] nextLogBytes = new byte[nextLogLength];
-            System.arraycopy(liveLogData, indexPos, nextLogBytes, 0, nextLogLength);
-            splitLogData.add(ArrayUtils.toObject(nextLogBytes));
-            logLength -= nextLogLength;
-            indexPos += Math.max(1, nextLogLength);
+    private final SerialIORingBuffer ingestBuffer = new SerialIORingBuffer();
+
+    public SerialIORingBuffer getIngestBuffer() {
+        return ingestBuffer;
+    }
+
+    public void onReceivedData(byte[] liveLogData) {
+        if(liveLogData == null) {
+            return;
+        }
+        onReceivedData(liveLogData, 0, liveLogData.length);
+    }
+
+    public void onReceivedData(byte[] liveLogData, int offset, int length) {
+        if(liveLogData == null || length <= 0) {
+            return;
+        }
+        if(Log.isLoggable(getInterfaceLoggingTag(), Log.VERBOSE)) {
+            byte[] dataView = Arrays.copyOfRange(liveLogData, offset, offset + length);
+            Log.v(getInterfaceLoggingTag(), "SerialReaderCallback Received Data: (HEX) " + Utils.bytes2Hex(dataView));
+            Log.v(getInterfaceLoggingTag(), "SerialReaderCallback Received Data: (TXT) " + Utils.bytes2Ascii(dataView));
         }
-        if(logLength > 0) {
-            byte[] nextLogBytes = new byte[logLength];
-            System.arraycopy(liveLogData, liveLogData.length - logLength, nextLogBytes, 0, logLength);
-            splitLogData.add(ArrayUtils.toObject(nextLogBytes));
+        synchronized(ingestBuffer) {
+            boolean framingEnabled = !XModemTransferSession.isTransferActive() &&
+                                     !ChameleonCommandEngine.isReceivingBinaryResponse();
+            ingestBuffer.write(liveLogData, offset, length);
+            ingestBuffer.frameRecords(this, framingEnabled, ChameleonCommandEngine.haveCommandsPending());
+            ChameleonIO.APPEND_PRIOR_BUFFER_DATA = ingestBuffer.hasPartialRecord();
         }
-        return splitLogData;
     }
 
-    public void onReceivedData(byte[] liveLogData) {
+    public void onLogRecordFramed(byte[] buffer, int offset, int length) {
+        DeviceStatusScheduler.onLogRecordReceived(buffer, offset, length);
+        notifyLogDataReceived(buffer, offset, length);
+    }
 
-        Log.d(getInterfaceLoggingTag(), "SerialReaderCallback Received Data: (HEX) " + Utils.bytes2Hex(liveLogData));
-        Log.d(getInterfaceLoggingTag(), "SerialReaderCallback Received Data: (TXT) " + Utils.bytes2Ascii(liveLogData));
-
-        //ArrayList<Byte[]> splitLogData = splitReceivedDataIntoLogs(liveLogData);
-        ArrayList<Byte[]> splitLogData = new ArrayList<Byte[]>();
-        splitLogData.add(ArrayUtils.toObject(liveLogData));
-        for(int sidx = 0; sidx < splitLogData.size(); sidx++) {
-            liveLogData = new byte[splitLogData.get(sidx).length];
-            System.arraycopy(ArrayUtils.toPrimitive(splitLogData.get(sidx)), 0, liveLogData, 0, ArrayUtils.toPrimitive(splitLogData.get(sidx)).length);
-            if (liveLogData.length == 0) {
-                return;
-            }
-            int loggingRespSize = ChameleonLogUtils.ResponseIsLiveLoggingBytes(liveLogData);
-            if (loggingRespSize > 0) {
-                notifyLogDataReceived(liveLogData);
-                continue;
-            }
-            if (ChameleonIO.PAUSED) {
-                continue;
-            } else if (ChameleonIO.DOWNLOAD) {
-                ExportTools.performXModemSerialDownload(liveLogData);
-                continue;
-            } else if (ChameleonIO.UPLOAD) {
-                ExportTools.performXModemSerialUpload(liveLogData);
-                continue;
-            } else if (ChameleonIO.WAITING_FOR_XMODEM) {
-                String strLogData = new String(liveLogData);
-                if (strLogData.length() >= 11 && strLogData.substring(0, 11).equals("110:WAITING")) {
-                    ChameleonIO.WAITING_FOR_XMODEM = false;
-                    continue;
-                }
-            } else if (ChameleonIO.isCommandResponse(liveLogData)) {
-                String[] strLogData = (new String(liveLogData)).split("[\n\r\t][\n\r\t]+");
-                ChameleonIO.DEVICE_RESPONSE_CODE = strLogData[0];
-                int respCodeStartIndex = Utils.getFirstResponseCodeIndex(ChameleonIO.DEVICE_RESPONSE_CODE);
-                ChameleonIO.DEVICE_RESPONSE_CODE = ChameleonIO.DEVICE_RESPONSE_CODE.substring(respCodeStartIndex);
-                boolean respCodeHasPreText = respCodeStartIndex > 0;
-                if (respCodeHasPreText) {
-                    strLogData[0] = strLogData[0].substring(0, respCodeStartIndex - 1);
-                }
-                if (strLogData.length >= 2) {
-                    if (respCodeHasPreText) {
-                        ChameleonIO.DEVICE_RESPONSE = Arrays.copyOfRange(strLogData, 0, strLogData.length);
-                    } else {
-                        ChameleonIO.DEVICE_RESPONSE = Arrays.copyOfRange(strLogData, 1, strLogData.length);
-                    }
-                } else
-                    ChameleonIO.DEVICE_RESPONSE[0] = strLogData[0];
-                if (ChameleonIO.EXPECTING_BINARY_DATA) {
-                    int binaryBufSize = liveLogData.length - ChameleonIO.DEVICE_RESPONSE_CODE.length() - 2;
-                    ChameleonIO.DEVICE_RESPONSE_BINARY = new byte[binaryBufSize];
-                    System.arraycopy(liveLogData, liveLogData.length - binaryBufSize, ChameleonIO.DEVICE_RESPONSE_BINARY, 0, binaryBufSize);
-                    ChameleonIO.EXPECTING_BINARY_DATA = false;
-                }
-                ChameleonIO.WAITING_FOR_RESPONSE = false;
-                continue;
-            }
-            notifySerialDataReceived(liveLogData);
+    public void onSerialDataFramed(byte[] buffer, int offset, int length) {
+        XModemTransferSession xmodemSession = XModemTransferSession.getActiveSession();
+        if (ChameleonIO.PAUSED) {
+            return;
+        }
+        else if (xmodemSession != null) {
+            xmodemSession.onDataReceived(buffer, offset, length);
+            return;
+        }
+        boolean isCmdResponse = ChameleonCommandEngine.onSerialDataReceived(buffer, offset, length);
+        if (!isCmdResponse) {
+            notifySerialDataReceived(Arrays.copyOfRange(buffer, offset, offset + length));
         }
     }
 
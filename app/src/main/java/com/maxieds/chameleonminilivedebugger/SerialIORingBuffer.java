@@ -0,0 +1,281 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.util.Log;
+
+/**
+ * <h1>Serial IO Ring Buffer</h1>
+ * Ingest stage for the raw bytes handed to us by the USB / BLE reader callbacks.
+ * The incoming chunks are copied once into a preallocated buffer and the LIVE log
+ * records are framed in place. Consumers receive (buffer, offset, length) views into the
+ * buffer which are only valid for the duration of the callback.
+ * The framing is incremental: a record whose header or payload is split across two
+ * USB transfers / BLE notifications stays buffered until the rest of it arrives, so that
+ * exactly one record is emitted per [code, len, tick_hi, tick_lo, payload] frame no matter
+ * how the transport chunks the stream.
+ * While a command response is expected, the text is handed on one line at a time, so that LIVE
+ * log records interleaved with the response lines are still framed. Some log codes are also
+ * printable characters: a record starting with one of those is told apart from a text line by
+ * its binary header / payload bytes (see isTextLineAt).
+ *
+ * @ref SerialIOReceiver.onReceivedData
+ * @ref ChameleonLogUtils.ResponseIsLiveLoggingBytes
+ */
+public class SerialIORingBuffer {
+
+    private static final String TAG = SerialIORingBuffer.class.getSimpleName();
+
+    /**
+     * Receives the framed views of the buffered serial data.
+     */
+    public interface RecordConsumer {
+        void onLogRecordFramed(byte[] buffer, int offset, int length);
+        void onSerialDataFramed(byte[] buffer, int offset, int length);
+    }
+
+    public static final int DEFAULT_CAPACITY = 16384;
+
+    /**
+     * A partial record older than this (in milliseconds) when new data arrives is assumed to
+     * be a stale fragment of a lost transfer and is discarded.
+     */
+    public static final long PARTIAL_RECORD_TIMEOUT = 250;
+
+    private final byte[] ringData;
+    private int readPos;
+    private int writePos;
+    private long overflowCount;
+    private long resyncCount;
+    private long framedRecordCount;
+    private boolean partialRecordPending;
+    private long partialRecordTimestamp;
+    private boolean inLogStream;
+
+    public SerialIORingBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SerialIORingBuffer(int capacity) {
+        ringData = new byte[capacity];
+        readPos = writePos = 0;
+        overflowCount = resyncCount = framedRecordCount = 0;
+        partialRecordPending = inLogStream = false;
+    }
+
+    public int getCapacity() {
+        return ringData.length;
+    }
+
+    public int getBufferedByteCount() {
+        return writePos - readPos;
+    }
+
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+
+    public long getResyncCount() {
+        return resyncCount;
+    }
+
+    public long getFramedRecordCount() {
+        return framedRecordCount;
+    }
+
+    public boolean hasPartialRecord() {
+        return partialRecordPending;
+    }
+
+    public void reset() {
+        readPos = writePos = 0;
+        partialRecordPending = inLogStream = false;
+    }
+
+    private static boolean isTextByte(byte b) {
+        return (b >= 0x20 && b < 0x7f) || b == '\r' || b == '\n' || b == '\t';
+    }
+
+    private static boolean isLogCodeByte(byte b) {
+        return ChameleonLogUtils.IsLiveLoggingCode(b);
+    }
+
+    private static final int TEXT_LINE_UNDECIDED = 0;
+    private static final int TEXT_LINE_FOUND = 1;
+    private static final int LOG_RECORD_FOUND = -1;
+
+    /**
+     * Decides whether the buffered bytes at pos (starting with a log code byte) are a LIVE log
+     * record or a line of command response text. The length and tick bytes of a record are
+     * rarely printable characters, and its payload is rarely all text up to a line end.
+     * @param pos
+     * @return int TEXT_LINE_FOUND, LOG_RECORD_FOUND, or TEXT_LINE_UNDECIDED if more data is needed
+     */
+    private int isTextLineAt(int pos) {
+        int remainingBytes = writePos - pos;
+        for(int hi = 1; hi < Math.min(4, remainingBytes); hi++) {
+            if(ringData[pos + hi] < 0x20 || ringData[pos + hi] >= 0x7f) {
+                return LOG_RECORD_FOUND;
+            }
+        }
+        if(remainingBytes < 4) {
+            return TEXT_LINE_UNDECIDED;
+        }
+        int recordEnd = pos + 4 + (ringData[pos + 1] & 0xff);
+        for(int bi = pos + 4; bi < writePos; bi++) {
+            if(ringData[bi] == '\n') {
+                return TEXT_LINE_FOUND;
+            }
+            else if(bi < recordEnd && !isTextByte(ringData[bi])) {
+                return LOG_RECORD_FOUND;
+            }
+        }
+        return TEXT_LINE_UNDECIDED;
+    }
+
+    private int findLineEnd(int pos) {
+        for(int bi = pos; bi < writePos; bi++) {
+            if(ringData[bi] == '\n') {
+                return bi + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies the incoming bytes into the buffer. When the tail of the backing array is too
+     * short for the new data, the unconsumed bytes are moved back to the front so that every
+     * framed record stays contiguous in memory.
+     * @param srcBuf
+     * @param srcOffset
+     * @param srcLength
+     * @return boolean whether all of the bytes were stored
+     */
+    public boolean write(byte[] srcBuf, int srcOffset, int srcLength) {
+        if(srcBuf == null || srcLength <= 0) {
+            return true;
+        }
+        if(partialRecordPending && System.currentTimeMillis() - partialRecordTimestamp > PARTIAL_RECORD_TIMEOUT) {
+            Log.w(TAG, "Discarding stale partial log record of " + (writePos - readPos) + " bytes.");
+            readPos = writePos = 0;
+            partialRecordPending = false;
+            resyncCount++;
+        }
+        if(writePos + srcLength > ringData.length) {
+            int pendingBytes = writePos - readPos;
+            if(pendingBytes > 0 && readPos > 0) {
+                System.arraycopy(ringData, readPos, ringData, 0, pendingBytes);
+            }
+            readPos = 0;
+            writePos = pendingBytes;
+        }
+        if(writePos + srcLength > ringData.length) {
+            overflowCount++;
+            Log.w(TAG, "Dropping " + srcLength + " bytes of serial data (buffer overflow).");
+            return false;
+        }
+        System.arraycopy(srcBuf, srcOffset, ringData, writePos, srcLength);
+        writePos += srcLength;
+        return true;
+    }
+
+    /**
+     * Splits the buffered bytes into LIVE log records and non-logging serial data, handing
+     * each piece to the consumer as a view into the buffer. A trailing incomplete record is
+     * kept in the buffer for the next call. Binary garbage found in the middle of a stream of
+     * log records is skipped up to the next valid log code and counted as a resync event.
+     * @param consumer
+     * @param framingEnabled false to pass all of the buffered bytes through as serial data
+     *                       (e.g., while an XModem transfer or a binary response is in progress)
+     * @return int number of LIVE log records framed
+     */
+    public int frameRecords(RecordConsumer consumer, boolean framingEnabled) {
+        return frameRecords(consumer, framingEnabled, false);
+    }
+
+    /**
+     * @param consumer
+     * @param framingEnabled
+     * @param responseTextExpected true to hand on the serial data one text line at a time
+     *                             (while a command response is expected)
+     * @return int number of LIVE log records framed
+     */
+    public int frameRecords(RecordConsumer consumer, boolean framingEnabled, boolean responseTextExpected) {
+        int recordCount = 0;
+        partialRecordPending = false;
+        if(!framingEnabled && readPos < writePos) {
+            consumer.onSerialDataFramed(ringData, readPos, writePos - readPos);
+            readPos = writePos;
+            inLogStream = false;
+        }
+        while(readPos < writePos) {
+            int remainingBytes = writePos - readPos;
+            int textLineStatus = LOG_RECORD_FOUND;
+            if(responseTextExpected) {
+                textLineStatus = isLogCodeByte(ringData[readPos]) ? isTextLineAt(readPos) : TEXT_LINE_FOUND;
+            }
+            if(textLineStatus == TEXT_LINE_UNDECIDED) {
+                partialRecordPending = true;
+                partialRecordTimestamp = System.currentTimeMillis();
+                break;
+            }
+            else if(textLineStatus == TEXT_LINE_FOUND && (!inLogStream || isTextByte(ringData[readPos]))) {
+                int lineEnd = findLineEnd(readPos);
+                if(lineEnd < 0) {
+                    lineEnd = writePos;
+                }
+                consumer.onSerialDataFramed(ringData, readPos, lineEnd - readPos);
+                readPos = lineEnd;
+                inLogStream = false;
+                continue;
+            }
+            else if(!isLogCodeByte(ringData[readPos])) {
+                if(!inLogStream || isTextByte(ringData[readPos])) {
+                    consumer.onSerialDataFramed(ringData, readPos, remainingBytes);
+                    readPos = writePos;
+                    inLogStream = false;
+                    break;
+                }
+                int skipPos = readPos;
+                while(skipPos < writePos && !isLogCodeByte(ringData[skipPos])) {
+                    skipPos++;
+                }
+                Log.w(TAG, "Resynchronizing the log stream: skipped " + (skipPos - readPos) + " bytes.");
+                resyncCount++;
+                readPos = skipPos;
+                continue;
+            }
+            int nextLogLength = ChameleonLogUtils.ResponseIsLiveLoggingBytes(ringData, readPos, remainingBytes);
+            if(nextLogLength == 0 || nextLogLength > remainingBytes) {
+                partialRecordPending = true;
+                partialRecordTimestamp = System.currentTimeMillis();
+                break;
+            }
+            consumer.onLogRecordFramed(ringData, readPos, nextLogLength);
+            readPos += nextLogLength;
+            inLogStream = true;
+            recordCount++;
+        }
+        if(readPos == writePos) {
+            readPos = writePos = 0;
+        }
+        framedRecordCount += recordCount;
+        return recordCount;
+    }
+
+}
@@ -0,0 +1,347 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * <h1>Serial USB IO Worker</h1>
+ * Moves the work off the USB library's reader thread. The UsbReadCallback only copies each
+ * bulk read into a preallocated receive ring (offerReceivedData), and a separate decode thread
+ * drains whatever has accumulated in the ring in one batch and hands it to the framing code
+ * (SerialIOReceiver.onReceivedData). When the decoder falls behind, the reader waits up to
+ * RX_BACKPRESSURE_TIMEOUT for space in the ring before the read is dropped, and both events are
+ * counted.
+ *
+ * In the other direction, sendDataBuffer only appends to a transmit buffer; the writer thread
+ * picks up everything that has been queued (waiting TX_BATCH_WINDOW for more when the batch is
+ * still small) and sends it to the device as a single bulk transfer.
+ *
+ * @ref SerialUSBInterface.createSerialReaderCallback
+ * @ref SerialUSBInterface.sendDataBuffer
+ */
+public class SerialUSBIOWorker {
+
+    private static final String TAG = SerialUSBIOWorker.class.getSimpleName();
+
+    /**
+     * Performs the actual bulk transfer to the device.
+     */
+    public interface BulkWriter {
+        void writeBulk(byte[] dataBuf);
+    }
+
+    public static final int RX_RING_CAPACITY = 65536;
+    public static final int RX_DECODE_CHUNK_SIZE = 16384;
+    public static final int RX_BACKPRESSURE_TIMEOUT = 100;
+    public static final int TX_BUFFER_CAPACITY = 16384;
+    public static final int TX_BATCH_SIZE = 64;
+    public static final int TX_BATCH_WINDOW = 2;
+    public static final int TX_ENQUEUE_TIMEOUT = 500;
+    private static final int THREAD_JOIN_TIMEOUT = 250;
+
+    private final SerialIOReceiver dataReceiver;
+    private final BulkWriter bulkWriter;
+
+    private final Object rxLock = new Object();
+    private final byte[] rxRing = new byte[RX_RING_CAPACITY];
+    private final byte[] rxDecodeBuf = new byte[RX_DECODE_CHUNK_SIZE];
+    private int rxReadPos;
+    private int rxCount;
+
+    private final Object txLock = new Object();
+    private final byte[] txBuffer = new byte[TX_BUFFER_CAPACITY];
+    private int txCount;
+
+    private volatile boolean running;
+    private Thread decodeThread;
+    private Thread writerThread;
+
+    private long rxBytes;
+    private long rxReads;
+    private long rxDecodeBatches;
+    private int rxPeakFill;
+    private long rxBackPressureEvents;
+    private long rxOverflowEvents;
+    private long rxOverflowBytes;
+    private long txBytes;
+    private long txRequests;
+    private long txBulkTransfers;
+    private long txDroppedBytes;
+
+    public SerialUSBIOWorker(SerialIOReceiver receiver, BulkWriter writer) {
+        dataReceiver = receiver;
+        bulkWriter = writer;
+    }
+
+    public void start() {
+        if(running) {
+            return;
+        }
+        synchronized(rxLock) {
+            rxReadPos = rxCount = 0;
+        }
+        synchronized(txLock) {
+            txCount = 0;
+        }
+        running = true;
+        decodeThread = new Thread(new Runnable() {
+            public void run() {
+                runDecodeLoop();
+            }
+        }, "SerialUSBDecoder");
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                runWriterLoop();
+            }
+        }, "SerialUSBWriter");
+        decodeThread.start();
+        writerThread.start();
+    }
+
+    public void stop() {
+        if(!running) {
+            return;
+        }
+        running = false;
+        synchronized(rxLock) {
+            rxLock.notifyAll();
+        }
+        synchronized(txLock) {
+            txLock.notifyAll();
+        }
+        joinThread(decodeThread);
+        joinThread(writerThread);
+        decodeThread = writerThread = null;
+        Log.i(TAG, getStatsSummary());
+    }
+
+    private static void joinThread(Thread workerThread) {
+        if(workerThread == null || workerThread == Thread.currentThread()) {
+            return;
+        }
+        try {
+            workerThread.join(THREAD_JOIN_TIMEOUT);
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Called on the USB reader thread: copies the read into the receive ring and nothing else.
+     * @param dataBuf
+     * @return boolean whether the data was queued (false if it had to be dropped)
+     */
+    public boolean offerReceivedData(byte[] dataBuf) {
+        if(dataBuf == null || dataBuf.length == 0 || !running) {
+            return false;
+        }
+        int dataLength = dataBuf.length;
+        synchronized(rxLock) {
+            rxReads++;
+            if(RX_RING_CAPACITY - rxCount < dataLength && dataLength <= RX_RING_CAPACITY) {
+                rxBackPressureEvents++;
+                long waitDeadline = SystemClock.elapsedRealtime() + RX_BACKPRESSURE_TIMEOUT;
+                long waitMillis = RX_BACKPRESSURE_TIMEOUT;
+                while(running && RX_RING_CAPACITY - rxCount < dataLength && waitMillis > 0) {
+                    try {
+                        rxLock.wait(waitMillis);
+                    } catch(InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    waitMillis = waitDeadline - SystemClock.elapsedRealtime();
+                }
+            }
+            if(!running || RX_RING_CAPACITY - rxCount < dataLength) {
+                rxOverflowEvents++;
+                rxOverflowBytes += dataLength;
+                return false;
+            }
+            int writePos = (rxReadPos + rxCount) % RX_RING_CAPACITY;
+            int firstLength = Math.min(dataLength, RX_RING_CAPACITY - writePos);
+            System.arraycopy(dataBuf, 0, rxRing, writePos, firstLength);
+            System.arraycopy(dataBuf, firstLength, rxRing, 0, dataLength - firstLength);
+            rxCount += dataLength;
+            rxBytes += dataLength;
+            rxPeakFill = Math.max(rxPeakFill, rxCount);
+            rxLock.notifyAll();
+        }
+        return true;
+    }
+
+    private void runDecodeLoop() {
+        while(running) {
+            int batchLength;
+            synchronized(rxLock) {
+                while(running && rxCount == 0) {
+                    try {
+                        rxLock.wait();
+                    } catch(InterruptedException ie) {
+                        return;
+                    }
+                }
+                if(!running) {
+                    return;
+                }
+                batchLength = Math.min(rxCount, RX_DECODE_CHUNK_SIZE);
+                int firstLength = Math.min(batchLength, RX_RING_CAPACITY - rxReadPos);
+                System.arraycopy(rxRing, rxReadPos, rxDecodeBuf, 0, firstLength);
+                System.arraycopy(rxRing, 0, rxDecodeBuf, firstLength, batchLength - firstLength);
+                rxReadPos = (rxReadPos + batchLength) % RX_RING_CAPACITY;
+                rxCount -= batchLength;
+                rxDecodeBatches++;
+                rxLock.notifyAll();
+            }
+            try {
+                dataReceiver.onReceivedData(rxDecodeBuf, 0, batchLength);
+            } catch(RuntimeException rte) {
+                rte.printStackTrace();
+                Log.w(TAG, "Error decoding the received serial data: " + rte.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Queues the data for the writer thread; blocks for up to TX_ENQUEUE_TIMEOUT while the
+     * transmit buffer does not have room for it. The data is queued either as a whole or
+     * (on timeout, or when it is larger than TX_BUFFER_CAPACITY) not at all, so that the
+     * device never receives a truncated command.
+     * @param dataBuf
+     * @return boolean whether the data was queued
+     */
+    public boolean enqueueWrite(byte[] dataBuf) {
+        if(dataBuf == null || dataBuf.length == 0) {
+            return true;
+        }
+        else if(!running) {
+            return false;
+        }
+        synchronized(txLock) {
+            txRequests++;
+            if(dataBuf.length > TX_BUFFER_CAPACITY) {
+                Log.w(TAG, "Write of " + dataBuf.length + " bytes exceeds the transmit buffer capacity");
+                txDroppedBytes += dataBuf.length;
+                return false;
+            }
+            long waitDeadline = SystemClock.elapsedRealtime() + TX_ENQUEUE_TIMEOUT;
+            while(TX_BUFFER_CAPACITY - txCount < dataBuf.length) {
+                long waitMillis = waitDeadline - SystemClock.elapsedRealtime();
+                if(!running || waitMillis <= 0) {
+                    txDroppedBytes += dataBuf.length;
+                    return false;
+                }
+                try {
+                    txLock.wait(waitMillis);
+                } catch(InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    txDroppedBytes += dataBuf.length;
+                    return false;
+                }
+            }
+            System.arraycopy(dataBuf, 0, txBuffer, txCount, dataBuf.length);
+            txCount += dataBuf.length;
+            txLock.notifyAll();
+        }
+        return true;
+    }
+
+    private void runWriterLoop() {
+        while(running) {
+            byte[] bulkData;
+            synchronized(txLock) {
+                try {
+                    while(running && txCount == 0) {
+                        txLock.wait();
+                    }
+                    // enqueueWrite notifies on every write, so keep waiting for more data
+                    // until the batch window has passed or the batch is large enough:
+                    long batchDeadline = SystemClock.elapsedRealtime() + TX_BATCH_WINDOW;
+                    long waitMillis;
+                    while(running && txCount < TX_BATCH_SIZE &&
+                          (waitMillis = batchDeadline - SystemClock.elapsedRealtime()) > 0) {
+                        txLock.wait(waitMillis);
+                    }
+                } catch(InterruptedException ie) {
+                    return;
+                }
+                if(!running) {
+                    return;
+                }
+                bulkData = new byte[txCount];
+                System.arraycopy(txBuffer, 0, bulkData, 0, txCount);
+                txCount = 0;
+                txBytes += bulkData.length;
+                txBulkTransfers++;
+                txLock.notifyAll();
+            }
+            try {
+                bulkWriter.writeBulk(bulkData);
+            } catch(RuntimeException rte) {
+                rte.printStackTrace();
+                Log.w(TAG, "Error writing to the serial device: " + rte.getMessage());
+            }
+        }
+    }
+
+    public long getBackPressureCount() {
+        synchronized(rxLock) {
+            return rxBackPressureEvents;
+        }
+    }
+
+    public long getOverflowCount() {
+        synchronized(rxLock) {
+            return rxOverflowEvents;
+        }
+    }
+
+    public long getOverflowBytes() {
+        synchronized(rxLock) {
+            return rxOverflowBytes;
+        }
+    }
+
+    public int getPeakRingFill() {
+        synchronized(rxLock) {
+            return rxPeakFill;
+        }
+    }
+
+    public String getStatsSummary() {
+        String rxSummary, txSummary;
+        synchronized(rxLock) {
+            rxSummary = String.format(Locale.ENGLISH, "USB RX: %d bytes in %d reads / %d decode batches, peak ring fill %d / %d, back-pressure %d, overflow %d (%d bytes)",
+                                      rxBytes, rxReads, rxDecodeBatches, rxPeakFill, RX_RING_CAPACITY,
+                                      rxBackPressureEvents, rxOverflowEvents, rxOverflowBytes);
+        }
+        synchronized(txLock) {
+            txSummary = String.format(Locale.ENGLISH, "USB TX: %d bytes from %d writes in %d bulk transfers, dropped %d bytes",
+                                      txBytes, txRequests, txBulkTransfers, txDroppedBytes);
+        }
+        return rxSummary + "\n" + txSummary;
+    }
+
+}
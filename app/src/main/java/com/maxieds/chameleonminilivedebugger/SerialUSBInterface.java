@@ -55,6 +55,7 @@ public class SerialUSBInterface extends SerialIOReceiver {
     private UsbSerialDevice serialPort;
     private UsbDevice activeDevice;
     private UsbSerialInterface.UsbReadCallback serialReaderCallback;
+    private SerialUSBIOWorker serialIOWorker;
     private int baudRate;
     private boolean serialConfigured;
     private boolean receiversRegistered;
@@ -63,6 +64,7 @@ public class SerialUSBInterface extends SerialIOReceiver {
     public SerialUSBInterface(Context context) {
         notifyContext = context;
         serialPort = null;
+        serialIOWorker = null;
         baudRate = Settings.serialBaudRate;
         serialConfigured = false;
         receiversRegistered = false;
@@ -73,24 +75,22 @@ public class SerialUSBInterface extends SerialIOReceiver {
     }
 
     public boolean notifySerialDataReceived(byte[] serialData) {
-        Intent notifyIntent = new Intent(ChameleonSerialIOInterface.SERIALIO_DATA_RECEIVED);
-        notifyIntent.putExtra("DATA", serialData);
-        notifyContext.sendBroadcast(notifyIntent);
-        Log.i(TAG, "SERIALIO_DATA_RECEIVED: (HEX) " + Utils.bytes2Hex(serialData));
-        Log.i(TAG, "SERIALIO_DATA_RECEIVED: (TXT) " + Utils.bytes2Ascii(serialData));
-        return true;
+        if(Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, "SERIALIO_DATA_RECEIVED: (HEX) " + Utils.bytes2Hex(serialData));
+            Log.v(TAG, "SERIALIO_DATA_RECEIVED: (TXT) " + Utils.bytes2Ascii(serialData));
+        }
+        return SerialIOEventBus.publishSerialData(serialData, 0, serialData.length);
     }
 
     public boolean notifyLogDataReceived(byte[] serialData) {
-        if(serialData.length < ChameleonLogUtils.LOGGING_MIN_DATA_BYTES + 4) {
+        return notifyLogDataReceived(serialData, 0, serialData.length);
+    }
+
+    public boolean notifyLogDataReceived(byte[] serialData, int offset, int length) {
+        if(length < ChameleonLogUtils.LOGGING_MIN_DATA_BYTES + 4) {
             return false;
         }
-        Intent notifyIntent = new Intent(ChameleonSerialIOInterface.SERIALIO_LOGDATA_RECEIVED);
-        notifyIntent.putExtra("DATA", serialData);
-        notifyContext.sendBroadcast(notifyIntent);
-        Log.i(TAG, "SERIALIO_LOGDATA_RECEIVED: (HEX) " + Utils.bytes2Hex(serialData));
-        Log.i(TAG, "SERIALIO_LOGDATA_RECEIVED: (TXT) " + Utils.bytes2Ascii(serialData));
-        return true;
+        return SerialIOEventBus.publishLogData(serialData, offset, length);
     }
 
     public boolean notifyDeviceFound() {
@@ -106,11 +106,7 @@ public class SerialUSBInterface extends SerialIOReceiver {
     }
 
     public boolean notifyStatus(String msgType, String statusMsg) {
-        Intent notifyIntent = new Intent(ChameleonSerialIOInterface.SERIALIO_NOTIFY_STATUS);
-        notifyIntent.putExtra("STATUS-TYPE", msgType);
-        notifyIntent.putExtra("STATUS-MSG", statusMsg);
-        notifyContext.sendBroadcast(notifyIntent);
-        return true;
+        return SerialIOEventBus.publishStatus(msgType, statusMsg);
     }
 
     public boolean isWiredUSB() { return true; }
@@ -129,7 +125,7 @@ public class SerialUSBInterface extends SerialIOReceiver {
     public int setSerialBaudRateHigh() {
         return setSerialBaudRate(ChameleonSerialIOInterface.HIGH_SPEED_BAUD_RATE);
     }
-    public int setSerialBuadRateLimited() {
+    public int setSerialBaudRateLimited() {
         return setSerialBaudRate(ChameleonSerialIOInterface.LIMITED_SPEED_BAUD_RATE);
     }
 
@@ -164,9 +160,31 @@ public class SerialUSBInterface extends SerialIOReceiver {
                                        activeDevice.getManufacturerName(), activeDevice.getProductName(),
                                        activeDevice.getVersion(), activeDevice.getSerialNumber(),
                                        activeDevice.getDeviceName());
+        if(serialIOWorker != null) {
+            devInfo += "\n" + serialIOWorker.getStatsSummary();
+        }
         return devInfo;
     }
 
+    /**
+     * @param usbDevice
+     * @return String identifier of the device that its serial link settings (the calibrated baud
+     *         rate) are stored under: the USB serial number when the device reports one, else
+     *         the product name and version (the profile key, Settings.chameleonDeviceSerialNumber)
+     */
+    private static String getDeviceSerialID(UsbDevice usbDevice) {
+        String usbSerialNumber = null;
+        try {
+            usbSerialNumber = usbDevice.getSerialNumber();
+        } catch(SecurityException se) {
+            Log.w(TAG, "Unable to read the USB serial number: " + se.getMessage());
+        }
+        if(usbSerialNumber != null && !usbSerialNumber.trim().isEmpty()) {
+            return usbSerialNumber.trim();
+        }
+        return String.format(Locale.ENGLISH, "%s-%s", usbDevice.getProductName(), usbDevice.getVersion());
+    }
+
     public int configureSerial() {
         if(serialConfigured()) {
             return STATUS_TRUE;
@@ -213,7 +231,9 @@ public class SerialUSBInterface extends SerialIOReceiver {
             serialPort.setStopBits(UsbSerialInterface.STOP_BITS_1);
             serialPort.setParity(UsbSerialInterface.PARITY_NONE);
             serialPort.setFlowControl(UsbSerialInterface.FLOW_CONTROL_OFF);
-            serialReaderCallback = createSerialReaderCallback();
+            serialIOWorker = createSerialIOWorker(serialPort);
+            serialIOWorker.start();
+            serialReaderCallback = createSerialReaderCallback(serialIOWorker);
             serialPort.read(serialReaderCallback);
         }
         else {
@@ -223,29 +243,39 @@ public class SerialUSBInterface extends SerialIOReceiver {
         }
         activeDevice = device;
         Settings.chameleonDeviceSerialNumber = String.format(Locale.ENGLISH, "%s-%s", activeDevice.getProductName(), activeDevice.getVersion());
+        Settings.chameleonDeviceUSBSerialNumber = getDeviceSerialID(activeDevice);
         ChameleonIO.PAUSED = false;
         serialConfigured = true;
         receiversRegistered = true;
         Settings.SERIALIO_IFACE_ACTIVE_INDEX = Settings.USBIO_IFACE_INDEX;
         LiveLoggerActivity.getInstance().setStatusIcon(R.id.statusIconUSB, R.drawable.usbconnected16);
         notifyStatus("USB STATUS: ", "Successfully configured the device in passive logging mode...\n" + getActiveDeviceInfo());
+        int calibratedBaudRate = SerialBaudRateCalibrator.getCalibratedBaudRate(Settings.chameleonDeviceUSBSerialNumber);
+        if(calibratedBaudRate > 0) {
+            setSerialBaudRate(calibratedBaudRate);
+        }
+        else {
+            SerialBaudRateCalibrator.startCalibration(this, Settings.chameleonDeviceUSBSerialNumber);
+        }
         return STATUS_TRUE;
     }
 
     public int shutdownSerial() {
+        XModemTransferSession.cancelActiveSession("Serial connection closed");
+        SerialBaudRateCalibrator.cancelCalibration();
+        if(serialIOWorker != null) {
+            serialIOWorker.stop();
+            serialIOWorker = null;
+        }
         if(serialPort != null)
             serialPort.close();
         ChameleonIO.PAUSED = true;
-        ExportTools.EOT = true;
-        ExportTools.transmissionErrorOccurred = true;
-        ChameleonIO.DOWNLOAD = false;
-        ChameleonIO.UPLOAD = false;
-        ChameleonIO.WAITING_FOR_XMODEM = false;
-        ChameleonIO.WAITING_FOR_RESPONSE = false;
-        ChameleonIO.EXPECTING_BINARY_DATA = false;
+        ChameleonCommandEngine.cancelPendingCommands();
         ChameleonIO.LASTCMD = "";
         ChameleonIO.APPEND_PRIOR_BUFFER_DATA = false;
-        ChameleonIO.PRIOR_BUFFER_DATA = new byte[0];
+        synchronized(getIngestBuffer()) {
+            getIngestBuffer().reset();
+        }
         serialPort = null;
         activeDevice = null;
         serialConfigured = false;
@@ -254,15 +284,31 @@ public class SerialUSBInterface extends SerialIOReceiver {
         return STATUS_TRUE;
     }
 
-    private UsbSerialInterface.UsbReadCallback createSerialReaderCallback() {
+    /**
+     * The reader callback runs on the USB library's read thread, so it only hands the data to
+     * the IO worker's receive ring; framing and event delivery happen on the decode thread.
+     */
+    private UsbSerialInterface.UsbReadCallback createSerialReaderCallback(final SerialUSBIOWorker ioWorker) {
         return new UsbSerialInterface.UsbReadCallback() {
             @Override
             public void onReceivedData(byte[] liveLogData) {
-                Settings.serialIOPorts[Settings.USBIO_IFACE_INDEX].onReceivedData(liveLogData);
+                ioWorker.offerReceivedData(liveLogData);
             }
         };
     }
 
+    private SerialUSBIOWorker createSerialIOWorker(final UsbSerialDevice usbSerialPort) {
+        return new SerialUSBIOWorker(this, new SerialUSBIOWorker.BulkWriter() {
+            public void writeBulk(byte[] dataBuf) {
+                usbSerialPort.write(dataBuf);
+            }
+        });
+    }
+
+    public SerialUSBIOWorker getSerialIOWorker() {
+        return serialIOWorker;
+    }
+
     public boolean serialConfigured() { return serialConfigured; }
 
     public boolean serialReceiversRegistered() { return receiversRegistered; }
@@ -310,12 +356,17 @@ public class SerialUSBInterface extends SerialIOReceiver {
         if(dataWriteBuffer == null || dataWriteBuffer.length == 0) {
             return STATUS_OK;
         }
-        else if(!serialConfigured()) {
+        else if(!serialConfigured() || serialIOWorker == null) {
             return STATUS_OK;
         }
-        Log.d(TAG, "USBReaderCallback Send Data: (HEX) " + Utils.bytes2Hex(dataWriteBuffer));
-        Log.d(TAG, "USBReaderCallback Send Data: (TXT) " + Utils.bytes2Ascii(dataWriteBuffer));
-        serialPort.write(dataWriteBuffer);
+        if(Log.isLoggable(TAG, Log.VERBOSE)) {
+            Log.v(TAG, "USBReaderCallback Send Data: (HEX) " + Utils.bytes2Hex(dataWriteBuffer));
+            Log.v(TAG, "USBReaderCallback Send Data: (TXT) " + Utils.bytes2Ascii(dataWriteBuffer));
+        }
+        if(!serialIOWorker.enqueueWrite(dataWriteBuffer)) {
+            Log.w(TAG, "Dropped " + dataWriteBuffer.length + " bytes: the USB transmit buffer is full");
+            return STATUS_FALSE;
+        }
         return STATUS_TRUE;
     }
 
@@ -27,8 +27,10 @@ public class Settings {
     public static boolean allowBluetooth = false;
     public static boolean allowAndroidNFC = false;
     public static int serialBaudRate = 115200;
+    public static int calibratedSerialBaudRate = 0;
 
     public static String chameleonDeviceSerialNumber = "<UNKNOWN>";
+    public static String chameleonDeviceUSBSerialNumber = "<UNKNOWN>";
     public static String chameleonDeviceNickname = "Chameleon Mini (Default)";
 
     public static final int SNIFFING_MODE_UNIDIRECTIONAL = 1;
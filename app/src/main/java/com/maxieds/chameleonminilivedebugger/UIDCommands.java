@@ -74,9 +74,9 @@ public class UIDCommands {
         ChameleonIO.deviceStatus.LASTUID = ChameleonIO.deviceStatus.UID;
         byte[] uid = UIDCommands.processUIDCommand(uidAction);
         String uidCmd = ChameleonIO.REVE_BOARD ? "uid" : "UID";
-        String cmdStatus = ChameleonIO.getSettingFromDevice(String.format(Locale.ENGLISH, "%s=%s", uidCmd, Utils.bytes2Hex(uid).replace(" ", "").toUpperCase()));
+        String cmdStatus = ChameleonIO.getSettingFromDevice(String.format(Locale.ENGLISH, "%s=%s", uidCmd, HexCodec.UPPER_PLAIN.encode(uid)));
         ChameleonIO.deviceStatus.startPostingStats(250);
-        MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("UID", "Next device UID set to " + Utils.bytes2Hex(uid).replace(" ", ":").toUpperCase()));
+        MainActivityLogUtils.appendNewLog(LogEntryMetadataRecord.createDefaultEventRecord("UID", "Next device UID set to " + HexCodec.UPPER_COLON.encode(uid)));
     }
 
 }
@@ -39,6 +39,7 @@ import android.widget.Switch;
 import android.widget.TextView;
 
 import androidx.core.widget.CompoundButtonCompat;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.shawnlin.numberpicker.NumberPicker;
 
@@ -86,27 +87,9 @@ public class UITabUtils {
     }
 
     public static boolean initializeLoggingTab(int menuItemIdx, View tabMainLayoutView) {
-        if(menuItemIdx == TAB_LOG_MITEM_LOGS && !MainActivityLogUtils.logDataFeedConfigured) {
-            ScrollView logScroller = (ScrollView) tabMainLayoutView.findViewById(R.id.log_scroll_view);
-            logScroller.removeAllViews();
-            LinearLayout logDataFeed = MainActivityLogUtils.logDataFeed;
-            logDataFeed.setOrientation(LinearLayout.VERTICAL);
-            logScroller.addView(logDataFeed);
-            logScroller.setFillViewport(true);
-            MainActivityLogUtils.logScrollView = logScroller;
-            MainActivityLogUtils.logDataFeed = logDataFeed;
-            MainActivityLogUtils.logDataFeedConfigured = true;
-        }
-        else if(menuItemIdx == TAB_LOG_MITEM_LOGS) {
-            if(MainActivityLogUtils.logDataFeed == null) {
-                MainActivityLogUtils.logDataFeed = new LinearLayout(LiveLoggerActivity.getInstance());
-            }
-            ScrollView logScroller = (ScrollView) tabMainLayoutView.findViewById(R.id.log_scroll_view);
-            if(MainActivityLogUtils.logScrollView.getChildCount() > 0) {
-                MainActivityLogUtils.logScrollView.removeViewAt(0);
-            }
-            logScroller.addView(MainActivityLogUtils.logDataFeed);
-            MainActivityLogUtils.logScrollView = logScroller;
+        if(menuItemIdx == TAB_LOG_MITEM_LOGS) {
+            RecyclerView logRecyclerView = (RecyclerView) tabMainLayoutView.findViewById(R.id.log_recycler_view);
+            MainActivityLogUtils.configureLogDataFeed(logRecyclerView);
         }
         else if(menuItemIdx == TAB_LOG_MITEM_LOGTOOLS) {
             UITabUtils.connectPeripheralSpinnerAdapter(tabMainLayoutView, R.id.LogModeSpinner,
@@ -143,6 +126,30 @@ public class UITabUtils {
                     AndroidSettingsStorage.updateValueByKey(AndroidSettingsStorage.LOGGING_CONFIG_COLLAPSE_COMMON_ENTRIES);
                 }
             });
+            ((CheckBox) tabMainLayoutView.findViewById(R.id.cbLoggingConfigFoldRepeatedCycles)).setChecked(ChameleonLogUtils.CONFIG_FOLD_REPEATED_CYCLES);
+            ((CheckBox) tabMainLayoutView.findViewById(R.id.cbLoggingConfigFoldRepeatedCycles)).setOnClickListener(new CheckBox.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    CheckBox cb = (CheckBox) view;
+                    ChameleonLogUtils.CONFIG_FOLD_REPEATED_CYCLES = cb.isChecked();
+                    if(!cb.isChecked()) {
+                        MainActivityLogUtils.logSequenceCompressor.flushPendingRecords();
+                    }
+                    AndroidSettingsStorage.updateValueByKey(AndroidSettingsStorage.LOGGING_CONFIG_FOLD_REPEATED_CYCLES);
+                }
+            });
+            String foldMaxCycleLengthFieldValue = String.format(Locale.ENGLISH, "%d", ChameleonLogUtils.CONFIG_FOLD_MAX_CYCLE_LENGTH);
+            ((EditText) tabMainLayoutView.findViewById(R.id.loggingFoldMaxCycleLengthField)).setText(foldMaxCycleLengthFieldValue);
+            ((EditText) tabMainLayoutView.findViewById(R.id.loggingFoldMaxCycleLengthField)).addTextChangedListener(new TextWatcher() {
+                @Override
+                public void afterTextChanged(Editable s) {
+                    LiveLoggerActivity.getInstance().actionButtonSetFoldMaxCycleLength(null);
+                }
+                @Override
+                public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+                @Override
+                public void onTextChanged(CharSequence s, int start, int before, int count) {}
+            });
             ((CheckBox) tabMainLayoutView.findViewById(R.id.cbLoggingEnableToolbarStatusUpdates)).setChecked(ChameleonLogUtils.CONFIG_ENABLE_LIVE_TOOLBAR_STATUS_UPDATES);
             ((CheckBox) tabMainLayoutView.findViewById(R.id.cbLoggingEnableToolbarStatusUpdates)).setOnClickListener(new CheckBox.OnClickListener() {
                 @Override
@@ -161,6 +168,32 @@ public class UITabUtils {
                     }
                 }
             });
+            ((CheckBox) tabMainLayoutView.findViewById(R.id.cbLoggingConfigStreamPcapngCapture)).setChecked(ChameleonLogUtils.CONFIG_STREAM_PCAPNG_CAPTURE);
+            ((CheckBox) tabMainLayoutView.findViewById(R.id.cbLoggingConfigStreamPcapngCapture)).setOnClickListener(new CheckBox.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    CheckBox cb = (CheckBox) view;
+                    ChameleonLogUtils.CONFIG_STREAM_PCAPNG_CAPTURE = cb.isChecked();
+                    if(cb.isChecked()) {
+                        MainActivityLogUtils.startLivePcapngCapture();
+                    }
+                    else {
+                        MainActivityLogUtils.stopLivePcapngCapture();
+                    }
+                    AndroidSettingsStorage.updateValueByKey(AndroidSettingsStorage.LOGGING_CONFIG_STREAM_PCAPNG_CAPTURE);
+                }
+            });
+            ((CheckBox) tabMainLayoutView.findViewById(R.id.cbLoggingConfigCompressionRatioEntropy)).setChecked(ChameleonLogUtils.CONFIG_COMPRESSION_RATIO_ENTROPY);
+            ((CheckBox) tabMainLayoutView.findViewById(R.id.cbLoggingConfigCompressionRatioEntropy)).setOnClickListener(new CheckBox.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    CheckBox cb = (CheckBox) view;
+                    ChameleonLogUtils.CONFIG_COMPRESSION_RATIO_ENTROPY = cb.isChecked();
+                    EntropyEstimator.setActiveMetric(cb.isChecked() ? EntropyEstimator.COMPRESSION_RATIO : EntropyEstimator.SHANNON_ENTROPY);
+                    MainActivityLogUtils.logDataFeed.notifyDataSetChanged();
+                    AndroidSettingsStorage.updateValueByKey(AndroidSettingsStorage.LOGGING_CONFIG_COMPRESSION_RATIO_ENTROPY);
+                }
+            });
         }
         else if(menuItemIdx == TAB_LOG_MITEM_SEARCH) {
             int states[][] = {{android.R.attr.state_checked}, {}};
@@ -36,7 +36,6 @@ import java.util.Locale;
 import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.Deflater;
 import java.util.UUID;
 
 /**
@@ -73,29 +72,38 @@ public class Utils {
 
     /**
      * Converts a string representation of a two-digit byte into a corresponding byte type.
+     * Malformed input is logged and converted to 0x00 (use HexCodec.decode to have it reported).
      * @param byteStr
      * @return byte representation of the String
      */
     public static byte hexString2Byte(String byteStr) {
         if (byteStr.length() != 2) {
             Log.e(TAG, "Invalid Byte String: " + byteStr);
-            //Crashlytics.log(Log.WARN, TAG, "Invalid Byte String Encountered: " + byteStr);
             return 0x00;
         }
-        int lsb = Character.digit(byteStr.charAt(1), 16);
-        int msb = Character.digit(byteStr.charAt(0), 16);
-        return (byte) (lsb | msb << 4);
+        try {
+            return HexCodec.decode(byteStr)[0];
+        } catch(HexCodec.MalformedHexException mhe) {
+            Log.e(TAG, "Invalid Byte String: " + mhe.getMessage());
+            return 0x00;
+        }
     }
 
-    // TODO: javadoc
+    /**
+     * Converts a hex string (optionally with space / colon separators between the bytes) into
+     * the corresponding bytes, reading an odd number of digits as if it had a leading '0'.
+     * Malformed input is logged and converted to zero bytes (use HexCodec.decode to have it
+     * reported).
+     * @param byteStr
+     * @return byte[] representation of the String
+     */
     public static byte[] hexString2Bytes(String byteStr) {
-        if (byteStr.length() % 2 != 0) { // left-pad the string:
-            byteStr = "0" + byteStr;
+        try {
+            return HexCodec.decode(byteStr, true);
+        } catch(HexCodec.MalformedHexException mhe) {
+            Log.e(TAG, "Invalid Byte String: " + mhe.getMessage());
+            return new byte[(byteStr.length() + 1) / 2];
         }
-        byte[] byteRep = new byte[byteStr.length() / 2];
-        for (int b = 0; b < byteStr.length(); b += 2)
-            byteRep[b / 2] = hexString2Byte(byteStr.substring(b, b + 2));
-        return byteRep;
     }
 
     /**
@@ -133,13 +141,7 @@ public class Utils {
     public static String bytes2Hex(byte[] bytes) {
         if (bytes == null)
             return "<NULL>";
-        else if (bytes.length == 0)
-            return "";
-        StringBuilder hstr = new StringBuilder();
-        hstr.append(String.format(Locale.ENGLISH, "%02x", bytes[0]));
-        for (int b = 1; b < bytes.length; b++)
-            hstr.append(" " + String.format(Locale.ENGLISH, "%02x", bytes[b]));
-        return hstr.toString();
+        return HexCodec.LOWER_SPACED.encode(bytes);
     }
 
     /**
@@ -270,27 +272,6 @@ public class Utils {
         return str.substring(0, maxNumChars) + "...";
     }
 
-    /**
-     * Computes a measure of entropy (i.e., how likely the payload data is to be encrypted) by
-     * compressing the input byte array and comparing the resulting size (in bytes) to the
-     * original array.
-     * @param inputBytes
-     * @return entropy rating
-     */
-    public static double computeByteArrayEntropy(byte[] inputBytes) {
-        Deflater cmpr = new Deflater();
-        cmpr.setLevel(Deflater.BEST_COMPRESSION);
-        cmpr.setInput(inputBytes);
-        cmpr.finish();
-        int cmprByteCount = 0;
-        while (!cmpr.finished()) {
-            cmprByteCount += cmpr.deflate(new byte[1024]);
-        }
-        double entropyRatio = (double) cmprByteCount / inputBytes.length;
-        Log.i(TAG, String.format(Locale.ENGLISH, "Compressed #%d bytes to #%d bytes ... Entropy ratio = %1.4g", inputBytes.length, cmprByteCount, entropyRatio));
-        return entropyRatio;
-    }
-
     public static int parseInt(String numberStr) {
         try {
             int rNum = Integer.parseInt(numberStr);
@@ -0,0 +1,556 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * <h1>XModem Engine</h1>
+ * Protocol engine for one XModem transfer with the Chameleon. The engine does no I/O of its
+ * own: the bytes received from the device are fed into onDataReceived, and the bytes it
+ * returns are to be sent back to the device by the caller.
+ *
+ * As the receiver, the engine first asks for CRC-16 mode (a single 'C') and accepts both 128 byte
+ * (SOH) and 1K (STX) blocks. When the firmware does not answer the CRC request within
+ * CRC_REQUEST_TIMEOUT, it falls back to the classic 128 byte checksum mode by sending a NAK,
+ * and remembers this for the later transfers with the same device. As the sender, it follows the mode requested by the device, and
+ * sends 1K blocks only to receivers that asked for CRC-16 mode (dropping back to 128 byte
+ * blocks if the first 1K block is rejected). Received blocks are verified in a single frame
+ * buffer and copied straight into a preallocated output buffer.
+ *
+ * @ref XModemTransferSession
+ * @ref ExportTools.downloadByXModem
+ * @url http://rawgit.com/emsec/ChameleonMini/master/Doc/Doxygen/html/_x_modem_8h_source.html
+ */
+public class XModemEngine {
+
+    private static final String TAG = XModemEngine.class.getSimpleName();
+
+    /**
+     * Named XModem connection status bytes.
+     */
+    public static final byte BYTE_SOH = (byte) 0x01;
+    public static final byte BYTE_STX = (byte) 0x02;
+    public static final byte BYTE_EOT = (byte) 0x04;
+    public static final byte BYTE_ACK = (byte) 0x06;
+    public static final byte BYTE_NAK = (byte) 0x15;
+    public static final byte BYTE_CAN = (byte) 0x18;
+    public static final byte BYTE_EOF = (byte) 0x1A;
+    public static final byte BYTE_CRC_REQUEST = (byte) 'C';
+
+    public static final int BLOCK_SIZE = 128;
+    public static final int BLOCK_SIZE_1K = 1024;
+    private static final int FRAME_HEADER_SIZE = 3;
+    private static final int MAX_FRAME_SIZE = FRAME_HEADER_SIZE + BLOCK_SIZE_1K + 2;
+    private static final int CAN_SEQUENCE_LENGTH = 2;
+
+    public static final int MAX_NAK_COUNT = 20; // to match the Chameleon device standard
+    public static final int CRC_REQUEST_TIMEOUT = 300;
+    public static final int MAX_EOT_RETRIES = 5;
+    public static final int FRAME_TIMEOUT = 1000;
+    public static final int RESPONSE_TIMEOUT = 3000;
+    public static final int START_TIMEOUT = 10000;
+    public static final int DEFAULT_RECEIVE_CAPACITY = 64 * 1024;
+
+    public static final int ROLE_RECEIVER = 1;
+    public static final int ROLE_SENDER = 2;
+
+    private static final int STATE_NEGOTIATE = 0;
+    private static final int STATE_TRANSFER = 1;
+    private static final int STATE_SEND_EOT = 2;
+    private static final int STATE_FINISHED = 3;
+    private static final int STATE_FAILED = 4;
+
+    /**
+     * Modes negotiated with the connected device: CRC-16 support is only probed once.
+     */
+    private static final int CRC_SUPPORT_UNKNOWN = 0;
+    private static final int CRC_SUPPORT_YES = 1;
+    private static final int CRC_SUPPORT_NO = 2;
+    private static int deviceCRCSupport = CRC_SUPPORT_UNKNOWN;
+
+    public static boolean ENABLE_CRC_MODE = true;
+    public static boolean ENABLE_1K_BLOCKS = true;
+
+    public static void resetNegotiatedModes() {
+        deviceCRCSupport = CRC_SUPPORT_UNKNOWN;
+    }
+
+    private static final int[] CRC16_TABLE = new int[256];
+    static {
+        for(int bi = 0; bi < 256; bi++) {
+            int crc = bi << 8;
+            for(int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[bi] = crc & 0xffff;
+        }
+    }
+
+    /**
+     * CRC-16/XMODEM (polynomial 0x1021, initial value 0).
+     */
+    public static int calcCRC16(byte[] buffer, int offset, int length) {
+        int crc = 0;
+        for(int bi = offset; bi < offset + length; bi++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ buffer[bi]) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+
+    public static byte calcChecksum(byte[] buffer, int offset, int length) {
+        byte checksum = 0;
+        for(int bi = offset; bi < offset + length; bi++) {
+            checksum += buffer[bi];
+        }
+        return checksum;
+    }
+
+    private final int role;
+    private int state;
+    private boolean useCRC;
+    private boolean use1KBlocks;
+    private int nakCount;
+    private int eotCount;
+    private String errorMessage;
+
+    private final byte[] frameBuffer = new byte[MAX_FRAME_SIZE];
+    private int frameFill;
+    private int frameSize;
+    private byte frameNumber;
+
+    /**
+     * Receiver: blocks written so far. Sender: the data to send.
+     */
+    private byte[] dataBuffer;
+    private int dataLength;
+    private int dataPosition;
+    private int blockSize;
+
+    private long startTimeMillis;
+    private long firstBlockMillis;
+    private long lastBlockMillis;
+    private long lastActivityMillis;
+
+    private final byte[] responseBuffer = new byte[MAX_FRAME_SIZE + CAN_SEQUENCE_LENGTH];
+    private int responseLength;
+
+    private XModemEngine(int role) {
+        this.role = role;
+        state = STATE_NEGOTIATE;
+        frameNumber = 1;
+        frameFill = 0;
+        nakCount = 0;
+        eotCount = 0;
+        firstBlockMillis = lastBlockMillis = -1;
+    }
+
+    /**
+     * @param sizeHint expected number of bytes (0 if unknown): sizes the output buffer
+     * @return XModemEngine receiver for a DOWNLOAD / LOGDOWNLOAD transfer
+     */
+    public static XModemEngine createReceiver(int sizeHint) {
+        XModemEngine xmodem = new XModemEngine(ROLE_RECEIVER);
+        int capacity = sizeHint > 0 ? sizeHint + BLOCK_SIZE_1K : DEFAULT_RECEIVE_CAPACITY;
+        xmodem.dataBuffer = new byte[capacity];
+        xmodem.dataLength = 0;
+        xmodem.useCRC = ENABLE_CRC_MODE && deviceCRCSupport != CRC_SUPPORT_NO;
+        return xmodem;
+    }
+
+    /**
+     * @param dataSource the complete source is read in before the transfer starts
+     * @return XModemEngine sender for an UPLOAD transfer
+     * @throws IOException
+     */
+    public static XModemEngine createSender(InputStream dataSource) throws IOException {
+        XModemEngine xmodem = new XModemEngine(ROLE_SENDER);
+        byte[] sourceData = new byte[Math.max(dataSource.available(), BLOCK_SIZE)];
+        int sourceLength = 0, readCount;
+        while((readCount = dataSource.read(sourceData, sourceLength, sourceData.length - sourceLength)) > 0) {
+            sourceLength += readCount;
+            if(sourceLength == sourceData.length) {
+                sourceData = Arrays.copyOf(sourceData, 2 * sourceData.length);
+            }
+        }
+        xmodem.dataBuffer = sourceData;
+        xmodem.dataLength = sourceLength;
+        xmodem.dataPosition = 0;
+        return xmodem;
+    }
+
+    public boolean isFinished() {
+        return state == STATE_FINISHED;
+    }
+
+    public boolean isFailed() {
+        return state == STATE_FAILED;
+    }
+
+    public boolean isDone() {
+        return state == STATE_FINISHED || state == STATE_FAILED;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * @return byte[] the buffer holding the received data (only the first getDataLength()
+     *         bytes are valid)
+     */
+    public byte[] getDataBuffer() {
+        return dataBuffer;
+    }
+
+    public int getDataLength() {
+        return role == ROLE_RECEIVER ? dataLength : dataPosition;
+    }
+
+    public String getModeDescription() {
+        if(!useCRC) {
+            return "XModem (checksum)";
+        }
+        return use1KBlocks ? "XModem-1K (CRC-16)" : "XModem (CRC-16)";
+    }
+
+    /**
+     * @return String summary of the transfer size, time and effective throughput
+     */
+    public String getThroughputSummary() {
+        long endMillis = lastBlockMillis >= 0 ? lastBlockMillis : lastActivityMillis;
+        long elapsedMillis = Math.max(1, endMillis - startTimeMillis);
+        double kbPerSecond = getDataLength() / 1024.0 / (elapsedMillis / 1000.0);
+        return String.format(Locale.ENGLISH, "%d bytes in %.2f s (%.1f KB/s, %s)",
+                getDataLength(), elapsedMillis / 1000.0, kbPerSecond, getModeDescription());
+    }
+
+    /**
+     * Starts the transfer.
+     * @param nowMillis
+     * @return byte[] the bytes to send to the device (null if nothing)
+     */
+    public byte[] start(long nowMillis) {
+        startTimeMillis = lastActivityMillis = nowMillis;
+        if(role == ROLE_SENDER) {
+            return null; // wait for the receiver to ask for the first block
+        }
+        if(useCRC) {
+            return new byte[] { BYTE_CRC_REQUEST };
+        }
+        state = STATE_TRANSFER;
+        return new byte[] { BYTE_NAK };
+    }
+
+    /**
+     * Feeds the bytes received from the device into the engine.
+     * @param dataBuf
+     * @param offset
+     * @param length
+     * @param nowMillis
+     * @return byte[] the bytes to send back to the device (null if nothing)
+     */
+    public byte[] onDataReceived(byte[] dataBuf, int offset, int length, long nowMillis) {
+        responseLength = 0;
+        if(isDone()) {
+            return null;
+        }
+        lastActivityMillis = nowMillis;
+        if(role == ROLE_RECEIVER) {
+            for(int bi = offset; bi < offset + length && !isDone(); bi++) {
+                receiveByte(dataBuf[bi], nowMillis);
+            }
+        }
+        else {
+            // we only ever have one frame outstanding, so when several control bytes arrive
+            // in the same chunk the earlier ones answer frames that were already resent:
+            // only act on the last one (or on a CAN anywhere in the chunk).
+            int controlIndex = -1;
+            for(int bi = offset; bi < offset + length; bi++) {
+                byte rxByte = dataBuf[bi];
+                if(rxByte == BYTE_CAN) {
+                    controlIndex = bi;
+                    break;
+                }
+                else if(rxByte == BYTE_ACK || rxByte == BYTE_NAK || rxByte == BYTE_CRC_REQUEST) {
+                    controlIndex = bi;
+                }
+            }
+            if(controlIndex >= 0) {
+                senderResponseByte(dataBuf[controlIndex], nowMillis);
+            }
+        }
+        return responseLength > 0 ? Arrays.copyOf(responseBuffer, responseLength) : null;
+    }
+
+    /**
+     * @return long time at which onTimeout has to be called next (-1 once the transfer is done)
+     */
+    public long getNextTimeoutMillis() {
+        if(isDone()) {
+            return -1;
+        }
+        else if(role == ROLE_RECEIVER) {
+            return lastActivityMillis + (state == STATE_NEGOTIATE ? CRC_REQUEST_TIMEOUT : FRAME_TIMEOUT);
+        }
+        return lastActivityMillis + (state == STATE_NEGOTIATE ? START_TIMEOUT : RESPONSE_TIMEOUT);
+    }
+
+    /**
+     * Handles the protocol timeouts.
+     * @param nowMillis
+     * @return byte[] the bytes to send to the device (null if nothing)
+     */
+    public byte[] onTimeout(long nowMillis) {
+        responseLength = 0;
+        long idleMillis = nowMillis - lastActivityMillis;
+        if(isDone()) {
+            return null;
+        }
+        else if(role == ROLE_RECEIVER && state == STATE_NEGOTIATE && idleMillis >= CRC_REQUEST_TIMEOUT) {
+            // the firmware only speaks the classic checksum mode (the 'C' is sent once only,
+            // a device with CRC-16 support answers it right away):
+            lastActivityMillis = nowMillis;
+            Log.i(TAG, "No answer to the CRC-16 request: falling back to checksum mode");
+            deviceCRCSupport = CRC_SUPPORT_NO;
+            useCRC = false;
+            state = STATE_TRANSFER;
+            queueResponse(BYTE_NAK);
+        }
+        else if(role == ROLE_RECEIVER && state == STATE_TRANSFER && idleMillis >= FRAME_TIMEOUT) {
+            lastActivityMillis = nowMillis;
+            frameFill = 0;
+            rejectFrame("Timed out waiting for the next block");
+        }
+        else if(role == ROLE_SENDER && state == STATE_NEGOTIATE && idleMillis >= START_TIMEOUT) {
+            abortTransfer("The device never asked for the first block");
+        }
+        else if(role == ROLE_SENDER && state == STATE_TRANSFER && idleMillis >= RESPONSE_TIMEOUT) {
+            lastActivityMillis = nowMillis;
+            if(++nakCount > MAX_NAK_COUNT) {
+                abortTransfer("Timed out waiting for the device to acknowledge the block");
+            }
+            else {
+                queueFrame();
+            }
+        }
+        else if(role == ROLE_SENDER && state == STATE_SEND_EOT && idleMillis >= RESPONSE_TIMEOUT) {
+            lastActivityMillis = nowMillis;
+            if(++eotCount > MAX_EOT_RETRIES) {
+                abortTransfer("The device never acknowledged the end of the transfer");
+            }
+            else {
+                queueResponse(BYTE_EOT);
+            }
+        }
+        return responseLength > 0 ? Arrays.copyOf(responseBuffer, responseLength) : null;
+    }
+
+    /**
+     * Aborts the transfer from our side.
+     * @param reason
+     * @return byte[] the bytes to send to the device (null if the transfer was already done)
+     */
+    public byte[] cancel(String reason) {
+        responseLength = 0;
+        if(isDone()) {
+            return null;
+        }
+        abortTransfer(reason);
+        return Arrays.copyOf(responseBuffer, responseLength);
+    }
+
+    private void queueResponse(byte responseByte) {
+        responseBuffer[responseLength++] = responseByte;
+    }
+
+    private void abortTransfer(String reason) {
+        Log.w(TAG, "Aborting the XModem transfer: " + reason);
+        errorMessage = reason;
+        state = STATE_FAILED;
+        responseLength = 0; // whatever was queued is not sent anymore
+        for(int ci = 0; ci < CAN_SEQUENCE_LENGTH; ci++) {
+            queueResponse(BYTE_CAN);
+        }
+    }
+
+    private void rejectFrame(String reason) {
+        if(++nakCount > MAX_NAK_COUNT) {
+            abortTransfer("Maximum number of NAK errors exceeded (" + reason + ")");
+            return;
+        }
+        Log.w(TAG, "Sent another NAK (" + reason + ") : # = " + nakCount);
+        queueResponse(BYTE_NAK);
+    }
+
+    private void receiveByte(byte rxByte, long nowMillis) {
+        if(frameFill == 0) {
+            if(rxByte == BYTE_SOH || rxByte == BYTE_STX) {
+                if(state == STATE_NEGOTIATE) {
+                    state = STATE_TRANSFER;
+                    deviceCRCSupport = CRC_SUPPORT_YES;
+                }
+                int blockLength = rxByte == BYTE_STX ? BLOCK_SIZE_1K : BLOCK_SIZE;
+                use1KBlocks |= rxByte == BYTE_STX;
+                frameSize = FRAME_HEADER_SIZE + blockLength + (useCRC ? 2 : 1);
+                frameBuffer[frameFill++] = rxByte;
+            }
+            else if(rxByte == BYTE_EOT && state == STATE_TRANSFER) {
+                queueResponse(BYTE_ACK);
+                state = STATE_FINISHED;
+            }
+            else if(rxByte == BYTE_CAN) {
+                errorMessage = "Transfer cancelled by the device";
+                state = STATE_FAILED;
+            }
+            return; // anything else is line noise between the frames
+        }
+        frameBuffer[frameFill++] = rxByte;
+        if(frameFill < frameSize) {
+            return;
+        }
+        frameFill = 0;
+        int blockLength = frameSize - FRAME_HEADER_SIZE - (useCRC ? 2 : 1);
+        if(frameBuffer[2] != (byte) ~frameBuffer[1]) {
+            rejectFrame("header bytes");
+            return;
+        }
+        else if(!verifyFrame(blockLength)) {
+            rejectFrame(useCRC ? "invalid CRC" : "invalid checksum");
+            return;
+        }
+        else if(frameBuffer[1] == (byte) (frameNumber - 1)) {
+            queueResponse(BYTE_ACK); // our last ACK got lost: the block is a repeat
+            return;
+        }
+        else if(frameBuffer[1] != frameNumber) {
+            abortTransfer("Block numbers out of sequence");
+            return;
+        }
+        if(dataLength + blockLength > dataBuffer.length) {
+            dataBuffer = Arrays.copyOf(dataBuffer, Math.max(2 * dataBuffer.length, dataLength + blockLength));
+        }
+        System.arraycopy(frameBuffer, FRAME_HEADER_SIZE, dataBuffer, dataLength, blockLength);
+        dataLength += blockLength;
+        frameNumber++;
+        nakCount = 0;
+        if(firstBlockMillis < 0) {
+            firstBlockMillis = nowMillis;
+        }
+        lastBlockMillis = nowMillis;
+        queueResponse(BYTE_ACK);
+    }
+
+    private boolean verifyFrame(int blockLength) {
+        int checkOffset = FRAME_HEADER_SIZE + blockLength;
+        if(useCRC) {
+            int frameCRC = ((frameBuffer[checkOffset] & 0xff) << 8) | (frameBuffer[checkOffset + 1] & 0xff);
+            return calcCRC16(frameBuffer, FRAME_HEADER_SIZE, blockLength) == frameCRC;
+        }
+        return calcChecksum(frameBuffer, FRAME_HEADER_SIZE, blockLength) == frameBuffer[checkOffset];
+    }
+
+    private void senderResponseByte(byte rxByte, long nowMillis) {
+        if(state == STATE_NEGOTIATE) {
+            if(rxByte != BYTE_NAK && rxByte != BYTE_CRC_REQUEST) {
+                return;
+            }
+            useCRC = rxByte == BYTE_CRC_REQUEST && ENABLE_CRC_MODE;
+            use1KBlocks = useCRC && ENABLE_1K_BLOCKS;
+            state = STATE_TRANSFER;
+            queueFrame();
+        }
+        else if(rxByte == BYTE_CAN) {
+            errorMessage = "Transfer cancelled by the device";
+            state = STATE_FAILED;
+        }
+        else if(state == STATE_TRANSFER && rxByte == BYTE_ACK) {
+            dataPosition += blockSize;
+            frameNumber++;
+            nakCount = 0;
+            if(firstBlockMillis < 0) {
+                firstBlockMillis = nowMillis;
+            }
+            lastBlockMillis = nowMillis;
+            if(dataPosition >= dataLength) {
+                state = STATE_SEND_EOT;
+                queueResponse(BYTE_EOT);
+            }
+            else {
+                queueFrame();
+            }
+        }
+        else if(state == STATE_TRANSFER && rxByte == BYTE_NAK) {
+            if(++nakCount > MAX_NAK_COUNT) {
+                abortTransfer("Maximum number of NAK errors exceeded");
+                return;
+            }
+            if(blockSize == BLOCK_SIZE_1K && firstBlockMillis < 0) {
+                Log.i(TAG, "The first 1K block was rejected: falling back to 128 byte blocks");
+                use1KBlocks = false;
+            }
+            queueFrame();
+        }
+        else if(state == STATE_SEND_EOT) {
+            if(rxByte == BYTE_ACK) {
+                state = STATE_FINISHED;
+            }
+            else if(rxByte == BYTE_NAK) {
+                if(++eotCount > MAX_EOT_RETRIES) {
+                    abortTransfer("The device kept rejecting the end of the transfer");
+                    return;
+                }
+                queueResponse(BYTE_EOT);
+            }
+        }
+    }
+
+    /**
+     * Builds the frame of the block at dataPosition into the response buffer (replacing
+     * anything queued before it). The last (partial) block is padded with BYTE_EOF.
+     */
+    private void queueFrame() {
+        int remaining = dataLength - dataPosition;
+        blockSize = use1KBlocks && remaining >= BLOCK_SIZE_1K ? BLOCK_SIZE_1K : BLOCK_SIZE;
+        int frameStart = 0;
+        responseBuffer[frameStart] = blockSize == BLOCK_SIZE_1K ? BYTE_STX : BYTE_SOH;
+        responseBuffer[frameStart + 1] = frameNumber;
+        responseBuffer[frameStart + 2] = (byte) ~frameNumber;
+        int blockStart = frameStart + FRAME_HEADER_SIZE;
+        int copyLength = Math.min(blockSize, remaining);
+        System.arraycopy(dataBuffer, dataPosition, responseBuffer, blockStart, copyLength);
+        Arrays.fill(responseBuffer, blockStart + copyLength, blockStart + blockSize, BYTE_EOF);
+        int checkOffset = blockStart + blockSize;
+        if(useCRC) {
+            int crc = calcCRC16(responseBuffer, blockStart, blockSize);
+            responseBuffer[checkOffset] = (byte) (crc >>> 8);
+            responseBuffer[checkOffset + 1] = (byte) crc;
+            responseLength = checkOffset + 2;
+        }
+        else {
+            responseBuffer[checkOffset] = calcChecksum(responseBuffer, blockStart, blockSize);
+            responseLength = checkOffset + 1;
+        }
+    }
+
+}
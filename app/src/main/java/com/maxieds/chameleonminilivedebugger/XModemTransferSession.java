@@ -0,0 +1,205 @@
+/*
+This program (The Chameleon Mini Live Debugger) is free software written by
+Maxie Dion Schmidt: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+The complete license provided with source distributions of this library is
+available at the following link:
+https://github.com/maxieds/ChameleonMiniLiveDebugger
+*/
+
+package com.maxieds.chameleonminilivedebugger;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <h1>XModem Transfer Session</h1>
+ * Runs one XModem transfer with the device. The session is driven only by the serial data it
+ * receives (on the serial reader thread) and by the protocol deadlines of its XModemEngine,
+ * which are scheduled at their exact times on the XModem transfer thread. Its completion
+ * future completes with the engine once the transfer has finished (or exceptionally if it
+ * failed). At most one session is active at any time: a second session refuses to start
+ * instead of sharing the serial data with the first.
+ *
+ * @ref ExportTools.downloadByXModem
+ * @ref ExportTools.uploadCardFileByXModem
+ * @ref SerialIOReceiver.onSerialDataFramed
+ */
+public class XModemTransferSession {
+
+    private static final String TAG = XModemTransferSession.class.getSimpleName();
+
+    private static final AtomicReference<XModemTransferSession> activeSession = new AtomicReference<XModemTransferSession>(null);
+    private static HandlerThread transferThread = null;
+    private static Handler transferHandler = null;
+
+    /**
+     * @return Handler of the (lazily started) thread that sets up the transfers, handles
+     *         their timeouts and cleans up after them
+     */
+    public static synchronized Handler getTransferHandler() {
+        if(transferHandler == null) {
+            transferThread = new HandlerThread("XModemTransfer");
+            transferThread.start();
+            transferHandler = new Handler(transferThread.getLooper());
+        }
+        return transferHandler;
+    }
+
+    public static Executor getTransferExecutor() {
+        return new Executor() {
+            public void execute(Runnable runnable) {
+                getTransferHandler().post(runnable);
+            }
+        };
+    }
+
+    public static XModemTransferSession getActiveSession() {
+        return activeSession.get();
+    }
+
+    public static boolean isTransferActive() {
+        return activeSession.get() != null;
+    }
+
+    public static void cancelActiveSession(String reason) {
+        XModemTransferSession xmodemSession = activeSession.get();
+        if(xmodemSession != null) {
+            xmodemSession.cancel(reason);
+        }
+    }
+
+    private final XModemEngine xmodem;
+    private final ChameleonSerialIOInterface serialIOPort;
+    private final CompletableFuture<XModemEngine> completionFuture;
+    private long scheduledTimeoutMillis;
+    private final Runnable timeoutRunnable = new Runnable() {
+        public void run() {
+            onTimeout();
+        }
+    };
+
+    public XModemTransferSession(XModemEngine xmodem, ChameleonSerialIOInterface serialIOPort) {
+        this.xmodem = xmodem;
+        this.serialIOPort = serialIOPort;
+        completionFuture = new CompletableFuture<XModemEngine>();
+        scheduledTimeoutMillis = -1;
+    }
+
+    public XModemEngine getEngine() {
+        return xmodem;
+    }
+
+    public CompletableFuture<XModemEngine> getCompletionFuture() {
+        return completionFuture;
+    }
+
+    /**
+     * Makes this the active session and sends the first bytes of the transfer.
+     * @return boolean false (and the completion future fails) if another transfer is running
+     */
+    public boolean start() {
+        if(!activeSession.compareAndSet(null, this)) {
+            completionFuture.completeExceptionally(new IllegalStateException("Another XModem transfer is already running"));
+            return false;
+        }
+        synchronized(this) {
+            sendToDevice(xmodem.start(SystemClock.uptimeMillis()));
+            scheduleTimeout();
+        }
+        return true;
+    }
+
+    /**
+     * Feeds the serial data received while the session is active into the transfer.
+     * @param dataBuf
+     * @param offset
+     * @param length
+     */
+    public synchronized void onDataReceived(byte[] dataBuf, int offset, int length) {
+        if(completionFuture.isDone()) {
+            return;
+        }
+        sendToDevice(xmodem.onDataReceived(dataBuf, offset, length, SystemClock.uptimeMillis()));
+        if(!checkCompletion() && xmodem.getNextTimeoutMillis() < scheduledTimeoutMillis) {
+            scheduleTimeout();
+        }
+    }
+
+    public synchronized void cancel(String reason) {
+        if(completionFuture.isDone()) {
+            return;
+        }
+        Log.i(TAG, "Cancelling the XModem transfer: " + reason);
+        sendToDevice(xmodem.cancel(reason));
+        checkCompletion();
+    }
+
+    private synchronized void onTimeout() {
+        if(completionFuture.isDone()) {
+            return;
+        }
+        long nowMillis = SystemClock.uptimeMillis();
+        if(nowMillis < xmodem.getNextTimeoutMillis()) {
+            scheduleTimeout(); // data has arrived since the timeout was scheduled
+            return;
+        }
+        sendToDevice(xmodem.onTimeout(nowMillis));
+        if(!checkCompletion()) {
+            scheduleTimeout();
+        }
+    }
+
+    private void scheduleTimeout() {
+        Handler timeoutHandler = getTransferHandler();
+        timeoutHandler.removeCallbacks(timeoutRunnable);
+        scheduledTimeoutMillis = xmodem.getNextTimeoutMillis();
+        if(scheduledTimeoutMillis >= 0) {
+            timeoutHandler.postAtTime(timeoutRunnable, scheduledTimeoutMillis);
+        }
+    }
+
+    private boolean checkCompletion() {
+        if(!xmodem.isDone()) {
+            return false;
+        }
+        getTransferHandler().removeCallbacks(timeoutRunnable);
+        scheduledTimeoutMillis = -1;
+        activeSession.compareAndSet(this, null);
+        if(xmodem.isFinished()) {
+            completionFuture.complete(xmodem);
+        }
+        else {
+            completionFuture.completeExceptionally(new IOException(xmodem.getErrorMessage()));
+        }
+        return true;
+    }
+
+    private void sendToDevice(byte[] dataBytes) {
+        if(dataBytes == null) {
+            return;
+        }
+        try {
+            serialIOPort.sendDataBuffer(dataBytes);
+        } catch(Exception ex) {
+            ex.printStackTrace();
+            Log.w(TAG, "Unable to write the XModem data to the device");
+        }
+    }
+
+}
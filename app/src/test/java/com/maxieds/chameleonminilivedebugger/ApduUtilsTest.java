@@ -0,0 +1,124 @@
+package com.maxieds.chameleonminilivedebugger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the compiled APDU classification tables: expansion of the 'x' wildcard
+ * nibbles, label order for keys shared by several rows, and the detailed instruction patterns.
+ */
+public class ApduUtilsTest {
+
+    /**
+     * Splits the rows the same way as Utils.readCSVFile.
+     */
+    private static List<String[]> csvLines(String... rows) {
+        List<String[]> csvLines = new ArrayList<String[]>();
+        for (String row : rows) {
+            csvLines.add(row.split(","));
+        }
+        return csvLines;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int bi = 0; bi < values.length; bi++) {
+            bytes[bi] = (byte) values[bi];
+        }
+        return bytes;
+    }
+
+    @Before
+    public void setUp() {
+        ApduUtils.compileClassificationTables(
+                csvLines("90,0a,AUTHENTICATE (DESFIRE)",
+                         "90,xx,ANY_NATIVE_COMMAND",
+                         "x0,af,ADDITIONAL_FRAME"),
+                csvLines("91,00,OPERATION_OK (DESFIRE)"),
+                csvLines("62,CX,WARNING: Counter with value x",
+                         "6x,82,WARNING: End of file",
+                         "90,00,OK"),
+                csvLines("a4,SELECT_FILE (ISO 7816-4)",
+                         "a4,SELECT (TS 51.011)",
+                         "bx,READ_BINARY_FAMILY"),
+                csvLines("80,0C,00,xx,CHECK_FLASH",
+                         "x0,04,00,00,INVALIDATE"));
+    }
+
+    @Test
+    public void wildcardLowNibble_matchesEveryValueOfTheNibble() {
+        for (int lowNibble = 0; lowNibble < 16; lowNibble++) {
+            assertEquals(Arrays.asList("WARNING: Counter with value x"),
+                         ApduUtils.parseStatusCodes(bytes(0x62, 0xc0 | lowNibble)));
+        }
+        assertTrue(ApduUtils.parseStatusCodes(bytes(0x62, 0xb0)).isEmpty());
+        assertTrue(ApduUtils.parseStatusCodes(bytes(0x62, 0xd0)).isEmpty());
+    }
+
+    @Test
+    public void wildcardHighNibble_matchesEveryValueOfTheNibble() {
+        for (int highNibble = 0; highNibble < 16; highNibble++) {
+            List<String> labels = ApduUtils.parseStatusCodes(bytes(highNibble << 4 | 0x02, 0x82));
+            assertEquals(highNibble == 6 ? Arrays.asList("WARNING: End of file") : new ArrayList<String>(), labels);
+        }
+    }
+
+    @Test
+    public void wildcardByte_matchesAllKeysAndKeepsTheRowOrder() {
+        for (int ins = 0; ins < 256; ins++) {
+            List<String> labels = ApduUtils.parseDesfireInstructions(bytes(0x90, ins));
+            if (ins == 0x0a) {
+                assertEquals(Arrays.asList("AUTHENTICATE (DESFIRE)", "ANY_NATIVE_COMMAND"), labels);
+            }
+            else if (ins == 0xaf) {
+                assertEquals(Arrays.asList("ANY_NATIVE_COMMAND", "ADDITIONAL_FRAME"), labels);
+            }
+            else {
+                assertEquals(Arrays.asList("ANY_NATIVE_COMMAND"), labels);
+            }
+        }
+        assertTrue(ApduUtils.parseDesfireInstructions(bytes(0x91, 0x0a)).isEmpty());
+        assertEquals(Arrays.asList("ADDITIONAL_FRAME"), ApduUtils.parseDesfireInstructions(bytes(0xf0, 0xaf)));
+        assertTrue(ApduUtils.parseDesfireInstructions(bytes(0xf1, 0xaf)).isEmpty());
+    }
+
+    @Test
+    public void fullySpecifiedKey_matchesOnlyItself() {
+        assertEquals(Arrays.asList("OPERATION_OK (DESFIRE)"), ApduUtils.parseDesfireStatusCodes(bytes(0x0a, 0x91, 0x00)));
+        assertTrue(ApduUtils.parseDesfireStatusCodes(bytes(0x91, 0x01)).isEmpty());
+        assertEquals(Arrays.asList("OK"), ApduUtils.parseStatusCodes(bytes(0x90, 0x00)));
+    }
+
+    @Test
+    public void commonInstructions_areKeyedByOneByte() {
+        assertEquals(Arrays.asList("SELECT_FILE (ISO 7816-4)", "SELECT (TS 51.011)"),
+                     ApduUtils.parseCommonInstructions(bytes(0x00, 0xa4, 0x04, 0x00)));
+        for (int lowNibble = 0; lowNibble < 16; lowNibble++) {
+            assertEquals(Arrays.asList("READ_BINARY_FAMILY"), ApduUtils.parseCommonInstructions(bytes(0x00, 0xb0 | lowNibble, 0x00)));
+        }
+        assertTrue(ApduUtils.parseCommonInstructions(bytes(0x00, 0xc0, 0x00)).isEmpty());
+    }
+
+    @Test
+    public void detailedPatterns_matchTheirPrefixWithWildcards() {
+        assertEquals(Arrays.asList("CHECK_FLASH"), ApduUtils.parseDetailedInstructions(bytes(0x80, 0x0c, 0x00, 0x17, 0x55)));
+        assertTrue(ApduUtils.parseDetailedInstructions(bytes(0x80, 0x0c, 0x01, 0x17)).isEmpty());
+        assertTrue(ApduUtils.parseDetailedInstructions(bytes(0x80, 0x0c, 0x00)).isEmpty());
+        assertEquals(Arrays.asList("INVALIDATE"), ApduUtils.parseDetailedInstructions(bytes(0xa0, 0x04, 0x00, 0x00)));
+        assertEquals(Arrays.asList("INVALIDATE"), ApduUtils.parseDetailedInstructions(bytes(0x30, 0x04, 0x00, 0x00)));
+        assertTrue(ApduUtils.parseDetailedInstructions(bytes(0xa1, 0x04, 0x00, 0x00)).isEmpty());
+    }
+
+    @Test
+    public void classifyApdu_listsAllOfTheLabels() {
+        assertEquals("ANY_NATIVE_COMMAND, OK", ApduUtils.classifyApdu(bytes(0x90, 0x00)));
+        assertEquals("NONE", ApduUtils.classifyApdu(bytes(0x12, 0x34, 0x56)));
+    }
+
+}
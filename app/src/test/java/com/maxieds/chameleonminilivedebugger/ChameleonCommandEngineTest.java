@@ -0,0 +1,167 @@
+package com.maxieds.chameleonminilivedebugger;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the ChameleonCommandEngine response parser: matching of the pipelined
+ * responses to their commands, and termination of the 101:OK WITH TEXT responses (on their
+ * text line for the ? queries, on the next status line otherwise).
+ */
+public class ChameleonCommandEngineTest {
+
+    private static class FakeSerialPort implements ChameleonSerialIOInterface {
+
+        final List<String> writtenData = new ArrayList<String>();
+
+        public void setListenerContext(Context context) {}
+        public String getInterfaceLoggingTag() { return "FakeSerialPort"; }
+        public boolean notifySerialDataReceived(byte[] serialData) { return true; }
+        public boolean notifyLogDataReceived(byte[] serialData) { return true; }
+        public boolean notifyLogDataReceived(byte[] serialData, int offset, int length) { return true; }
+        public boolean notifyDeviceFound() { return true; }
+        public boolean notifyDeviceConnectionTerminated() { return true; }
+        public boolean notifyStatus(String msgType, String statusMsg) { return true; }
+        public boolean isWiredUSB() { return true; }
+        public boolean isBluetooth() { return false; }
+        public int setSerialBaudRate(int baudRate) { return baudRate; }
+        public int setSerialBaudRateHigh() { return HIGH_SPEED_BAUD_RATE; }
+        public int setSerialBaudRateLimited() { return LIMITED_SPEED_BAUD_RATE; }
+        public boolean startScanningDevices() { return true; }
+        public boolean stopScanningDevices() { return true; }
+        public String getActiveDeviceInfo() { return ""; }
+        public int configureSerial() { return STATUS_OK; }
+        public int shutdownSerial() { return STATUS_OK; }
+        public boolean serialConfigured() { return true; }
+        public boolean serialReceiversRegistered() { return true; }
+        public boolean acquireSerialPort() { return true; }
+        public boolean acquireSerialPortNoInterrupt() { return true; }
+        public boolean tryAcquireSerialPort(int timeout) { return true; }
+        public boolean releaseSerialPortLock() { return true; }
+        public void onReceivedData(byte[] liveLogData) {}
+
+        public int sendDataBuffer(byte[] dataWriteBuffer) {
+            writtenData.add(new String(dataWriteBuffer, StandardCharsets.UTF_8));
+            return STATUS_OK;
+        }
+
+    }
+
+    private FakeSerialPort serialPort;
+
+    @Before
+    public void setUp() {
+        ChameleonCommandEngine.flushPendingResponses();
+        serialPort = new FakeSerialPort();
+        Settings.serialIOPorts = new ChameleonSerialIOInterface[] { serialPort };
+        Settings.SERIALIO_IFACE_ACTIVE_INDEX = 0;
+        ChameleonIO.REVE_BOARD = false;
+    }
+
+    private static boolean receive(String serialData) {
+        byte[] dataBuf = serialData.getBytes(StandardCharsets.UTF_8);
+        return ChameleonCommandEngine.onSerialDataReceived(dataBuf, 0, dataBuf.length);
+    }
+
+    @Test
+    public void parseResponseCode_acceptsOnlyKnownStatusLines() {
+        assertEquals(101, ChameleonCommandEngine.parseResponseCode("101:OK WITH TEXT"));
+        assertEquals(202, ChameleonCommandEngine.parseResponseCode("202:INVALID PARAMETER"));
+        assertEquals(DeviceResponse.RESPONSE_CODE_NONE, ChameleonCommandEngine.parseResponseCode("999:NOT A CODE"));
+        assertEquals(DeviceResponse.RESPONSE_CODE_NONE, ChameleonCommandEngine.parseResponseCode("MF_CLASSIC_1K"));
+        assertEquals(DeviceResponse.RESPONSE_CODE_NONE, ChameleonCommandEngine.parseResponseCode("1:2"));
+    }
+
+    @Test
+    public void getExpectedTextLines_knowsTheQueries() {
+        assertEquals(1, ChameleonCommandEngine.getExpectedTextLines("CONFIG?"));
+        assertEquals(1, ChameleonCommandEngine.getExpectedTextLines(" UID? "));
+        assertEquals(-1, ChameleonCommandEngine.getExpectedTextLines("HELP"));
+    }
+
+    @Test
+    public void submitCommand_writesTheTerminatedCommand() {
+        ChameleonCommandEngine.submitCommand("VERSION?");
+        assertEquals(1, serialPort.writtenData.size());
+        assertEquals("VERSION?\n\r", serialPort.writtenData.get(0));
+    }
+
+    @Test
+    public void okWithText_queryCompletesOnItsTextLine() throws Exception {
+        CompletableFuture<DeviceResponse> respFuture = ChameleonCommandEngine.submitCommand("CONFIG?");
+        assertTrue(receive("101:OK WITH TEXT\r\n"));
+        assertFalse(respFuture.isDone());
+        assertTrue(receive("MF_CLASSIC_1K\r\n"));
+        assertTrue(respFuture.isDone());
+        DeviceResponse deviceResp = respFuture.get();
+        assertEquals(101, deviceResp.getResponseCode());
+        assertEquals("101:OK WITH TEXT", deviceResp.getResponseCodeText());
+        assertEquals("MF_CLASSIC_1K", deviceResp.getResponseText());
+        assertEquals(1, deviceResp.getResponseLineCount());
+        assertTrue(deviceResp.isOK());
+        assertFalse(ChameleonCommandEngine.haveCommandsPending());
+    }
+
+    @Test
+    public void okWithText_responseSplitAcrossTransfers() throws Exception {
+        CompletableFuture<DeviceResponse> respFuture = ChameleonCommandEngine.submitCommand("UID?");
+        receive("101:OK WI");
+        receive("TH TEXT\r\n0401");
+        assertFalse(respFuture.isDone());
+        receive("0203040506\r\n");
+        assertEquals("04010203040506", respFuture.get().getResponseText());
+    }
+
+    @Test
+    public void okWithText_unknownLengthCompletesOnTheNextStatusLine() throws Exception {
+        CompletableFuture<DeviceResponse> helpFuture = ChameleonCommandEngine.submitCommand("HELP");
+        CompletableFuture<DeviceResponse> queryFuture = ChameleonCommandEngine.submitCommand("UIDSIZE?");
+        receive("101:OK WITH TEXT\r\nVERSION,CONFIG,UID\r\nUIDSIZE,READONLY\r\n");
+        assertFalse(helpFuture.isDone());
+        receive("101:OK WITH TEXT\r\n7\r\n");
+        assertTrue(helpFuture.isDone());
+        assertArrayEquals(new String[] { "VERSION,CONFIG,UID", "UIDSIZE,READONLY" }, helpFuture.get().getResponseLines());
+        assertEquals("7", queryFuture.get().getResponseText());
+    }
+
+    @Test
+    public void pipelinedResponses_areMatchedInOrder() throws Exception {
+        List<CompletableFuture<DeviceResponse>> respFutures = ChameleonCommandEngine.submitCommands(
+                new String[] { "CONFIG?", "SETTING=2", "READONLY?", "NOSUCHCMD" }, false);
+        assertEquals(1, serialPort.writtenData.size());
+        receive("101:OK WITH TEXT\r\nMF_ULTRALIGHT\r\n100:OK\r\n121:TRUE\r\n200:UNKNOWN COMMAND\r\n");
+        assertEquals("MF_ULTRALIGHT", respFutures.get(0).get().getResponseText());
+        assertEquals(100, respFutures.get(1).get().getResponseCode());
+        assertEquals(121, respFutures.get(2).get().getResponseCode());
+        assertEquals(200, respFutures.get(3).get().getResponseCode());
+        assertFalse(respFutures.get(3).get().isOK());
+        assertFalse(ChameleonCommandEngine.haveCommandsPending());
+    }
+
+    @Test
+    public void cancelledCommand_lateResponseIsNotMatchedToTheNextCommand() throws Exception {
+        CompletableFuture<DeviceResponse> cancelledFuture = ChameleonCommandEngine.submitCommand("CONFIG?");
+        ChameleonCommandEngine.cancelCommand(cancelledFuture);
+        CompletableFuture<DeviceResponse> nextFuture = ChameleonCommandEngine.submitCommand("UID?");
+        receive("101:OK WITH TEXT\r\nMF_CLASSIC_4K\r\n");
+        assertFalse(nextFuture.isDone());
+        receive("101:OK WITH TEXT\r\n01020304\r\n");
+        assertEquals("01020304", nextFuture.get().getResponseText());
+        assertTrue(cancelledFuture.isCancelled());
+    }
+
+    @Test
+    public void unsolicitedData_isNotConsumed() {
+        assertFalse(receive("MF_CLASSIC_1K\r\n"));
+    }
+
+}
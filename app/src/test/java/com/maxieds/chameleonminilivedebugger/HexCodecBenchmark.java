@@ -0,0 +1,127 @@
+package com.maxieds.chameleonminilivedebugger;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmark harness comparing HexCodec with the String.format / substring based
+ * Utils.bytes2Hex and Utils.hexString2Bytes implementations it replaced (inlined below).
+ * It makes no assertions and is not run with the unit tests: run its main method from the
+ * IDE (or with plain java against the compiled test classes) and compare the ns/op figures.
+ * Every measured call feeds a checksum that is printed at the end, so the JIT cannot drop
+ * the work being timed.
+ */
+public class HexCodecBenchmark {
+
+    private static final int[] PAYLOAD_SIZES = { 16, 64, 512 };
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 5;
+    private static final long MIN_ROUND_NANOS = 200000000L;
+
+    private static long sink = 0;
+
+    private static String formatBytes2Hex(byte[] bytes) {
+        if (bytes.length == 0)
+            return "";
+        StringBuilder hstr = new StringBuilder();
+        hstr.append(String.format(Locale.ENGLISH, "%02x", bytes[0]));
+        for (int b = 1; b < bytes.length; b++)
+            hstr.append(" " + String.format(Locale.ENGLISH, "%02x", bytes[b]));
+        return hstr.toString();
+    }
+
+    private static byte substringHexString2Byte(String byteStr) {
+        if (byteStr.length() != 2) {
+            return 0x00;
+        }
+        int lsb = Character.digit(byteStr.charAt(1), 16);
+        int msb = Character.digit(byteStr.charAt(0), 16);
+        return (byte) (lsb | msb << 4);
+    }
+
+    private static byte[] substringHexString2Bytes(String byteStr) {
+        if (byteStr.length() % 2 != 0) {
+            byteStr = "0" + byteStr;
+        }
+        byte[] byteRep = new byte[byteStr.length() / 2];
+        for (int b = 0; b < byteStr.length(); b += 2)
+            byteRep[b / 2] = substringHexString2Byte(byteStr.substring(b, b + 2));
+        return byteRep;
+    }
+
+    private interface Operation {
+        void run();
+    }
+
+    /**
+     * Runs the operation in batches until MIN_ROUND_NANOS have passed, and returns the best
+     * ns/op over the measurement rounds.
+     */
+    private static double measure(Operation op) {
+        double bestNanosPerOp = Double.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURE_ROUNDS; round++) {
+            long numOps = 0;
+            long startNanos = System.nanoTime(), elapsedNanos;
+            do {
+                for (int i = 0; i < 1000; i++) {
+                    op.run();
+                }
+                numOps += 1000;
+                elapsedNanos = System.nanoTime() - startNanos;
+            } while (elapsedNanos < MIN_ROUND_NANOS);
+            if (round >= WARMUP_ROUNDS) {
+                bestNanosPerOp = Math.min(bestNanosPerOp, (double) elapsedNanos / numOps);
+            }
+        }
+        return bestNanosPerOp;
+    }
+
+    private static void report(String name, int payloadSize, double nanosPerOp) {
+        System.out.println(String.format(Locale.ENGLISH, "%-36s %5d B %12.1f ns/op", name, payloadSize, nanosPerOp));
+    }
+
+    public static void main(String[] args) {
+        Random rand = new Random(1);
+        for (int payloadSize : PAYLOAD_SIZES) {
+            final byte[] payload = new byte[payloadSize];
+            rand.nextBytes(payload);
+            final String spacedHex = formatBytes2Hex(payload);
+            final String plainHex = spacedHex.replace(" ", "");
+            final char[] encodeBuffer = new char[HexCodec.LOWER_SPACED.getEncodedLength(payloadSize)];
+            final byte[] decodeBuffer = new byte[payloadSize];
+
+            report("bytes2Hex (String.format)", payloadSize, measure(new Operation() {
+                public void run() {
+                    sink += formatBytes2Hex(payload).length();
+                }
+            }));
+            report("HexCodec.LOWER_SPACED.encode", payloadSize, measure(new Operation() {
+                public void run() {
+                    sink += HexCodec.LOWER_SPACED.encode(payload).length();
+                }
+            }));
+            report("HexCodec.LOWER_SPACED.encode(char[])", payloadSize, measure(new Operation() {
+                public void run() {
+                    sink += HexCodec.LOWER_SPACED.encode(payload, 0, payloadSize, encodeBuffer, 0);
+                }
+            }));
+            report("hexString2Bytes (substring)", payloadSize, measure(new Operation() {
+                public void run() {
+                    sink += substringHexString2Bytes(plainHex)[0];
+                }
+            }));
+            report("HexCodec.decode", payloadSize, measure(new Operation() {
+                public void run() {
+                    sink += HexCodec.decode(plainHex)[0];
+                }
+            }));
+            report("HexCodec.decode(byte[])", payloadSize, measure(new Operation() {
+                public void run() {
+                    sink += HexCodec.LOWER_PLAIN.decode(plainHex, 0, plainHex.length(), decodeBuffer, 0, false);
+                }
+            }));
+        }
+        System.out.println("checksum: " + sink);
+    }
+
+}
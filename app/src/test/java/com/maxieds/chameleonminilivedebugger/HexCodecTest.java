@@ -0,0 +1,76 @@
+package com.maxieds.chameleonminilivedebugger;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for HexCodec: equivalence with the String.format based encoder it
+ * replaces, and malformed input reporting.
+ */
+public class HexCodecTest {
+
+    private static String formatBytes2Hex(byte[] bytes) {
+        if (bytes.length == 0)
+            return "";
+        StringBuilder hstr = new StringBuilder();
+        hstr.append(String.format(Locale.ENGLISH, "%02x", bytes[0]));
+        for (int b = 1; b < bytes.length; b++)
+            hstr.append(" " + String.format(Locale.ENGLISH, "%02x", bytes[b]));
+        return hstr.toString();
+    }
+
+    private static byte[] randomBytes(Random rand, int length) {
+        byte[] bytes = new byte[length];
+        rand.nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void encode_matchesFormatEncoder() {
+        Random rand = new Random(1);
+        for (int trial = 0; trial < 1000; trial++) {
+            byte[] bytes = randomBytes(rand, rand.nextInt(64));
+            String formatted = formatBytes2Hex(bytes);
+            assertEquals(formatted, HexCodec.LOWER_SPACED.encode(bytes));
+            assertEquals(formatted.replace(" ", ""), HexCodec.LOWER_PLAIN.encode(bytes));
+            assertEquals(formatted.replace(" ", ":").toUpperCase(Locale.ENGLISH), HexCodec.UPPER_COLON.encode(bytes));
+            char[] encodedChars = new char[HexCodec.UPPER_PLAIN.getEncodedLength(bytes.length) + 2];
+            int numChars = HexCodec.UPPER_PLAIN.encode(bytes, 0, bytes.length, encodedChars, 2);
+            assertEquals(formatted.replace(" ", "").toUpperCase(Locale.ENGLISH), new String(encodedChars, 2, numChars));
+        }
+    }
+
+    @Test
+    public void decode_roundTrips() {
+        Random rand = new Random(2);
+        for (int trial = 0; trial < 1000; trial++) {
+            byte[] bytes = randomBytes(rand, rand.nextInt(64));
+            assertArrayEquals(bytes, HexCodec.decode(HexCodec.LOWER_SPACED.encode(bytes)));
+            assertArrayEquals(bytes, HexCodec.decode(HexCodec.UPPER_COLON.encode(bytes)));
+            assertArrayEquals(bytes, HexCodec.decode(HexCodec.UPPER_PLAIN.encode(bytes)));
+        }
+        assertArrayEquals(new byte[] { 0x01, (byte) 0xab }, HexCodec.decode("1ab", true));
+    }
+
+    private static int decodeErrorIndex(String hexStr) {
+        try {
+            HexCodec.decode(hexStr);
+        } catch (HexCodec.MalformedHexException mhe) {
+            return mhe.getErrorIndex();
+        }
+        return -1;
+    }
+
+    @Test
+    public void decode_reportsMalformedInput() {
+        assertEquals(2, decodeErrorIndex("01zz"));
+        assertEquals(4, decodeErrorIndex("01 2 3"));
+        assertEquals(3, decodeErrorIndex("abc"));
+        assertEquals(-1, decodeErrorIndex("01 23:45"));
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.maxieds.chameleonminilivedebugger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for LogCollapseIndex: duplicate lookups on the log code and payload only,
+ * records whose 32-bit hashes collide, and lookups after the table grows.
+ */
+public class LogCollapseIndexTest {
+
+    private LogRecordStore logDataStore;
+    private LogCollapseIndex collapseIndex;
+
+    private static byte[] logRecord(int logCode, int tick, int... payload) {
+        byte[] record = new byte[4 + payload.length];
+        record[0] = (byte) logCode;
+        record[1] = (byte) payload.length;
+        record[2] = (byte) (tick >>> 8);
+        record[3] = (byte) tick;
+        for (int pi = 0; pi < payload.length; pi++) {
+            record[4 + pi] = (byte) payload[pi];
+        }
+        return record;
+    }
+
+    /**
+     * Appends the record to the store, and indexes it unless it is a duplicate.
+     * @return the row the record was collapsed into
+     */
+    private int collapseRecord(byte[] record) {
+        int dupRow = collapseIndex.findDuplicate(logDataStore, record, 0, record.length);
+        if (dupRow >= 0) {
+            logDataStore.appendDuplicate(dupRow, record[2], record[3]);
+            return dupRow;
+        }
+        int row = logDataStore.appendLogRecord(logDataStore.size(), record, 0, record.length);
+        collapseIndex.addRecord(logDataStore, row, record, 0, record.length);
+        return row;
+    }
+
+    @Before
+    public void setUp() {
+        logDataStore = new LogRecordStore();
+        collapseIndex = new LogCollapseIndex();
+    }
+
+    @Test
+    public void hashRecord_skipsTheLengthAndTimingBytes() {
+        byte[] record = logRecord(0x44, 0x1234, 0x93, 0x20);
+        byte[] laterRecord = logRecord(0x44, 0x5678, 0x93, 0x20);
+        assertEquals(LogCollapseIndex.hashRecord(record, 0, record.length),
+                     LogCollapseIndex.hashRecord(laterRecord, 0, laterRecord.length));
+        byte[] otherCode = logRecord(0x46, 0x1234, 0x93, 0x20);
+        assertNotEquals(LogCollapseIndex.hashRecord(record, 0, record.length),
+                        LogCollapseIndex.hashRecord(otherCode, 0, otherCode.length));
+    }
+
+    @Test
+    public void findDuplicate_returnsTheFirstOccurrence() {
+        int firstRow = collapseRecord(logRecord(0x44, 0x0010, 0x26));
+        int otherRow = collapseRecord(logRecord(0x46, 0x0020, 0x26));
+        assertNotEquals(firstRow, otherRow);
+        assertEquals(firstRow, collapseRecord(logRecord(0x44, 0x0030, 0x26)));
+        assertEquals(firstRow, collapseRecord(logRecord(0x44, 0x0040, 0x26)));
+        assertEquals(2, logDataStore.size());
+        assertEquals(2, collapseIndex.size());
+        assertEquals(2, logDataStore.getDuplicateCount(firstRow));
+        assertEquals(0, logDataStore.getDuplicateCount(otherRow));
+        byte[] longerRecord = logRecord(0x44, 0x0050, 0x26, 0x00);
+        assertEquals(-1, collapseIndex.findDuplicate(logDataStore, longerRecord, 0, longerRecord.length));
+    }
+
+    @Test
+    public void findDuplicate_verifiesTheRecordsOnHashCollisions() {
+        // distinct payloads with the same FNV-1a hash (0xb898aa00 / 0xa215b2aa with log code 0x46)
+        byte[] firstRecord = logRecord(0x46, 0x0100, 0xe6, 0x9d, 0xf6, 0xd3, 0xd7, 0xec);
+        byte[] collidingRecord = logRecord(0x46, 0x0200, 0x20, 0xa9, 0xe3, 0x67, 0x75, 0xb7);
+        byte[] secondRecord = logRecord(0x46, 0x0300, 0x3a, 0xae, 0x84, 0xcb, 0x95, 0x39);
+        byte[] secondColliding = logRecord(0x46, 0x0400, 0xdb, 0x60, 0x5c, 0x2f, 0xe5, 0xc0);
+        assertEquals(LogCollapseIndex.hashRecord(firstRecord, 0, firstRecord.length),
+                     LogCollapseIndex.hashRecord(collidingRecord, 0, collidingRecord.length));
+        assertEquals(LogCollapseIndex.hashRecord(secondRecord, 0, secondRecord.length),
+                     LogCollapseIndex.hashRecord(secondColliding, 0, secondColliding.length));
+        int firstRow = collapseRecord(firstRecord);
+        int secondRow = collapseRecord(secondRecord);
+        assertEquals(-1, collapseIndex.findDuplicate(logDataStore, collidingRecord, 0, collidingRecord.length));
+        int collidingRow = collapseRecord(collidingRecord);
+        int secondCollidingRow = collapseRecord(secondColliding);
+        assertEquals(4, logDataStore.size());
+        assertEquals(4, collapseIndex.size());
+        assertEquals(firstRow, collapseRecord(logRecord(0x46, 0x0500, 0xe6, 0x9d, 0xf6, 0xd3, 0xd7, 0xec)));
+        assertEquals(collidingRow, collapseRecord(logRecord(0x46, 0x0600, 0x20, 0xa9, 0xe3, 0x67, 0x75, 0xb7)));
+        assertEquals(secondRow, collapseRecord(logRecord(0x46, 0x0700, 0x3a, 0xae, 0x84, 0xcb, 0x95, 0x39)));
+        assertEquals(secondCollidingRow, collapseRecord(logRecord(0x46, 0x0800, 0xdb, 0x60, 0x5c, 0x2f, 0xe5, 0xc0)));
+        assertEquals(1, logDataStore.getDuplicateCount(collidingRow));
+    }
+
+    @Test
+    public void addRecord_keepsTheLookupsAcrossRehashes() {
+        int[] recordRows = new int[3000];
+        for (int ri = 0; ri < recordRows.length; ri++) {
+            recordRows[ri] = collapseRecord(logRecord(0x44, ri, ri >>> 8, ri & 0xff));
+        }
+        assertEquals(recordRows.length, collapseIndex.size());
+        for (int ri = 0; ri < recordRows.length; ri++) {
+            assertEquals(recordRows[ri], collapseRecord(logRecord(0x44, ri + 1, ri >>> 8, ri & 0xff)));
+        }
+        assertEquals(recordRows.length, logDataStore.size());
+    }
+
+    @Test
+    public void clear_forgetsTheIndexedRecords() {
+        byte[] record = logRecord(0x44, 0x0010, 0x93, 0x20);
+        collapseRecord(record);
+        assertEquals(0, collapseIndex.findDuplicate(logDataStore, record, 0, record.length));
+        collapseIndex.clear();
+        assertEquals(0, collapseIndex.size());
+        assertEquals(-1, collapseIndex.findDuplicate(logDataStore, record, 0, record.length));
+    }
+
+}
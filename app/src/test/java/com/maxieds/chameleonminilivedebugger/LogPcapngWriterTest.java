@@ -0,0 +1,140 @@
+package com.maxieds.chameleonminilivedebugger;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for LogPcapngWriter: reconstruction of the live packet timestamps across
+ * the systick wrap (and device resets), and the layout of the PCAPNG blocks.
+ */
+public class LogPcapngWriterTest {
+
+    private static final long START_MILLIS = 1600000000000L;
+
+    private static ByteBuffer writeBlocks(LogPcapngWriter pcapWriter, boolean withHeader, int logCode, int systick,
+                                          byte[] payload, long timestampMillis) throws IOException {
+        ByteArrayOutputStream fout = new ByteArrayOutputStream();
+        if (withHeader) {
+            pcapWriter.writeHeader(fout);
+        }
+        pcapWriter.writePacket(fout, logCode, systick, payload, 0, payload.length, timestampMillis);
+        return ByteBuffer.wrap(fout.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Checks the framing of the block at the buffer position, and moves past it.
+     * @return the position of the block body
+     */
+    private static int nextBlock(ByteBuffer blocks, int blockType) {
+        int blockStart = blocks.position();
+        assertEquals(blockType, blocks.getInt(blockStart));
+        int blockLength = blocks.getInt(blockStart + 4);
+        assertEquals(0, blockLength % 4);
+        assertEquals(blockLength, blocks.getInt(blockStart + blockLength - 4));
+        blocks.position(blockStart + blockLength);
+        return blockStart + 8;
+    }
+
+    @Test
+    public void nextLiveTimestamp_followsTheSystickDeltas() {
+        LogPcapngWriter pcapWriter = new LogPcapngWriter();
+        assertEquals(START_MILLIS, pcapWriter.nextLiveTimestamp(0x1000, START_MILLIS));
+        // the systick deltas are exact, the receive times are not:
+        assertEquals(START_MILLIS + 5, pcapWriter.nextLiveTimestamp(0x1005, START_MILLIS + 40));
+        assertEquals(START_MILLIS + 12, pcapWriter.nextLiveTimestamp(0x100c, START_MILLIS + 41));
+    }
+
+    @Test
+    public void nextLiveTimestamp_continuesAcrossTheSystickWrap() {
+        LogPcapngWriter pcapWriter = new LogPcapngWriter();
+        pcapWriter.nextLiveTimestamp(0xfff0, START_MILLIS);
+        assertEquals(START_MILLIS + 0x20, pcapWriter.nextLiveTimestamp(0x0010, START_MILLIS + 25));
+        assertEquals(START_MILLIS + 0x30, pcapWriter.nextLiveTimestamp(0x0020, START_MILLIS + 60));
+    }
+
+    @Test
+    public void nextLiveTimestamp_countsTheWrapsDuringLongPauses() {
+        LogPcapngWriter pcapWriter = new LogPcapngWriter();
+        pcapWriter.nextLiveTimestamp(0x0100, START_MILLIS);
+        // three full systick periods and 0x80 ticks later (received with some delay):
+        long pauseMillis = 3 * 0x10000 + 0x80;
+        assertEquals(START_MILLIS + pauseMillis, pcapWriter.nextLiveTimestamp(0x0180, START_MILLIS + pauseMillis + 700));
+    }
+
+    @Test
+    public void nextLiveTimestamp_usesTheWallClockWhenTheSystickRunsBackwards() {
+        LogPcapngWriter pcapWriter = new LogPcapngWriter();
+        pcapWriter.nextLiveTimestamp(0x8000, START_MILLIS);
+        // the device was reset: its systick starts over from zero
+        assertEquals(START_MILLIS + 5, pcapWriter.nextLiveTimestamp(0x0010, START_MILLIS + 5));
+        assertEquals(START_MILLIS + 5 + 0x10, pcapWriter.nextLiveTimestamp(0x0020, START_MILLIS + 30));
+    }
+
+    @Test
+    public void writePacket_encodesTheRecordHeaderAndOptions() throws IOException {
+        byte[] payload = new byte[] { (byte) 0x93, 0x20, 0x01 };
+        long timestampMillis = START_MILLIS + 0x123;
+        ByteBuffer blocks = writeBlocks(new LogPcapngWriter(), false, 0x44, 0xabcd, payload, timestampMillis);
+        int bodyPos = nextBlock(blocks, 0x00000006);
+        assertFalse(blocks.hasRemaining());
+        assertEquals(0, blocks.getInt(bodyPos));
+        assertEquals((int) (timestampMillis >>> 32), blocks.getInt(bodyPos + 4));
+        assertEquals((int) timestampMillis, blocks.getInt(bodyPos + 8));
+        assertEquals(7, blocks.getInt(bodyPos + 12));
+        assertEquals(7, blocks.getInt(bodyPos + 16));
+        int packetPos = bodyPos + 20;
+        assertEquals(0x44, blocks.get(packetPos));
+        assertEquals(ChameleonLogUtils.DATADIR_INCOMING, blocks.get(packetPos + 1));
+        assertEquals((byte) 0xab, blocks.get(packetPos + 2));
+        assertEquals((byte) 0xcd, blocks.get(packetPos + 3));
+        assertEquals((byte) 0x93, blocks.get(packetPos + 4));
+        assertEquals(0x01, blocks.get(packetPos + 6));
+        assertEquals(0, blocks.get(packetPos + 7)); // padding
+        int optionPos = packetPos + 8;
+        assertEquals(2, blocks.getShort(optionPos)); // epb_flags
+        assertEquals(4, blocks.getShort(optionPos + 2));
+        assertEquals(0x01, blocks.getInt(optionPos + 4)); // inbound
+        optionPos += 8;
+        String logCodeName = ChameleonLogUtils.LogCode.lookupByLogCode(0x44).name();
+        assertEquals(1, blocks.getShort(optionPos)); // opt_comment
+        assertEquals(logCodeName.length(), blocks.getShort(optionPos + 2));
+        byte[] comment = new byte[logCodeName.length()];
+        blocks.position(optionPos + 4);
+        blocks.get(comment);
+        assertEquals(logCodeName, new String(comment, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void writePacket_growsTheBlockBufferForLongPayloads() throws IOException {
+        byte[] payload = new byte[2000];
+        payload[1999] = 0x5a;
+        ByteBuffer blocks = writeBlocks(new LogPcapngWriter(), false, 0x10, 0, payload, START_MILLIS);
+        int bodyPos = nextBlock(blocks, 0x00000006);
+        assertEquals(2004, blocks.getInt(bodyPos + 12));
+        assertEquals(0x5a, blocks.get(bodyPos + 20 + 4 + 1999));
+        // bidirectional records have no epb_flags option:
+        assertEquals(1, blocks.getShort(bodyPos + 20 + 2004));
+    }
+
+    @Test
+    public void writeHeader_startsASectionWithOneInterface() throws IOException {
+        ByteBuffer blocks = writeBlocks(new LogPcapngWriter(), true, 0x40, 0, new byte[] { 0x26 }, START_MILLIS);
+        int bodyPos = nextBlock(blocks, 0x0A0D0D0A);
+        assertEquals(0x1A2B3C4D, blocks.getInt(bodyPos));
+        assertEquals(1, blocks.getShort(bodyPos + 4));
+        assertEquals(-1L, blocks.getLong(bodyPos + 8));
+        bodyPos = nextBlock(blocks, 0x00000001);
+        assertEquals(147, blocks.getShort(bodyPos));
+        bodyPos = nextBlock(blocks, 0x00000006);
+        assertEquals(0x02, blocks.getInt(bodyPos + 20 + 8 + 4)); // outbound
+        assertFalse(blocks.hasRemaining());
+    }
+
+}
@@ -0,0 +1,155 @@
+package com.maxieds.chameleonminilivedebugger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for LogSearchIndex: postings pruning, union / intersection of the postings,
+ * payload candidates and their verification (including the odd nibble byte searches) and the
+ * pruning of the records the log store has evicted.
+ */
+public class LogSearchIndexTest {
+
+    private LogSearchIndex searchIndex;
+
+    private static byte[] logRecord(int logCode, int... payload) {
+        byte[] record = new byte[4 + payload.length];
+        record[0] = (byte) logCode;
+        record[1] = (byte) payload.length;
+        for (int pi = 0; pi < payload.length; pi++) {
+            record[4 + pi] = (byte) payload[pi];
+        }
+        return record;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int bi = 0; bi < values.length; bi++) {
+            bytes[bi] = (byte) values[bi];
+        }
+        return bytes;
+    }
+
+    private void indexRecord(int recordId, int row, byte[] record) {
+        searchIndex.indexRecord(recordId, row, record, 0, record.length);
+    }
+
+    private static LogSearchIndex.SearchQuery byteQuery(String hexDigits) {
+        return new LogSearchIndex.SearchQuery(hexDigits, true, false, true, false);
+    }
+
+    @Before
+    public void setUp() {
+        // no APDU labels, so that indexing does not need the raw resources
+        ApduUtils.compileClassificationTables(new ArrayList<String[]>(), new ArrayList<String[]>(),
+                new ArrayList<String[]>(), new ArrayList<String[]>(), new ArrayList<String[]>());
+        searchIndex = new LogSearchIndex();
+        indexRecord(10, 0, logRecord(0x44, 0x93, 0x20));
+        indexRecord(11, 1, logRecord(0x46, 0x04, 0x00));
+        indexRecord(12, 2, logRecord(0x44, 0x93, 0x70, 0x88, 0x04, 0x00));
+        indexRecord(13, 3, logRecord(0x46, 0x08, 0xb6, 0xdd));
+        indexRecord(14, 4, logRecord(0x44, 0x30, 0x04, 0x00, 0xee));
+    }
+
+    @Test
+    public void postings_pruneBeforeDropsTheLowerIds() {
+        LogSearchIndex.Postings postings = new LogSearchIndex.Postings();
+        for (int recordId = 1; recordId <= 100; recordId += 3) {
+            postings.add(recordId);
+        }
+        postings.add(100);
+        postings.pruneBefore(0);
+        assertEquals(34, postings.size);
+        postings.pruneBefore(50);
+        assertArrayEquals(new int[] { 52, 55, 58, 61, 64, 67, 70, 73, 76, 79, 82, 85, 88, 91, 94, 97, 100 }, postings.toArray());
+        postings.pruneBefore(97);
+        assertArrayEquals(new int[] { 97, 100 }, postings.toArray());
+        postings.add(103);
+        assertArrayEquals(new int[] { 97, 100, 103 }, postings.toArray());
+        postings.pruneBefore(200);
+        assertEquals(0, postings.size);
+    }
+
+    @Test
+    public void postings_unionAndIntersection() {
+        int[] lhs = new int[] { 1, 3, 5, 7, 9 }, rhs = new int[] { 2, 3, 4, 9, 10 };
+        assertArrayEquals(new int[] { 1, 2, 3, 4, 5, 7, 9, 10 }, LogSearchIndex.unionPostings(lhs, rhs));
+        assertArrayEquals(new int[] { 3, 9 }, LogSearchIndex.intersectPostings(lhs, rhs));
+        assertArrayEquals(lhs, LogSearchIndex.unionPostings(lhs, new int[0]));
+        assertArrayEquals(new int[0], LogSearchIndex.intersectPostings(lhs, new int[0]));
+        assertArrayEquals(new int[0], LogSearchIndex.intersectPostings(new int[] { 1, 2 }, new int[] { 3, 4 }));
+    }
+
+    @Test
+    public void payloadMatches_bytesAndText() {
+        LogSearchIndex.SearchQuery byteQuery = byteQuery("93 20");
+        assertTrue(byteQuery.payloadMatches(bytes(0x26, 0x93, 0x20)));
+        assertFalse(byteQuery.payloadMatches(bytes(0x93, 0x70, 0x20)));
+        assertFalse(byteQuery.payloadMatches(bytes(0x93)));
+        LogSearchIndex.SearchQuery textQuery = new LogSearchIndex.SearchQuery("Ab.", false, false, true, false);
+        assertTrue(textQuery.payloadMatches(bytes('x', 'a', 'B', 0x01)));
+        assertFalse(textQuery.payloadMatches(bytes('a', 'b', 'c')));
+    }
+
+    @Test
+    public void payloadMatches_oddNibbleCount() {
+        LogSearchIndex.SearchQuery oddQuery = byteQuery("932");
+        assertTrue(oddQuery.payloadMatches(bytes(0x93, 0x20)));
+        assertTrue(oddQuery.payloadMatches(bytes(0x00, 0x93, 0x2f)));
+        assertFalse(oddQuery.payloadMatches(bytes(0x93, 0x70)));
+        assertFalse(oddQuery.payloadMatches(bytes(0x93)));
+        LogSearchIndex.SearchQuery nibbleQuery = byteQuery("b");
+        assertTrue(nibbleQuery.payloadMatches(bytes(0x08, 0xb6)));
+        assertTrue(nibbleQuery.payloadMatches(bytes(0x0b)));
+        assertFalse(nibbleQuery.payloadMatches(bytes(0x08, 0xa6)));
+    }
+
+    @Test(expected = HexCodec.MalformedHexException.class)
+    public void searchQuery_rejectsInvalidHex() {
+        byteQuery("93 2g");
+    }
+
+    @Test
+    public void findPayloadCandidates_intersectsTheBigramPostings() {
+        assertArrayEquals(new int[] { 11, 12, 14 }, searchIndex.findPayloadCandidates(byteQuery("0400")));
+        assertArrayEquals(new int[] { 12 }, searchIndex.findPayloadCandidates(byteQuery("93 70 88")));
+        assertArrayEquals(new int[] { 10, 12 }, searchIndex.findPayloadCandidates(byteQuery("93")));
+        assertArrayEquals(new int[0], searchIndex.findPayloadCandidates(byteQuery("2093")));
+    }
+
+    @Test
+    public void findPayloadCandidates_oddNibbleSearchIsVerifiedOnThePayload() {
+        // the trailing nibble is not indexed: all records with 0x93 are candidates
+        LogSearchIndex.SearchQuery oddQuery = byteQuery("937");
+        int[] candidateIds = searchIndex.findPayloadCandidates(oddQuery);
+        assertArrayEquals(new int[] { 10, 12 }, candidateIds);
+        assertFalse(oddQuery.payloadMatches(bytes(0x93, 0x20)));
+        assertTrue(oddQuery.payloadMatches(bytes(0x93, 0x70, 0x88, 0x04, 0x00)));
+    }
+
+    @Test
+    public void findExactMatches_byLogCodeName() {
+        LogSearchIndex.SearchQuery headerQuery = new LogSearchIndex.SearchQuery("sni_card", false, false, false, true);
+        assertArrayEquals(new int[] { 11, 13 }, searchIndex.findExactMatches(headerQuery));
+    }
+
+    @Test
+    public void pruneEvictedRecords_dropsTheirPostingsAndRows() {
+        assertEquals(2, searchIndex.getRecordRow(12));
+        searchIndex.pruneEvictedRecords(2);
+        assertEquals(-1, searchIndex.getRecordRow(11));
+        assertEquals(2, searchIndex.getRecordRow(12));
+        assertEquals(4, searchIndex.getRecordRow(14));
+        assertArrayEquals(new int[] { 12, 14 }, searchIndex.findPayloadCandidates(byteQuery("0400")));
+        assertArrayEquals(new int[] { 13 }, searchIndex.findExactMatches(
+                new LogSearchIndex.SearchQuery("sni_card", false, false, false, true)));
+        indexRecord(15, 5, logRecord(0x46, 0x04, 0x00));
+        assertArrayEquals(new int[] { 12, 14, 15 }, searchIndex.findPayloadCandidates(byteQuery("0400")));
+        assertEquals(5, searchIndex.getRecordRow(15));
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.maxieds.chameleonminilivedebugger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for LogSequenceCompressor: detection of the repeating cycles, folding of the
+ * later passes into the cycle row, and the flush of the records of an incomplete pass when
+ * the cycle is broken (or goes idle).
+ */
+public class LogSequenceCompressorTest {
+
+    private static final int[] PAYLOAD_REQA = new int[] { 0x26 };
+    private static final int[] PAYLOAD_ATQA = new int[] { 0x04, 0x00 };
+    private static final int[] PAYLOAD_HALT = new int[] { 0x50, 0x00 };
+
+    private LogRecordStore logDataStore;
+    private LogSequenceCompressor sequenceCompressor;
+    private int prevMaxCycleLength;
+
+    private static byte[] logRecord(int logCode, int tick, int... payload) {
+        byte[] record = new byte[4 + payload.length];
+        record[0] = (byte) logCode;
+        record[1] = (byte) payload.length;
+        record[2] = (byte) (tick >>> 8);
+        record[3] = (byte) tick;
+        for (int pi = 0; pi < payload.length; pi++) {
+            record[4 + pi] = (byte) payload[pi];
+        }
+        return record;
+    }
+
+    private int append(int logCode, int tick, int[] payload) {
+        byte[] record = logRecord(logCode, tick, payload);
+        return sequenceCompressor.appendRecord(logDataStore, record, 0, record.length);
+    }
+
+    /**
+     * Appends one pass of the REQA / ATQA cycle.
+     * @return the row returned for the last record of the pass
+     */
+    private int appendPass(int tick) {
+        append(0x44, tick, PAYLOAD_REQA);
+        return append(0x46, tick + 2, PAYLOAD_ATQA);
+    }
+
+    private LogCycleRecord getCycleRecord(int row) {
+        assertTrue(logDataStore.isMetadataRecord(row));
+        return (LogCycleRecord) logDataStore.getEntry(row);
+    }
+
+    @Before
+    public void setUp() {
+        ApduUtils.compileClassificationTables(new ArrayList<String[]>(), new ArrayList<String[]>(),
+                new ArrayList<String[]>(), new ArrayList<String[]>(), new ArrayList<String[]>());
+        logDataStore = MainActivityLogUtils.logDataStore;
+        logDataStore.clear();
+        MainActivityLogUtils.logSearchIndex.clear();
+        MainActivityLogUtils.logCollapseIndex.clear();
+        MainActivityLogUtils.RECORDID = 0;
+        prevMaxCycleLength = ChameleonLogUtils.CONFIG_FOLD_MAX_CYCLE_LENGTH;
+        ChameleonLogUtils.CONFIG_FOLD_MAX_CYCLE_LENGTH = 8;
+        sequenceCompressor = new LogSequenceCompressor();
+    }
+
+    @After
+    public void tearDown() {
+        ChameleonLogUtils.CONFIG_FOLD_MAX_CYCLE_LENGTH = prevMaxCycleLength;
+    }
+
+    @Test
+    public void appendRecord_foldsTheLaterPassesIntoOneCycleRow() {
+        appendPass(0x0100);
+        appendPass(0x0110);
+        assertEquals(4, logDataStore.size());
+        assertEquals(4, appendPass(0x0120));
+        assertEquals(5, logDataStore.size());
+        LogCycleRecord cycleRecord = getCycleRecord(4);
+        assertEquals(2, cycleRecord.getTemplateStartRow());
+        assertEquals(2, cycleRecord.getCycleLength());
+        assertEquals(1, cycleRecord.getRepeatCount());
+        for (int pass = 0; pass < 10; pass++) {
+            assertEquals(4, appendPass(0x0130 + 0x10 * pass));
+        }
+        assertEquals(5, logDataStore.size());
+        assertEquals(11, cycleRecord.getRepeatCount());
+        assertEquals(22, cycleRecord.getExpandedRecordCount());
+        assertEquals(2, cycleRecord.getExpandedRecordRow(0));
+        assertEquals(3, cycleRecord.getExpandedRecordRow(21));
+    }
+
+    @Test
+    public void appendRecord_foldsASingleRepeatedRecord() {
+        append(0x44, 0x0000, PAYLOAD_REQA);
+        append(0x44, 0x0008, PAYLOAD_REQA);
+        assertEquals(2, append(0x44, 0x0010, PAYLOAD_REQA));
+        assertEquals(2, append(0x44, 0x0018, PAYLOAD_REQA));
+        assertEquals(3, logDataStore.size());
+        assertEquals(1, getCycleRecord(2).getCycleLength());
+        assertEquals(2, getCycleRecord(2).getRepeatCount());
+    }
+
+    @Test
+    public void appendRecord_countsThePassPeriodsAcrossTheSystickWrap() {
+        appendPass(0xffd0);
+        appendPass(0xfff0);
+        appendPass(0x0010);
+        // 0x0010 - 0xfff0 = 32 ticks, which is counted in the [32, 64) bucket
+        int[] periodHistogram = getCycleRecord(4).getPeriodHistogram();
+        assertEquals(1, periodHistogram[6]);
+        int histogramTotal = 0;
+        for (int bucketCount : periodHistogram) {
+            histogramTotal += bucketCount;
+        }
+        assertEquals(1, histogramTotal);
+    }
+
+    @Test
+    public void appendRecord_flushesThePartialPassBeforeTheRecordBreakingTheCycle() {
+        appendPass(0x0100);
+        appendPass(0x0110);
+        appendPass(0x0120);
+        assertEquals(4, append(0x44, 0x0130, PAYLOAD_REQA));
+        LogCycleRecord cycleRecord = getCycleRecord(4);
+        assertEquals(1, cycleRecord.getPartialLength());
+        assertEquals(3, cycleRecord.getExpandedRecordCount());
+        assertEquals(6, append(0x44, 0x0140, PAYLOAD_HALT));
+        assertEquals(7, logDataStore.size());
+        assertEquals(0, cycleRecord.getPartialLength());
+        assertEquals(1, cycleRecord.getRepeatCount());
+        assertTrue(logDataStore.recordEquals(5, logRecord(0x44, 0x0130, PAYLOAD_REQA), 0, 5));
+        // the repeated HALT records then start a new cycle:
+        assertEquals(7, append(0x44, 0x0150, PAYLOAD_HALT));
+        assertEquals(8, append(0x44, 0x0160, PAYLOAD_HALT));
+        assertEquals(9, logDataStore.size());
+        assertEquals(1, getCycleRecord(8).getCycleLength());
+        assertEquals(7, getCycleRecord(8).getTemplateStartRow());
+    }
+
+    @Test
+    public void appendRecord_breakingTheCycleBeforeItsRowExistsKeepsEveryRecord() {
+        appendPass(0x0100);
+        appendPass(0x0110);
+        assertEquals(3, append(0x44, 0x0120, PAYLOAD_REQA));
+        assertEquals(4, logDataStore.size());
+        assertEquals(5, append(0x46, 0x0122, PAYLOAD_HALT));
+        assertEquals(6, logDataStore.size());
+        assertFalse(logDataStore.isMetadataRecord(4));
+        assertTrue(logDataStore.recordEquals(4, logRecord(0x44, 0x0120, PAYLOAD_REQA), 0, 5));
+    }
+
+    @Test
+    public void flushPendingRecords_appendsTheIncompletePass() {
+        appendPass(0x0100);
+        appendPass(0x0110);
+        appendPass(0x0120);
+        append(0x44, 0x0130, PAYLOAD_REQA);
+        assertEquals(5, logDataStore.size());
+        sequenceCompressor.flushPendingRecords();
+        assertEquals(6, logDataStore.size());
+        assertTrue(logDataStore.recordEquals(5, logRecord(0x44, 0x0130, PAYLOAD_REQA), 0, 5));
+        assertEquals(0, getCycleRecord(4).getPartialLength());
+        // the cycle has ended, so that the next pass starts over with ordinary rows:
+        assertEquals(6, append(0x46, 0x0132, PAYLOAD_ATQA));
+        assertEquals(7, logDataStore.size());
+    }
+
+    @Test
+    public void appendRecord_ignoresCyclesLongerThanTheConfiguredLength() {
+        ChameleonLogUtils.CONFIG_FOLD_MAX_CYCLE_LENGTH = 1;
+        for (int pass = 0; pass < 4; pass++) {
+            appendPass(0x0100 + 0x10 * pass);
+        }
+        assertEquals(8, logDataStore.size());
+        for (int row = 0; row < 8; row++) {
+            assertFalse(logDataStore.isMetadataRecord(row));
+        }
+    }
+
+}
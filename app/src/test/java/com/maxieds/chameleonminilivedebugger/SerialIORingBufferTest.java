@@ -0,0 +1,200 @@
+package com.maxieds.chameleonminilivedebugger;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for SerialIORingBuffer: in place framing of LIVE log records, reassembly of
+ * records split across writes, serial data passthrough and resynchronization after garbage in
+ * the log stream.
+ */
+public class SerialIORingBufferTest {
+
+    private static class CollectingConsumer implements SerialIORingBuffer.RecordConsumer {
+
+        final List<byte[]> logRecords = new ArrayList<byte[]>();
+        final List<byte[]> serialData = new ArrayList<byte[]>();
+
+        public void onLogRecordFramed(byte[] buffer, int offset, int length) {
+            logRecords.add(Arrays.copyOfRange(buffer, offset, offset + length));
+        }
+
+        public void onSerialDataFramed(byte[] buffer, int offset, int length) {
+            serialData.add(Arrays.copyOfRange(buffer, offset, offset + length));
+        }
+
+    }
+
+    private static byte[] logRecord(int logCode, int tick, int... payload) {
+        byte[] record = new byte[4 + payload.length];
+        record[0] = (byte) logCode;
+        record[1] = (byte) payload.length;
+        record[2] = (byte) (tick >>> 8);
+        record[3] = (byte) tick;
+        for (int pi = 0; pi < payload.length; pi++) {
+            record[4 + pi] = (byte) payload[pi];
+        }
+        return record;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] joined = new byte[length];
+        int pos = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, joined, pos, part.length);
+            pos += part.length;
+        }
+        return joined;
+    }
+
+    private static final byte[] RECORD_READER = logRecord(0x44, 0x1234, 0x93, 0x20);
+    private static final byte[] RECORD_CARD = logRecord(0x46, 0x1240, 0x04, 0x00, 0x00, 0x00, 0x00);
+    private static final byte[] RECORD_EMPTY_PAYLOAD = logRecord(0x20, 0x1300);
+
+    @Test
+    public void frameRecords_framesEachRecordOfAChunk() {
+        SerialIORingBuffer ringBuffer = new SerialIORingBuffer(256);
+        CollectingConsumer consumer = new CollectingConsumer();
+        byte[] chunk = concat(RECORD_READER, RECORD_EMPTY_PAYLOAD, RECORD_CARD);
+        assertTrue(ringBuffer.write(chunk, 0, chunk.length));
+        assertEquals(3, ringBuffer.frameRecords(consumer, true));
+        assertEquals(3, consumer.logRecords.size());
+        assertArrayEquals(RECORD_READER, consumer.logRecords.get(0));
+        assertArrayEquals(RECORD_EMPTY_PAYLOAD, consumer.logRecords.get(1));
+        assertArrayEquals(RECORD_CARD, consumer.logRecords.get(2));
+        assertTrue(consumer.serialData.isEmpty());
+        assertEquals(0, ringBuffer.getBufferedByteCount());
+        assertFalse(ringBuffer.hasPartialRecord());
+        assertEquals(3, ringBuffer.getFramedRecordCount());
+    }
+
+    @Test
+    public void frameRecords_passesCommandResponsesThroughAsSerialData() {
+        SerialIORingBuffer ringBuffer = new SerialIORingBuffer(256);
+        CollectingConsumer consumer = new CollectingConsumer();
+        byte[] response = "101:OK WITH TEXT\r\nMF_CLASSIC_1K\r\n".getBytes(StandardCharsets.US_ASCII);
+        ringBuffer.write(response, 0, response.length);
+        assertEquals(0, ringBuffer.frameRecords(consumer, true));
+        assertTrue(consumer.logRecords.isEmpty());
+        assertEquals(1, consumer.serialData.size());
+        assertArrayEquals(response, consumer.serialData.get(0));
+    }
+
+    @Test
+    public void frameRecords_framesRecordsBetweenResponseTextLines() {
+        SerialIORingBuffer ringBuffer = new SerialIORingBuffer(256);
+        CollectingConsumer consumer = new CollectingConsumer();
+        byte[] firstLine = "101:OK WITH TEXT\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] secondLine = "MF_CLASSIC_1K\r\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] chunk = concat(firstLine, RECORD_READER, secondLine);
+        ringBuffer.write(chunk, 0, chunk.length);
+        assertEquals(1, ringBuffer.frameRecords(consumer, true, true));
+        assertEquals(1, consumer.logRecords.size());
+        assertArrayEquals(RECORD_READER, consumer.logRecords.get(0));
+        assertEquals(2, consumer.serialData.size());
+        assertArrayEquals(firstLine, consumer.serialData.get(0));
+        assertArrayEquals(secondLine, consumer.serialData.get(1));
+    }
+
+    @Test
+    public void frameRecords_passesEverythingThroughWhenFramingIsDisabled() {
+        SerialIORingBuffer ringBuffer = new SerialIORingBuffer(256);
+        CollectingConsumer consumer = new CollectingConsumer();
+        byte[] chunk = concat(RECORD_READER, RECORD_CARD);
+        ringBuffer.write(chunk, 0, chunk.length);
+        assertEquals(0, ringBuffer.frameRecords(consumer, false));
+        assertTrue(consumer.logRecords.isEmpty());
+        assertEquals(1, consumer.serialData.size());
+        assertArrayEquals(chunk, consumer.serialData.get(0));
+    }
+
+    @Test
+    public void frameRecords_resyncsAfterGarbageInTheLogStream() {
+        SerialIORingBuffer ringBuffer = new SerialIORingBuffer(256);
+        CollectingConsumer consumer = new CollectingConsumer();
+        byte[] garbage = new byte[] { 0x01, 0x02, 0x03, (byte) 0x8f };
+        byte[] chunk = concat(RECORD_READER, garbage, RECORD_CARD);
+        ringBuffer.write(chunk, 0, chunk.length);
+        assertEquals(2, ringBuffer.frameRecords(consumer, true));
+        assertEquals(2, consumer.logRecords.size());
+        assertArrayEquals(RECORD_READER, consumer.logRecords.get(0));
+        assertArrayEquals(RECORD_CARD, consumer.logRecords.get(1));
+        assertTrue(consumer.serialData.isEmpty());
+        assertEquals(1, ringBuffer.getResyncCount());
+    }
+
+    @Test
+    public void frameRecords_reassemblesRecordsSplitAtEveryPosition() {
+        byte[] stream = concat(RECORD_READER, RECORD_CARD, RECORD_EMPTY_PAYLOAD);
+        for (int splitPos = 1; splitPos < stream.length; splitPos++) {
+            SerialIORingBuffer ringBuffer = new SerialIORingBuffer(256);
+            CollectingConsumer consumer = new CollectingConsumer();
+            ringBuffer.write(stream, 0, splitPos);
+            int recordCount = ringBuffer.frameRecords(consumer, true);
+            ringBuffer.write(stream, splitPos, stream.length - splitPos);
+            recordCount += ringBuffer.frameRecords(consumer, true);
+            assertEquals("split at " + splitPos, 3, recordCount);
+            assertArrayEquals(RECORD_READER, consumer.logRecords.get(0));
+            assertArrayEquals(RECORD_CARD, consumer.logRecords.get(1));
+            assertArrayEquals(RECORD_EMPTY_PAYLOAD, consumer.logRecords.get(2));
+            assertTrue("split at " + splitPos, consumer.serialData.isEmpty());
+            assertFalse(ringBuffer.hasPartialRecord());
+        }
+    }
+
+    @Test
+    public void frameRecords_keepsAPartialRecordBuffered() {
+        SerialIORingBuffer ringBuffer = new SerialIORingBuffer(256);
+        CollectingConsumer consumer = new CollectingConsumer();
+        ringBuffer.write(RECORD_CARD, 0, 6);
+        assertEquals(0, ringBuffer.frameRecords(consumer, true));
+        assertTrue(ringBuffer.hasPartialRecord());
+        assertEquals(6, ringBuffer.getBufferedByteCount());
+        assertTrue(consumer.logRecords.isEmpty());
+        assertTrue(consumer.serialData.isEmpty());
+        ringBuffer.write(RECORD_CARD, 6, RECORD_CARD.length - 6);
+        assertEquals(1, ringBuffer.frameRecords(consumer, true));
+        assertArrayEquals(RECORD_CARD, consumer.logRecords.get(0));
+    }
+
+    @Test
+    public void frameRecords_keepsSplitRecordsContiguousWhenTheBufferWraps() {
+        // the capacity is not a multiple of the record size, so the partial records
+        // regularly have to be moved back to the front of the buffer
+        SerialIORingBuffer ringBuffer = new SerialIORingBuffer(32);
+        CollectingConsumer consumer = new CollectingConsumer();
+        byte[] stream = concat(RECORD_CARD, RECORD_READER, RECORD_CARD, RECORD_READER, RECORD_CARD, RECORD_READER);
+        int recordCount = 0;
+        for (int pos = 0; pos < stream.length; pos += 5) {
+            int chunkLength = Math.min(5, stream.length - pos);
+            assertTrue(ringBuffer.write(stream, pos, chunkLength));
+            recordCount += ringBuffer.frameRecords(consumer, true);
+        }
+        assertEquals(6, recordCount);
+        for (int ri = 0; ri < 6; ri++) {
+            assertArrayEquals(ri % 2 == 0 ? RECORD_CARD : RECORD_READER, consumer.logRecords.get(ri));
+        }
+        assertEquals(0, ringBuffer.getOverflowCount());
+    }
+
+    @Test
+    public void write_reportsOverflow() {
+        SerialIORingBuffer ringBuffer = new SerialIORingBuffer(16);
+        byte[] chunk = new byte[12];
+        assertTrue(ringBuffer.write(chunk, 0, chunk.length));
+        assertFalse(ringBuffer.write(chunk, 0, chunk.length));
+        assertEquals(1, ringBuffer.getOverflowCount());
+        assertEquals(12, ringBuffer.getBufferedByteCount());
+    }
+
+}
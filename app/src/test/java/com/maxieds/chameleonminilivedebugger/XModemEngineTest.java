@@ -0,0 +1,222 @@
+package com.maxieds.chameleonminilivedebugger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for XModemEngine: CRC-16 and checksum frames, 1K blocks, the fallback to
+ * checksum mode when the device does not answer the CRC request, the sender dropping back to
+ * 128 byte blocks, and complete sender to receiver transfers.
+ */
+public class XModemEngineTest {
+
+    private static final byte[] ACK = new byte[] { XModemEngine.BYTE_ACK };
+    private static final byte[] NAK = new byte[] { XModemEngine.BYTE_NAK };
+    private static final byte[] EOT = new byte[] { XModemEngine.BYTE_EOT };
+
+    private boolean prevEnableCRCMode;
+    private boolean prevEnable1KBlocks;
+
+    private static byte[] testData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] buildFrame(int blockNumber, byte[] data, int offset, int blockSize, boolean useCRC) {
+        byte[] frame = new byte[3 + blockSize + (useCRC ? 2 : 1)];
+        frame[0] = blockSize == XModemEngine.BLOCK_SIZE_1K ? XModemEngine.BYTE_STX : XModemEngine.BYTE_SOH;
+        frame[1] = (byte) blockNumber;
+        frame[2] = (byte) ~blockNumber;
+        int copyLength = Math.min(blockSize, data.length - offset);
+        System.arraycopy(data, offset, frame, 3, copyLength);
+        Arrays.fill(frame, 3 + copyLength, 3 + blockSize, XModemEngine.BYTE_EOF);
+        if (useCRC) {
+            int crc = XModemEngine.calcCRC16(frame, 3, blockSize);
+            frame[3 + blockSize] = (byte) (crc >>> 8);
+            frame[4 + blockSize] = (byte) crc;
+        }
+        else {
+            frame[3 + blockSize] = XModemEngine.calcChecksum(frame, 3, blockSize);
+        }
+        return frame;
+    }
+
+    private static byte[] receive(XModemEngine xmodem, byte[] dataBuf, long nowMillis) {
+        return xmodem.onDataReceived(dataBuf, 0, dataBuf.length, nowMillis);
+    }
+
+    /**
+     * Runs a complete transfer between a sender and a receiver over a lossless link.
+     */
+    private static void runTransfer(XModemEngine sender, XModemEngine receiver) {
+        long nowMillis = 1000;
+        assertNull(sender.start(nowMillis));
+        byte[] toSender = receiver.start(nowMillis);
+        for (int step = 0; step < 1000 && !(sender.isDone() && receiver.isDone()); step++) {
+            nowMillis += 10;
+            byte[] toReceiver = toSender == null ? null : receive(sender, toSender, nowMillis);
+            toSender = toReceiver == null ? null : receive(receiver, toReceiver, nowMillis);
+        }
+        assertTrue(sender.isFinished());
+        assertTrue(receiver.isFinished());
+    }
+
+    @Before
+    public void setUp() {
+        prevEnableCRCMode = XModemEngine.ENABLE_CRC_MODE;
+        prevEnable1KBlocks = XModemEngine.ENABLE_1K_BLOCKS;
+        XModemEngine.ENABLE_CRC_MODE = true;
+        XModemEngine.ENABLE_1K_BLOCKS = true;
+        XModemEngine.resetNegotiatedModes();
+    }
+
+    @After
+    public void tearDown() {
+        XModemEngine.ENABLE_CRC_MODE = prevEnableCRCMode;
+        XModemEngine.ENABLE_1K_BLOCKS = prevEnable1KBlocks;
+        XModemEngine.resetNegotiatedModes();
+    }
+
+    @Test
+    public void calcCRC16_matchesTheXModemCheckValue() {
+        byte[] checkData = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x31c3, XModemEngine.calcCRC16(checkData, 0, checkData.length));
+        assertEquals(0, XModemEngine.calcCRC16(checkData, 0, 0));
+        assertEquals((byte) 0xdd, XModemEngine.calcChecksum(checkData, 0, checkData.length));
+    }
+
+    @Test
+    public void receiver_acceptsCRCFramesOfBothBlockSizes() {
+        byte[] data = testData(XModemEngine.BLOCK_SIZE_1K + XModemEngine.BLOCK_SIZE);
+        XModemEngine receiver = XModemEngine.createReceiver(data.length);
+        assertArrayEquals(new byte[] { XModemEngine.BYTE_CRC_REQUEST }, receiver.start(0));
+        assertArrayEquals(ACK, receive(receiver, buildFrame(1, data, 0, XModemEngine.BLOCK_SIZE_1K, true), 10));
+        assertArrayEquals(ACK, receive(receiver, buildFrame(2, data, XModemEngine.BLOCK_SIZE_1K, XModemEngine.BLOCK_SIZE, true), 20));
+        assertArrayEquals(ACK, receive(receiver, EOT, 30));
+        assertTrue(receiver.isFinished());
+        assertEquals(data.length, receiver.getDataLength());
+        assertArrayEquals(data, Arrays.copyOf(receiver.getDataBuffer(), receiver.getDataLength()));
+        assertEquals("XModem-1K (CRC-16)", receiver.getModeDescription());
+    }
+
+    @Test
+    public void receiver_reassemblesFramesSplitAcrossChunks() {
+        byte[] data = testData(XModemEngine.BLOCK_SIZE);
+        byte[] frame = buildFrame(1, data, 0, XModemEngine.BLOCK_SIZE, true);
+        XModemEngine receiver = XModemEngine.createReceiver(0);
+        receiver.start(0);
+        for (int bi = 0; bi < frame.length - 1; bi++) {
+            assertNull(receiver.onDataReceived(frame, bi, 1, bi));
+        }
+        assertArrayEquals(ACK, receiver.onDataReceived(frame, frame.length - 1, 1, frame.length));
+        assertEquals(XModemEngine.BLOCK_SIZE, receiver.getDataLength());
+    }
+
+    @Test
+    public void receiver_fallsBackToChecksumModeWhenTheCRCRequestIsNotAnswered() {
+        byte[] data = testData(XModemEngine.BLOCK_SIZE);
+        XModemEngine receiver = XModemEngine.createReceiver(0);
+        assertArrayEquals(new byte[] { XModemEngine.BYTE_CRC_REQUEST }, receiver.start(1000));
+        assertEquals(1000 + XModemEngine.CRC_REQUEST_TIMEOUT, receiver.getNextTimeoutMillis());
+        assertNull(receiver.onTimeout(1000 + XModemEngine.CRC_REQUEST_TIMEOUT - 1));
+        assertArrayEquals(NAK, receiver.onTimeout(1000 + XModemEngine.CRC_REQUEST_TIMEOUT));
+        assertEquals(1000 + XModemEngine.CRC_REQUEST_TIMEOUT + XModemEngine.FRAME_TIMEOUT, receiver.getNextTimeoutMillis());
+        assertArrayEquals(ACK, receive(receiver, buildFrame(1, data, 0, XModemEngine.BLOCK_SIZE, false), 1400));
+        assertArrayEquals(ACK, receive(receiver, EOT, 1410));
+        assertArrayEquals(data, Arrays.copyOf(receiver.getDataBuffer(), receiver.getDataLength()));
+        assertEquals("XModem (checksum)", receiver.getModeDescription());
+        // the fallback is remembered for the next transfer with the device:
+        assertArrayEquals(NAK, XModemEngine.createReceiver(0).start(2000));
+        XModemEngine.resetNegotiatedModes();
+        assertArrayEquals(new byte[] { XModemEngine.BYTE_CRC_REQUEST }, XModemEngine.createReceiver(0).start(3000));
+    }
+
+    @Test
+    public void receiver_rejectsCorruptedFramesAndAcksRepeatedBlocks() {
+        byte[] data = testData(2 * XModemEngine.BLOCK_SIZE);
+        XModemEngine receiver = XModemEngine.createReceiver(0);
+        receiver.start(0);
+        byte[] corruptedFrame = buildFrame(1, data, 0, XModemEngine.BLOCK_SIZE, true);
+        corruptedFrame[10] ^= 0x01;
+        assertArrayEquals(NAK, receive(receiver, corruptedFrame, 10));
+        byte[] firstFrame = buildFrame(1, data, 0, XModemEngine.BLOCK_SIZE, true);
+        assertArrayEquals(ACK, receive(receiver, firstFrame, 20));
+        assertArrayEquals(ACK, receive(receiver, firstFrame, 30));
+        assertEquals(XModemEngine.BLOCK_SIZE, receiver.getDataLength());
+        assertArrayEquals(new byte[] { XModemEngine.BYTE_CAN, XModemEngine.BYTE_CAN },
+                          receive(receiver, buildFrame(3, data, 0, XModemEngine.BLOCK_SIZE, true), 40));
+        assertTrue(receiver.isFailed());
+    }
+
+    @Test
+    public void sender_sends1KBlocksOnlyInCRCMode() throws IOException {
+        byte[] data = testData(XModemEngine.BLOCK_SIZE_1K + 100);
+        XModemEngine sender = XModemEngine.createSender(new ByteArrayInputStream(data));
+        sender.start(0);
+        assertArrayEquals(buildFrame(1, data, 0, XModemEngine.BLOCK_SIZE_1K, true),
+                          receive(sender, new byte[] { XModemEngine.BYTE_CRC_REQUEST }, 10));
+        assertArrayEquals(buildFrame(2, data, XModemEngine.BLOCK_SIZE_1K, XModemEngine.BLOCK_SIZE, true),
+                          receive(sender, ACK, 20));
+        XModemEngine checksumSender = XModemEngine.createSender(new ByteArrayInputStream(data));
+        checksumSender.start(0);
+        assertArrayEquals(buildFrame(1, data, 0, XModemEngine.BLOCK_SIZE, false), receive(checksumSender, NAK, 10));
+    }
+
+    @Test
+    public void sender_dropsBackTo128ByteBlocksWhenTheFirst1KBlockIsRejected() throws IOException {
+        byte[] data = testData(2 * XModemEngine.BLOCK_SIZE_1K);
+        XModemEngine sender = XModemEngine.createSender(new ByteArrayInputStream(data));
+        sender.start(0);
+        receive(sender, new byte[] { XModemEngine.BYTE_CRC_REQUEST }, 10);
+        assertArrayEquals(buildFrame(1, data, 0, XModemEngine.BLOCK_SIZE, true), receive(sender, NAK, 20));
+        assertArrayEquals(buildFrame(2, data, XModemEngine.BLOCK_SIZE, XModemEngine.BLOCK_SIZE, true), receive(sender, ACK, 30));
+        assertEquals("XModem (CRC-16)", sender.getModeDescription());
+    }
+
+    @Test
+    public void sender_actsOnlyOnTheLastControlByteOfAChunk() throws IOException {
+        byte[] data = testData(3 * XModemEngine.BLOCK_SIZE);
+        XModemEngine sender = XModemEngine.createSender(new ByteArrayInputStream(data));
+        sender.start(0);
+        receive(sender, NAK, 10);
+        // a stale NAK for the block that was already resent, followed by its ACK:
+        assertArrayEquals(buildFrame(2, data, XModemEngine.BLOCK_SIZE, XModemEngine.BLOCK_SIZE, false),
+                          receive(sender, new byte[] { XModemEngine.BYTE_NAK, XModemEngine.BYTE_ACK }, 20));
+    }
+
+    @Test
+    public void transfer_loopbackInCRCModeWith1KBlocks() throws IOException {
+        byte[] data = testData(5000);
+        XModemEngine sender = XModemEngine.createSender(new ByteArrayInputStream(data));
+        XModemEngine receiver = XModemEngine.createReceiver(data.length);
+        runTransfer(sender, receiver);
+        assertEquals("XModem-1K (CRC-16)", receiver.getModeDescription());
+        // the last block is padded with BYTE_EOF:
+        assertEquals(4 * XModemEngine.BLOCK_SIZE_1K + 8 * XModemEngine.BLOCK_SIZE, receiver.getDataLength());
+        assertArrayEquals(data, Arrays.copyOf(receiver.getDataBuffer(), data.length));
+        assertEquals(XModemEngine.BYTE_EOF, receiver.getDataBuffer()[data.length]);
+    }
+
+    @Test
+    public void transfer_loopbackInChecksumMode() throws IOException {
+        XModemEngine.ENABLE_CRC_MODE = false;
+        byte[] data = testData(1000);
+        XModemEngine sender = XModemEngine.createSender(new ByteArrayInputStream(data));
+        XModemEngine receiver = XModemEngine.createReceiver(0);
+        runTransfer(sender, receiver);
+        assertEquals("XModem (checksum)", receiver.getModeDescription());
+        assertEquals(8 * XModemEngine.BLOCK_SIZE, receiver.getDataLength());
+        assertArrayEquals(data, Arrays.copyOf(receiver.getDataBuffer(), data.length));
+    }
+
+}